@@ -14,8 +14,7 @@ import android.widget.Toast;
 
 import com.google.android.gms.vision.barcode.Barcode;
 import com.grishko188.visionlibrary.BarcodeReaderView;
-
-import java.util.List;
+import com.grishko188.visionlibrary.MultiScanResult;
 
 public class MainActivity extends AppCompatActivity implements BarcodeReaderView.BarcodeReaderListener {
     private static final String TAG = MainActivity.class.getSimpleName();
@@ -103,11 +102,11 @@ public class MainActivity extends AppCompatActivity implements BarcodeReaderView
     }
 
     @Override
-    public void onScannedMultiple(List<Barcode> barcodes) {
-        Log.d(TAG, "onScannedMultiple: " + barcodes.size());
+    public void onScannedMultiple(MultiScanResult result) {
+        Log.d(TAG, "onScannedMultiple: " + result.getBarcodes().size() + " in frame " + result.getFrameId());
 
         StringBuilder codes = new StringBuilder();
-        for (Barcode barcode : barcodes) {
+        for (Barcode barcode : result.getBarcodes()) {
             codes.append(barcode.displayValue).append(", ");
         }
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * A barcode found by {@link LumaBarcodeDecoder}, with its bounding box in upright frame
+ * coordinates.
+ */
+public final class DecodedBarcode {
+    /**
+     * EAN-13.  Format constants have the same values as in the Play Services barcode API.
+     */
+    public static final int EAN_13 = 32;
+    /**
+     * EAN-8.
+     */
+    public static final int EAN_8 = 64;
+    /**
+     * UPC-A, an EAN-13 whose first digit is 0, reported with the remaining 12 digits.
+     */
+    public static final int UPC_A = 512;
+
+    private final int mFormat;
+    private final String mRawValue;
+    private final int mLeft;
+    private final int mTop;
+    private final int mRight;
+    private final int mBottom;
+
+    DecodedBarcode(int format, String rawValue, int left, int top, int right, int bottom) {
+        mFormat = format;
+        mRawValue = rawValue;
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    /**
+     * Returns the format, one of {@link #EAN_13}, {@link #EAN_8} or {@link #UPC_A}.
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Returns the digits encoded in the barcode, including the check digit.
+     */
+    public String getRawValue() {
+        return mRawValue;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getRight() {
+        return mRight;
+    }
+
+    public int getBottom() {
+        return mBottom;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodedBarcode{" + mFormat + ", " + mRawValue + ", [" + mLeft + ", " + mTop + ", "
+                + mRight + ", " + mBottom + "]}";
+    }
+}
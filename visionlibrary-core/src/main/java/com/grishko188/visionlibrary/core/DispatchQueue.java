@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of preallocated event slots between the detection threads and a single consumer
+ * delivering events to listeners, so that producers only pay for filling a slot.
+ * <p/>
+ * A producer {@linkplain #acquire() acquires} the slot at the tail, fills it in and
+ * {@linkplain #commit() commits} it.  The consumer takes the slot at the head by exchanging it for
+ * a spare slot of its own, which it gets back as the next spare once done.  Slots are thus never
+ * shared between the producers and the consumer, and nothing is allocated after construction.
+ * <p/>
+ * When the queue is full, a new event either displaces the oldest one, is dropped itself, or
+ * waits for the consumer, as chosen by the {@link DropPolicy}.
+ */
+public final class DispatchQueue<T> {
+
+    /**
+     * What to do with a new event when the queue is full.
+     */
+    public enum DropPolicy {
+        /**
+         * Discard the oldest queued event to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the new event.
+         */
+        DROP_NEWEST,
+        /**
+         * Wait until the consumer makes room.
+         */
+        BLOCK
+    }
+
+    /**
+     * Creates the preallocated slots.
+     */
+    public interface SlotFactory<T> {
+        T create();
+    }
+
+    private final Object[] mSlots;
+    private final DropPolicy mPolicy;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+    private int mHead;
+    private int mCount;
+    private boolean mClosed;
+    private boolean mWoken;
+
+    private final AtomicLong mEnqueuedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /**
+     * @param capacity the maximum number of queued events
+     * @param policy   what to do with a new event when the queue is full
+     * @param factory  creates the slots; the consumer needs one more slot of its own as its
+     *                 first spare
+     */
+    public DispatchQueue(int capacity, DropPolicy policy, SlotFactory<T> factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mSlots = new Object[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            mSlots[i] = factory.create();
+        }
+        mPolicy = policy;
+    }
+
+    /**
+     * Returns the slot at the tail of the queue to be filled in, with the queue locked.  Unless
+     * null is returned, the caller must call {@link #commit()}, also when filling in fails.
+     *
+     * @return the slot, or null if the event is dropped or the queue is closed
+     * @throws InterruptedException if interrupted while waiting with {@link DropPolicy#BLOCK}
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() throws InterruptedException {
+        mLock.lock();
+        if (mCount == mSlots.length && !mClosed) {
+            switch (mPolicy) {
+                case DROP_OLDEST:
+                    mHead = (mHead + 1) % mSlots.length;
+                    mCount--;
+                    mDroppedCount.incrementAndGet();
+                    break;
+                case DROP_NEWEST:
+                    mDroppedCount.incrementAndGet();
+                    mLock.unlock();
+                    return null;
+                case BLOCK:
+                    try {
+                        while (mCount == mSlots.length && !mClosed) {
+                            mNotFull.await();
+                        }
+                    } catch (InterruptedException e) {
+                        mLock.unlock();
+                        throw e;
+                    }
+                    break;
+            }
+        }
+        if (mClosed) {
+            mLock.unlock();
+            return null;
+        }
+        return (T) mSlots[(mHead + mCount) % mSlots.length];
+    }
+
+    /**
+     * Appends the slot returned by {@link #acquire()} to the queue, and unlocks it.
+     */
+    public void commit() {
+        mCount++;
+        mEnqueuedCount.incrementAndGet();
+        mNotEmpty.signal();
+        mLock.unlock();
+    }
+
+    /**
+     * Takes the event at the head of the queue, if any, without waiting.
+     *
+     * @param spare a slot owned by the consumer, which replaces the taken one in the queue
+     * @return the event, which the consumer now owns, or null if the queue is empty; the spare
+     * is still owned by the consumer then
+     */
+    public T poll(T spare) {
+        mLock.lock();
+        try {
+            return mCount > 0 ? exchangeHead(spare) : null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the event at the head of the queue, waiting until there is one, the queue is closed,
+     * the consumer is {@linkplain #wakeUp() woken up} or the timeout elapses.
+     *
+     * @param spare        see {@link #poll(Object)}
+     * @param timeoutNanos the maximum time to wait
+     * @return the event, or null if closed, woken up or timed out
+     */
+    public T take(T spare, long timeoutNanos) throws InterruptedException {
+        mLock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (mCount == 0) {
+                if (mWoken) {
+                    mWoken = false;
+                    return null;
+                }
+                if (mClosed || remaining <= 0) {
+                    return null;
+                }
+                remaining = mNotEmpty.awaitNanos(remaining);
+            }
+            return exchangeHead(spare);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the consumer return null from {@link #take(Object, long)} once the queue is empty,
+     * without waiting, e.g. so that it handles work passed to it outside of the queue.  Never
+     * blocks or drops anything.
+     */
+    public void wakeUp() {
+        mLock.lock();
+        try {
+            mWoken = true;
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Drops all queued events and wakes all waiting threads, which then return null.  Further
+     * events are dropped.
+     */
+    public void close() {
+        mLock.lock();
+        try {
+            mClosed = true;
+            mCount = 0;
+            mNotEmpty.signalAll();
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        mLock.lock();
+        try {
+            return mClosed;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of events queued so far, including those dropped later on.
+     */
+    public long getEnqueuedCount() {
+        return mEnqueuedCount.get();
+    }
+
+    /**
+     * Returns the number of events dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T exchangeHead(T spare) {
+        T event = (T) mSlots[mHead];
+        mSlots[mHead] = spare;
+        mHead = (mHead + 1) % mSlots.length;
+        mCount--;
+        mNotFull.signal();
+        return event;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * Suppresses repeated reports of the same barcode, identified by format and value, within a time
+ * window.  A value is accepted when it was not accepted during the last {@code ttlMillis}, so a
+ * label which stays in view is reported again once per window.  At most {@code capacity} values
+ * are remembered, evicting the least recently seen.
+ * <p/>
+ * Entries live in preallocated parallel arrays, chained into hash buckets and into a recency
+ * list by index, and values are matched by their cached {@link String#hashCode()}.  Looking up a
+ * repeated value therefore never allocates.  All methods are synchronized, so the filter can be
+ * used from the detection threads directly.
+ */
+public final class DuplicateFilter {
+    private static final int NONE = -1;
+
+    private final long mTtlMillis;
+    private final int mCapacity;
+
+    private final int[] mBuckets;
+    private final int mBucketMask;
+    private final int[] mChain;
+
+    private final int[] mHashes;
+    private final int[] mFormats;
+    private final String[] mValues;
+    private final long[] mAcceptedMillis;
+
+    /**
+     * Recency list, most recently seen first.
+     */
+    private final int[] mNewer;
+    private final int[] mOlder;
+    private int mNewest = NONE;
+    private int mOldest = NONE;
+    private int mSize;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param ttlMillis how long a value is suppressed after being accepted
+     * @param capacity  the maximum number of values remembered
+     */
+    public DuplicateFilter(long ttlMillis, int capacity) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Invalid TTL: " + ttlMillis);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mTtlMillis = ttlMillis;
+        mCapacity = capacity;
+
+        int bucketCount = Integer.highestOneBit(capacity) << 1;
+        mBuckets = new int[bucketCount];
+        mBucketMask = bucketCount - 1;
+        clearBuckets();
+        mChain = new int[capacity];
+        mHashes = new int[capacity];
+        mFormats = new int[capacity];
+        mValues = new String[capacity];
+        mAcceptedMillis = new long[capacity];
+        mNewer = new int[capacity];
+        mOlder = new int[capacity];
+    }
+
+    /**
+     * Checks a scanned barcode against the recently accepted ones.
+     *
+     * @param format     the barcode format
+     * @param value      the raw value of the barcode, may be null
+     * @param timeMillis the time of the scan, on a monotonic clock
+     * @return true if the barcode should be reported, false if it is a duplicate
+     */
+    public synchronized boolean accept(int format, String value, long timeMillis) {
+        int hash = 31 * format + (value != null ? value.hashCode() : 0);
+        int bucket = spread(hash) & mBucketMask;
+        for (int i = mBuckets[bucket]; i != NONE; i = mChain[i]) {
+            if (mHashes[i] == hash && mFormats[i] == format && equals(mValues[i], value)) {
+                moveToNewest(i);
+                if (timeMillis - mAcceptedMillis[i] < mTtlMillis) {
+                    mHitCount++;
+                    return false;
+                }
+                mAcceptedMillis[i] = timeMillis;
+                mMissCount++;
+                return true;
+            }
+        }
+
+        int entry;
+        if (mSize < mCapacity) {
+            entry = mSize++;
+        } else {
+            entry = mOldest;
+            unlinkBucket(entry);
+            unlinkRecency(entry);
+        }
+        mHashes[entry] = hash;
+        mFormats[entry] = format;
+        mValues[entry] = value;
+        mAcceptedMillis[entry] = timeMillis;
+        mChain[entry] = mBuckets[bucket];
+        mBuckets[bucket] = entry;
+        linkNewest(entry);
+        mMissCount++;
+        return true;
+    }
+
+    /**
+     * Forgets all values.  The counters are kept.
+     */
+    public synchronized void clear() {
+        clearBuckets();
+        for (int i = 0; i < mSize; ++i) {
+            mValues[i] = null;
+        }
+        mSize = 0;
+        mNewest = NONE;
+        mOldest = NONE;
+    }
+
+    /**
+     * Returns the number of barcodes suppressed as duplicates.
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of barcodes accepted.
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public long getTtlMillis() {
+        return mTtlMillis;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    private void clearBuckets() {
+        for (int i = 0; i < mBuckets.length; ++i) {
+            mBuckets[i] = NONE;
+        }
+    }
+
+    private void unlinkBucket(int entry) {
+        int bucket = spread(mHashes[entry]) & mBucketMask;
+        if (mBuckets[bucket] == entry) {
+            mBuckets[bucket] = mChain[entry];
+            return;
+        }
+        for (int i = mBuckets[bucket]; i != NONE; i = mChain[i]) {
+            if (mChain[i] == entry) {
+                mChain[i] = mChain[entry];
+                return;
+            }
+        }
+    }
+
+    private void moveToNewest(int entry) {
+        if (entry != mNewest) {
+            unlinkRecency(entry);
+            linkNewest(entry);
+        }
+    }
+
+    private void linkNewest(int entry) {
+        mNewer[entry] = NONE;
+        mOlder[entry] = mNewest;
+        if (mNewest != NONE) {
+            mNewer[mNewest] = entry;
+        }
+        mNewest = entry;
+        if (mOldest == NONE) {
+            mOldest = entry;
+        }
+    }
+
+    private void unlinkRecency(int entry) {
+        int newer = mNewer[entry];
+        int older = mOlder[entry];
+        if (newer != NONE) {
+            mOlder[newer] = older;
+        } else {
+            mNewest = older;
+        }
+        if (older != NONE) {
+            mNewer[older] = newer;
+        } else {
+            mOldest = newer;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
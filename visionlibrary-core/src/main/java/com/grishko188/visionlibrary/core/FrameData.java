@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An NV21 frame handed to a {@link FrameDetector}, along with its metadata.  Instances are reused
+ * from frame to frame, so a detector must not hold on to one after it returns.
+ */
+public final class FrameData {
+    private ByteBuffer mData;
+    private int mWidth;
+    private int mHeight;
+    private int mRotation;
+    private int mId;
+    private long mTimestampMillis;
+
+    void set(ByteBuffer data, int width, int height, int rotation, int id, long timestampMillis) {
+        mData = data;
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+        mId = id;
+        mTimestampMillis = timestampMillis;
+    }
+
+    /**
+     * Returns the image, an NV21 luma plane followed by the interleaved chroma plane.  The buffer
+     * may be larger than the image.
+     */
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the number of clockwise quarter turns which make the image upright.
+     */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * Returns the frame id, which increases by one for every frame received, including dropped
+     * ones.
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * Returns the time at which the frame was received, in milliseconds since the pipeline was
+     * created.
+     */
+    public long getTimestampMillis() {
+        return mTimestampMillis;
+    }
+}
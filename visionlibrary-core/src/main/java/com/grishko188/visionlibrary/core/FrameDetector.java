@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * Runs detection on the frames of a {@link FramePipeline}.
+ * <p/>
+ * {@link #detect(FrameData)} is called concurrently from all of the pipeline's workers, each with
+ * its own {@link FrameData}, so implementations must be thread safe.  The frame is only valid for
+ * the duration of the call.
+ *
+ * @param <R> the type of a detection result
+ */
+public interface FrameDetector<R> {
+    /**
+     * Detects items in the supplied frame.
+     *
+     * @return the detection result, or null if there is nothing to deliver for the frame
+     */
+    R detect(FrameData frame);
+
+    /**
+     * Returns the number of items in a detection result.
+     */
+    int getItemCount(R result);
+
+    /**
+     * Releases the resources of the detector.  Called once no worker is running any more.
+     */
+    void release();
+}
@@ -0,0 +1,663 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs detection on the frames of a {@link FrameSource} as fast as it is able to, while minimizing
+ * lag, on a pool of worker threads.
+ * <p/>
+ * While detection is running, new frames may be received.  Only the most recent one is held onto
+ * as pending, in a {@link LatestFrameExchanger}, so the thread delivering frames never waits on a
+ * monitor; an older pending frame is dropped and its buffer recycled.  As soon as a worker is done
+ * with a frame, it takes the pending one and detects it without pausing.  With a
+ * {@link ResultSink}, the results of all workers are put back in the order in which the frames were
+ * received before being delivered.
+ * <p/>
+ * Before detection, a frame may be cropped to a {@link ScanWindow}, skipped as blurry by a
+ * {@link SharpnessGate}, or skipped as unchanged by a {@link MotionGate}.  With pyramid detection,
+ * a downscaled copy of each frame is detected first.
+ * <p/>
+ * The pipeline has no dependency on Android, so it can be exercised and benchmarked with a
+ * synthetic frame source on a desktop JVM.
+ *
+ * @param <R> the type of a detection result
+ */
+public final class FramePipeline<R> {
+
+    /**
+     * Reports exceptions thrown from the detector or the result sink.  They are caught so that one
+     * bad frame does not stop the pipeline.
+     */
+    public interface ErrorListener {
+        void onError(String message, Throwable t);
+    }
+
+    /**
+     * Notified of the first frame received after the pipeline was started or reset, e.g. to
+     * measure how long the source took to start.
+     */
+    public interface FirstFrameListener {
+        /**
+         * Called on the thread delivering frames, which must not be blocked.
+         *
+         * @param receivedNanos the {@link System#nanoTime()} at which the frame was received
+         */
+        void onFirstFrame(long receivedNanos);
+    }
+
+    private final FrameDetector<R> mDetector;
+    private final ResultSink<R> mSink;
+    private final OrderedResultDispatcher<R> mDispatcher;
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    private final int mWorkerCount;
+    private volatile ErrorListener mErrorListener;
+    private volatile FirstFrameListener mFirstFrameListener;
+
+    private final LatestFrameExchanger<PendingFrame> mExchanger;
+    private Thread[] mThreads;
+    private final AtomicLongArray mProcessedFrames;
+
+    /**
+     * Buffers shared with the frame source, and the pending frame holder for each of them by pool
+     * index.  The buffers are kept across stop/start cycles while the frame size stays the same.
+     */
+    private final PreviewBufferPool mBufferPool = new PreviewBufferPool();
+    private PendingFrame[] mPendingFrames = new PendingFrame[0];
+
+    // Set up by prepare(), before any frame is delivered.
+    private volatile FrameSource mSource;
+    private volatile int mWidth;
+    private volatile int mHeight;
+    private volatile int mRotation;
+
+    private volatile ScanWindow mScanWindow;
+    private SharpnessGate mSharpnessGate;
+    private MotionGate mMotionGate;
+
+    private int mPyramidScale = 0;
+    private ResultScaler<R> mResultScaler;
+    private final AtomicLong mCoarseHits = new AtomicLong();
+    private final AtomicLong mFullHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    // Per worker state.  Each entry is only touched by its own worker.
+    private final FrameData[] mFrames;
+    private final FrameData[] mCoarseFrames;
+    private final ByteBuffer[] mCropBuffers;
+    private final ByteBuffer[] mCoarseBuffers;
+    private final int[] mCoarseWidths;
+    private final int[] mCoarseHeights;
+
+    // These variables are only touched from the thread delivering frames, or while no frame is
+    // being delivered.
+    private final long mStartNanos = System.nanoTime();
+    private int mPendingFrameId = 0;
+    private boolean mFirstFrameReceived = false;
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param detector    the detector, called concurrently from all workers
+     * @param sink        the sink receiving the ordered detection results, or null if the detector
+     *                    delivers its results itself; a detector which does so must return null
+     *                    results, and only one worker should then be used
+     * @param workerCount the number of detection workers, at least 1
+     */
+    public FramePipeline(FrameDetector<R> detector, ResultSink<R> sink, int workerCount) {
+        if (detector == null) {
+            throw new IllegalArgumentException("No detector supplied.");
+        }
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Invalid worker count: " + workerCount);
+        }
+        mDetector = detector;
+        mSink = sink;
+        mWorkerCount = workerCount;
+        // Every worker may hold a frame, with room for one more result held back by a slow worker.
+        // A worker further ahead waits for the slow one, see OrderedResultDispatcher#awaitWindow.
+        mDispatcher = sink != null ? new OrderedResultDispatcher<>(detector, sink,
+                workerCount + 1, mMetrics, new OrderedResultDispatcher.ErrorHandler() {
+            @Override
+            public void onSinkError(Throwable t) {
+                reportError("Exception thrown from result sink.", t);
+            }
+        }) : null;
+        // Sequence numbers are handed out as workers take frames, so a frame displaced before
+        // reaching a worker never holds a slot of the dispatcher.
+        mExchanger = new LatestFrameExchanger<>(workerCount,
+                new LatestFrameExchanger.Sequencer<PendingFrame>() {
+            @Override
+            public void onTaken(PendingFrame frame, long sequence) {
+                frame.mSequence = sequence;
+            }
+        });
+        mProcessedFrames = new AtomicLongArray(workerCount);
+        mFrames = new FrameData[workerCount];
+        mCoarseFrames = new FrameData[workerCount];
+        for (int i = 0; i < workerCount; ++i) {
+            mFrames[i] = new FrameData();
+            mCoarseFrames[i] = new FrameData();
+        }
+        mCropBuffers = new ByteBuffer[workerCount];
+        mCoarseBuffers = new ByteBuffer[workerCount];
+        mCoarseWidths = new int[workerCount];
+        mCoarseHeights = new int[workerCount];
+    }
+
+    //==============================================================================================
+    // Configuration
+    //==============================================================================================
+
+    public void setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+    }
+
+    public void setFirstFrameListener(FirstFrameListener listener) {
+        mFirstFrameListener = listener;
+    }
+
+    /**
+     * Restricts detection to a window of every frame, or scans the full frame if null.  Can be
+     * changed while the pipeline is running.
+     */
+    public void setScanWindow(ScanWindow window) {
+        mScanWindow = window;
+    }
+
+    public ScanWindow getScanWindow() {
+        return mScanWindow;
+    }
+
+    /**
+     * Skips frames rejected by the supplied gate, or detects every frame if null.  Must be set
+     * before the pipeline is started.
+     */
+    public void setSharpnessGate(SharpnessGate gate) {
+        mSharpnessGate = gate;
+    }
+
+    /**
+     * Skips detection of frames which the supplied gate considers unchanged, or detects every frame
+     * if null.  With a result sink, an unchanged frame is given the previous result.  Must be set
+     * before the pipeline is started.
+     */
+    public void setMotionGate(MotionGate gate) {
+        mMotionGate = gate;
+    }
+
+    /**
+     * Enables pyramid detection: every frame is first detected at a reduced resolution, and only
+     * when the scaler finds that result inconclusive is the full resolution frame detected as
+     * well.  Requires a result sink.  Must be set before the pipeline is started.
+     *
+     * @param scale  the downscale factor of the coarse pass, at least 2
+     * @param scaler judges coarse results and maps them back to full resolution
+     */
+    public void setPyramidDetection(int scale, ResultScaler<R> scaler) {
+        if (scale < 2) {
+            throw new IllegalArgumentException("Invalid pyramid scale: " + scale);
+        }
+        if (scaler == null) {
+            throw new IllegalArgumentException("No result scaler supplied.");
+        }
+        if (mSink == null) {
+            throw new IllegalStateException("Pyramid detection requires a result sink.");
+        }
+        mPyramidScale = scale;
+        mResultScaler = scaler;
+    }
+
+    //==============================================================================================
+    // Lifecycle
+    //==============================================================================================
+
+    /**
+     * Lays out the frame buffers for the given frame format, reusing the current ones when they
+     * already match, and hands all of them to the source.  Must not be called while the pipeline is
+     * running.
+     *
+     * @param source      the source which fills the buffers
+     * @param width       the width of the frames
+     * @param height      the height of the frames
+     * @param rotation    the number of clockwise quarter turns which make a frame upright
+     * @param frameSize   the number of bytes the source fills per frame, at least
+     *                    {@link Nv21Image#frameSize(int, int)}
+     * @param bufferCount the number of buffers shared with the source
+     */
+    public void prepare(FrameSource source, int width, int height, int rotation, int frameSize,
+                        int bufferCount) {
+        if (mBufferPool.prepare(frameSize, bufferCount)) {
+            mPendingFrames = new PendingFrame[mBufferPool.size()];
+            for (int i = 0; i < mPendingFrames.length; ++i) {
+                mPendingFrames[i] = new PendingFrame(mBufferPool.getByteBuffer(i));
+            }
+        }
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+        mSource = source;
+        for (int i = 0; i < mBufferPool.size(); ++i) {
+            recycle(mBufferPool.getBuffer(i));
+        }
+    }
+
+    /**
+     * Starts one thread per detection worker, named after the supplied prefix.
+     */
+    public void start(String threadNamePrefix) {
+        mExchanger.open();
+        mThreads = new Thread[mWorkerCount];
+        for (int i = 0; i < mWorkerCount; ++i) {
+            mThreads[i] = new Thread(new Worker(i), threadNamePrefix + i);
+            mThreads[i].start();
+        }
+    }
+
+    /**
+     * Stops the workers and waits for them to complete, to ensure that there can't be multiple
+     * generations of workers running at the same time.  The source may keep delivering frames
+     * until {@link #reset()} is called.
+     */
+    public void stop() {
+        mExchanger.close();
+        if (mThreads != null) {
+            boolean interrupted = false;
+            for (Thread thread : mThreads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            mThreads = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Discards the frame left pending by the previous source and restarts frame numbering.  Only
+     * safe to call once the pipeline is stopped and the source no longer delivers frames.
+     */
+    public void reset() {
+        mExchanger.poll();
+        mExchanger.resetSequence();
+        mFirstFrameReceived = false;
+        if (mMotionGate != null) {
+            mMotionGate.reset();
+        }
+        if (mDispatcher != null) {
+            mDispatcher.reset();
+        }
+    }
+
+    /**
+     * Releases the detector, the sink and the frame buffers.  Only safe to call once the pipeline
+     * is stopped.
+     */
+    public void release() {
+        if (mSink != null) {
+            mSink.release();
+        }
+        mDetector.release();
+        mBufferPool.clear();
+        mPendingFrames = new PendingFrame[0];
+        mSource = null;
+    }
+
+    //==============================================================================================
+    // Statistics
+    //==============================================================================================
+
+    /**
+     * Returns the pipeline metrics: frame counters and per-stage latency histograms.
+     */
+    public PipelineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public int getWorkerCount() {
+        return mWorkerCount;
+    }
+
+    /**
+     * Returns a copy of the number of frames processed by each worker.
+     */
+    public long[] getProcessedFrameCounts() {
+        long[] counts = new long[mProcessedFrames.length()];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = mProcessedFrames.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns how many times the source was left without a free buffer.
+     */
+    public long getBufferStarvationCount() {
+        return mBufferPool.getStarvationCount();
+    }
+
+    /**
+     * Returns how many frames were decoded by the coarse pass of pyramid detection alone.
+     */
+    public long getCoarseHitCount() {
+        return mCoarseHits.get();
+    }
+
+    /**
+     * Returns how many frames needed, and found items in, a full resolution detection pass.
+     */
+    public long getFullHitCount() {
+        return mFullHits.get();
+    }
+
+    /**
+     * Returns how many frames were detected without finding any item.
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    //==============================================================================================
+    // Frame processing
+    //==============================================================================================
+
+    /**
+     * Receives a frame filled by the source.  The previous pending frame, if it was not taken by a
+     * worker yet, is dropped and its buffer recycled.  Must be called from a single thread.
+     *
+     * @param data          a buffer handed to the source through {@link FrameSource#recycle}
+     * @param receivedNanos the {@link System#nanoTime()} at which the frame was received
+     */
+    public void onFrame(byte[] data, long receivedNanos) {
+        int index = mBufferPool.indexOf(data);
+        if (index < 0) {
+            reportError("Skipping frame.  Could not find the buffer associated with the image "
+                    + "data.", null);
+            return;
+        }
+        mBufferPool.onReceived();
+        mMetrics.onFrameReceived();
+        PendingFrame frame = mPendingFrames[index];
+
+        // Timestamp and frame ID are maintained here, which will give downstream code some idea of
+        // the timing of frames received and when frames were dropped along the way.
+        frame.mTimeMillis = TimeUnit.NANOSECONDS.toMillis(receivedNanos - mStartNanos);
+        frame.mId = ++mPendingFrameId;
+        frame.mReceivedNanos = receivedNanos;
+        frame.mOfferedNanos = System.nanoTime();
+
+        // Publishing the frame wakes a waiting worker, if any.
+        PendingFrame dropped = mExchanger.offer(frame);
+        if (dropped != null) {
+            mMetrics.onFrameDropped();
+            recycle(dropped.mData.array());
+        }
+        mMetrics.record(PipelineMetrics.Stage.CALLBACK, System.nanoTime() - receivedNanos);
+
+        if (!mFirstFrameReceived) {
+            mFirstFrameReceived = true;
+            FirstFrameListener listener = mFirstFrameListener;
+            if (listener != null) {
+                listener.onFirstFrame(receivedNanos);
+            }
+        }
+    }
+
+    /**
+     * As long as the pipeline is running, this executes detection on frames continuously.  The
+     * next pending frame is either immediately available or hasn't been received yet.  Once it is
+     * available, we take ownership of it and run detection on that frame.  It immediately loops
+     * back for the next frame without pausing.
+     * <p/>
+     * If detection takes longer than the time in between new frames, this will mean that this loop
+     * will run without ever waiting on a frame, avoiding any context switching or frame acquisition
+     * time latency.
+     *
+     * @param workerIndex the index of the worker running this loop
+     */
+    private void process(int workerIndex) {
+        while (true) {
+            // Taking the frame out of the exchanger ensures that its buffer isn't recycled before
+            // we are done using that data.  A null frame means the pipeline is stopped.
+            PendingFrame pending = mExchanger.take(workerIndex);
+            if (pending == null) {
+                return;
+            }
+            // Every sequence must be settled and every buffer handed back whatever happens to the
+            // frame, or the other workers wait on it forever.
+            boolean settled = false;
+            try {
+                processFrame(workerIndex, pending);
+                settled = true;
+            } catch (RuntimeException e) {
+                reportError("Exception thrown while processing a frame.", e);
+            } finally {
+                if (!settled && mDispatcher != null) {
+                    mDispatcher.skip(pending.mSequence);
+                }
+                recycle(pending.mData.array());
+            }
+        }
+    }
+
+    /**
+     * Gates, crops and detects a frame taken by a worker, and settles its sequence with the
+     * dispatcher.  Settling is the last thing done on every path, so a frame that throws has not
+     * been settled yet.  The caller recycles the buffer.
+     */
+    private void processFrame(int workerIndex, PendingFrame pending) {
+        mMetrics.record(PipelineMetrics.Stage.QUEUE_WAIT,
+                System.nanoTime() - pending.mOfferedNanos);
+        if (mDispatcher != null) {
+            // Stay within the results the dispatcher can hold while a slow worker holds back
+            // delivery.
+            mDispatcher.awaitWindow(pending.mSequence);
+        }
+
+        final int frameWidth = mWidth;
+        final int frameHeight = mHeight;
+        ScanWindow window = mScanWindow;
+        if (mSharpnessGate != null && !isSharp(pending, window, frameWidth, frameHeight)) {
+            if (mDispatcher != null) {
+                mDispatcher.skip(pending.mSequence);
+            }
+            return;
+        }
+
+        ByteBuffer imageData;
+        int width;
+        int height;
+        if (window == null) {
+            imageData = pending.mData;
+            width = frameWidth;
+            height = frameHeight;
+        } else {
+            imageData = getCropBuffer(workerIndex,
+                    Nv21Image.frameSize(window.getWidth(), window.getHeight()));
+            Nv21Image.crop(pending.mData.array(), frameWidth, frameHeight, window.getX(),
+                    window.getY(), window.getWidth(), window.getHeight(), imageData.array());
+            width = window.getWidth();
+            height = window.getHeight();
+        }
+        FrameData frame = mFrames[workerIndex];
+        frame.set(imageData, width, height, mRotation, pending.mId, pending.mTimeMillis);
+
+        if (mMotionGate != null && mMotionGate.isUnchanged(imageData.array(), width, 0, 0,
+                width, height, pending.mTimeMillis)) {
+            if (mDispatcher != null) {
+                mDispatcher.reuse(pending.mSequence, pending.mReceivedNanos);
+            }
+            return;
+        }
+
+        FrameData coarseFrame = null;
+        if (mPyramidScale > 1) {
+            int coarseWidth = Nv21Image.downscaledSize(width, mPyramidScale);
+            int coarseHeight = Nv21Image.downscaledSize(height, mPyramidScale);
+            ByteBuffer coarse = getCoarseBuffer(workerIndex, coarseWidth, coarseHeight);
+            Nv21Image.downscaleLuma(imageData.array(), width, height, mPyramidScale,
+                    coarse.array());
+            coarseFrame = mCoarseFrames[workerIndex];
+            coarseFrame.set(coarse, coarseWidth, coarseHeight, mRotation, pending.mId,
+                    pending.mTimeMillis);
+        }
+
+        long startNanos = System.nanoTime();
+        R result = detect(frame, coarseFrame);
+        long detectedNanos = System.nanoTime();
+        mMetrics.record(PipelineMetrics.Stage.DETECTION, detectedNanos - startNanos);
+        mProcessedFrames.incrementAndGet(workerIndex);
+        mMetrics.onFrameProcessed();
+        if (mDispatcher != null) {
+            mDispatcher.complete(pending.mSequence, result, pending.mReceivedNanos, detectedNanos);
+        } else {
+            // Detection and delivery can't be told apart here.
+            mMetrics.record(PipelineMetrics.Stage.END_TO_END,
+                    detectedNanos - pending.mReceivedNanos);
+        }
+    }
+
+    /**
+     * Runs detection on the calling worker, first on the coarse frame if there is one.  A frame
+     * whose detection fails gets a null result, so that it does not hold back the frames behind it.
+     */
+    private R detect(FrameData frame, FrameData coarseFrame) {
+        try {
+            R result = null;
+            if (coarseFrame != null) {
+                result = mDetector.detect(coarseFrame);
+                if (result != null && mResultScaler.isConclusive(result)) {
+                    mResultScaler.scale(result, mPyramidScale);
+                    mCoarseHits.incrementAndGet();
+                } else {
+                    result = null;
+                }
+            }
+            if (result == null) {
+                result = mDetector.detect(frame);
+                if (result != null) {
+                    if (mDetector.getItemCount(result) > 0) {
+                        mFullHits.incrementAndGet();
+                    } else {
+                        mMisses.incrementAndGet();
+                    }
+                }
+            }
+            return result;
+        } catch (Throwable t) {
+            reportError("Exception thrown from detector.", t);
+            return null;
+        }
+    }
+
+    /**
+     * Runs the sharpness gate on the part of the frame which is going to be detected.
+     */
+    private boolean isSharp(PendingFrame pending, ScanWindow window, int width, int height) {
+        if (window == null) {
+            return mSharpnessGate.accept(pending.mData.array(), width, 0, 0, width, height);
+        }
+        return mSharpnessGate.accept(pending.mData.array(), width, window.getX(), window.getY(),
+                window.getX() + window.getWidth(), window.getY() + window.getHeight());
+    }
+
+    /**
+     * Returns the crop buffer of a worker, growing it if it is too small for the given size.
+     */
+    private ByteBuffer getCropBuffer(int workerIndex, int size) {
+        ByteBuffer buffer = mCropBuffers[workerIndex];
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.wrap(new byte[size]);
+            mCropBuffers[workerIndex] = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the coarse frame buffer of a worker, laid out for the given size.  The chroma plane
+     * is filled once, when the buffer is laid out, since only luma is downscaled.
+     */
+    private ByteBuffer getCoarseBuffer(int workerIndex, int width, int height) {
+        ByteBuffer buffer = mCoarseBuffers[workerIndex];
+        if (buffer == null || mCoarseWidths[workerIndex] != width
+                || mCoarseHeights[workerIndex] != height) {
+            byte[] data = new byte[Nv21Image.frameSize(width, height)];
+            Nv21Image.fillNeutralChroma(data, width, height);
+            buffer = ByteBuffer.wrap(data);
+            mCoarseBuffers[workerIndex] = buffer;
+            mCoarseWidths[workerIndex] = width;
+            mCoarseHeights[workerIndex] = height;
+        }
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer back to the source, to be filled with a future frame.
+     */
+    private void recycle(byte[] buffer) {
+        // Counted first, as the source may fill the buffer and hand it back right away.
+        mBufferPool.onQueued();
+        mSource.recycle(buffer);
+    }
+
+    private void reportError(String message, Throwable t) {
+        ErrorListener listener = mErrorListener;
+        if (listener != null) {
+            listener.onError(message, t);
+        }
+    }
+
+    /**
+     * Holds a buffer together with the bookkeeping for the frame it currently contains.  One
+     * instance is created per buffer, so handing frames between threads does not allocate.
+     */
+    private static class PendingFrame {
+        private final ByteBuffer mData;
+        private int mId;
+        private long mTimeMillis;
+        private long mSequence;
+        private long mReceivedNanos;
+        private long mOfferedNanos;
+
+        PendingFrame(ByteBuffer data) {
+            mData = data;
+        }
+    }
+
+    /**
+     * Runs the processing loop for one of the detection workers.
+     */
+    private class Worker implements Runnable {
+        private final int mIndex;
+
+        Worker(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public void run() {
+            process(mIndex);
+        }
+    }
+}
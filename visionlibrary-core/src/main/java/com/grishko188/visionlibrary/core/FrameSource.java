@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * Producer of NV21 frames for a {@link FramePipeline}, e.g. a camera preview.
+ * <p/>
+ * The source fills the buffers handed to it through {@link #recycle(byte[])} and passes every
+ * filled buffer to {@link FramePipeline#onFrame(byte[], long)}.  The pipeline hands each buffer
+ * back once it is done with it, so the source never allocates per frame.
+ */
+public interface FrameSource {
+    /**
+     * Hands a buffer back to the source, to be filled with a future frame.  Called from the
+     * pipeline's worker threads as well as from the thread delivering frames.
+     */
+    void recycle(byte[] buffer);
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-slot handoff of the most recent camera frame from the camera callback thread to
+ * the detection workers.
+ * <p/>
+ * The producer never blocks: {@link #offer(Object)} swaps the new frame into the slot and returns
+ * the frame it displaced (if any), so that the caller can recycle its buffer.  Consumers take the
+ * frame out of the slot, parking only when the slot is empty.  Each frame is therefore owned by
+ * exactly one party -- the consumer that took it, or the producer that displaced it.
+ * <p/>
+ * Every consumer is identified by a fixed index, which lets the producer find a parked consumer
+ * to wake without allocating wait nodes.
+ * <p/>
+ * An optional {@link Sequencer} numbers the frames in the order in which they are taken, so that a
+ * displaced frame never uses up a sequence number.  Consumers then take frames under a short lock,
+ * which the producer never contends for.
+ */
+final class LatestFrameExchanger<T> {
+
+    /**
+     * Receives the sequence number of every frame taken, while no other consumer can take a frame.
+     */
+    interface Sequencer<T> {
+        void onTaken(T frame, long sequence);
+    }
+
+    private final AtomicReference<T> mSlot = new AtomicReference<>();
+    private final AtomicReferenceArray<Thread> mWaiters;
+    private final Sequencer<T> mSequencer;
+    private volatile boolean mOpen = true;
+
+    // Guarded by mTakeLock, only used with a sequencer.
+    private final Object mTakeLock = new Object();
+    private long mNextSequence = 0;
+
+    LatestFrameExchanger(int consumers) {
+        this(consumers, null);
+    }
+
+    /**
+     * @param consumers the number of consumers
+     * @param sequencer numbers the frames taken, or null
+     */
+    LatestFrameExchanger(int consumers, Sequencer<T> sequencer) {
+        mWaiters = new AtomicReferenceArray<>(consumers);
+        mSequencer = sequencer;
+    }
+
+    /**
+     * Publishes a new frame, replacing the pending one, and wakes a parked consumer.
+     *
+     * @return the pending frame which was displaced without being processed, or null
+     */
+    T offer(T frame) {
+        T displaced = mSlot.getAndSet(frame);
+        for (int i = 0; i < mWaiters.length(); ++i) {
+            Thread waiter = mWaiters.getAndSet(i, null);
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+                break;
+            }
+        }
+        return displaced;
+    }
+
+    /**
+     * Takes the pending frame, if any, without waiting.  The frame is not given a sequence number,
+     * this is meant for draining the exchanger.
+     */
+    T poll() {
+        return mSlot.getAndSet(null);
+    }
+
+    /**
+     * Restarts the sequence numbering at 0.  Only safe to call when no consumer is taking frames.
+     */
+    void resetSequence() {
+        synchronized (mTakeLock) {
+            mNextSequence = 0;
+        }
+    }
+
+    /**
+     * Takes the pending frame, waiting until one is offered or the exchanger is closed.
+     *
+     * @param consumer the index of the calling consumer
+     * @return the frame, or null once the exchanger has been closed
+     */
+    T take(int consumer) {
+        return take(consumer, 0);
+    }
+
+    /**
+     * Takes the pending frame, waiting until one is offered, the exchanger is closed or the
+     * timeout elapses.
+     *
+     * @param consumer     the index of the calling consumer
+     * @param timeoutNanos the maximum time to wait, or 0 to wait indefinitely
+     * @return the frame, or null if closed or timed out
+     */
+    T take(int consumer, long timeoutNanos) {
+        final long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        final Thread current = Thread.currentThread();
+        while (mOpen) {
+            T frame = takeSlot();
+            if (frame != null) {
+                return frame;
+            }
+
+            // Register before re-checking the slot, so that a frame offered in between is either
+            // seen below or followed by an unpark of this thread.
+            mWaiters.set(consumer, current);
+            frame = takeSlot();
+            if (frame != null || !mOpen) {
+                mWaiters.compareAndSet(consumer, current, null);
+                return frame;
+            }
+
+            if (deadline == 0) {
+                LockSupport.park(this);
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    mWaiters.compareAndSet(consumer, current, null);
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            mWaiters.compareAndSet(consumer, current, null);
+            if (current.isInterrupted()) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private T takeSlot() {
+        if (mSequencer == null) {
+            return mSlot.getAndSet(null);
+        }
+        // Numbering the frame together with taking it keeps the sequence in the order in which the
+        // frames were offered.
+        synchronized (mTakeLock) {
+            T frame = mSlot.getAndSet(null);
+            if (frame != null) {
+                mSequencer.onTaken(frame, mNextSequence++);
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Re-opens the exchanger after {@link #close()}.
+     */
+    void open() {
+        mOpen = true;
+    }
+
+    /**
+     * Closes the exchanger and wakes every parked consumer.  Consumers return null from
+     * {@link #take(int)} until the exchanger is opened again.  A frame still pending is left in the
+     * slot, to be drained with {@link #poll()}.
+     */
+    void close() {
+        mOpen = false;
+        for (int i = 0; i < mWaiters.length(); ++i) {
+            Thread waiter = mWaiters.getAndSet(i, null);
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+}
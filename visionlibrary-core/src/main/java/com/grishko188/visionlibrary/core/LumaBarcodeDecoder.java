@@ -0,0 +1,563 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pure Java barcode decoder working directly on the luma plane of NV21 frames, for EAN-13, UPC-A
+ * and EAN-8, the formats found on retail products.  It needs no native code or download, so it is
+ * available immediately wherever the pipeline runs.
+ * <p/>
+ * A fixed number of evenly spaced rows and columns of the frame are scanned.  Every line is
+ * binarized against the midpoint of its darkest and lightest sample and run-length encoded, and
+ * the runs are matched against the EAN guard and digit patterns in both directions.  A candidate
+ * is only reported when its check digit is valid and it was read on at least
+ * {@code minConfirmations} lines, which keeps misreads out.
+ * <p/>
+ * Instances are thread safe; every thread decodes with its own scratch buffers.
+ */
+public final class LumaBarcodeDecoder implements FrameDetector<List<DecodedBarcode>> {
+    private static final int DEFAULT_SCAN_LINES = 24;
+    private static final int DEFAULT_MIN_CONFIRMATIONS = 2;
+
+    /**
+     * Lines whose darkest and lightest samples differ by less than this are not decoded.
+     */
+    private static final int MIN_CONTRAST = 32;
+
+    /**
+     * Digit pattern matching tolerances, as the mean and the largest deviation of a run from its
+     * expected width, in modules.
+     */
+    private static final float MAX_AVG_VARIANCE = 0.48f;
+    private static final float MAX_INDIVIDUAL_VARIANCE = 0.7f;
+
+    /**
+     * Minimum light space around a barcode, in modules.  The specification asks for 7 or more,
+     * but tight framing often leaves less.
+     */
+    private static final float MIN_QUIET_ZONE = 3f;
+
+    /**
+     * Widths of the L code of every digit, as space, bar, space, bar.  R codes have the same
+     * widths starting with a bar, and G codes the same widths reversed.
+     */
+    private static final int[][] DIGIT_PATTERNS = {
+            {3, 2, 1, 1}, {2, 2, 2, 1}, {2, 1, 2, 2}, {1, 4, 1, 1}, {1, 1, 3, 2},
+            {1, 2, 3, 1}, {1, 1, 1, 4}, {1, 3, 1, 2}, {1, 2, 1, 3}, {3, 1, 1, 2}
+    };
+
+    /**
+     * Parity of the six left digits of an EAN-13, by the implied first digit.  Bit 5 stands for the
+     * first left digit, and a set bit for a G code.
+     */
+    private static final int[] FIRST_DIGIT_PARITIES = {
+            0x00, 0x0B, 0x0D, 0x0E, 0x13, 0x19, 0x1C, 0x15, 0x16, 0x1A
+    };
+
+    private final int mFormats;
+    private final int mScanLines;
+    private final int mMinConfirmations;
+
+    private final ThreadLocal<Scratch> mScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Creates a decoder for all supported formats with the default scan density.
+     */
+    public LumaBarcodeDecoder() {
+        this(0, DEFAULT_SCAN_LINES, DEFAULT_MIN_CONFIRMATIONS);
+    }
+
+    /**
+     * @param formats          a combination of the {@link DecodedBarcode} format constants, or 0
+     *                         for all supported formats
+     * @param scanLines        the number of rows, and of columns, scanned per frame
+     * @param minConfirmations the number of lines a barcode must be read on to be reported
+     */
+    public LumaBarcodeDecoder(int formats, int scanLines, int minConfirmations) {
+        if (scanLines < 1) {
+            throw new IllegalArgumentException("Invalid scan line count: " + scanLines);
+        }
+        if (minConfirmations < 1 || minConfirmations > scanLines) {
+            throw new IllegalArgumentException("Invalid confirmation count: " + minConfirmations);
+        }
+        mFormats = formats != 0 ? formats
+                : DecodedBarcode.EAN_13 | DecodedBarcode.EAN_8 | DecodedBarcode.UPC_A;
+        mScanLines = scanLines;
+        mMinConfirmations = minConfirmations;
+    }
+
+    @Override
+    public List<DecodedBarcode> detect(FrameData frame) {
+        ByteBuffer data = frame.getData();
+        byte[] luma;
+        if (data.hasArray() && data.arrayOffset() == 0) {
+            luma = data.array();
+        } else {
+            luma = mScratch.get().luma(frame.getWidth() * frame.getHeight());
+            ByteBuffer source = data.duplicate();
+            source.rewind();
+            source.get(luma, 0, frame.getWidth() * frame.getHeight());
+        }
+        return decode(luma, frame.getWidth(), frame.getHeight(), frame.getRotation());
+    }
+
+    @Override
+    public int getItemCount(List<DecodedBarcode> result) {
+        return result.size();
+    }
+
+    @Override
+    public void release() {
+    }
+
+    /**
+     * Decodes the barcodes in a luma plane.
+     *
+     * @param luma     the image, starting with its luma plane
+     * @param width    the width of the image
+     * @param height   the height of the image
+     * @param rotation the number of clockwise quarter turns which make the image upright; the
+     *                 reported bounding boxes are upright
+     * @return the barcodes found, possibly empty
+     */
+    public List<DecodedBarcode> decode(byte[] luma, int width, int height, int rotation) {
+        Scratch scratch = mScratch.get();
+        scratch.ensure(Math.max(width, height));
+        List<Candidate> candidates = new ArrayList<>();
+
+        for (int i = 1; i <= mScanLines; ++i) {
+            int y = (int) ((long) height * i / (mScanLines + 1));
+            int[] samples = scratch.mSamples;
+            int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+                samples[x] = luma[offset + x] & 0xff;
+            }
+            decodeLine(scratch, width, true, y, candidates);
+        }
+        for (int i = 1; i <= mScanLines; ++i) {
+            int x = (int) ((long) width * i / (mScanLines + 1));
+            int[] samples = scratch.mSamples;
+            for (int y = 0, offset = x; y < height; ++y, offset += width) {
+                samples[y] = luma[offset] & 0xff;
+            }
+            decodeLine(scratch, height, false, x, candidates);
+        }
+
+        List<DecodedBarcode> barcodes = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (candidate.mCount < mMinConfirmations || isShadowed(candidate, candidates)) {
+                continue;
+            }
+            barcodes.add(toBarcode(candidate, width, height, rotation));
+        }
+        return barcodes;
+    }
+
+    /**
+     * Decodes every barcode crossed by the line held in the scratch samples.
+     *
+     * @param length     the number of samples
+     * @param horizontal whether the line is a row, as opposed to a column
+     * @param position   the y coordinate of a row, or the x coordinate of a column
+     */
+    private void decodeLine(Scratch scratch, int length, boolean horizontal, int position,
+                            List<Candidate> candidates) {
+        int[] samples = scratch.mSamples;
+        int min = 255;
+        int max = 0;
+        for (int i = 0; i < length; ++i) {
+            min = Math.min(min, samples[i]);
+            max = Math.max(max, samples[i]);
+        }
+        if (max - min < MIN_CONTRAST) {
+            return;
+        }
+
+        // Run-length encode the binarized line.
+        int threshold = (min + max) / 2;
+        int[] runs = scratch.mRuns;
+        int[] starts = scratch.mStarts;
+        boolean firstDark = samples[0] < threshold;
+        boolean dark = firstDark;
+        int count = 0;
+        starts[0] = 0;
+        for (int i = 1; i < length; ++i) {
+            boolean sampleDark = samples[i] < threshold;
+            if (sampleDark != dark) {
+                runs[count] = i - starts[count];
+                starts[++count] = i;
+                dark = sampleDark;
+            }
+        }
+        runs[count] = length - starts[count];
+        count++;
+
+        // Forwards, then backwards for barcodes upside down along the line.
+        int[] reversed = scratch.mReversed;
+        for (int i = 0; i < count; ++i) {
+            reversed[i] = runs[count - 1 - i];
+        }
+        boolean lastDark = ((count - 1) % 2 == 0) == firstDark;
+        for (int direction = 0; direction < 2; ++direction) {
+            boolean forward = direction == 0;
+            int[] r = forward ? runs : reversed;
+            boolean dark0 = forward ? firstDark : lastDark;
+            // A barcode starts with a bar, which must follow a space.
+            for (int i = dark0 ? 2 : 1; i < count; i += 2) {
+                int end = decodeAt(scratch, r, count, i);
+                if (end < 0) {
+                    continue;
+                }
+                int from = forward ? starts[i] : starts[count - 1 - end];
+                int to = forward ? starts[end] + runs[end]
+                        : starts[count - 1 - i] + runs[count - 1 - i];
+                addCandidate(candidates, scratch.mFormat, scratch.value(), horizontal, from, to,
+                        position);
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * Tries to decode an EAN-13, then an EAN-8, starting with the bar at run {@code start}.
+     *
+     * @return the index of the last run of the barcode, or -1 if none was found; the format and
+     * digits are left in the scratch
+     */
+    private int decodeAt(Scratch scratch, int[] runs, int count, int start) {
+        boolean wantThirteen =
+                (mFormats & (DecodedBarcode.EAN_13 | DecodedBarcode.UPC_A)) != 0;
+        if (wantThirteen) {
+            int end = decodeEan(scratch, runs, count, start, 6);
+            if (end >= 0) {
+                if (scratch.mDigits[0] == 0 && (mFormats & DecodedBarcode.UPC_A) != 0) {
+                    scratch.mFormat = DecodedBarcode.UPC_A;
+                    return end;
+                }
+                if ((mFormats & DecodedBarcode.EAN_13) != 0) {
+                    scratch.mFormat = DecodedBarcode.EAN_13;
+                    return end;
+                }
+            }
+        }
+        if ((mFormats & DecodedBarcode.EAN_8) != 0) {
+            int end = decodeEan(scratch, runs, count, start, 4);
+            if (end >= 0) {
+                scratch.mFormat = DecodedBarcode.EAN_8;
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matches start guard, left digits, middle guard, right digits and end guard.
+     *
+     * @param half the number of digits per half, 6 for an EAN-13 and 4 for an EAN-8
+     * @return the index of the last run of the end guard, or -1
+     */
+    private static int decodeEan(Scratch scratch, int[] runs, int count, int start, int half) {
+        if (start + 3 + 8 * half + 5 + 3 > count) {
+            return -1;
+        }
+        float module = (runs[start] + runs[start + 1] + runs[start + 2]) / 3f;
+        if (!isGuard(runs, start, 3, module) || runs[start - 1] < MIN_QUIET_ZONE * module) {
+            return -1;
+        }
+
+        int[] digits = scratch.mDigits;
+        int first = half == 6 ? 1 : 0;
+        int pos = start + 3;
+        int parity = 0;
+        for (int k = 0; k < half; ++k) {
+            int digit = matchDigit(runs, pos, module, half == 6);
+            if (digit < 0) {
+                return -1;
+            }
+            if (digit >= 10) {
+                parity |= 1 << (half - 1 - k);
+                digit -= 10;
+            }
+            digits[first + k] = digit;
+            pos += 4;
+        }
+        if (!isGuard(runs, pos, 5, module)) {
+            return -1;
+        }
+        pos += 5;
+        for (int k = 0; k < half; ++k) {
+            int digit = matchDigit(runs, pos, module, false);
+            if (digit < 0) {
+                return -1;
+            }
+            digits[first + half + k] = digit;
+            pos += 4;
+        }
+        if (!isGuard(runs, pos, 3, module)
+                || (pos + 3 < count && runs[pos + 3] < MIN_QUIET_ZONE * module)) {
+            return -1;
+        }
+
+        int length = first + 2 * half;
+        if (half == 6) {
+            digits[0] = -1;
+            for (int d = 0; d < FIRST_DIGIT_PARITIES.length; ++d) {
+                if (FIRST_DIGIT_PARITIES[d] == parity) {
+                    digits[0] = d;
+                    break;
+                }
+            }
+            if (digits[0] < 0) {
+                return -1;
+            }
+        } else if (parity != 0) {
+            return -1;
+        }
+        if (!isChecksumValid(digits, length)) {
+            return -1;
+        }
+        scratch.mLength = length;
+        return pos + 2;
+    }
+
+    /**
+     * Checks that the guard runs are each about one module wide.
+     */
+    private static boolean isGuard(int[] runs, int start, int length, float module) {
+        for (int i = start; i < start + length; ++i) {
+            if (runs[i] < module * 0.4f || runs[i] > module * 1.8f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches the four runs at {@code pos} against the digit patterns.
+     *
+     * @param allowG whether G codes are accepted as well as L/R codes
+     * @return the digit, plus 10 for a G code, or -1 if nothing matches
+     */
+    private static int matchDigit(int[] runs, int pos, float module, boolean allowG) {
+        int total = runs[pos] + runs[pos + 1] + runs[pos + 2] + runs[pos + 3];
+        if (total < module * 7 * 0.5f || total > module * 7 * 2f) {
+            return -1;
+        }
+        float unit = total / 7f;
+        float bestVariance = MAX_AVG_VARIANCE;
+        int best = -1;
+        for (int d = 0; d < DIGIT_PATTERNS.length; ++d) {
+            int[] pattern = DIGIT_PATTERNS[d];
+            float variance = variance(runs, pos, pattern, unit, total, false);
+            if (variance < bestVariance) {
+                bestVariance = variance;
+                best = d;
+            }
+            if (allowG) {
+                variance = variance(runs, pos, pattern, unit, total, true);
+                if (variance < bestVariance) {
+                    bestVariance = variance;
+                    best = d + 10;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the mean deviation of the runs from the pattern, relative to their total width, or
+     * infinity if any single run deviates too much.
+     */
+    private static float variance(int[] runs, int pos, int[] pattern, float unit, int total,
+                                  boolean reversed) {
+        float sum = 0;
+        for (int j = 0; j < 4; ++j) {
+            float expected = pattern[reversed ? 3 - j : j] * unit;
+            float deviation = Math.abs(runs[pos + j] - expected);
+            if (deviation > MAX_INDIVIDUAL_VARIANCE * unit) {
+                return Float.POSITIVE_INFINITY;
+            }
+            sum += deviation;
+        }
+        return sum / total;
+    }
+
+    /**
+     * Verifies the last digit against the others, weighted 3 and 1 alternately from the right.
+     */
+    private static boolean isChecksumValid(int[] digits, int length) {
+        int sum = 0;
+        for (int i = 0; i < length - 1; ++i) {
+            sum += (length - 2 - i) % 2 == 0 ? 3 * digits[i] : digits[i];
+        }
+        return (10 - sum % 10) % 10 == digits[length - 1];
+    }
+
+    private static void addCandidate(List<Candidate> candidates, int format, String value,
+                                     boolean horizontal, int from, int to, int position) {
+        for (Candidate candidate : candidates) {
+            if (candidate.mHorizontal == horizontal && candidate.mFormat == format
+                    && candidate.mValue.equals(value)) {
+                candidate.mCount++;
+                candidate.mMinAlong = Math.min(candidate.mMinAlong, from);
+                candidate.mMaxAlong = Math.max(candidate.mMaxAlong, to);
+                candidate.mMinAcross = Math.min(candidate.mMinAcross, position);
+                candidate.mMaxAcross = Math.max(candidate.mMaxAcross, position);
+                return;
+            }
+        }
+        candidates.add(new Candidate(format, value, horizontal, from, to, position));
+    }
+
+    /**
+     * A barcode at an angle may be read both on rows and on columns; only the reading with more
+     * confirmations is kept.
+     */
+    private static boolean isShadowed(Candidate candidate, List<Candidate> candidates) {
+        for (Candidate other : candidates) {
+            if (other != candidate && other.mFormat == candidate.mFormat
+                    && other.mValue.equals(candidate.mValue)
+                    && (other.mCount > candidate.mCount
+                    || (other.mCount == candidate.mCount && other.mHorizontal))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private DecodedBarcode toBarcode(Candidate candidate, int width, int height, int rotation) {
+        // Scan lines only sample the barcode; extend its extent across the lines by half the line
+        // spacing on either side.
+        int spacing = (candidate.mHorizontal ? height : width) / (mScanLines + 1);
+        int acrossLimit = candidate.mHorizontal ? height : width;
+        int minAcross = Math.max(0, candidate.mMinAcross - spacing / 2);
+        int maxAcross = Math.min(acrossLimit, candidate.mMaxAcross + spacing / 2);
+
+        int x0 = candidate.mHorizontal ? candidate.mMinAlong : minAcross;
+        int x1 = candidate.mHorizontal ? candidate.mMaxAlong : maxAcross;
+        int y0 = candidate.mHorizontal ? minAcross : candidate.mMinAlong;
+        int y1 = candidate.mHorizontal ? maxAcross : candidate.mMaxAlong;
+
+        // Rotate the box clockwise by the given quarter turns, to upright coordinates.
+        int left;
+        int top;
+        int right;
+        int bottom;
+        switch (rotation) {
+            case 1:
+                left = height - y1;
+                top = x0;
+                right = height - y0;
+                bottom = x1;
+                break;
+            case 2:
+                left = width - x1;
+                top = height - y1;
+                right = width - x0;
+                bottom = height - y0;
+                break;
+            case 3:
+                left = y0;
+                top = width - x1;
+                right = y1;
+                bottom = width - x0;
+                break;
+            default:
+                left = x0;
+                top = y0;
+                right = x1;
+                bottom = y1;
+                break;
+        }
+        String value = candidate.mFormat == DecodedBarcode.UPC_A
+                ? candidate.mValue.substring(1) : candidate.mValue;
+        return new DecodedBarcode(candidate.mFormat, value, left, top, right, bottom);
+    }
+
+    /**
+     * A barcode read on one or more lines of the same orientation.
+     */
+    private static final class Candidate {
+        final int mFormat;
+        final String mValue;
+        final boolean mHorizontal;
+        int mCount = 1;
+        int mMinAlong;
+        int mMaxAlong;
+        int mMinAcross;
+        int mMaxAcross;
+
+        Candidate(int format, String value, boolean horizontal, int from, int to, int position) {
+            mFormat = format;
+            mValue = value;
+            mHorizontal = horizontal;
+            mMinAlong = from;
+            mMaxAlong = to;
+            mMinAcross = position;
+            mMaxAcross = position;
+        }
+    }
+
+    /**
+     * Per thread buffers, grown to the longest line seen.
+     */
+    private static final class Scratch {
+        int[] mSamples = new int[0];
+        int[] mRuns = new int[0];
+        int[] mStarts = new int[0];
+        int[] mReversed = new int[0];
+        byte[] mLuma = new byte[0];
+        final int[] mDigits = new int[13];
+        int mLength;
+        int mFormat;
+
+        void ensure(int length) {
+            if (mSamples.length < length) {
+                mSamples = new int[length];
+                mRuns = new int[length];
+                mStarts = new int[length + 1];
+                mReversed = new int[length];
+            }
+        }
+
+        byte[] luma(int size) {
+            if (mLuma.length < size) {
+                mLuma = new byte[size];
+            }
+            return mLuma;
+        }
+
+        /**
+         * Returns the digits of the last decoded barcode as a string.
+         */
+        String value() {
+            char[] chars = new char[mLength];
+            for (int i = 0; i < mLength; ++i) {
+                chars[i] = (char) ('0' + mDigits[i]);
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change check run on the luma plane of a frame before detection, so that a static scene is not
+ * detected over and over again.
+ * <p/>
+ * A sparse grid of at most {@code sampleBudget} luma samples is kept from the last frame which was
+ * actually detected (the reference).  A new frame whose samples differ from the reference by less
+ * than {@code threshold} grey levels on average is considered unchanged.  To pick up slow changes
+ * and recover from a stale result, a frame is never considered unchanged once
+ * {@code maxReuseMillis} have passed since the reference was taken.
+ */
+public final class MotionGate {
+    private final float mThreshold;
+    private final long mMaxReuseMillis;
+    private final int mSampleBudget;
+
+    // Guarded by this.
+    private final byte[] mReference;
+    private final byte[] mSamples;
+    private int mReferenceCount = -1;
+    private int mReferenceStep;
+    private long mReferenceTimeMillis;
+
+    private final AtomicLong mUnchanged = new AtomicLong();
+    private final AtomicLong mChanged = new AtomicLong();
+
+    /**
+     * @param threshold      the mean absolute luma difference below which a frame is unchanged
+     * @param maxReuseMillis the longest time a reference is used before detecting again
+     * @param sampleBudget   the maximum number of pixels sampled per frame
+     */
+    public MotionGate(float threshold, long maxReuseMillis, int sampleBudget) {
+        mThreshold = threshold;
+        mMaxReuseMillis = maxReuseMillis;
+        mSampleBudget = sampleBudget;
+        mReference = new byte[sampleBudget];
+        mSamples = new byte[sampleBudget];
+    }
+
+    /**
+     * Decides whether the given rectangle of a luma plane is unchanged since the reference frame.
+     * If it is not, the frame becomes the new reference, on the assumption that it is going to be
+     * detected.
+     *
+     * @param luma       the image, starting with its luma plane
+     * @param width      the width of the image
+     * @param x0         the left edge of the rectangle to check
+     * @param y0         the top edge of the rectangle to check
+     * @param x1         the right edge of the rectangle to check, exclusive
+     * @param y1         the bottom edge of the rectangle to check, exclusive
+     * @param timeMillis the timestamp of the frame
+     */
+    public synchronized boolean isUnchanged(byte[] luma, int width, int x0, int y0,
+                                            int x1, int y1, long timeMillis) {
+        int w = x1 - x0;
+        int h = y1 - y0;
+        int step = Math.max(1, (int) Math.ceil(Math.sqrt((double) w * h / mSampleBudget)));
+
+        int count = 0;
+        for (int y = y0; y < y1 && count < mSampleBudget; y += step) {
+            int offset = y * width;
+            for (int x = x0; x < x1 && count < mSampleBudget; x += step) {
+                mSamples[count++] = luma[offset + x];
+            }
+        }
+
+        boolean unchanged = false;
+        if (count == mReferenceCount && step == mReferenceStep
+                && timeMillis - mReferenceTimeMillis < mMaxReuseMillis) {
+            long difference = 0;
+            for (int i = 0; i < count; ++i) {
+                difference += Math.abs((mSamples[i] & 0xff) - (mReference[i] & 0xff));
+            }
+            unchanged = difference < mThreshold * count;
+        }
+
+        if (unchanged) {
+            mUnchanged.incrementAndGet();
+        } else {
+            System.arraycopy(mSamples, 0, mReference, 0, count);
+            mReferenceCount = count;
+            mReferenceStep = step;
+            mReferenceTimeMillis = timeMillis;
+            mChanged.incrementAndGet();
+        }
+        return unchanged;
+    }
+
+    /**
+     * Forgets the reference frame, so that the next frame is detected.
+     */
+    public synchronized void reset() {
+        mReferenceCount = -1;
+    }
+
+    public long getUnchangedCount() {
+        return mUnchanged.get();
+    }
+
+    public long getChangedCount() {
+        return mChanged.get();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Helpers operating directly on NV21 preview buffers: a full resolution luma (Y) plane, followed by
+ * a half resolution plane of interleaved V and U samples, one pair per 2x2 block of pixels.
+ */
+public final class Nv21Image {
+
+    private Nv21Image() {
+    }
+
+    /**
+     * Returns the number of bytes an NV21 image of the given size occupies.
+     */
+    public static int frameSize(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * Copies a rectangle of an NV21 image into a smaller NV21 image.  The rectangle must be aligned
+     * to even coordinates and sizes, so that it does not split chroma blocks.
+     *
+     * @param src        the source image
+     * @param width      the width of the source image
+     * @param height     the height of the source image
+     * @param x          the left edge of the rectangle, even
+     * @param y          the top edge of the rectangle, even
+     * @param cropWidth  the width of the rectangle, even
+     * @param cropHeight the height of the rectangle, even
+     * @param dst        the destination, at least {@link #frameSize(int, int)} bytes for the crop
+     */
+    public static void crop(byte[] src, int width, int height, int x, int y,
+                            int cropWidth, int cropHeight, byte[] dst) {
+        int srcOffset = y * width + x;
+        int dstOffset = 0;
+        for (int row = 0; row < cropHeight; ++row) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, cropWidth);
+            srcOffset += width;
+            dstOffset += cropWidth;
+        }
+
+        srcOffset = width * height + (y / 2) * width + x;
+        for (int row = 0; row < cropHeight / 2; ++row) {
+            System.arraycopy(src, srcOffset, dst, dstOffset, cropWidth);
+            srcOffset += width;
+            dstOffset += cropWidth;
+        }
+    }
+
+    /**
+     * Fills the chroma plane of an NV21 image with neutral grey, so that only its luma plane needs
+     * to be written afterwards.
+     */
+    public static void fillNeutralChroma(byte[] dst, int width, int height) {
+        Arrays.fill(dst, width * height, frameSize(width, height), (byte) 128);
+    }
+
+    /**
+     * Returns the size of a dimension after downscaling by an integer factor, rounded down to an
+     * even number of pixels.
+     */
+    public static int downscaledSize(int size, int factor) {
+        return (size / factor) & ~1;
+    }
+
+    /**
+     * Writes the luma plane of an image downscaled by an integer factor, averaging each
+     * {@code factor x factor} block of source pixels.  The destination size is given by
+     * {@link #downscaledSize(int, int)} for both dimensions.  Its chroma plane is left untouched.
+     *
+     * @param src    the source image
+     * @param width  the width of the source image
+     * @param height the height of the source image
+     * @param factor the downscale factor, at least 1
+     * @param dst    the destination image
+     */
+    public static void downscaleLuma(byte[] src, int width, int height, int factor, byte[] dst) {
+        final int dstWidth = downscaledSize(width, factor);
+        final int dstHeight = downscaledSize(height, factor);
+        final int shift = Integer.numberOfTrailingZeros(factor);
+        final boolean powerOfTwo = (factor & (factor - 1)) == 0;
+        final int area = factor * factor;
+
+        int dstOffset = 0;
+        for (int y = 0; y < dstHeight; ++y) {
+            int rowOffset = y * factor * width;
+            for (int x = 0; x < dstWidth; ++x) {
+                int sum = 0;
+                int blockOffset = rowOffset + x * factor;
+                for (int by = 0; by < factor; ++by) {
+                    for (int bx = 0; bx < factor; ++bx) {
+                        sum += src[blockOffset + bx] & 0xff;
+                    }
+                    blockOffset += width;
+                }
+                dst[dstOffset++] = (byte) (powerOfTwo ? sum >>> (2 * shift) : sum / area);
+            }
+        }
+    }
+
+    /**
+     * Copies the luma plane of a {@link PlanarImage} into an NV21 image.  Rows are copied in bulk,
+     * and the whole plane at once when it has no row padding.
+     *
+     * @param image the source image
+     * @param dst   the destination, at least {@link #frameSize(int, int)} bytes for the image
+     */
+    public static void copyLuma(PlanarImage image, byte[] dst) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int rowStride = image.getRowStride(PlanarImage.PLANE_Y);
+        ByteBuffer plane = image.getBuffer(PlanarImage.PLANE_Y);
+        int start = plane.position();
+        if (rowStride == width) {
+            plane.get(dst, 0, width * height);
+        } else {
+            for (int row = 0; row < height; ++row) {
+                plane.position(start + row * rowStride);
+                plane.get(dst, row * width, width);
+            }
+        }
+        plane.position(start);
+    }
+
+    /**
+     * Copies the chroma planes of a {@link PlanarImage} into the interleaved V and U plane of an
+     * NV21 image.  Each chroma row is first read in bulk into a scratch row, so that the samples
+     * are interleaved without going through the buffers one byte at a time.
+     *
+     * @param image   the source image
+     * @param dst     the destination, at least {@link #frameSize(int, int)} bytes for the image
+     * @param scratch a scratch row, at least {@link #chromaScratchSize(PlanarImage)} bytes
+     */
+    public static void copyChroma(PlanarImage image, byte[] dst, byte[] scratch) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        final int rowStride = image.getRowStride(PlanarImage.PLANE_U);
+        final int pixelStride = image.getPixelStride(PlanarImage.PLANE_U);
+        final int rowLength = (chromaWidth - 1) * pixelStride + 1;
+        ByteBuffer u = image.getBuffer(PlanarImage.PLANE_U);
+        ByteBuffer v = image.getBuffer(PlanarImage.PLANE_V);
+        int uStart = u.position();
+        int vStart = v.position();
+
+        int dstOffset = width * height;
+        for (int row = 0; row < chromaHeight; ++row) {
+            v.position(vStart + row * rowStride);
+            v.get(scratch, 0, rowLength);
+            u.position(uStart + row * rowStride);
+            u.get(scratch, rowLength, rowLength);
+            for (int i = 0, x = 0; x < chromaWidth; ++x, i += pixelStride) {
+                dst[dstOffset++] = scratch[i];
+                dst[dstOffset++] = scratch[rowLength + i];
+            }
+        }
+        u.position(uStart);
+        v.position(vStart);
+    }
+
+    /**
+     * Returns the size of the scratch row needed by {@link #copyChroma}.
+     */
+    public static int chromaScratchSize(PlanarImage image) {
+        int chromaWidth = (image.getWidth() + 1) / 2;
+        return 2 * ((chromaWidth - 1) * image.getPixelStride(PlanarImage.PLANE_U) + 1);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * Hands the results of frames detected on several worker threads at once to a single
+ * {@link ResultSink}, strictly in the order in which the frames were received.  This keeps the
+ * consumer (e.g. a tracker layer) on a consistent timeline even though a later frame may finish
+ * detection first.
+ * <p/>
+ * Every frame taken for processing is given a sequence number by the caller.  Sequence numbers
+ * must be contiguous, so frames dropped before they are taken should not be numbered at all.  A
+ * numbered frame which is dropped before detection must be reported through {@link #skip(long)}.
+ * Results are held in a ring of {@code window} slots until they can be delivered, and a worker
+ * must call {@link #awaitWindow(long)} before reporting a frame, so that it waits for a slow
+ * worker instead of running more than {@code window} frames ahead of it.
+ * <p/>
+ * A frame of a static scene may also reuse the result of the frame delivered before it, see
+ * {@link #reuse(long, long)}.
+ */
+final class OrderedResultDispatcher<R> {
+
+    /**
+     * Placeholder result of a frame which reuses the result delivered before it.
+     */
+    private static final Object REUSE = new Object();
+
+    private final FrameDetector<R> mDetector;
+    private final ResultSink<R> mSink;
+    private final PipelineMetrics mMetrics;
+    private final ErrorHandler mErrorHandler;
+
+    // This lock guards all of the member variables below.  Results are delivered to the sink while
+    // holding it, so the sink is never called concurrently.
+    private final Object mLock = new Object();
+    private final Object[] mResults;
+    private final boolean[] mCompleted;
+    private final long[] mReceivedNanos;
+    private final long[] mDetectedNanos;
+    private long mNextSequence = 0;
+    private R mLastDelivered;
+
+    /**
+     * Reports exceptions thrown from the sink, which are caught so that one bad result does not
+     * stall the frames behind it.
+     */
+    interface ErrorHandler {
+        void onSinkError(Throwable t);
+    }
+
+    OrderedResultDispatcher(FrameDetector<R> detector, ResultSink<R> sink, int window,
+                            PipelineMetrics metrics, ErrorHandler errorHandler) {
+        mDetector = detector;
+        mSink = sink;
+        mMetrics = metrics;
+        mErrorHandler = errorHandler;
+        mResults = new Object[window];
+        mCompleted = new boolean[window];
+        mReceivedNanos = new long[window];
+        mDetectedNanos = new long[window];
+    }
+
+    /**
+     * Waits until the frame with the given sequence number fits in the window, i.e. until the
+     * frame {@code window} places before it has been delivered.  The frame with the lowest
+     * sequence number still outstanding never waits, so workers can't wait on each other in a
+     * cycle.
+     */
+    void awaitWindow(long sequence) {
+        boolean interrupted = false;
+        synchronized (mLock) {
+            while (sequence >= mNextSequence + mCompleted.length) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    // The frame holding us back is being detected, and will be done shortly.
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records the result of a detected frame, then delivers it once all frames with a lower
+     * sequence number have been delivered.  A null result is skipped, so that a failed detection
+     * does not hold back the frames behind it.
+     *
+     * @param receivedNanos the {@link System#nanoTime()} at which the frame was received
+     * @param detectedNanos the {@link System#nanoTime()} at which detection finished
+     */
+    void complete(long sequence, R result, long receivedNanos, long detectedNanos) {
+        store(sequence, result, receivedNanos, detectedNanos);
+    }
+
+    /**
+     * Marks a frame which was dropped before detection as done, so that it does not hold back the
+     * frames behind it.
+     */
+    void skip(long sequence) {
+        store(sequence, null, 0, 0);
+    }
+
+    /**
+     * Delivers the result of the previously delivered frame again for this frame, without running
+     * detection, e.g. because the scene has not changed.  Like any other result, it is delivered
+     * once all frames with a lower sequence number have been delivered.
+     */
+    void reuse(long sequence, long receivedNanos) {
+        store(sequence, REUSE, receivedNanos, System.nanoTime());
+    }
+
+    /**
+     * Resets the sequence numbering.  Only safe to call when no worker is running.
+     */
+    void reset() {
+        synchronized (mLock) {
+            for (int i = 0; i < mCompleted.length; ++i) {
+                mCompleted[i] = false;
+                mResults[i] = null;
+            }
+            mNextSequence = 0;
+            mLastDelivered = null;
+            mLock.notifyAll();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void store(long sequence, Object result, long receivedNanos, long detectedNanos) {
+        synchronized (mLock) {
+            if (sequence < mNextSequence || sequence >= mNextSequence + mCompleted.length) {
+                throw new IllegalStateException("Sequence " + sequence + " outside of window ["
+                        + mNextSequence + ", " + (mNextSequence + mCompleted.length) + ").");
+            }
+            int slot = (int) (sequence % mCompleted.length);
+            if (mCompleted[slot]) {
+                throw new IllegalStateException("Sequence " + sequence + " stored twice.");
+            }
+            mResults[slot] = result;
+            mReceivedNanos[slot] = receivedNanos;
+            mDetectedNanos[slot] = detectedNanos;
+            mCompleted[slot] = true;
+
+            // Drain every result that is now in order, including those that finished earlier and
+            // were waiting on this one.
+            long firstSequence = mNextSequence;
+            slot = (int) (mNextSequence % mCompleted.length);
+            while (mCompleted[slot]) {
+                Object stored = mResults[slot];
+                R ready = stored == REUSE ? mLastDelivered : (R) stored;
+                long readyReceivedNanos = mReceivedNanos[slot];
+                long readyDetectedNanos = mDetectedNanos[slot];
+                mCompleted[slot] = false;
+                mResults[slot] = null;
+                mNextSequence++;
+
+                if (ready != null) {
+                    mLastDelivered = ready;
+                    try {
+                        mSink.onResult(ready);
+                    } catch (Throwable t) {
+                        mErrorHandler.onSinkError(t);
+                    }
+
+                    long deliveredNanos = System.nanoTime();
+                    mMetrics.record(PipelineMetrics.Stage.DELIVERY,
+                            deliveredNanos - readyDetectedNanos);
+                    mMetrics.record(PipelineMetrics.Stage.END_TO_END,
+                            deliveredNanos - readyReceivedNanos);
+                    if (mDetector.getItemCount(ready) > 0) {
+                        mMetrics.onFrameDecoded();
+                    }
+                }
+                slot = (int) (mNextSequence % mCompleted.length);
+            }
+            if (mNextSequence != firstSequence) {
+                // Wakes the workers waiting for the window to move.
+                mLock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * Maps coordinates of detected items from the upright frame onto a view of a different size, e.g.
+ * an overlay drawn on top of the preview, and back.  The frame is scaled to fill the view, mirrored
+ * for a front-facing camera, and may be offset within the preview when only a region of it is
+ * scanned.
+ * <p/>
+ * Not thread safe; the owner is expected to guard updates.
+ */
+public final class OverlayTransform {
+    private int mPreviewWidth;
+    private int mPreviewHeight;
+    private int mViewWidth;
+    private boolean mMirrored;
+    private int mFrameOffsetX;
+    private int mFrameOffsetY;
+    private float mWidthScaleFactor = 1.0f;
+    private float mHeightScaleFactor = 1.0f;
+
+    /**
+     * Sets the upright size of the preview, and whether it is shown mirrored.
+     */
+    public void setPreview(int previewWidth, int previewHeight, boolean mirrored) {
+        mPreviewWidth = previewWidth;
+        mPreviewHeight = previewHeight;
+        mMirrored = mirrored;
+    }
+
+    /**
+     * Sets the position of the detected frame within the preview, in preview pixels.
+     */
+    public void setFrameOffset(int offsetX, int offsetY) {
+        mFrameOffsetX = offsetX;
+        mFrameOffsetY = offsetY;
+    }
+
+    /**
+     * Sets the size of the view, which updates the scale factors.  The scale factors stay
+     * unchanged until the preview size is known.
+     */
+    public void setViewSize(int viewWidth, int viewHeight) {
+        mViewWidth = viewWidth;
+        if (mPreviewWidth != 0 && mPreviewHeight != 0) {
+            mWidthScaleFactor = (float) viewWidth / (float) mPreviewWidth;
+            mHeightScaleFactor = (float) viewHeight / (float) mPreviewHeight;
+        }
+    }
+
+    public int getFrameOffsetX() {
+        return mFrameOffsetX;
+    }
+
+    public int getFrameOffsetY() {
+        return mFrameOffsetY;
+    }
+
+    public float getWidthScaleFactor() {
+        return mWidthScaleFactor;
+    }
+
+    public float getHeightScaleFactor() {
+        return mHeightScaleFactor;
+    }
+
+    public boolean isMirrored() {
+        return mMirrored;
+    }
+
+    public int getViewWidth() {
+        return mViewWidth;
+    }
+
+    /**
+     * Adjusts a horizontal size from the preview scale to the view scale.
+     */
+    public float scaleX(float horizontal) {
+        return horizontal * mWidthScaleFactor;
+    }
+
+    /**
+     * Adjusts a vertical size from the preview scale to the view scale.
+     */
+    public float scaleY(float vertical) {
+        return vertical * mHeightScaleFactor;
+    }
+
+    /**
+     * Maps an x coordinate of the detected frame to the view.
+     */
+    public float translateX(float x) {
+        float scaled = scaleX(x + mFrameOffsetX);
+        return mMirrored ? mViewWidth - scaled : scaled;
+    }
+
+    /**
+     * Maps a y coordinate of the detected frame to the view.
+     */
+    public float translateY(float y) {
+        return scaleY(y + mFrameOffsetY);
+    }
+
+    /**
+     * Maps an x coordinate of the view back to the detected frame, the inverse of
+     * {@link #translateX(float)}.
+     */
+    public float toFrameX(float viewX) {
+        float scaled = mMirrored ? mViewWidth - viewX : viewX;
+        return scaled / mWidthScaleFactor - mFrameOffsetX;
+    }
+
+    /**
+     * Maps a y coordinate of the view back to the detected frame, the inverse of
+     * {@link #translateY(float)}.
+     */
+    public float toFrameY(float viewY) {
+        return viewY / mHeightScaleFactor - mFrameOffsetY;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low-overhead instrumentation of the frame pipeline: frame counters, and a fixed-bucket latency
+ * histogram per pipeline stage.  Recording never allocates and never blocks, so it is safe to call
+ * from the camera callback thread and the detection workers.
+ * <p/>
+ * Histogram bucket {@code i} counts latencies below {@code 2^i} microseconds (and at least
+ * {@code 2^(i-1)} for {@code i > 0}); the last bucket also holds everything longer.  Use
+ * {@link #snapshot()} to read the metrics.
+ */
+public final class PipelineMetrics {
+
+    /**
+     * The stages of the pipeline which have their latency measured.
+     */
+    public enum Stage {
+        /**
+         * From the camera delivering a preview frame until it is handed over to the workers, i.e.
+         * the time spent on the camera callback thread.
+         */
+        CALLBACK,
+        /**
+         * From a frame being handed over until a worker takes it.
+         */
+        QUEUE_WAIT,
+        /**
+         * Detection of a frame, including any coarse pass.
+         */
+        DETECTION,
+        /**
+         * From detection finishing until its result has been handed to the result sink, including
+         * any wait for earlier frames to be delivered first.
+         */
+        DELIVERY,
+        /**
+         * From the camera delivering a preview frame until its result has been processed.
+         */
+        END_TO_END,
+        /**
+         * Time spent in the listener receiving the scan results, recorded by the caller.
+         */
+        LISTENER,
+        /**
+         * From a scan result until its sound and vibration have been started, recorded by the
+         * caller.
+         */
+        FEEDBACK
+    }
+
+    /**
+     * Number of buckets in every latency histogram.
+     */
+    public static final int BUCKET_COUNT = 25;
+
+    private static final int STAGE_COUNT = Stage.values().length;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(STAGE_COUNT * BUCKET_COUNT);
+    private final AtomicLongArray mTotalNanos = new AtomicLongArray(STAGE_COUNT);
+    private final AtomicLongArray mMaxNanos = new AtomicLongArray(STAGE_COUNT);
+
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mProcessed = new AtomicLong();
+    private final AtomicLong mDecoded = new AtomicLong();
+
+    /**
+     * Records the latency of one pass through a stage.
+     */
+    public void record(Stage stage, long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int index = stage.ordinal();
+        mBuckets.incrementAndGet(index * BUCKET_COUNT + bucketOf(nanos));
+        mTotalNanos.addAndGet(index, nanos);
+        long max;
+        while (nanos > (max = mMaxNanos.get(index))) {
+            if (mMaxNanos.compareAndSet(index, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    void onFrameReceived() {
+        mReceived.incrementAndGet();
+    }
+
+    void onFrameDropped() {
+        mDropped.incrementAndGet();
+    }
+
+    void onFrameProcessed() {
+        mProcessed.incrementAndGet();
+    }
+
+    void onFrameDecoded() {
+        mDecoded.incrementAndGet();
+    }
+
+    /**
+     * Clears all counters and histograms.
+     */
+    public void reset() {
+        for (int i = 0; i < mBuckets.length(); ++i) {
+            mBuckets.set(i, 0);
+        }
+        for (int i = 0; i < STAGE_COUNT; ++i) {
+            mTotalNanos.set(i, 0);
+            mMaxNanos.set(i, 0);
+        }
+        mReceived.set(0);
+        mDropped.set(0);
+        mProcessed.set(0);
+        mDecoded.set(0);
+    }
+
+    /**
+     * Returns a copy of the current metrics.  Values recorded concurrently may or may not be
+     * included.
+     */
+    public Snapshot snapshot() {
+        Histogram[] histograms = new Histogram[STAGE_COUNT];
+        for (int stage = 0; stage < STAGE_COUNT; ++stage) {
+            long[] counts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                counts[i] = mBuckets.get(stage * BUCKET_COUNT + i);
+            }
+            histograms[stage] = new Histogram(counts, mTotalNanos.get(stage),
+                    mMaxNanos.get(stage));
+        }
+        return new Snapshot(mReceived.get(), mDropped.get(), mProcessed.get(), mDecoded.get(),
+                histograms);
+    }
+
+    /**
+     * Returns the upper bound, exclusive, of a histogram bucket in microseconds.  The last bucket
+     * is unbounded.
+     */
+    public static long getBucketUpperBoundMicros(int bucket) {
+        return bucket < BUCKET_COUNT - 1 ? 1L << bucket : Long.MAX_VALUE;
+    }
+
+    private static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKET_COUNT ? bucket : BUCKET_COUNT - 1;
+    }
+
+    /**
+     * Immutable copy of the pipeline metrics at one point in time.
+     */
+    public static final class Snapshot {
+        private final long mFramesReceived;
+        private final long mFramesDropped;
+        private final long mFramesProcessed;
+        private final long mFramesDecoded;
+        private final Histogram[] mHistograms;
+
+        Snapshot(long received, long dropped, long processed, long decoded,
+                 Histogram[] histograms) {
+            mFramesReceived = received;
+            mFramesDropped = dropped;
+            mFramesProcessed = processed;
+            mFramesDecoded = decoded;
+            mHistograms = histograms;
+        }
+
+        /**
+         * Returns the number of preview frames received from the camera.
+         */
+        public long getFramesReceived() {
+            return mFramesReceived;
+        }
+
+        /**
+         * Returns the number of pending frames replaced by a newer frame before any worker took
+         * them.
+         */
+        public long getFramesDropped() {
+            return mFramesDropped;
+        }
+
+        /**
+         * Returns the number of frames on which detection ran.
+         */
+        public long getFramesProcessed() {
+            return mFramesProcessed;
+        }
+
+        /**
+         * Returns the number of frames whose delivered result contained at least one item.  Only
+         * counted when the pipeline has a {@link ResultSink}, as the result is not visible
+         * otherwise.
+         */
+        public long getFramesDecoded() {
+            return mFramesDecoded;
+        }
+
+        /**
+         * Returns the latency histogram of a stage.
+         */
+        public Histogram getHistogram(Stage stage) {
+            return mHistograms[stage.ordinal()];
+        }
+    }
+
+    /**
+     * Immutable latency histogram of one stage.
+     */
+    public static final class Histogram {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mTotalNanos;
+        private final long mMaxNanos;
+
+        Histogram(long[] counts, long totalNanos, long maxNanos) {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            mCounts = counts;
+            mCount = count;
+            mTotalNanos = totalNanos;
+            mMaxNanos = maxNanos;
+        }
+
+        /**
+         * Returns the number of latencies recorded in a bucket.
+         *
+         * @see PipelineMetrics#getBucketUpperBoundMicros(int)
+         */
+        public long getBucketCount(int bucket) {
+            return mCounts[bucket];
+        }
+
+        /**
+         * Returns the number of latencies recorded.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the mean latency in microseconds, or 0 if nothing was recorded.
+         */
+        public long getMeanMicros() {
+            return mCount > 0 ? mTotalNanos / mCount / 1000 : 0;
+        }
+
+        /**
+         * Returns the sum of all latencies recorded, in microseconds.
+         */
+        public long getTotalMicros() {
+            return mTotalNanos / 1000;
+        }
+
+        /**
+         * Returns the longest latency recorded in microseconds.
+         */
+        public long getMaxMicros() {
+            return mMaxNanos / 1000;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, in microseconds, at the resolution of
+         * the histogram buckets.
+         *
+         * @param percentile the percentile, from 0 to 100
+         */
+        public long getPercentileMicros(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mCount * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; ++i) {
+                seen += mCounts[i];
+                if (seen >= rank && mCounts[i] > 0) {
+                    return Math.min(getBucketUpperBoundMicros(i), getMaxMicros());
+                }
+            }
+            return getMaxMicros();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds a {@link FramePipeline} with {@link PlanarImage}s, e.g. from a Camera2 {@code ImageReader}.
+ * <p/>
+ * The pipeline's buffers are held in a free list while they are not in use.  Every image is
+ * copied straight from its planes into a free buffer as NV21, then closed before the frame is
+ * handed to the pipeline, so the producer gets its image back right away and needs no more than a
+ * couple of images in flight.  If no buffer is free, the image is dropped.
+ * <p/>
+ * Detectors which only read luma, as barcode detectors do, can skip the chroma copy altogether;
+ * the chroma plane of every buffer is then filled with neutral grey once.
+ */
+public final class PlanarFrameSource implements FrameSource {
+    private final FramePipeline<?> mPipeline;
+    private final int mWidth;
+    private final int mHeight;
+    private final boolean mCopyChroma;
+    private final BlockingQueue<byte[]> mFreeBuffers;
+    private final AtomicLong mDroppedImages = new AtomicLong();
+
+    // Only touched from the thread delivering images
+    private final Set<byte[]> mNeutralBuffers =
+            Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+    private byte[] mScratch = new byte[0];
+
+    /**
+     * Creates a source for images of the given size.  Pass it to
+     * {@link FramePipeline#prepare(FrameSource, int, int, int, int, int)} with the same size and
+     * at most {@code bufferCount} buffers.
+     *
+     * @param pipeline    the pipeline receiving the frames
+     * @param width       the width of the images
+     * @param height      the height of the images
+     * @param bufferCount the number of buffers the pipeline shares with the source
+     * @param copyChroma  false if the detector only reads the luma plane
+     */
+    public PlanarFrameSource(FramePipeline<?> pipeline, int width, int height, int bufferCount,
+                             boolean copyChroma) {
+        if (pipeline == null) {
+            throw new IllegalArgumentException("No pipeline supplied.");
+        }
+        mPipeline = pipeline;
+        mWidth = width;
+        mHeight = height;
+        mCopyChroma = copyChroma;
+        mFreeBuffers = new ArrayBlockingQueue<>(bufferCount);
+    }
+
+    @Override
+    public void recycle(byte[] buffer) {
+        mFreeBuffers.offer(buffer);
+    }
+
+    /**
+     * Copies an image into a free buffer, closes it and hands the frame to the pipeline.  Closes
+     * the image without delivering it if no buffer is free, or if its size does not match.  If the
+     * copy throws, the image is closed and the buffer stays free.  Must be called from a single
+     * thread.
+     *
+     * @param image         the image, closed before this returns
+     * @param receivedNanos the {@link System#nanoTime()} at which the image was received
+     */
+    public void onImage(PlanarImage image, long receivedNanos) {
+        byte[] buffer;
+        try {
+            if (image.getWidth() != mWidth || image.getHeight() != mHeight) {
+                mDroppedImages.incrementAndGet();
+                return;
+            }
+            buffer = mFreeBuffers.poll();
+            if (buffer == null) {
+                mDroppedImages.incrementAndGet();
+                return;
+            }
+            try {
+                copy(image, buffer);
+            } catch (RuntimeException e) {
+                // Keep the buffer, or every failed copy would shrink the pool for good.
+                mFreeBuffers.offer(buffer);
+                throw e;
+            }
+        } finally {
+            image.close();
+        }
+        mPipeline.onFrame(buffer, receivedNanos);
+    }
+
+    /**
+     * Copies an image into a buffer as NV21, or only its luma if the chroma is not needed.
+     */
+    private void copy(PlanarImage image, byte[] buffer) {
+        Nv21Image.copyLuma(image, buffer);
+        if (mCopyChroma) {
+            int scratchSize = Nv21Image.chromaScratchSize(image);
+            if (mScratch.length < scratchSize) {
+                mScratch = new byte[scratchSize];
+            }
+            Nv21Image.copyChroma(image, buffer, mScratch);
+        } else if (mNeutralBuffers.add(buffer)) {
+            Nv21Image.fillNeutralChroma(buffer, mWidth, mHeight);
+        }
+    }
+
+    /**
+     * Returns how many images were dropped because no buffer was free, or their size did not
+     * match.
+     */
+    public long getDroppedImageCount() {
+        return mDroppedImages.get();
+    }
+}
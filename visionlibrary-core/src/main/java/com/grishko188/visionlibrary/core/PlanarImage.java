@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A YUV 4:2:0 image stored as three planes, each with its own row and pixel stride, as delivered
+ * by the Camera2 API in the {@code YUV_420_888} format.  Plane 0 holds luma (Y) at full
+ * resolution, planes 1 and 2 hold the U and V chroma samples at half resolution in both
+ * dimensions.  The planes may share memory, e.g. when the camera produces semi-planar images.
+ * <p/>
+ * Abstracts {@code android.media.Image}, so that frame delivery can be driven by a fake camera on
+ * a desktop JVM.
+ */
+public interface PlanarImage {
+    int PLANE_Y = 0;
+    int PLANE_U = 1;
+    int PLANE_V = 2;
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Returns the data of a plane, positioned at its first sample.
+     */
+    ByteBuffer getBuffer(int plane);
+
+    /**
+     * Returns the distance in bytes between the starts of two consecutive rows of a plane.
+     */
+    int getRowStride(int plane);
+
+    /**
+     * Returns the distance in bytes between two consecutive samples of a row of a plane.
+     */
+    int getPixelStride(int plane);
+
+    /**
+     * Hands the image back to its producer.  Its buffers must not be accessed afterwards.
+     */
+    void close();
+}
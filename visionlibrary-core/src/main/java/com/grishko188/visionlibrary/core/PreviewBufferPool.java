@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed set of preview buffers shared with the camera, kept across stop/start cycles for as long
+ * as the frame size does not change.
+ * <p/>
+ * Each buffer is allocated a couple of bytes larger than a frame, and its index in the pool is
+ * written into those trailing bytes.  The camera only ever fills the frame-sized prefix, so a buffer
+ * handed back by the camera can be mapped to its pool entry without hashing the array.
+ * <p/>
+ * The pool also counts the buffers currently queued with the camera.  When the camera delivers a
+ * frame while no other buffer is queued, it has nothing to fill with the next frame and will drop
+ * it; such starvation events are counted.
+ */
+final class PreviewBufferPool {
+    private static final int TAG_BYTES = 2;
+    private static final int MAX_DEPTH = 1 << (8 * TAG_BYTES);
+
+    private byte[][] mBuffers = new byte[0][];
+    private ByteBuffer[] mByteBuffers = new ByteBuffer[0];
+    private int mFrameSize = -1;
+
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final AtomicLong mStarvations = new AtomicLong();
+
+    /**
+     * Makes sure the pool holds {@code depth} buffers large enough for frames of
+     * {@code frameSize} bytes, reusing the current buffers when they already match.  Must not be
+     * called while any buffer is in use.
+     *
+     * @return {@code true} if new buffers were allocated
+     */
+    boolean prepare(int frameSize, int depth) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Invalid preview buffer count: " + depth);
+        }
+        mQueued.set(0);
+        if (frameSize == mFrameSize && depth == mBuffers.length) {
+            return false;
+        }
+
+        byte[][] buffers = new byte[depth][];
+        ByteBuffer[] byteBuffers = new ByteBuffer[depth];
+        for (int i = 0; i < depth; ++i) {
+            // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
+            // should guarantee that there will be an array to work with.
+            byte[] byteArray = new byte[frameSize + TAG_BYTES];
+            ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+            if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+                // I don't think that this will ever happen.  But if it does, then we wouldn't be
+                // passing the preview content to the underlying detector later.
+                throw new IllegalStateException("Failed to create valid buffer for camera source.");
+            }
+            byteArray[frameSize] = (byte) (i >>> 8);
+            byteArray[frameSize + 1] = (byte) i;
+            buffers[i] = byteArray;
+            byteBuffers[i] = buffer;
+        }
+        mBuffers = buffers;
+        mByteBuffers = byteBuffers;
+        mFrameSize = frameSize;
+        return true;
+    }
+
+    /**
+     * Drops all buffers, so that their memory can be reclaimed.
+     */
+    void clear() {
+        mBuffers = new byte[0][];
+        mByteBuffers = new ByteBuffer[0];
+        mFrameSize = -1;
+        mQueued.set(0);
+    }
+
+    int size() {
+        return mBuffers.length;
+    }
+
+    byte[] getBuffer(int index) {
+        return mBuffers[index];
+    }
+
+    ByteBuffer getByteBuffer(int index) {
+        return mByteBuffers[index];
+    }
+
+    /**
+     * Returns the pool index of a buffer received from the camera, or -1 if the buffer does not
+     * belong to this pool.
+     */
+    int indexOf(byte[] data) {
+        int frameSize = mFrameSize;
+        byte[][] buffers = mBuffers;
+        if (data == null || data.length != frameSize + TAG_BYTES) {
+            return -1;
+        }
+        int index = ((data[frameSize] & 0xff) << 8) | (data[frameSize + 1] & 0xff);
+        return index < buffers.length && buffers[index] == data ? index : -1;
+    }
+
+    /**
+     * Records that a buffer was handed to the camera.
+     */
+    void onQueued() {
+        mQueued.incrementAndGet();
+    }
+
+    /**
+     * Records that the camera filled a buffer and handed it back.
+     */
+    void onReceived() {
+        if (mQueued.decrementAndGet() <= 0) {
+            mStarvations.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns how many times the camera was left without a free buffer.
+     */
+    long getStarvationCount() {
+        return mStarvations.get();
+    }
+}
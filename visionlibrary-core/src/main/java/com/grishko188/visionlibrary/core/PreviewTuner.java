@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the preview size and frame rate which decode best, from trials on live frames.
+ * <p/>
+ * Every candidate is run for a while, and scored from the {@link PipelineMetrics} recorded
+ * meanwhile: the rate at which frames can be detected, given the mean detection latency and the
+ * number of workers but at most the frame rate of the candidate, times the fraction of detected
+ * frames which decoded.  A large frame thus only wins when it decodes more often than a smaller
+ * one makes up for by being detected faster.
+ * <p/>
+ * Not thread safe.
+ */
+public final class PreviewTuner {
+
+    /**
+     * Frames smaller than this on their short side are not tried, as labels are unlikely to decode
+     * reliably on them.
+     */
+    public static final int MIN_SHORT_SIDE = 480;
+
+    /**
+     * Trials with fewer detected frames than this are not scored.
+     */
+    private static final int MIN_TRIAL_FRAMES = 10;
+
+    /**
+     * A preview size and frame rate to try.
+     */
+    public static final class Candidate {
+        private final int mWidth;
+        private final int mHeight;
+        private final float mFps;
+
+        public Candidate(int width, int height, float fps) {
+            mWidth = width;
+            mHeight = height;
+            mFps = fps;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public float getFps() {
+            return mFps;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Candidate)) {
+                return false;
+            }
+            Candidate other = (Candidate) o;
+            return mWidth == other.mWidth && mHeight == other.mHeight
+                    && Float.compare(mFps, other.mFps) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mWidth * 31 + mHeight) * 31 + Float.floatToIntBits(mFps);
+        }
+
+        @Override
+        public String toString() {
+            return mWidth + "x" + mHeight + "@" + mFps;
+        }
+    }
+
+    private final List<Candidate> mCandidates;
+    private final float[] mScores;
+    private final int mWorkerCount;
+    private int mNext;
+    private long mDecodedFrames;
+
+    /**
+     * @param candidates  the candidates to try, in order
+     * @param workerCount the number of workers running detection
+     */
+    public PreviewTuner(List<Candidate> candidates, int workerCount) {
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No candidates to try.");
+        }
+        mCandidates = new ArrayList<>(candidates);
+        mScores = new float[candidates.size()];
+        mWorkerCount = Math.max(1, workerCount);
+    }
+
+    /**
+     * Returns the next candidate to try, or null when all of them have been tried.
+     */
+    public Candidate next() {
+        return mNext < mCandidates.size() ? mCandidates.get(mNext++) : null;
+    }
+
+    /**
+     * Scores a trial of a candidate from the metrics at its start and at its end.
+     */
+    public void record(Candidate candidate, PipelineMetrics.Snapshot before,
+                       PipelineMetrics.Snapshot after) {
+        int index = mCandidates.indexOf(candidate);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown candidate: " + candidate);
+        }
+        PipelineMetrics.Histogram detectionBefore =
+                before.getHistogram(PipelineMetrics.Stage.DETECTION);
+        PipelineMetrics.Histogram detectionAfter =
+                after.getHistogram(PipelineMetrics.Stage.DETECTION);
+        long detected = detectionAfter.getCount() - detectionBefore.getCount();
+        long decoded = after.getFramesDecoded() - before.getFramesDecoded();
+        long meanMicros = detected > 0
+                ? (detectionAfter.getTotalMicros() - detectionBefore.getTotalMicros()) / detected
+                : 0;
+        mScores[index] = score(detected, decoded, meanMicros, candidate.getFps(), mWorkerCount);
+        mDecodedFrames += decoded;
+    }
+
+    /**
+     * Returns the score of a candidate, or 0 if it has not been tried or its trial was too short.
+     */
+    public float getScore(Candidate candidate) {
+        int index = mCandidates.indexOf(candidate);
+        return index >= 0 ? mScores[index] : 0;
+    }
+
+    /**
+     * Returns the candidate with the best score, or null if no trial decoded anything, in which
+     * case the trials tell nothing about how well the candidates decode.
+     */
+    public Candidate getBest() {
+        if (mDecodedFrames == 0) {
+            return null;
+        }
+        int best = 0;
+        for (int i = 1; i < mScores.length; ++i) {
+            if (mScores[i] > mScores[best]) {
+                best = i;
+            }
+        }
+        return mScores[best] > 0 ? mCandidates.get(best) : null;
+    }
+
+    /**
+     * Computes the expected number of decoded frames per second.
+     *
+     * @param detected            the number of frames detected during the trial
+     * @param decoded             how many of them decoded
+     * @param meanDetectionMicros the mean time to detect one frame
+     * @param fps                 the frame rate of the camera
+     * @param workerCount         the number of workers running detection
+     */
+    public static float score(long detected, long decoded, long meanDetectionMicros, float fps,
+                              int workerCount) {
+        if (detected < MIN_TRIAL_FRAMES) {
+            return 0;
+        }
+        float rate = fps;
+        if (meanDetectionMicros > 0) {
+            rate = Math.min(rate, workerCount * 1000000f / meanDetectionMicros);
+        }
+        return rate * decoded / detected;
+    }
+
+    /**
+     * Selects the candidates worth trying among the preview sizes supported by a camera: up to
+     * {@code maxSizes} sizes, spread from the largest to the smallest of those no larger than the
+     * requested area and at least {@link #MIN_SHORT_SIDE} on their short side, each at every one
+     * of the frame rates.
+     *
+     * @param widths     the widths of the supported preview sizes
+     * @param heights    the heights of the supported preview sizes
+     * @param maxWidth   the width of the largest preview wanted, e.g. the screen width
+     * @param maxHeight  the height of the largest preview wanted
+     * @param fpsOptions the frame rates to try
+     * @param maxSizes   the maximum number of sizes to try
+     */
+    public static List<Candidate> selectCandidates(int[] widths, int[] heights, int maxWidth,
+                                                   int maxHeight, float[] fpsOptions,
+                                                   int maxSizes) {
+        long maxArea = (long) maxWidth * maxHeight;
+        List<int[]> sizes = new ArrayList<>();
+        for (int i = 0; i < widths.length; ++i) {
+            if ((long) widths[i] * heights[i] <= maxArea
+                    && Math.min(widths[i], heights[i]) >= MIN_SHORT_SIDE) {
+                sizes.add(new int[]{widths[i], heights[i]});
+            }
+        }
+        if (sizes.isEmpty()) {
+            // Nothing in range; spread the candidates over all of the sizes instead.
+            for (int i = 0; i < widths.length; ++i) {
+                sizes.add(new int[]{widths[i], heights[i]});
+            }
+        }
+        Collections.sort(sizes, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                long areaA = (long) a[0] * a[1];
+                long areaB = (long) b[0] * b[1];
+                return areaA > areaB ? -1 : areaA < areaB ? 1 : 0;
+            }
+        });
+
+        List<Candidate> candidates = new ArrayList<>();
+        int count = Math.min(maxSizes, sizes.size());
+        int previous = -1;
+        for (int i = 0; i < count; ++i) {
+            int index = count > 1 ? i * (sizes.size() - 1) / (count - 1) : 0;
+            if (index == previous) {
+                continue;
+            }
+            previous = index;
+            int[] size = sizes.get(index);
+            for (float fps : fpsOptions) {
+                candidates.add(new Candidate(size[0], size[1], fps));
+            }
+        }
+        return candidates;
+    }
+}
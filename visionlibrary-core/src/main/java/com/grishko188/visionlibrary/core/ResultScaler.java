@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * Maps the result of the coarse pass of pyramid detection, which ran on a downscaled frame, back to
+ * full resolution.
+ *
+ * @param <R> the type of a detection result
+ * @see FramePipeline#setPyramidDetection(int, ResultScaler)
+ */
+public interface ResultScaler<R> {
+    /**
+     * Returns whether a coarse result can be trusted as is, e.g. because it found items, all of
+     * which are large enough that no smaller one is likely to have been missed.  Otherwise the
+     * full resolution frame is detected as well.
+     */
+    boolean isConclusive(R result);
+
+    /**
+     * Scales the coordinates in the result up, in place, by the given factor.
+     */
+    void scale(R result, int factor);
+}
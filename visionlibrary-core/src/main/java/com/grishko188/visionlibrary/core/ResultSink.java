@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * Receives the detection results of a {@link FramePipeline}, one per frame, strictly in the order in
+ * which the frames were received.  Results are never delivered concurrently, although they may be
+ * delivered from any of the pipeline's worker threads.
+ *
+ * @param <R> the type of a detection result
+ */
+public interface ResultSink<R> {
+    /**
+     * Receives the detection result of the next frame.
+     */
+    void onResult(R result);
+
+    /**
+     * Releases the resources of the sink.  Called once no worker is running any more.
+     */
+    void release();
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+/**
+ * The even-aligned rectangle of each frame, in sensor coordinates, which is cropped out for
+ * detection, along with its position in the upright image.
+ * <p/>
+ * Rotations are expressed as the number of clockwise quarter turns which make a frame upright, 0 to
+ * 3, as in {@link FrameData#getRotation()}.
+ */
+public final class ScanWindow {
+    private final int mX;
+    private final int mY;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mOffsetX;
+    private final int mOffsetY;
+
+    private ScanWindow(int x, int y, int width, int height, int offsetX, int offsetY) {
+        mX = x;
+        mY = y;
+        mWidth = width;
+        mHeight = height;
+        mOffsetX = offsetX;
+        mOffsetY = offsetY;
+    }
+
+    /**
+     * Computes the crop window of a region of the upright image.
+     *
+     * @param left     the left edge of the region, as a fraction (0 to 1) of the upright width
+     * @param top      the top edge of the region, as a fraction of the upright height
+     * @param right    the right edge of the region, as a fraction of the upright width
+     * @param bottom   the bottom edge of the region, as a fraction of the upright height
+     * @param width    the width of the frames, in sensor orientation
+     * @param height   the height of the frames, in sensor orientation
+     * @param rotation the number of clockwise quarter turns which make a frame upright
+     */
+    public static ScanWindow fromRegion(float left, float top, float right, float bottom,
+                                        int width, int height, int rotation) {
+        // The region is upright, while frames are in sensor orientation and get rotated clockwise
+        // by the rotation to become upright.  Rotate the region back to the sensor.
+        float sensorLeft;
+        float sensorTop;
+        float sensorRight;
+        float sensorBottom;
+        switch (rotation) {
+            case 1:
+                sensorLeft = top;
+                sensorTop = 1 - right;
+                sensorRight = bottom;
+                sensorBottom = 1 - left;
+                break;
+            case 2:
+                sensorLeft = 1 - right;
+                sensorTop = 1 - bottom;
+                sensorRight = 1 - left;
+                sensorBottom = 1 - top;
+                break;
+            case 3:
+                sensorLeft = 1 - bottom;
+                sensorTop = left;
+                sensorRight = 1 - top;
+                sensorBottom = right;
+                break;
+            default:
+                sensorLeft = left;
+                sensorTop = top;
+                sensorRight = right;
+                sensorBottom = bottom;
+                break;
+        }
+
+        // Align to even pixels, so that the crop does not split NV21 chroma blocks.
+        int x0 = ((int) (sensorLeft * width)) & ~1;
+        int y0 = ((int) (sensorTop * height)) & ~1;
+        int x1 = Math.max(x0 + 2, ((int) Math.ceil(sensorRight * width) + 1) & ~1);
+        int y1 = Math.max(y0 + 2, ((int) Math.ceil(sensorBottom * height) + 1) & ~1);
+        x1 = Math.min(x1, width & ~1);
+        y1 = Math.min(y1, height & ~1);
+
+        int offsetX;
+        int offsetY;
+        switch (rotation) {
+            case 1:
+                offsetX = height - y1;
+                offsetY = x0;
+                break;
+            case 2:
+                offsetX = width - x1;
+                offsetY = height - y1;
+                break;
+            case 3:
+                offsetX = y0;
+                offsetY = width - x1;
+                break;
+            default:
+                offsetX = x0;
+                offsetY = y0;
+                break;
+        }
+        return new ScanWindow(x0, y0, x1 - x0, y1 - y0, offsetX, offsetY);
+    }
+
+    /**
+     * Returns the left edge of the crop, in sensor coordinates.
+     */
+    public int getX() {
+        return mX;
+    }
+
+    /**
+     * Returns the top edge of the crop, in sensor coordinates.
+     */
+    public int getY() {
+        return mY;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the horizontal position of the crop in the upright image.
+     */
+    public int getOffsetX() {
+        return mOffsetX;
+    }
+
+    /**
+     * Returns the vertical position of the crop in the upright image.
+     */
+    public int getOffsetY() {
+        return mOffsetY;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap blur check run on the luma plane of a frame before detection, to skip frames which are
+ * unlikely to decode, e.g. while continuous autofocus is hunting.
+ * <p/>
+ * Sharpness is estimated as the mean absolute horizontal plus vertical gradient over a sparse grid
+ * of at most {@code sampleBudget} pixels.  Since the absolute value depends on the scene, a frame is
+ * rejected relative to a slowly decaying peak of recent scores rather than against a fixed level.
+ * The decay guarantees that a uniformly soft scene is accepted again after a short while.
+ * <p/>
+ * While the lens is reported to be moving, frames are skipped outright, up to a bounded number in a
+ * row in case the camera never reports the end of the movement.
+ */
+public final class SharpnessGate {
+    private static final float PEAK_DECAY = 0.95f;
+    private static final int MAX_FOCUS_MOVING_SKIPS = 10;
+
+    private final int mSampleBudget;
+    private final float mThresholdRatio;
+
+    // Guarded by this.
+    private float mPeak;
+    private int mFocusMovingSkips;
+
+    private volatile boolean mFocusMoving;
+
+    private final AtomicLong mAccepted = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+
+    /**
+     * @param sampleBudget   the maximum number of pixels sampled per frame
+     * @param thresholdRatio frames scoring below this fraction of the recent peak are rejected
+     */
+    public SharpnessGate(int sampleBudget, float thresholdRatio) {
+        mSampleBudget = sampleBudget;
+        mThresholdRatio = thresholdRatio;
+    }
+
+    /**
+     * Records whether the lens is currently moving, as reported by the autofocus callback.
+     */
+    public void setFocusMoving(boolean moving) {
+        mFocusMoving = moving;
+    }
+
+    /**
+     * Decides whether the given rectangle of a luma plane is sharp enough to run detection on.
+     *
+     * @param luma  the image, starting with its luma plane
+     * @param width the width of the image
+     * @param x0    the left edge of the rectangle to check
+     * @param y0    the top edge of the rectangle to check
+     * @param x1    the right edge of the rectangle to check, exclusive
+     * @param y1    the bottom edge of the rectangle to check, exclusive
+     */
+    public boolean accept(byte[] luma, int width, int x0, int y0, int x1, int y1) {
+        if (mFocusMoving) {
+            synchronized (this) {
+                if (mFocusMovingSkips < MAX_FOCUS_MOVING_SKIPS) {
+                    mFocusMovingSkips++;
+                    mRejected.incrementAndGet();
+                    return false;
+                }
+            }
+        }
+
+        float score = score(luma, width, x0, y0, x1, y1);
+        boolean accepted;
+        synchronized (this) {
+            mFocusMovingSkips = 0;
+            mPeak = Math.max(score, mPeak * PEAK_DECAY);
+            accepted = score >= mPeak * mThresholdRatio;
+        }
+        if (accepted) {
+            mAccepted.incrementAndGet();
+        } else {
+            mRejected.incrementAndGet();
+        }
+        return accepted;
+    }
+
+    public long getAcceptedCount() {
+        return mAccepted.get();
+    }
+
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    /**
+     * Returns the mean absolute gradient over a grid of sample points spread evenly across the
+     * rectangle.
+     */
+    private float score(byte[] luma, int width, int x0, int y0, int x1, int y1) {
+        // Leave room for the right and bottom neighbours of every sample.
+        int w = x1 - x0 - 1;
+        int h = y1 - y0 - 1;
+        if (w <= 0 || h <= 0) {
+            return 0;
+        }
+        int step = Math.max(1, (int) Math.sqrt((double) w * h / mSampleBudget));
+
+        long sum = 0;
+        int count = 0;
+        for (int y = y0; y < y0 + h; y += step) {
+            int offset = y * width + x0;
+            for (int x = 0; x < w; x += step) {
+                int center = luma[offset + x] & 0xff;
+                int right = luma[offset + x + 1] & 0xff;
+                int below = luma[offset + x + width] & 0xff;
+                sum += Math.abs(right - center) + Math.abs(below - center);
+                count++;
+            }
+        }
+        return count > 0 ? (float) sum / count : 0;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Copy-on-write set for data drawn on one thread and updated on others, e.g. the graphics of an
+ * overlay.  Every change publishes a new immutable snapshot through a volatile field, so readers
+ * never lock and never copy: {@link #snapshot()} returns the current snapshot as is, and it stays
+ * unchanged while being iterated.
+ * <p/>
+ * Writers are serialized and pay for copying the elements, which is cheap for the few dozen
+ * elements it is meant for.  Adding an element which is already present, the common case when the
+ * same items are updated frame after frame, neither copies nor publishes.  Elements are compared
+ * by identity.
+ */
+public final class SnapshotSet<T> {
+    private static final Object[] EMPTY = new Object[0];
+
+    private final Object mWriteLock = new Object();
+    private volatile Snapshot<T> mSnapshot = new Snapshot<>(EMPTY);
+
+    /**
+     * Adds the element, unless it is already present.
+     *
+     * @return true if the element was added
+     */
+    public boolean add(T element) {
+        if (mSnapshot.indexOf(element) >= 0) {
+            return false;
+        }
+        synchronized (mWriteLock) {
+            Object[] elements = mSnapshot.mElements;
+            if (indexOf(elements, element) >= 0) {
+                return false;
+            }
+            Object[] copy = new Object[elements.length + 1];
+            System.arraycopy(elements, 0, copy, 0, elements.length);
+            copy[elements.length] = element;
+            mSnapshot = new Snapshot<>(copy);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the element, if present.
+     *
+     * @return true if the element was removed
+     */
+    public boolean remove(T element) {
+        if (mSnapshot.indexOf(element) < 0) {
+            return false;
+        }
+        synchronized (mWriteLock) {
+            Object[] elements = mSnapshot.mElements;
+            int index = indexOf(elements, element);
+            if (index < 0) {
+                return false;
+            }
+            Object[] copy = new Object[elements.length - 1];
+            System.arraycopy(elements, 0, copy, 0, index);
+            System.arraycopy(elements, index + 1, copy, index, copy.length - index);
+            mSnapshot = new Snapshot<>(copy);
+            return true;
+        }
+    }
+
+    /**
+     * Removes all elements.
+     */
+    public void clear() {
+        synchronized (mWriteLock) {
+            mSnapshot = new Snapshot<>(EMPTY);
+        }
+    }
+
+    /**
+     * Returns the current elements, in order of addition, as an immutable list which later changes
+     * of the set do not affect.
+     */
+    public List<T> snapshot() {
+        return mSnapshot;
+    }
+
+    public int size() {
+        return mSnapshot.mElements.length;
+    }
+
+    private static int indexOf(Object[] elements, Object element) {
+        for (int i = 0; i < elements.length; ++i) {
+            if (elements[i] == element) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Snapshot<T> extends AbstractList<T> implements RandomAccess {
+        final Object[] mElements;
+
+        Snapshot(Object[] elements) {
+            mElements = elements;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get(int index) {
+            return (T) mElements[index];
+        }
+
+        @Override
+        public int size() {
+            return mElements.length;
+        }
+
+        @Override
+        public int indexOf(Object element) {
+            return SnapshotSet.indexOf(mElements, element);
+        }
+    }
+}
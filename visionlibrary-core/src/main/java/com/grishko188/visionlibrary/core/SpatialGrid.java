@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.core;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Uniform grid index of items by their bounding boxes, for hit-testing e.g. the barcodes in view
+ * without scanning all of them.  Every item is registered in the square cells its box overlaps;
+ * cells are found by hashing their coordinates, so the grid needs no bounds and adapts to any frame
+ * size.
+ * <p/>
+ * Items are updated incrementally: moving an item only touches the cells it leaves and enters, and
+ * nothing is allocated once its cells exist.  Queries visit the cells around the query point only,
+ * so their cost depends on how crowded the area is rather than on the number of items.  Items are
+ * compared by identity.  All methods are thread safe.
+ */
+public final class SpatialGrid<T> {
+    private static final int TABLE_SIZE = 256;
+
+    private final float mCellSize;
+    private final Cell[] mTable = new Cell[TABLE_SIZE];
+    private final Map<T, Entry<T>> mEntries = new IdentityHashMap<>();
+    // The entries again, packed for scanning all of them
+    private Object[] mAll = new Object[16];
+
+    // Range of cells which hold, or held since the grid was last empty, any item
+    private int mMinCellX;
+    private int mMinCellY;
+    private int mMaxCellX = -1;
+    private int mMaxCellY = -1;
+    private int mVisit;
+
+    /**
+     * @param cellSize edge length of the cells, in the units of the boxes.  About the size of a
+     *                 typical item keeps both the cells visited and the cells per item low.
+     */
+    public SpatialGrid(float cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Invalid cell size: " + cellSize);
+        }
+        mCellSize = cellSize;
+    }
+
+    /**
+     * Adds the item with the given bounding box, or moves it there if it is already present.
+     */
+    public synchronized void put(T item, float left, float top, float right, float bottom) {
+        Entry<T> entry = mEntries.get(item);
+        if (entry == null) {
+            entry = new Entry<>(item);
+            mEntries.put(item, entry);
+            if (mEntries.size() > mAll.length) {
+                Object[] all = new Object[mAll.length * 2];
+                System.arraycopy(mAll, 0, all, 0, mAll.length);
+                mAll = all;
+            }
+            entry.mIndex = mEntries.size() - 1;
+            mAll[entry.mIndex] = entry;
+        }
+        entry.mLeft = Math.min(left, right);
+        entry.mTop = Math.min(top, bottom);
+        entry.mRight = Math.max(left, right);
+        entry.mBottom = Math.max(top, bottom);
+
+        int minX = cell(entry.mLeft);
+        int minY = cell(entry.mTop);
+        int maxX = cell(entry.mRight);
+        int maxY = cell(entry.mBottom);
+        if (entry.mRegistered && minX == entry.mMinCellX && minY == entry.mMinCellY
+                && maxX == entry.mMaxCellX && maxY == entry.mMaxCellY) {
+            return;
+        }
+        if (entry.mRegistered) {
+            unregister(entry);
+        }
+        entry.mMinCellX = minX;
+        entry.mMinCellY = minY;
+        entry.mMaxCellX = maxX;
+        entry.mMaxCellY = maxY;
+        for (int y = minY; y <= maxY; ++y) {
+            for (int x = minX; x <= maxX; ++x) {
+                getCell(x, y, true).add(entry);
+            }
+        }
+        entry.mRegistered = true;
+
+        if (mMaxCellX < mMinCellX) {
+            mMinCellX = minX;
+            mMinCellY = minY;
+            mMaxCellX = maxX;
+            mMaxCellY = maxY;
+        } else {
+            mMinCellX = Math.min(mMinCellX, minX);
+            mMinCellY = Math.min(mMinCellY, minY);
+            mMaxCellX = Math.max(mMaxCellX, maxX);
+            mMaxCellY = Math.max(mMaxCellY, maxY);
+        }
+    }
+
+    /**
+     * Removes the item, if present.
+     *
+     * @return true if the item was removed
+     */
+    public synchronized boolean remove(T item) {
+        Entry<T> entry = mEntries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        unregister(entry);
+        @SuppressWarnings("unchecked")
+        Entry<T> last = (Entry<T>) mAll[mEntries.size()];
+        mAll[entry.mIndex] = last;
+        last.mIndex = entry.mIndex;
+        mAll[mEntries.size()] = null;
+        if (mEntries.isEmpty()) {
+            resetRange();
+        }
+        return true;
+    }
+
+    /**
+     * Removes all items.  Keeps the cells for reuse.
+     */
+    public synchronized void clear() {
+        for (Cell cell : mTable) {
+            for (; cell != null; cell = cell.mNext) {
+                cell.clear();
+            }
+        }
+        for (int i = 0; i < mEntries.size(); ++i) {
+            mAll[i] = null;
+        }
+        mEntries.clear();
+        resetRange();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the item whose box contains the point.  Where boxes overlap, returns the one whose
+     * centre is closest to the point, so the item the point is most clearly within wins.
+     *
+     * @return the item, or null if no box contains the point
+     */
+    public synchronized T findAt(float x, float y) {
+        Cell cell = getCell(cell(x), cell(y), false);
+        if (cell == null) {
+            return null;
+        }
+        Entry<T> best = null;
+        float bestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < cell.mSize; ++i) {
+            @SuppressWarnings("unchecked")
+            Entry<T> entry = (Entry<T>) cell.mEntries[i];
+            if (x >= entry.mLeft && x <= entry.mRight && y >= entry.mTop && y <= entry.mBottom) {
+                float distance = entry.centerDistance(x, y);
+                if (distance < bestDistance) {
+                    best = entry;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best != null ? best.mItem : null;
+    }
+
+    /**
+     * Returns the item whose box centre is closest to the point.  Searches outwards from the cell
+     * of the point, ring by ring, until no unvisited cell can hold a closer centre.  When items are
+     * so sparse that the next ring has more cells than there are items, checks all items instead.
+     *
+     * @return the item, or null if the grid is empty
+     */
+    public synchronized T findNearest(float x, float y) {
+        if (mEntries.isEmpty()) {
+            return null;
+        }
+        int visit = ++mVisit;
+        int cx = cell(x);
+        int cy = cell(y);
+        // Rings beyond this one lie entirely outside the range of cells with items
+        int maxRing = Math.max(Math.max(cx - mMinCellX, mMaxCellX - cx),
+                Math.max(cy - mMinCellY, mMaxCellY - cy));
+
+        Entry<T> best = null;
+        float bestDistance = Float.MAX_VALUE;
+        int cells = 0;
+        for (int ring = 0; ring <= maxRing; ++ring) {
+            cells += Math.max(8 * ring, 1);
+            if (cells > mEntries.size()) {
+                return findNearestLinear(x, y);
+            }
+            for (int gy = cy - ring; gy <= cy + ring; ++gy) {
+                if (gy < mMinCellY || gy > mMaxCellY) {
+                    continue;
+                }
+                // Inner rows of the ring only have their two edge cells
+                int step = gy == cy - ring || gy == cy + ring ? 1 : Math.max(2 * ring, 1);
+                for (int gx = cx - ring; gx <= cx + ring; gx += step) {
+                    if (gx < mMinCellX || gx > mMaxCellX) {
+                        continue;
+                    }
+                    Cell cell = getCell(gx, gy, false);
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.mSize; ++i) {
+                        @SuppressWarnings("unchecked")
+                        Entry<T> entry = (Entry<T>) cell.mEntries[i];
+                        if (entry.mVisit == visit) {
+                            continue;
+                        }
+                        entry.mVisit = visit;
+                        float distance = entry.centerDistance(x, y);
+                        if (distance < bestDistance) {
+                            best = entry;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+            // Every box is registered in the cell of its centre, and the cells of the next ring
+            // are at least this far from the point
+            float reach = ring * mCellSize;
+            if (best != null && bestDistance <= reach * reach) {
+                break;
+            }
+        }
+        return best != null ? best.mItem : null;
+    }
+
+    private T findNearestLinear(float x, float y) {
+        Entry<T> best = null;
+        float bestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < mEntries.size(); ++i) {
+            @SuppressWarnings("unchecked")
+            Entry<T> entry = (Entry<T>) mAll[i];
+            float distance = entry.centerDistance(x, y);
+            if (distance < bestDistance) {
+                best = entry;
+                bestDistance = distance;
+            }
+        }
+        return best.mItem;
+    }
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / mCellSize);
+    }
+
+    private void resetRange() {
+        mMinCellX = 0;
+        mMinCellY = 0;
+        mMaxCellX = -1;
+        mMaxCellY = -1;
+    }
+
+    private void unregister(Entry<T> entry) {
+        for (int y = entry.mMinCellY; y <= entry.mMaxCellY; ++y) {
+            for (int x = entry.mMinCellX; x <= entry.mMaxCellX; ++x) {
+                getCell(x, y, false).remove(entry);
+            }
+        }
+        entry.mRegistered = false;
+    }
+
+    private Cell getCell(int x, int y, boolean create) {
+        int index = (x * 31 + y) & (TABLE_SIZE - 1);
+        for (Cell cell = mTable[index]; cell != null; cell = cell.mNext) {
+            if (cell.mX == x && cell.mY == y) {
+                return cell;
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        Cell cell = new Cell(x, y, mTable[index]);
+        mTable[index] = cell;
+        return cell;
+    }
+
+    private static final class Entry<T> {
+        final T mItem;
+        float mLeft;
+        float mTop;
+        float mRight;
+        float mBottom;
+        int mMinCellX;
+        int mMinCellY;
+        int mMaxCellX;
+        int mMaxCellY;
+        boolean mRegistered;
+        int mVisit;
+        int mIndex;
+
+        Entry(T item) {
+            mItem = item;
+        }
+
+        float centerDistance(float x, float y) {
+            float dx = x - (mLeft + mRight) / 2;
+            float dy = y - (mTop + mBottom) / 2;
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private static final class Cell {
+        final int mX;
+        final int mY;
+        final Cell mNext;
+        Object[] mEntries = new Object[4];
+        int mSize;
+
+        Cell(int x, int y, Cell next) {
+            mX = x;
+            mY = y;
+            mNext = next;
+        }
+
+        void add(Object entry) {
+            if (mSize == mEntries.length) {
+                Object[] entries = new Object[mSize * 2];
+                System.arraycopy(mEntries, 0, entries, 0, mSize);
+                mEntries = entries;
+            }
+            mEntries[mSize++] = entry;
+        }
+
+        void remove(Object entry) {
+            for (int i = 0; i < mSize; ++i) {
+                if (mEntries[i] == entry) {
+                    mEntries[i] = mEntries[--mSize];
+                    mEntries[mSize] = null;
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < mSize; ++i) {
+                mEntries[i] = null;
+            }
+            mSize = 0;
+        }
+    }
+}
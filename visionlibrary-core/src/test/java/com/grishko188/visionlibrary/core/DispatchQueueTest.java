@@ -0,0 +1,221 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DispatchQueueTest {
+
+    /**
+     * A slot holding a single value.
+     */
+    private static final class Event {
+        int mValue;
+    }
+
+    private static final DispatchQueue.SlotFactory<Event> FACTORY =
+            new DispatchQueue.SlotFactory<Event>() {
+                @Override
+                public Event create() {
+                    return new Event();
+                }
+            };
+
+    private static boolean offer(DispatchQueue<Event> queue, int value)
+            throws InterruptedException {
+        Event slot = queue.acquire();
+        if (slot == null) {
+            return false;
+        }
+        slot.mValue = value;
+        queue.commit();
+        return true;
+    }
+
+    @Test
+    public void deliversInOrderAndCirculatesTheSpare() throws InterruptedException {
+        DispatchQueue<Event> queue =
+                new DispatchQueue<>(3, DispatchQueue.DropPolicy.BLOCK, FACTORY);
+        Event spare = new Event();
+        for (int round = 0; round < 5; ++round) {
+            assertTrue(offer(queue, round * 2));
+            assertTrue(offer(queue, round * 2 + 1));
+            Event first = queue.poll(spare);
+            assertEquals(round * 2, first.mValue);
+            Event second = queue.take(first, 0);
+            assertEquals(round * 2 + 1, second.mValue);
+            spare = second;
+        }
+        assertNull(queue.poll(spare));
+        assertEquals(10, queue.getEnqueuedCount());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldestDisplacesTheHead() throws InterruptedException {
+        DispatchQueue<Event> queue =
+                new DispatchQueue<>(2, DispatchQueue.DropPolicy.DROP_OLDEST, FACTORY);
+        assertTrue(offer(queue, 1));
+        assertTrue(offer(queue, 2));
+        assertTrue(offer(queue, 3));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDroppedCount());
+        Event spare = new Event();
+        Event event = queue.poll(spare);
+        assertEquals(2, event.mValue);
+        assertEquals(3, queue.poll(event).mValue);
+    }
+
+    @Test
+    public void dropNewestKeepsTheQueuedEvents() throws InterruptedException {
+        DispatchQueue<Event> queue =
+                new DispatchQueue<>(2, DispatchQueue.DropPolicy.DROP_NEWEST, FACTORY);
+        assertTrue(offer(queue, 1));
+        assertTrue(offer(queue, 2));
+        assertFalse(offer(queue, 3));
+        assertEquals(1, queue.getDroppedCount());
+        Event event = queue.poll(new Event());
+        assertEquals(1, event.mValue);
+        assertEquals(2, queue.poll(event).mValue);
+    }
+
+    @Test
+    public void blockWaitsForTheConsumer() throws InterruptedException {
+        final DispatchQueue<Event> queue =
+                new DispatchQueue<>(1, DispatchQueue.DropPolicy.BLOCK, FACTORY);
+        assertTrue(offer(queue, 1));
+        final CountDownLatch offered = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (offer(queue, 2)) {
+                        offered.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    // Fails below.
+                }
+            }
+        }).start();
+        assertFalse(offered.await(50, TimeUnit.MILLISECONDS));
+
+        Event event = queue.take(new Event(), TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, event.mValue);
+        assertTrue(offered.await(1, TimeUnit.SECONDS));
+        assertEquals(2, queue.take(event, TimeUnit.SECONDS.toNanos(1)).mValue);
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void takeTimesOut() throws InterruptedException {
+        DispatchQueue<Event> queue =
+                new DispatchQueue<>(1, DispatchQueue.DropPolicy.BLOCK, FACTORY);
+        assertNull(queue.take(new Event(), TimeUnit.MILLISECONDS.toNanos(10)));
+    }
+
+    @Test
+    public void closeWakesTheConsumerAndDropsFurtherEvents() throws InterruptedException {
+        final DispatchQueue<Event> queue =
+                new DispatchQueue<>(1, DispatchQueue.DropPolicy.BLOCK, FACTORY);
+        final AtomicBoolean woken = new AtomicBoolean();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    woken.set(queue.take(new Event(), TimeUnit.SECONDS.toNanos(5)) == null);
+                } catch (InterruptedException e) {
+                    // Fails below.
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(20);
+        queue.close();
+        consumer.join(1000);
+        assertTrue(woken.get());
+        assertTrue(queue.isClosed());
+        assertFalse(offer(queue, 1));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void closeWakesABlockedProducer() throws InterruptedException {
+        final DispatchQueue<Event> queue =
+                new DispatchQueue<>(1, DispatchQueue.DropPolicy.BLOCK, FACTORY);
+        assertTrue(offer(queue, 1));
+        final AtomicBoolean dropped = new AtomicBoolean();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dropped.set(!offer(queue, 2));
+                } catch (InterruptedException e) {
+                    // Fails below.
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(20);
+        queue.close();
+        producer.join(1000);
+        assertTrue(dropped.get());
+    }
+
+    @Test
+    public void wakeUpReleasesAWaitingConsumerOnce() throws InterruptedException {
+        final DispatchQueue<Event> queue =
+                new DispatchQueue<>(1, DispatchQueue.DropPolicy.BLOCK, FACTORY);
+        final CountDownLatch returned = new CountDownLatch(1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (queue.take(new Event(), TimeUnit.SECONDS.toNanos(5)) == null) {
+                        returned.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    // Fails below.
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(20);
+        queue.wakeUp();
+        assertTrue(returned.await(1, TimeUnit.SECONDS));
+        assertFalse(queue.isClosed());
+
+        // Queued events are still taken first, and the queue keeps working afterwards.
+        assertTrue(offer(queue, 1));
+        queue.wakeUp();
+        Event event = queue.take(new Event(), 0);
+        assertEquals(1, event.mValue);
+        assertNull(queue.take(event, TimeUnit.SECONDS.toNanos(1)));
+        assertTrue(offer(queue, 2));
+        assertEquals(2, queue.take(event, TimeUnit.SECONDS.toNanos(1)).mValue);
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void pollKeepsTheSpareOutOfAnEmptyQueue() throws InterruptedException {
+        DispatchQueue<Event> queue =
+                new DispatchQueue<>(1, DispatchQueue.DropPolicy.BLOCK, FACTORY);
+        Event spare = new Event();
+        assertNull(queue.poll(spare));
+        Event slot = queue.acquire();
+        assertNotSame(spare, slot);
+        queue.commit();
+        assertSame(slot, queue.poll(spare));
+        // The spare took the place of the taken slot.
+        assertSame(spare, queue.acquire());
+        queue.commit();
+    }
+}
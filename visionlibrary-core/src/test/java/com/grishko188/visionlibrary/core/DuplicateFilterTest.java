@@ -0,0 +1,96 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateFilterTest {
+    private static final int EAN_13 = DecodedBarcode.EAN_13;
+    private static final int EAN_8 = DecodedBarcode.EAN_8;
+
+    @Test
+    public void suppressesRepeatsWithinTheWindow() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8);
+        assertTrue(filter.accept(EAN_13, "a", 0));
+        assertFalse(filter.accept(EAN_13, "a", 999));
+        assertTrue(filter.accept(EAN_13, "a", 1000));
+        // The window starts over when the value is accepted again, not when it is suppressed.
+        assertFalse(filter.accept(EAN_13, "a", 1999));
+        assertTrue(filter.accept(EAN_13, "a", 2000));
+        assertEquals(3, filter.getMissCount());
+        assertEquals(2, filter.getHitCount());
+    }
+
+    @Test
+    public void tellsFormatsAndValuesApart() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8);
+        assertTrue(filter.accept(EAN_13, "a", 0));
+        assertTrue(filter.accept(EAN_8, "a", 0));
+        assertTrue(filter.accept(EAN_13, "b", 0));
+        assertTrue(filter.accept(EAN_13, null, 0));
+        assertFalse(filter.accept(EAN_13, null, 1));
+        assertFalse(filter.accept(EAN_8, "a", 1));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlySeenValue() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 2);
+        assertTrue(filter.accept(EAN_13, "a", 0));
+        assertTrue(filter.accept(EAN_13, "b", 1));
+        // Seeing "a" again makes "b" the least recently seen.
+        assertFalse(filter.accept(EAN_13, "a", 2));
+        assertTrue(filter.accept(EAN_13, "c", 3));
+
+        assertFalse(filter.accept(EAN_13, "a", 4));
+        assertFalse(filter.accept(EAN_13, "c", 5));
+        assertTrue("b should have been evicted", filter.accept(EAN_13, "b", 6));
+    }
+
+    @Test
+    public void clearForgetsEverythingButTheCounters() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 2);
+        filter.accept(EAN_13, "a", 0);
+        filter.accept(EAN_13, "a", 1);
+        filter.clear();
+        assertTrue(filter.accept(EAN_13, "a", 2));
+        assertEquals(1, filter.getHitCount());
+        assertEquals(2, filter.getMissCount());
+    }
+
+    @Test
+    public void matchesAnAccessOrderedMap() {
+        final int capacity = 16;
+        final long ttl = 50;
+        DuplicateFilter filter = new DuplicateFilter(ttl, capacity);
+        Map<String, Long> model = new LinkedHashMap<String, Long>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+        Random random = new Random(42);
+        for (long time = 0; time < 20000; ++time) {
+            int format = random.nextBoolean() ? EAN_13 : EAN_8;
+            String value = Integer.toString(random.nextInt(40));
+            String key = format + ":" + value;
+            Long accepted = model.get(key);
+            boolean expected = accepted == null || time - accepted >= ttl;
+            if (expected) {
+                model.put(key, time);
+            }
+            assertEquals("At " + time + " for " + key, expected,
+                    filter.accept(format, value, time));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnInvalidCapacity() {
+        new DuplicateFilter(1000, 0);
+    }
+}
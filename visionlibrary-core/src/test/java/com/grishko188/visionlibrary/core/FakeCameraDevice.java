@@ -0,0 +1,152 @@
+package com.grishko188.visionlibrary.core;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Stand-in for a Camera2 device streaming {@code YUV_420_888} images into an
+ * {@code ImageReader}, to drive the frame delivery path on a JVM host.
+ * <p/>
+ * The images are laid out as devices commonly do: direct buffers, luma rows padded to a multiple of
+ * 64 bytes, and chroma either semi-planar, with the U and V planes interleaved in the same memory,
+ * or fully planar.  Like an {@code ImageReader}, the device holds a fixed number of images and
+ * refuses to capture once all of them are still open.
+ */
+final class FakeCameraDevice {
+    private static final int ROW_ALIGNMENT = 64;
+
+    private final FakeImage[] mImages;
+    private int mNext;
+
+    /**
+     * @param width      the width of the images
+     * @param height     the height of the images
+     * @param semiPlanar true for interleaved chroma (pixel stride 2), false for planar chroma
+     * @param maxImages  the number of images which may be open at the same time
+     */
+    FakeCameraDevice(int width, int height, boolean semiPlanar, int maxImages) {
+        Random random = new Random(42);
+        mImages = new FakeImage[maxImages];
+        for (int i = 0; i < maxImages; ++i) {
+            mImages[i] = new FakeImage(width, height, semiPlanar, random);
+        }
+    }
+
+    /**
+     * Captures the next image.
+     *
+     * @throws IllegalStateException if all images are still open
+     */
+    PlanarImage capture() {
+        for (int i = 0; i < mImages.length; ++i) {
+            FakeImage image = mImages[mNext];
+            mNext = (mNext + 1) % mImages.length;
+            if (!image.mOpen) {
+                image.mOpen = true;
+                return image;
+            }
+        }
+        throw new IllegalStateException("maxImages (" + mImages.length
+                + ") has already been acquired, call close() before acquiring more.");
+    }
+
+    int getOpenImageCount() {
+        int count = 0;
+        for (FakeImage image : mImages) {
+            if (image.mOpen) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private static final class FakeImage implements PlanarImage {
+        private final int mWidth;
+        private final int mHeight;
+        private final ByteBuffer[] mPlanes = new ByteBuffer[3];
+        private final int mLumaRowStride;
+        private final int mChromaRowStride;
+        private final int mChromaPixelStride;
+        private boolean mOpen;
+
+        FakeImage(int width, int height, boolean semiPlanar, Random random) {
+            mWidth = width;
+            mHeight = height;
+            int chromaWidth = (width + 1) / 2;
+            int chromaHeight = (height + 1) / 2;
+            mLumaRowStride = align(width);
+            mChromaPixelStride = semiPlanar ? 2 : 1;
+            mChromaRowStride = semiPlanar ? mLumaRowStride : align(chromaWidth);
+
+            mPlanes[PLANE_Y] = filled(mLumaRowStride * height, random);
+            if (semiPlanar) {
+                // V first, as in NV21: the U plane starts one byte into the same memory.
+                ByteBuffer chroma = filled(mChromaRowStride * chromaHeight, random);
+                mPlanes[PLANE_V] = slice(chroma, 0, mChromaRowStride * (chromaHeight - 1)
+                        + 2 * chromaWidth - 1);
+                mPlanes[PLANE_U] = slice(chroma, 1, mChromaRowStride * (chromaHeight - 1)
+                        + 2 * chromaWidth - 1);
+            } else {
+                mPlanes[PLANE_U] = filled(mChromaRowStride * chromaHeight, random);
+                mPlanes[PLANE_V] = filled(mChromaRowStride * chromaHeight, random);
+            }
+        }
+
+        private static int align(int size) {
+            return (size + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+        }
+
+        private static ByteBuffer filled(int size, Random random) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            buffer.put(data);
+            buffer.clear();
+            return buffer;
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(offset);
+            slice.limit(offset + length);
+            return slice.slice();
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public ByteBuffer getBuffer(int plane) {
+            checkOpen();
+            return mPlanes[plane];
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return plane == PLANE_Y ? mLumaRowStride : mChromaRowStride;
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return plane == PLANE_Y ? 1 : mChromaPixelStride;
+        }
+
+        @Override
+        public void close() {
+            mOpen = false;
+        }
+
+        private void checkOpen() {
+            if (!mOpen) {
+                throw new IllegalStateException("Image is already closed");
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.grishko188.visionlibrary.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.Control;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the camera-thread cost of handing a preview frame to the detection thread through the
+ * previous {@code synchronized}/{@code wait}/{@code notifyAll} slot against
+ * {@link LatestFrameExchanger}.  A synthetic producer publishes frames at 30, 60 and 120 fps while
+ * a consumer simulates a short detection pass on every frame it takes.
+ * <p>
+ * The producer's pacing happens in an untimed per-invocation setup, so the reported {@code produce}
+ * score is the cost paid on the camera callback thread per frame.
+ * <p>
+ * Run {@link #main(String[])} from the IDE, on a JVM host.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class FrameHandoffBenchmark {
+
+    private static final long TAKE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int DETECTION_TOKENS = 20_000;
+
+    /**
+     * Monitor based handoff, as used by CameraSource before the lock-free exchanger.
+     */
+    static final class MonitorHandoff<T> {
+        private final Object mLock = new Object();
+        private T mPending;
+
+        T offer(T frame) {
+            synchronized (mLock) {
+                T displaced = mPending;
+                mPending = frame;
+                mLock.notifyAll();
+                return displaced;
+            }
+        }
+
+        T take(long timeoutNanos) throws InterruptedException {
+            synchronized (mLock) {
+                if (mPending == null) {
+                    TimeUnit.NANOSECONDS.timedWait(mLock, timeoutNanos);
+                }
+                T frame = mPending;
+                mPending = null;
+                return frame;
+            }
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Handoff {
+        @Param({"30", "60", "120"})
+        public int fps;
+
+        final Object[] frames = {new Object(), new Object(), new Object(), new Object()};
+        MonitorHandoff<Object> monitor;
+        LatestFrameExchanger<Object> exchanger;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            monitor = new MonitorHandoff<>();
+            exchanger = new LatestFrameExchanger<>(1);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Pacer {
+        private long mIntervalNanos;
+        private long mNextFrameNanos;
+        int frameIndex;
+
+        @Setup(Level.Iteration)
+        public void setUp(Handoff handoff) {
+            mIntervalNanos = TimeUnit.SECONDS.toNanos(1) / handoff.fps;
+            mNextFrameNanos = System.nanoTime();
+        }
+
+        @Setup(Level.Invocation)
+        public void waitForNextFrame() {
+            mNextFrameNanos += mIntervalNanos;
+            long remaining = mNextFrameNanos - System.nanoTime();
+            if (remaining > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            frameIndex = (frameIndex + 1) & 3;
+        }
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public Object monitorProduce(Handoff handoff, Pacer pacer) {
+        return handoff.monitor.offer(handoff.frames[pacer.frameIndex]);
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public void monitorConsume(Handoff handoff, Control control) throws InterruptedException {
+        while (!control.stopMeasurement) {
+            if (handoff.monitor.take(TAKE_TIMEOUT_NANOS) != null) {
+                Blackhole.consumeCPU(DETECTION_TOKENS);
+                return;
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(1)
+    public Object lockFreeProduce(Handoff handoff, Pacer pacer) {
+        return handoff.exchanger.offer(handoff.frames[pacer.frameIndex]);
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(1)
+    public void lockFreeConsume(Handoff handoff, Control control) {
+        while (!control.stopMeasurement) {
+            if (handoff.exchanger.take(0, TAKE_TIMEOUT_NANOS) != null) {
+                Blackhole.consumeCPU(DETECTION_TOKENS);
+                return;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FrameHandoffBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,187 @@
+package com.grishko188.visionlibrary.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the hot paths of {@link FramePipeline} on a synthetic 1280x720 NV21 frame: the per-frame
+ * preprocessing steps on their own, and the throughput of the whole pipeline fed by a synthetic
+ * {@link FrameSource} with a detector which scans the luma plane.
+ * <p>
+ * Run {@link #main(String[])} from the IDE, on a JVM host.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class FramePipelineBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int SCALE = 2;
+
+    @State(Scope.Thread)
+    public static class Image {
+        final byte[] frame = new byte[Nv21Image.frameSize(WIDTH, HEIGHT)];
+        final ScanWindow window = ScanWindow.fromRegion(0.25f, 0.25f, 0.75f, 0.75f,
+                WIDTH, HEIGHT, 1);
+        byte[] crop;
+        byte[] coarse;
+        SharpnessGate sharpnessGate;
+        MotionGate motionGate;
+        long timeMillis;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            new Random(42).nextBytes(frame);
+            crop = new byte[Nv21Image.frameSize(window.getWidth(), window.getHeight())];
+            coarse = new byte[Nv21Image.frameSize(Nv21Image.downscaledSize(WIDTH, SCALE),
+                    Nv21Image.downscaledSize(HEIGHT, SCALE))];
+            sharpnessGate = new SharpnessGate(4096, 0.5f);
+            motionGate = new MotionGate(4f, 500, 1024);
+        }
+    }
+
+    @Benchmark
+    public byte[] crop(Image image) {
+        ScanWindow window = image.window;
+        Nv21Image.crop(image.frame, WIDTH, HEIGHT, window.getX(), window.getY(),
+                window.getWidth(), window.getHeight(), image.crop);
+        return image.crop;
+    }
+
+    @Benchmark
+    public byte[] downscaleLuma(Image image) {
+        Nv21Image.downscaleLuma(image.frame, WIDTH, HEIGHT, SCALE, image.coarse);
+        return image.coarse;
+    }
+
+    @Benchmark
+    public boolean sharpnessGate(Image image) {
+        return image.sharpnessGate.accept(image.frame, WIDTH, 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public boolean motionGate(Image image) {
+        return image.motionGate.isUnchanged(image.frame, WIDTH, 0, 0, WIDTH, HEIGHT,
+                image.timeMillis++);
+    }
+
+    /**
+     * Frame source handing out its buffers from a queue, as fast as the pipeline recycles them.
+     */
+    static final class QueueFrameSource implements FrameSource {
+        final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(16);
+
+        @Override
+        public void recycle(byte[] buffer) {
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * Stand-in for a decoder: sums a sparse grid of the luma plane.
+     */
+    static final class LumaDetector implements FrameDetector<long[]> {
+        @Override
+        public long[] detect(FrameData frame) {
+            ByteBuffer data = frame.getData();
+            long sum = 0;
+            for (int y = 0; y < frame.getHeight(); y += 2) {
+                int offset = y * frame.getWidth();
+                for (int x = 0; x < frame.getWidth(); x += 2) {
+                    sum += data.get(offset + x) & 0xff;
+                }
+            }
+            return new long[]{sum};
+        }
+
+        @Override
+        public int getItemCount(long[] result) {
+            return result[0] > 0 ? 1 : 0;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Pipeline {
+        @Param({"1", "2", "4"})
+        public int workers;
+
+        final QueueFrameSource source = new QueueFrameSource();
+        final AtomicLong delivered = new AtomicLong();
+        FramePipeline<long[]> pipeline;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pipeline = new FramePipeline<>(new LumaDetector(), new ResultSink<long[]>() {
+                @Override
+                public void onResult(long[] result) {
+                    delivered.incrementAndGet();
+                }
+
+                @Override
+                public void release() {
+                }
+            }, workers);
+            pipeline.prepare(source, WIDTH, HEIGHT, 0, Nv21Image.frameSize(WIDTH, HEIGHT),
+                    workers + 3);
+            pipeline.start("FramePipelineBenchmark-");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pipeline.stop();
+            pipeline.reset();
+            pipeline.release();
+        }
+    }
+
+    /**
+     * Feeds frames to the pipeline as fast as buffers are recycled, until one more result has been
+     * delivered.  The score is the time per delivered result the pipeline sustains.
+     */
+    @Benchmark
+    public void pipeline(Pipeline state) {
+        long target = state.delivered.get() + 1;
+        while (state.delivered.get() < target) {
+            byte[] buffer = state.source.free.poll();
+            if (buffer != null) {
+                state.pipeline.onFrame(buffer, System.nanoTime());
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FramePipelineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,179 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FramePipelineTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int BUFFER_COUNT = 6;
+
+    private final BlockingQueue<byte[]> mFreeBuffers = new LinkedBlockingQueue<>();
+    private final List<Integer> mDelivered = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<Throwable> mErrors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+    private FramePipeline<Integer> mPipeline;
+
+    /**
+     * Returns the id of every frame as its result, after sleeping for a while on every
+     * {@code slowEvery}th frame, starting with the first one.
+     */
+    private static FrameDetector<Integer> idDetector(final int slowEvery, final long slowMillis) {
+        return new FrameDetector<Integer>() {
+            @Override
+            public Integer detect(FrameData frame) {
+                if (frame.getId() % slowEvery == 1) {
+                    try {
+                        Thread.sleep(slowMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return frame.getId();
+            }
+
+            @Override
+            public int getItemCount(Integer result) {
+                return 1;
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+    }
+
+    private void startPipeline(FrameDetector<Integer> detector, int workerCount) {
+        mPipeline = new FramePipeline<>(detector, new ResultSink<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                mDelivered.add(result);
+            }
+
+            @Override
+            public void release() {
+            }
+        }, workerCount);
+        mPipeline.setErrorListener(new FramePipeline.ErrorListener() {
+            @Override
+            public void onError(String message, Throwable t) {
+                mErrors.add(t != null ? t : new Exception(message));
+            }
+        });
+        mPipeline.prepare(new FrameSource() {
+            @Override
+            public void recycle(byte[] buffer) {
+                mFreeBuffers.add(buffer);
+            }
+        }, WIDTH, HEIGHT, 0, Nv21Image.frameSize(WIDTH, HEIGHT), BUFFER_COUNT);
+        mPipeline.start("FramePipelineTest-");
+    }
+
+    /**
+     * Delivers frames like a camera: every frame goes into the next free buffer, at the given
+     * interval.
+     */
+    private void deliverFrames(int count, long intervalMillis) throws InterruptedException {
+        for (int i = 0; i < count; ++i) {
+            byte[] buffer = mFreeBuffers.poll(1, TimeUnit.SECONDS);
+            assertNotNull("The pipeline never handed a buffer back", buffer);
+            mPipeline.onFrame(buffer, System.nanoTime());
+            Thread.sleep(intervalMillis);
+        }
+    }
+
+    private long getProcessedFrameCount() {
+        long count = 0;
+        for (long processed : mPipeline.getProcessedFrameCounts()) {
+            count += processed;
+        }
+        return count;
+    }
+
+    private void assertDeliveredInOrder() {
+        for (int i = 1; i < mDelivered.size(); ++i) {
+            assertTrue("Out of order: " + mDelivered, mDelivered.get(i) > mDelivered.get(i - 1));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mPipeline != null) {
+            mPipeline.stop();
+            mPipeline.reset();
+            mPipeline.release();
+        }
+    }
+
+    @Test
+    public void deliversEveryDetectedFrameInOrder() throws InterruptedException {
+        startPipeline(idDetector(3, 15), 3);
+        deliverFrames(60, 2);
+        mPipeline.stop();
+
+        assertTrue(mErrors.toString(), mErrors.isEmpty());
+        assertEquals(getProcessedFrameCount(), mDelivered.size());
+        assertDeliveredInOrder();
+    }
+
+    @Test
+    public void dropsDoNotOverrunTheDispatcherWhileAWorkerIsSlow() throws InterruptedException {
+        // The first frame keeps a worker busy while the other one goes through many frames and
+        // plenty more are displaced, far more than the dispatcher window.
+        startPipeline(idDetector(Integer.MAX_VALUE, 300), 2);
+        deliverFrames(200, 1);
+        mPipeline.stop();
+
+        PipelineMetrics.Snapshot metrics = mPipeline.getMetrics().snapshot();
+        assertTrue("No frame was dropped", metrics.getFramesDropped() > 0);
+        assertTrue(mErrors.toString(), mErrors.isEmpty());
+        assertEquals(getProcessedFrameCount(), mDelivered.size());
+        assertEquals(Integer.valueOf(1), mDelivered.get(0));
+        assertDeliveredInOrder();
+    }
+
+    @Test
+    public void firstFrameIsReportedOnceAfterEveryReset() throws InterruptedException {
+        final List<Long> firstFrames = Collections.synchronizedList(new ArrayList<Long>());
+        startPipeline(idDetector(Integer.MAX_VALUE, 0), 1);
+        mPipeline.setFirstFrameListener(new FramePipeline.FirstFrameListener() {
+            @Override
+            public void onFirstFrame(long receivedNanos) {
+                firstFrames.add(receivedNanos);
+            }
+        });
+        deliverFrames(5, 1);
+        assertEquals(1, firstFrames.size());
+
+        mPipeline.stop();
+        mPipeline.reset();
+        mPipeline.start("FramePipelineTest-");
+        deliverFrames(5, 1);
+        assertEquals(2, firstFrames.size());
+    }
+
+    @Test
+    public void aFrameThatFailsBeforeDetectionIsSkippedAndItsBufferRecycled()
+            throws InterruptedException {
+        startPipeline(idDetector(Integer.MAX_VALUE, 0), 2);
+        // A window computed for larger frames makes every crop run past the end of the buffer.
+        mPipeline.setScanWindow(ScanWindow.fromRegion(0, 0, 1, 1, WIDTH * 2, HEIGHT * 2, 0));
+        deliverFrames(20, 1);
+        mPipeline.stop();
+
+        assertTrue("No error was reported", !mErrors.isEmpty());
+        assertTrue(mDelivered.toString(), mDelivered.isEmpty());
+        assertEquals(0, getProcessedFrameCount());
+    }
+}
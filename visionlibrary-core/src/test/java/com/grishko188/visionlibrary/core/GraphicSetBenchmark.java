@@ -0,0 +1,130 @@
+package com.grishko188.visionlibrary.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the overlay's graphic set, as drawn on the UI thread while detection threads update it,
+ * between the previous {@code HashSet} guarded by a lock and {@link SnapshotSet}.  The drawing
+ * thread iterates all graphics, while updater threads re-add the graphics in view, as trackers do
+ * on every frame, and occasionally add and remove one.
+ * <p/>
+ * Run {@link #main(String[])} from the IDE, on a JVM host.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class GraphicSetBenchmark {
+
+    private static final int CHURN_INTERVAL = 64;
+
+    @State(Scope.Group)
+    public static class Graphics {
+        @Param({"4", "20"})
+        public int count;
+
+        final Object lock = new Object();
+        final Set<Object> locked = new HashSet<>();
+        final SnapshotSet<Object> snapshot = new SnapshotSet<>();
+        Object[] graphics;
+        final Object churning = new Object();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            graphics = new Object[count];
+            for (int i = 0; i < count; ++i) {
+                graphics[i] = new Object();
+                locked.add(graphics[i]);
+                snapshot.add(graphics[i]);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Updater {
+        int step;
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public int lockedDraw(Graphics state) {
+        int sum = 0;
+        synchronized (state.lock) {
+            for (Object graphic : state.locked) {
+                sum += System.identityHashCode(graphic);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(2)
+    public void lockedUpdate(Graphics state, Updater updater) {
+        int step = updater.step++;
+        synchronized (state.lock) {
+            state.locked.add(state.graphics[step % state.count]);
+        }
+        if (step % CHURN_INTERVAL == 0) {
+            synchronized (state.lock) {
+                if (!state.locked.add(state.churning)) {
+                    state.locked.remove(state.churning);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public int snapshotDraw(Graphics state) {
+        int sum = 0;
+        List<Object> graphics = state.snapshot.snapshot();
+        for (int i = 0; i < graphics.size(); ++i) {
+            sum += System.identityHashCode(graphics.get(i));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(2)
+    public void snapshotUpdate(Graphics state, Updater updater) {
+        int step = updater.step++;
+        state.snapshot.add(state.graphics[step % state.count]);
+        if (step % CHURN_INTERVAL == 0) {
+            if (!state.snapshot.add(state.churning)) {
+                state.snapshot.remove(state.churning);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(GraphicSetBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,165 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LatestFrameExchangerTest {
+
+    @Test
+    public void offerReturnsTheDisplacedFrame() {
+        LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>(1);
+        assertNull(exchanger.offer("a"));
+        assertEquals("a", exchanger.offer("b"));
+        assertEquals("b", exchanger.take(0));
+        assertNull(exchanger.poll());
+    }
+
+    @Test
+    public void takeTimesOutWhenNothingIsOffered() {
+        LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>(1);
+        long start = System.nanoTime();
+        assertNull(exchanger.take(0, TimeUnit.MILLISECONDS.toNanos(20)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void offerWakesAParkedConsumer() throws InterruptedException {
+        final LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>(2);
+        final AtomicReference<String> taken = new AtomicReference<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken.set(exchanger.take(1));
+            }
+        });
+        consumer.start();
+        // Give the consumer a chance to park.
+        Thread.sleep(20);
+        exchanger.offer("a");
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+        assertEquals("a", taken.get());
+    }
+
+    @Test
+    public void closeWakesParkedConsumersAndLeavesThePendingFrame() throws InterruptedException {
+        final LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; ++i) {
+            final int consumer = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (exchanger.take(consumer) == null) {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        Thread.sleep(20);
+        exchanger.close();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+
+        exchanger.offer("a");
+        assertNull(exchanger.take(0));
+        assertEquals("a", exchanger.poll());
+
+        exchanger.open();
+        exchanger.offer("b");
+        assertEquals("b", exchanger.take(0));
+    }
+
+    @Test
+    public void sequencerNumbersOnlyTakenFrames() {
+        final List<String> numbered = new ArrayList<>();
+        LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>(1,
+                new LatestFrameExchanger.Sequencer<String>() {
+                    @Override
+                    public void onTaken(String frame, long sequence) {
+                        numbered.add(frame + sequence);
+                    }
+                });
+        exchanger.offer("a");
+        exchanger.offer("b");
+        assertEquals("b", exchanger.take(0));
+        exchanger.offer("c");
+        assertEquals("c", exchanger.poll());
+        exchanger.offer("d");
+        assertEquals("d", exchanger.take(0));
+        exchanger.resetSequence();
+        exchanger.offer("e");
+        assertEquals("e", exchanger.take(0));
+
+        List<String> expected = new ArrayList<>();
+        expected.add("b0");
+        expected.add("d1");
+        expected.add("e0");
+        assertEquals(expected, numbered);
+    }
+
+    @Test
+    public void everyFrameHasExactlyOneOwner() throws InterruptedException {
+        final int frames = 20000;
+        final LatestFrameExchanger<Integer> exchanger = new LatestFrameExchanger<>(3);
+        final int[] owners = new int[frames];
+        final Object lock = new Object();
+        Thread[] consumers = new Thread[3];
+        for (int i = 0; i < consumers.length; ++i) {
+            final int consumer = i;
+            consumers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Integer frame;
+                    while ((frame = exchanger.take(consumer)) != null) {
+                        synchronized (lock) {
+                            owners[frame]++;
+                        }
+                    }
+                }
+            });
+            consumers[i].start();
+        }
+        for (int i = 0; i < frames; ++i) {
+            Integer displaced = exchanger.offer(i);
+            if (displaced != null) {
+                synchronized (lock) {
+                    owners[displaced]++;
+                }
+            }
+        }
+        Thread.sleep(20);
+        exchanger.close();
+        for (Thread consumer : consumers) {
+            consumer.join(1000);
+        }
+        Integer pending = exchanger.poll();
+        synchronized (lock) {
+            if (pending != null) {
+                owners[pending]++;
+            }
+            for (int i = 0; i < frames; ++i) {
+                assertEquals("Owners of frame " + i, 1, owners[i]);
+            }
+        }
+    }
+
+    @Test
+    public void pollDoesNotWait() {
+        LatestFrameExchanger<Object> exchanger = new LatestFrameExchanger<>(1);
+        assertNull(exchanger.poll());
+        Object frame = new Object();
+        exchanger.offer(frame);
+        assertSame(frame, exchanger.poll());
+    }
+}
@@ -0,0 +1,188 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LumaBarcodeDecoderTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 160;
+    private static final int MODULE = 2;
+    private static final int NOISE = 16;
+
+    private static final String[] L_CODES = {
+            "0001101", "0011001", "0010011", "0111101", "0100011",
+            "0110001", "0101111", "0111011", "0110111", "0001011"
+    };
+    private static final String[] PARITIES = {
+            "LLLLLL", "LLGLGG", "LLGGLG", "LLGGGL", "LGLLGG",
+            "LGGLLG", "LGGGLL", "LGLGLG", "LGLGGL", "LGGLGL"
+    };
+
+    /**
+     * Returns the modules of an EAN-13 or, for 8 digits, an EAN-8, with a quiet zone of 9 modules
+     * either side.  The check digit is not verified, so that invalid codes can be drawn.
+     */
+    private static String encode(String value) {
+        boolean ean8 = value.length() == 8;
+        int half = ean8 ? 4 : 6;
+        int first = ean8 ? 0 : 1;
+        String parity = ean8 ? "LLLL" : PARITIES[value.charAt(0) - '0'];
+        StringBuilder bits = new StringBuilder("000000000101");
+        for (int i = 0; i < half; ++i) {
+            String code = L_CODES[value.charAt(first + i) - '0'];
+            bits.append(parity.charAt(i) == 'L' ? code : new StringBuilder(invert(code)).reverse());
+        }
+        bits.append("01010");
+        for (int i = 0; i < half; ++i) {
+            bits.append(invert(L_CODES[value.charAt(first + half + i) - '0']));
+        }
+        bits.append("101000000000");
+        return bits.toString();
+    }
+
+    private static String invert(String code) {
+        StringBuilder inverted = new StringBuilder();
+        for (int i = 0; i < code.length(); ++i) {
+            inverted.append(code.charAt(i) == '1' ? '0' : '1');
+        }
+        return inverted.toString();
+    }
+
+    /**
+     * Draws the modules across a noisy frame, along rows or along columns, centered.
+     */
+    private static byte[] draw(String modules, boolean columns) {
+        Random random = new Random(42);
+        int length = modules.length() * MODULE;
+        int start = ((columns ? HEIGHT : WIDTH) - length) / 2;
+        byte[] frame = new byte[Nv21Image.frameSize(WIDTH, HEIGHT)];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                int along = (columns ? y : x) - start;
+                boolean dark = along >= 0 && along < length
+                        && modules.charAt(along / MODULE) == '1';
+                int luma = (dark ? 40 : 200) + random.nextInt(2 * NOISE) - NOISE;
+                frame[y * WIDTH + x] = (byte) luma;
+            }
+        }
+        Nv21Image.fillNeutralChroma(frame, WIDTH, HEIGHT);
+        return frame;
+    }
+
+    private static String mirror(String modules) {
+        return new StringBuilder(modules).reverse().toString();
+    }
+
+    private static void assertDecodes(LumaBarcodeDecoder decoder, byte[] frame, int format,
+                                      String value) {
+        List<DecodedBarcode> barcodes = decoder.decode(frame, WIDTH, HEIGHT, 0);
+        assertEquals(barcodes.toString(), 1, barcodes.size());
+        assertEquals(format, barcodes.get(0).getFormat());
+        assertEquals(value, barcodes.get(0).getRawValue());
+    }
+
+    @Test
+    public void decodesEan13() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+        String modules = encode("4006381333931");
+        assertDecodes(decoder, draw(modules, false), DecodedBarcode.EAN_13, "4006381333931");
+        assertDecodes(decoder, draw(mirror(modules), false), DecodedBarcode.EAN_13,
+                "4006381333931");
+    }
+
+    @Test
+    public void decodesUpcA() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+        // A UPC-A is an EAN-13 with a leading 0.
+        String modules = encode("0036000291452");
+        assertDecodes(decoder, draw(modules, false), DecodedBarcode.UPC_A, "036000291452");
+        assertDecodes(decoder, draw(mirror(modules), false), DecodedBarcode.UPC_A,
+                "036000291452");
+    }
+
+    @Test
+    public void decodesUpcAAsEan13WhenOnlyEan13IsWanted() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder(DecodedBarcode.EAN_13, 24, 2);
+        assertDecodes(decoder, draw(encode("0036000291452"), false), DecodedBarcode.EAN_13,
+                "0036000291452");
+    }
+
+    @Test
+    public void decodesEan8() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+        String modules = encode("96385074");
+        assertDecodes(decoder, draw(modules, false), DecodedBarcode.EAN_8, "96385074");
+        assertDecodes(decoder, draw(mirror(modules), false), DecodedBarcode.EAN_8, "96385074");
+    }
+
+    @Test
+    public void decodesTwoBarcodesOnTheSameLine() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+        String left = encode("96385074");
+        String right = encode("55123457");
+        // Trimmed quiet zones on the outer sides, so that both fit across the frame.
+        String both = left.substring(3) + right.substring(9, right.length() - 3);
+        Set<String> expected = new HashSet<>(Arrays.asList("96385074", "55123457"));
+        for (String modules : new String[]{both, mirror(both)}) {
+            Set<String> values = new HashSet<>();
+            for (DecodedBarcode barcode : decoder.decode(draw(modules, false), WIDTH, HEIGHT, 0)) {
+                assertEquals(DecodedBarcode.EAN_8, barcode.getFormat());
+                values.add(barcode.getRawValue());
+            }
+            assertEquals(expected, values);
+        }
+    }
+
+    @Test
+    public void decodesAlongColumns() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+        assertDecodes(decoder, draw(encode("96385074"), true), DecodedBarcode.EAN_8,
+                "96385074");
+    }
+
+    @Test
+    public void rejectsAWrongCheckDigit() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+        assertTrue(decoder.decode(draw(encode("4006381333932"), false), WIDTH, HEIGHT, 0)
+                .isEmpty());
+        assertTrue(decoder.decode(draw(encode("96385075"), false), WIDTH, HEIGHT, 0).isEmpty());
+    }
+
+    @Test
+    public void ignoresUnwantedFormats() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder(DecodedBarcode.EAN_13, 24, 2);
+        assertTrue(decoder.decode(draw(encode("96385074"), false), WIDTH, HEIGHT, 0).isEmpty());
+    }
+
+    @Test
+    public void findsNothingInABlankFrame() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+        byte[] frame = new byte[Nv21Image.frameSize(WIDTH, HEIGHT)];
+        Random random = new Random(42);
+        for (int i = 0; i < WIDTH * HEIGHT; ++i) {
+            frame[i] = (byte) (200 + random.nextInt(2 * NOISE) - NOISE);
+        }
+        assertTrue(decoder.decode(frame, WIDTH, HEIGHT, 0).isEmpty());
+    }
+
+    @Test
+    public void reportsAnUprightBoundingBox() {
+        LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+        byte[] frame = draw(encode("96385074"), false);
+        DecodedBarcode upright = decoder.decode(frame, WIDTH, HEIGHT, 0).get(0);
+        DecodedBarcode rotated = decoder.decode(frame, WIDTH, HEIGHT, 1).get(0);
+        // A quarter turn clockwise: the sensor's rows become the upright columns.
+        assertEquals(HEIGHT - upright.getBottom(), rotated.getLeft());
+        assertEquals(upright.getLeft(), rotated.getTop());
+        assertEquals(HEIGHT - upright.getTop(), rotated.getRight());
+        assertEquals(upright.getRight(), rotated.getBottom());
+    }
+}
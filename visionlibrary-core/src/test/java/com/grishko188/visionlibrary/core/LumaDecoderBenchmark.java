@@ -0,0 +1,132 @@
+package com.grishko188.visionlibrary.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link LumaBarcodeDecoder} on a synthetic 1280x720 NV21 frame holding a noisy EAN-13,
+ * drawn along the rows or the columns, and on a frame without any barcode.  The same frames can be
+ * handed to the Play Services detector on a device for a side by side comparison.
+ * <p/>
+ * Run {@link #main(String[])} from the IDE, on a JVM host.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class LumaDecoderBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final String VALUE = "4006381333931";
+    private static final int MODULE = 3;
+    private static final int NOISE = 24;
+
+    private static final String[] L_CODES = {
+            "0001101", "0011001", "0010011", "0111101", "0100011",
+            "0110001", "0101111", "0111011", "0110111", "0001011"
+    };
+    private static final String[] PARITIES = {
+            "LLLLLL", "LLGLGG", "LLGGLG", "LLGGGL", "LGLLGG",
+            "LGGLLG", "LGGGLL", "LGLGLG", "LGLGGL", "LGGLGL"
+    };
+
+    @State(Scope.Thread)
+    public static class Image {
+        @Param({"rows", "columns", "blank"})
+        public String layout;
+
+        final byte[] frame = new byte[Nv21Image.frameSize(WIDTH, HEIGHT)];
+        final LumaBarcodeDecoder decoder = new LumaBarcodeDecoder();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(42);
+            boolean[] modules = encode(VALUE);
+            boolean blank = "blank".equals(layout);
+            boolean columns = "columns".equals(layout);
+            int length = modules.length * MODULE;
+            int start = ((columns ? HEIGHT : WIDTH) - length) / 2;
+            for (int y = 0; y < HEIGHT; ++y) {
+                for (int x = 0; x < WIDTH; ++x) {
+                    int along = (columns ? y : x) - start;
+                    int across = columns ? x : y;
+                    boolean dark = !blank && along >= 0 && along < length
+                            && across > 200 && across < 520 && modules[along / MODULE];
+                    int luma = (dark ? 40 : 200) + random.nextInt(2 * NOISE) - NOISE;
+                    frame[y * WIDTH + x] = (byte) luma;
+                }
+            }
+            Nv21Image.fillNeutralChroma(frame, WIDTH, HEIGHT);
+
+            List<DecodedBarcode> barcodes = decoder.decode(frame, WIDTH, HEIGHT, 0);
+            if (blank ? !barcodes.isEmpty()
+                    : barcodes.size() != 1 || !VALUE.equals(barcodes.get(0).getRawValue())) {
+                throw new IllegalStateException("Unexpected result: " + barcodes);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<DecodedBarcode> decode(Image image) {
+        return image.decoder.decode(image.frame, WIDTH, HEIGHT, 0);
+    }
+
+    /**
+     * Returns the modules of an EAN-13, dark ones set, with a quiet zone of 9 modules either side.
+     */
+    static boolean[] encode(String value) {
+        StringBuilder bits = new StringBuilder("000000000101");
+        String parity = PARITIES[value.charAt(0) - '0'];
+        for (int i = 1; i <= 6; ++i) {
+            String code = L_CODES[value.charAt(i) - '0'];
+            bits.append(parity.charAt(i - 1) == 'L' ? code : gCode(code));
+        }
+        bits.append("01010");
+        for (int i = 7; i <= 12; ++i) {
+            bits.append(invert(L_CODES[value.charAt(i) - '0']));
+        }
+        bits.append("101000000000");
+        boolean[] modules = new boolean[bits.length()];
+        for (int i = 0; i < modules.length; ++i) {
+            modules[i] = bits.charAt(i) == '1';
+        }
+        return modules;
+    }
+
+    private static String invert(String code) {
+        StringBuilder inverted = new StringBuilder();
+        for (int i = 0; i < code.length(); ++i) {
+            inverted.append(code.charAt(i) == '1' ? '0' : '1');
+        }
+        return inverted.toString();
+    }
+
+    private static String gCode(String lCode) {
+        return new StringBuilder(invert(lCode)).reverse().toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(LumaDecoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
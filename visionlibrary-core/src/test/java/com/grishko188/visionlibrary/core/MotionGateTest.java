@@ -0,0 +1,79 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionGateTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private static byte[] gradient(int brightness) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                luma[y * WIDTH + x] = (byte) Math.min(255, x * 2 + y + brightness);
+            }
+        }
+        return luma;
+    }
+
+    private static boolean isUnchanged(MotionGate gate, byte[] luma, long timeMillis) {
+        return gate.isUnchanged(luma, WIDTH, 0, 0, WIDTH, HEIGHT, timeMillis);
+    }
+
+    @Test
+    public void detectsTheFirstFrameAndSkipsAStaticScene() {
+        MotionGate gate = new MotionGate(4, 1000, 256);
+        byte[] scene = gradient(0);
+        assertFalse(isUnchanged(gate, scene, 0));
+        assertTrue(isUnchanged(gate, scene, 33));
+        // Sensor noise below the threshold.
+        assertTrue(isUnchanged(gate, gradient(2), 66));
+        assertEquals(2, gate.getUnchangedCount());
+        assertEquals(1, gate.getChangedCount());
+    }
+
+    @Test
+    public void detectsAChangedSceneAndMakesItTheReference() {
+        MotionGate gate = new MotionGate(4, 1000, 256);
+        assertFalse(isUnchanged(gate, gradient(0), 0));
+        byte[] changed = gradient(20);
+        assertFalse(isUnchanged(gate, changed, 33));
+        assertTrue(isUnchanged(gate, changed, 66));
+    }
+
+    @Test
+    public void detectsAgainOnceTheReferenceIsTooOld() {
+        MotionGate gate = new MotionGate(4, 100, 256);
+        byte[] scene = gradient(0);
+        assertFalse(isUnchanged(gate, scene, 0));
+        assertTrue(isUnchanged(gate, scene, 99));
+        assertFalse(isUnchanged(gate, scene, 100));
+        assertTrue(isUnchanged(gate, scene, 150));
+    }
+
+    @Test
+    public void resetForgetsTheReference() {
+        MotionGate gate = new MotionGate(4, 1000, 256);
+        byte[] scene = gradient(0);
+        assertFalse(isUnchanged(gate, scene, 0));
+        gate.reset();
+        assertFalse(isUnchanged(gate, scene, 33));
+    }
+
+    @Test
+    public void comparesOnlyTheSameRectangle() {
+        MotionGate gate = new MotionGate(4, 1000, 256);
+        byte[] scene = new byte[WIDTH * HEIGHT];
+        Arrays.fill(scene, (byte) 100);
+        assertFalse(gate.isUnchanged(scene, WIDTH, 0, 0, WIDTH, HEIGHT, 0));
+        // A different sampling grid can't be compared with the reference.
+        assertFalse(gate.isUnchanged(scene, WIDTH, 0, 0, WIDTH / 4, HEIGHT / 4, 33));
+        assertTrue(gate.isUnchanged(scene, WIDTH, 0, 0, WIDTH / 4, HEIGHT / 4, 66));
+    }
+}
@@ -0,0 +1,286 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Nv21ImageTest {
+
+    /**
+     * Returns an NV21 image whose luma samples encode their position as {@code y * 16 + x}, and
+     * whose chroma samples encode their chroma row, column and V/U channel.
+     */
+    private static byte[] patternImage(int width, int height) {
+        byte[] image = new byte[Nv21Image.frameSize(width, height)];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image[y * width + x] = (byte) (y * 16 + x);
+            }
+        }
+        for (int y = 0; y < height / 2; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image[width * height + y * width + x] = (byte) (0x80 | (y << 4) | x);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Returns the V sample of a chroma position, as laid out by {@link StridedImage}.
+     */
+    private static byte chromaV(int row, int col) {
+        return (byte) (0x80 + row * 16 + col);
+    }
+
+    /**
+     * Returns the U sample of a chroma position, as laid out by {@link StridedImage}.
+     */
+    private static byte chromaU(int row, int col) {
+        return (byte) (row * 16 + col + 8);
+    }
+
+    /**
+     * Returns the NV21 image which {@link StridedImage} holds: the luma pattern of
+     * {@link #patternImage(int, int)}, followed by interleaved V and U samples.
+     */
+    private static byte[] expectedNv21(int width, int height) {
+        byte[] image = new byte[Nv21Image.frameSize(width, height)];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image[y * width + x] = (byte) (y * 16 + x);
+            }
+        }
+        int offset = width * height;
+        for (int row = 0; row < (height + 1) / 2; ++row) {
+            for (int col = 0; col < (width + 1) / 2; ++col) {
+                image[offset++] = chromaV(row, col);
+                image[offset++] = chromaU(row, col);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * A {@code YUV_420_888} image with padded rows, holding the samples of
+     * {@link #expectedNv21(int, int)}.  Chroma is planar with a pixel stride of 1, or semi-planar
+     * with a pixel stride of 2, the U plane starting one byte into the V plane.  Padding holds a
+     * marker value, so that copying it shows.
+     */
+    private static final class StridedImage implements PlanarImage {
+        private static final byte PADDING = (byte) 0xEE;
+
+        private final int mWidth;
+        private final int mHeight;
+        private final int mLumaRowStride;
+        private final int mChromaRowStride;
+        private final int mChromaPixelStride;
+        private final ByteBuffer[] mPlanes = new ByteBuffer[3];
+
+        StridedImage(int width, int height, int lumaRowStride, int chromaRowStride,
+                     int chromaPixelStride) {
+            mWidth = width;
+            mHeight = height;
+            mLumaRowStride = lumaRowStride;
+            mChromaRowStride = chromaRowStride;
+            mChromaPixelStride = chromaPixelStride;
+            int chromaWidth = (width + 1) / 2;
+            int chromaHeight = (height + 1) / 2;
+
+            byte[] luma = padded(lumaRowStride * height);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    luma[y * lumaRowStride + x] = (byte) (y * 16 + x);
+                }
+            }
+            mPlanes[PLANE_Y] = ByteBuffer.wrap(luma);
+
+            if (chromaPixelStride == 2) {
+                int length = chromaRowStride * (chromaHeight - 1) + 2 * chromaWidth;
+                byte[] chroma = padded(length);
+                for (int row = 0; row < chromaHeight; ++row) {
+                    for (int col = 0; col < chromaWidth; ++col) {
+                        chroma[row * chromaRowStride + 2 * col] = chromaV(row, col);
+                        chroma[row * chromaRowStride + 2 * col + 1] = chromaU(row, col);
+                    }
+                }
+                mPlanes[PLANE_V] = ByteBuffer.wrap(chroma, 0, length - 1).slice();
+                mPlanes[PLANE_U] = ByteBuffer.wrap(chroma, 1, length - 1).slice();
+            } else {
+                byte[] u = padded(chromaRowStride * chromaHeight);
+                byte[] v = padded(chromaRowStride * chromaHeight);
+                for (int row = 0; row < chromaHeight; ++row) {
+                    for (int col = 0; col < chromaWidth; ++col) {
+                        u[row * chromaRowStride + col] = chromaU(row, col);
+                        v[row * chromaRowStride + col] = chromaV(row, col);
+                    }
+                }
+                mPlanes[PLANE_U] = ByteBuffer.wrap(u);
+                mPlanes[PLANE_V] = ByteBuffer.wrap(v);
+            }
+        }
+
+        private static byte[] padded(int size) {
+            byte[] data = new byte[size];
+            Arrays.fill(data, PADDING);
+            return data;
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public ByteBuffer getBuffer(int plane) {
+            return mPlanes[plane];
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return plane == PLANE_Y ? mLumaRowStride : mChromaRowStride;
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return plane == PLANE_Y ? 1 : mChromaPixelStride;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Converts an image with both copies and checks it against {@link #expectedNv21(int, int)},
+     * and that the planes are left positioned at their first sample.
+     */
+    private static void assertConvertsToNv21(StridedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] dst = new byte[Nv21Image.frameSize(width, height)];
+        Nv21Image.copyLuma(image, dst);
+        Nv21Image.copyChroma(image, dst, new byte[Nv21Image.chromaScratchSize(image)]);
+
+        assertArrayEquals(expectedNv21(width, height), dst);
+        for (int plane = 0; plane < 3; ++plane) {
+            assertEquals(0, image.getBuffer(plane).position());
+        }
+    }
+
+    @Test
+    public void frameSizeRoundsChromaUp() {
+        assertEquals(8 * 6 * 3 / 2, Nv21Image.frameSize(8, 6));
+        assertEquals(7 * 5 + 2 * 4 * 3, Nv21Image.frameSize(7, 5));
+    }
+
+    @Test
+    public void cropCopiesLumaAndChroma() {
+        int width = 12;
+        int height = 8;
+        byte[] src = patternImage(width, height);
+        int x = 4;
+        int y = 2;
+        int cropWidth = 6;
+        int cropHeight = 4;
+        byte[] dst = new byte[Nv21Image.frameSize(cropWidth, cropHeight)];
+        Nv21Image.crop(src, width, height, x, y, cropWidth, cropHeight, dst);
+
+        for (int row = 0; row < cropHeight; ++row) {
+            for (int col = 0; col < cropWidth; ++col) {
+                assertEquals(src[(y + row) * width + x + col], dst[row * cropWidth + col]);
+            }
+        }
+        int chroma = cropWidth * cropHeight;
+        for (int row = 0; row < cropHeight / 2; ++row) {
+            for (int col = 0; col < cropWidth; ++col) {
+                // Chroma pairs stay aligned, V first.
+                assertEquals(src[width * height + (y / 2 + row) * width + x + col],
+                        dst[chroma + row * cropWidth + col]);
+            }
+        }
+    }
+
+    @Test
+    public void downscaledSizeIsEven() {
+        assertEquals(320, Nv21Image.downscaledSize(640, 2));
+        assertEquals(212, Nv21Image.downscaledSize(640, 3));
+        assertEquals(0, Nv21Image.downscaledSize(3, 2));
+    }
+
+    @Test
+    public void downscaleAveragesBlocks() {
+        int width = 8;
+        int height = 4;
+        byte[] src = new byte[Nv21Image.frameSize(width, height)];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                src[y * width + x] = (byte) (x < 4 ? 100 : (x + y) % 2 == 0 ? 0 : 255);
+            }
+        }
+        byte[] dst = new byte[Nv21Image.frameSize(4, 2)];
+        Nv21Image.downscaleLuma(src, width, height, 2, dst);
+        assertEquals(100, dst[0] & 0xff);
+        assertEquals(100, dst[1] & 0xff);
+        // (0 + 255 + 255 + 0) / 4
+        assertEquals(127, dst[2] & 0xff);
+        assertEquals(127, dst[7] & 0xff);
+    }
+
+    @Test
+    public void downscaleByAnOddFactor() {
+        int width = 6;
+        int height = 6;
+        byte[] src = new byte[Nv21Image.frameSize(width, height)];
+        for (int i = 0; i < width * height; ++i) {
+            src[i] = (byte) (i % width < 3 ? 30 : 200);
+        }
+        // The top left 3x3 block holds a single brighter sample.
+        src[0] = (byte) 39;
+        byte[] dst = new byte[Nv21Image.frameSize(2, 2)];
+        Nv21Image.downscaleLuma(src, width, height, 3, dst);
+        assertEquals(31, dst[0] & 0xff);
+        assertEquals(200, dst[1] & 0xff);
+        assertEquals(30, dst[2] & 0xff);
+        assertEquals(200, dst[3] & 0xff);
+    }
+
+    @Test
+    public void fillNeutralChromaLeavesLumaAlone() {
+        byte[] image = patternImage(4, 4);
+        Nv21Image.fillNeutralChroma(image, 4, 4);
+        assertEquals(16 + 1, image[4 + 1]);
+        for (int i = 16; i < image.length; ++i) {
+            assertEquals(128, image[i] & 0xff);
+        }
+    }
+
+    @Test
+    public void copiesTightlyPackedPlanarImages() {
+        assertConvertsToNv21(new StridedImage(8, 6, 8, 4, 1));
+    }
+
+    @Test
+    public void copiesPlanarImagesWithPaddedRows() {
+        assertConvertsToNv21(new StridedImage(10, 6, 16, 8, 1));
+    }
+
+    @Test
+    public void copiesSemiPlanarImagesWithPaddedRows() {
+        assertConvertsToNv21(new StridedImage(10, 6, 16, 16, 2));
+    }
+
+    @Test
+    public void copiesImagesOfOddSize() {
+        assertConvertsToNv21(new StridedImage(9, 5, 16, 8, 1));
+        assertConvertsToNv21(new StridedImage(9, 5, 16, 16, 2));
+    }
+}
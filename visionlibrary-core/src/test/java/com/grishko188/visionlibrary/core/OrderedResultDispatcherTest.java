@@ -0,0 +1,160 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrderedResultDispatcherTest {
+    private static final int WINDOW = 4;
+
+    private final List<String> mDelivered = new ArrayList<>();
+    private final List<Throwable> mErrors = new ArrayList<>();
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    private OrderedResultDispatcher<String> mDispatcher;
+
+    @Before
+    public void setUp() {
+        FrameDetector<String> detector = new FrameDetector<String>() {
+            @Override
+            public String detect(FrameData frame) {
+                return null;
+            }
+
+            @Override
+            public int getItemCount(String result) {
+                return result.isEmpty() ? 0 : 1;
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        ResultSink<String> sink = new ResultSink<String>() {
+            @Override
+            public void onResult(String result) {
+                if ("throw".equals(result)) {
+                    throw new IllegalArgumentException(result);
+                }
+                mDelivered.add(result);
+            }
+
+            @Override
+            public void release() {
+            }
+        };
+        mDispatcher = new OrderedResultDispatcher<>(detector, sink, WINDOW, mMetrics,
+                new OrderedResultDispatcher.ErrorHandler() {
+                    @Override
+                    public void onSinkError(Throwable t) {
+                        mErrors.add(t);
+                    }
+                });
+    }
+
+    @Test
+    public void deliversInSequenceOrder() {
+        mDispatcher.complete(2, "c", 0, 0);
+        mDispatcher.complete(1, "b", 0, 0);
+        assertTrue(mDelivered.isEmpty());
+
+        mDispatcher.complete(0, "a", 0, 0);
+        assertEquals(Arrays.asList("a", "b", "c"), mDelivered);
+
+        mDispatcher.complete(3, "d", 0, 0);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), mDelivered);
+    }
+
+    @Test
+    public void skippedAndNullResultsDoNotHoldBackLaterFrames() {
+        mDispatcher.complete(2, "c", 0, 0);
+        mDispatcher.complete(1, null, 0, 0);
+        mDispatcher.skip(0);
+        assertEquals(Arrays.asList("c"), mDelivered);
+    }
+
+    @Test
+    public void reuseDeliversThePreviousResultAgain() {
+        mDispatcher.reuse(1, 0);
+        mDispatcher.complete(0, "a", 0, 0);
+        mDispatcher.complete(2, "b", 0, 0);
+        mDispatcher.reuse(3, 0);
+        assertEquals(Arrays.asList("a", "a", "b", "b"), mDelivered);
+    }
+
+    @Test
+    public void wrapsAroundTheWindow() {
+        List<String> expected = new ArrayList<>();
+        for (int base = 0; base < 5 * WINDOW; base += WINDOW) {
+            // Complete every window backwards, so that all of its slots are in use at once.
+            for (int i = WINDOW - 1; i >= 0; --i) {
+                mDispatcher.complete(base + i, "r" + (base + i), 0, 0);
+            }
+            for (int i = 0; i < WINDOW; ++i) {
+                expected.add("r" + (base + i));
+            }
+        }
+        assertEquals(expected, mDelivered);
+    }
+
+    @Test
+    public void sinkErrorsAreReportedAndDoNotStall() {
+        mDispatcher.complete(1, "b", 0, 0);
+        mDispatcher.complete(0, "throw", 0, 0);
+        assertEquals(1, mErrors.size());
+        assertEquals(Arrays.asList("b"), mDelivered);
+    }
+
+    @Test
+    public void countsDecodedFrames() {
+        mDispatcher.complete(0, "", 0, 0);
+        mDispatcher.complete(1, "a", 0, 0);
+        mDispatcher.reuse(2, 0);
+        assertEquals(2, mMetrics.snapshot().getFramesDecoded());
+    }
+
+    @Test
+    public void rejectsSequencesBeyondTheWindow() {
+        mDispatcher.complete(1, "b", 0, 0);
+        try {
+            // Would wrap onto the slot of sequence 0, which is still outstanding.
+            mDispatcher.complete(WINDOW, "e", 0, 0);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        mDispatcher.complete(0, "a", 0, 0);
+        assertEquals(Arrays.asList("a", "b"), mDelivered);
+    }
+
+    @Test
+    public void rejectsSequencesStoredTwice() {
+        mDispatcher.complete(1, "b", 0, 0);
+        try {
+            mDispatcher.skip(1);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            mDispatcher.complete(0, "a", 0, 0);
+            mDispatcher.complete(0, "a", 0, 0);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void resetRestartsNumbering() {
+        mDispatcher.complete(0, "a", 0, 0);
+        mDispatcher.complete(2, "c", 0, 0);
+        mDispatcher.reset();
+        mDispatcher.reuse(0, 0);
+        mDispatcher.complete(1, "x", 0, 0);
+        assertEquals(Arrays.asList("a", "x"), mDelivered);
+    }
+}
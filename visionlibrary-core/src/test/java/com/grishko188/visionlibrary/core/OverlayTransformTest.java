@@ -0,0 +1,68 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class OverlayTransformTest {
+    private static final float EPSILON = 1e-3f;
+
+    private static OverlayTransform transform(boolean mirrored) {
+        OverlayTransform transform = new OverlayTransform();
+        transform.setPreview(480, 640, mirrored);
+        transform.setFrameOffset(40, 100);
+        transform.setViewSize(1080, 1920);
+        return transform;
+    }
+
+    @Test
+    public void scalesFromThePreviewToTheView() {
+        OverlayTransform transform = transform(false);
+        assertEquals(2.25f, transform.getWidthScaleFactor(), EPSILON);
+        assertEquals(3f, transform.getHeightScaleFactor(), EPSILON);
+        assertEquals(22.5f, transform.scaleX(10), EPSILON);
+        assertEquals(30f, transform.scaleY(10), EPSILON);
+    }
+
+    @Test
+    public void translatesWithTheFrameOffset() {
+        OverlayTransform transform = transform(false);
+        assertEquals((10 + 40) * 2.25f, transform.translateX(10), EPSILON);
+        assertEquals((20 + 100) * 3f, transform.translateY(20), EPSILON);
+    }
+
+    @Test
+    public void mirrorsHorizontally() {
+        OverlayTransform transform = transform(true);
+        assertEquals(1080 - (10 + 40) * 2.25f, transform.translateX(10), EPSILON);
+        assertEquals((20 + 100) * 3f, transform.translateY(20), EPSILON);
+    }
+
+    @Test
+    public void toFrameIsTheInverseOfTranslate() {
+        for (boolean mirrored : new boolean[]{false, true}) {
+            OverlayTransform transform = transform(mirrored);
+            for (float x = -40; x < 440; x += 37) {
+                assertEquals(x, transform.toFrameX(transform.translateX(x)), EPSILON);
+            }
+            for (float y = -100; y < 540; y += 41) {
+                assertEquals(y, transform.toFrameY(transform.translateY(y)), EPSILON);
+            }
+            assertEquals(0f, transform.translateX(transform.toFrameX(0)), EPSILON);
+            assertEquals(1080f, transform.translateX(transform.toFrameX(1080)), EPSILON);
+        }
+    }
+
+    @Test
+    public void keepsTheScaleUntilThePreviewIsKnown() {
+        OverlayTransform transform = new OverlayTransform();
+        transform.setViewSize(1080, 1920);
+        assertEquals(1f, transform.getWidthScaleFactor(), 0);
+        assertEquals(1f, transform.getHeightScaleFactor(), 0);
+        assertEquals(1080, transform.getViewWidth());
+
+        transform.setPreview(540, 960, false);
+        transform.setViewSize(1080, 1920);
+        assertEquals(2f, transform.getWidthScaleFactor(), 0);
+    }
+}
@@ -0,0 +1,127 @@
+package com.grishko188.visionlibrary.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the Camera2 frame delivery path on 1280x720 images from a {@link FakeCameraDevice}:
+ * copying the planes of an image into an NV21 buffer, and the whole path from the device through
+ * {@link PlanarFrameSource} and the {@link FramePipeline}, with and without the chroma copy.
+ * <p/>
+ * Run {@link #main(String[])} from the IDE, on a JVM host.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class PlanarFrameBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int MAX_IMAGES = 2;
+
+    @State(Scope.Thread)
+    public static class Image {
+        @Param({"true", "false"})
+        public boolean semiPlanar;
+
+        final byte[] nv21 = new byte[Nv21Image.frameSize(WIDTH, HEIGHT)];
+        byte[] scratch;
+        PlanarImage image;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            image = new FakeCameraDevice(WIDTH, HEIGHT, semiPlanar, 1).capture();
+            scratch = new byte[Nv21Image.chromaScratchSize(image)];
+        }
+    }
+
+    @Benchmark
+    public byte[] copyLuma(Image state) {
+        Nv21Image.copyLuma(state.image, state.nv21);
+        return state.nv21;
+    }
+
+    @Benchmark
+    public byte[] copyChroma(Image state) {
+        Nv21Image.copyChroma(state.image, state.nv21, state.scratch);
+        return state.nv21;
+    }
+
+    @State(Scope.Thread)
+    public static class Delivery {
+        @Param({"true", "false"})
+        public boolean copyChroma;
+
+        final FakeCameraDevice device = new FakeCameraDevice(WIDTH, HEIGHT, true, MAX_IMAGES);
+        final AtomicLong delivered = new AtomicLong();
+        FramePipeline<long[]> pipeline;
+        PlanarFrameSource source;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pipeline = new FramePipeline<>(new FramePipelineBenchmark.LumaDetector(),
+                    new ResultSink<long[]>() {
+                        @Override
+                        public void onResult(long[] result) {
+                            delivered.incrementAndGet();
+                        }
+
+                        @Override
+                        public void release() {
+                        }
+                    }, 1);
+            int bufferCount = 4;
+            source = new PlanarFrameSource(pipeline, WIDTH, HEIGHT, bufferCount, copyChroma);
+            pipeline.prepare(source, WIDTH, HEIGHT, 0, Nv21Image.frameSize(WIDTH, HEIGHT),
+                    bufferCount);
+            pipeline.start("PlanarFrameBenchmark-");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pipeline.stop();
+            pipeline.reset();
+            pipeline.release();
+            if (device.getOpenImageCount() != 0) {
+                throw new IllegalStateException("Images left open: " + device.getOpenImageCount());
+            }
+        }
+    }
+
+    /**
+     * Captures images as fast as the device allows, until one more result has been delivered.  The
+     * score is the time per delivered result.
+     */
+    @Benchmark
+    public void deliver(Delivery state) {
+        long target = state.delivered.get() + 1;
+        while (state.delivered.get() < target) {
+            state.source.onImage(state.device.capture(), System.nanoTime());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PlanarFrameBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,215 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PlanarFrameSourceTest {
+    private static final int WIDTH = 50;
+    private static final int HEIGHT = 30;
+    private static final int FRAME_SIZE = Nv21Image.frameSize(WIDTH, HEIGHT);
+
+    private final BlockingQueue<byte[]> mDetected = new LinkedBlockingQueue<>();
+    private FramePipeline<Integer> mPipeline;
+    private PlanarFrameSource mSource;
+    private boolean mStarted;
+
+    /**
+     * Creates a pipeline whose detector records a copy of every frame it is given.
+     */
+    private void createPipeline(int bufferCount, boolean copyChroma) {
+        mPipeline = new FramePipeline<>(new FrameDetector<Integer>() {
+            @Override
+            public Integer detect(FrameData frame) {
+                mDetected.add(Arrays.copyOf(frame.getData().array(), FRAME_SIZE));
+                return frame.getId();
+            }
+
+            @Override
+            public int getItemCount(Integer result) {
+                return 1;
+            }
+
+            @Override
+            public void release() {
+            }
+        }, null, 1);
+        mSource = new PlanarFrameSource(mPipeline, WIDTH, HEIGHT, bufferCount, copyChroma);
+    }
+
+    private void startPipeline(int bufferCount, boolean copyChroma) {
+        createPipeline(bufferCount, copyChroma);
+        mPipeline.prepare(mSource, WIDTH, HEIGHT, 0, FRAME_SIZE, bufferCount);
+        mPipeline.start("PlanarFrameSourceTest-");
+        mStarted = true;
+    }
+
+    /**
+     * Reads an image into NV21 one sample at a time, straight from the plane layout.
+     */
+    private static byte[] toNv21(PlanarImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] nv21 = new byte[Nv21Image.frameSize(width, height)];
+        ByteBuffer luma = image.getBuffer(PlanarImage.PLANE_Y);
+        int lumaRowStride = image.getRowStride(PlanarImage.PLANE_Y);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                nv21[y * width + x] = luma.get(y * lumaRowStride + x);
+            }
+        }
+        ByteBuffer u = image.getBuffer(PlanarImage.PLANE_U);
+        ByteBuffer v = image.getBuffer(PlanarImage.PLANE_V);
+        int rowStride = image.getRowStride(PlanarImage.PLANE_U);
+        int pixelStride = image.getPixelStride(PlanarImage.PLANE_U);
+        int offset = width * height;
+        for (int row = 0; row < (height + 1) / 2; ++row) {
+            for (int col = 0; col < (width + 1) / 2; ++col) {
+                nv21[offset++] = v.get(row * rowStride + col * pixelStride);
+                nv21[offset++] = u.get(row * rowStride + col * pixelStride);
+            }
+        }
+        return nv21;
+    }
+
+    private byte[] takeDetected() throws InterruptedException {
+        byte[] frame = mDetected.poll(1, TimeUnit.SECONDS);
+        assertNotNull("The frame never reached the detector", frame);
+        return frame;
+    }
+
+    @After
+    public void tearDown() {
+        if (mStarted) {
+            mPipeline.stop();
+            mPipeline.reset();
+            mPipeline.release();
+        }
+    }
+
+    private void assertDeliversImages(boolean semiPlanar) throws InterruptedException {
+        startPipeline(2, true);
+        FakeCameraDevice device = new FakeCameraDevice(WIDTH, HEIGHT, semiPlanar, 2);
+        for (int i = 0; i < 3; ++i) {
+            PlanarImage image = device.capture();
+            byte[] expected = toNv21(image);
+            mSource.onImage(image, System.nanoTime());
+            assertEquals(0, device.getOpenImageCount());
+            assertArrayEquals(expected, takeDetected());
+        }
+        assertEquals(0, mSource.getDroppedImageCount());
+    }
+
+    @Test
+    public void deliversPaddedPlanarImagesAsNv21() throws InterruptedException {
+        assertDeliversImages(false);
+    }
+
+    @Test
+    public void deliversPaddedSemiPlanarImagesAsNv21() throws InterruptedException {
+        assertDeliversImages(true);
+    }
+
+    @Test
+    public void fillsNeutralChromaWhenOnlyLumaIsCopied() throws InterruptedException {
+        startPipeline(2, false);
+        FakeCameraDevice device = new FakeCameraDevice(WIDTH, HEIGHT, true, 2);
+        PlanarImage image = device.capture();
+        byte[] expected = toNv21(image);
+        Nv21Image.fillNeutralChroma(expected, WIDTH, HEIGHT);
+        mSource.onImage(image, System.nanoTime());
+
+        assertEquals(0, device.getOpenImageCount());
+        assertArrayEquals(expected, takeDetected());
+    }
+
+    @Test
+    public void dropsAndClosesAnImageWhenNoBufferIsFree() {
+        // The pipeline is not started, so the only buffer stays with the first frame.
+        createPipeline(1, true);
+        mPipeline.prepare(mSource, WIDTH, HEIGHT, 0, FRAME_SIZE, 1);
+        FakeCameraDevice device = new FakeCameraDevice(WIDTH, HEIGHT, true, 2);
+        mSource.onImage(device.capture(), System.nanoTime());
+        assertEquals(0, mSource.getDroppedImageCount());
+
+        mSource.onImage(device.capture(), System.nanoTime());
+        mSource.onImage(device.capture(), System.nanoTime());
+        assertEquals(2, mSource.getDroppedImageCount());
+        assertEquals(0, device.getOpenImageCount());
+        assertEquals(1, mPipeline.getMetrics().snapshot().getFramesReceived());
+    }
+
+    @Test
+    public void dropsAndClosesAnImageOfTheWrongSize() {
+        startPipeline(2, true);
+        FakeCameraDevice device = new FakeCameraDevice(WIDTH * 2, HEIGHT, true, 1);
+        mSource.onImage(device.capture(), System.nanoTime());
+
+        assertEquals(1, mSource.getDroppedImageCount());
+        assertEquals(0, device.getOpenImageCount());
+    }
+
+    @Test
+    public void closesAnImageWhoseCopyFailsAndKeepsItsBuffer() throws InterruptedException {
+        // A single buffer, which the next image can only get if the failed copy kept it.
+        startPipeline(1, true);
+        final boolean[] closed = new boolean[1];
+        PlanarImage image = new PlanarImage() {
+            @Override
+            public int getWidth() {
+                return WIDTH;
+            }
+
+            @Override
+            public int getHeight() {
+                return HEIGHT;
+            }
+
+            @Override
+            public ByteBuffer getBuffer(int plane) {
+                // Too short for a single row.
+                return ByteBuffer.allocate(1);
+            }
+
+            @Override
+            public int getRowStride(int plane) {
+                return WIDTH;
+            }
+
+            @Override
+            public int getPixelStride(int plane) {
+                return 1;
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        try {
+            mSource.onImage(image, System.nanoTime());
+            fail("The copy did not fail");
+        } catch (RuntimeException expected) {
+            // The image is closed on the way out.
+        }
+        assertTrue("The image was not closed", closed[0]);
+
+        FakeCameraDevice device = new FakeCameraDevice(WIDTH, HEIGHT, true, 1);
+        PlanarImage next = device.capture();
+        byte[] expected = toNv21(next);
+        mSource.onImage(next, System.nanoTime());
+        assertArrayEquals(expected, takeDetected());
+        assertEquals(0, mSource.getDroppedImageCount());
+    }
+}
@@ -0,0 +1,92 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewBufferPoolTest {
+    private static final int FRAME_SIZE = Nv21Image.frameSize(32, 24);
+
+    @Test
+    public void indexOfFindsEveryBufferByItsTag() {
+        PreviewBufferPool pool = new PreviewBufferPool();
+        // More than 256 buffers, so that both tag bytes are used.
+        pool.prepare(FRAME_SIZE, 300);
+        for (int i = 0; i < pool.size(); ++i) {
+            assertEquals(i, pool.indexOf(pool.getBuffer(i)));
+            assertSame(pool.getBuffer(i), pool.getByteBuffer(i).array());
+        }
+    }
+
+    @Test
+    public void indexOfSurvivesFrameDataOverwritingTheBuffer() {
+        PreviewBufferPool pool = new PreviewBufferPool();
+        pool.prepare(FRAME_SIZE, 3);
+        byte[] buffer = pool.getBuffer(2);
+        // The camera only fills the frame, not the tag behind it.
+        Arrays.fill(buffer, 0, FRAME_SIZE, (byte) 0xff);
+        assertEquals(2, pool.indexOf(buffer));
+    }
+
+    @Test
+    public void indexOfRejectsForeignBuffers() {
+        PreviewBufferPool pool = new PreviewBufferPool();
+        pool.prepare(FRAME_SIZE, 3);
+        assertEquals(-1, pool.indexOf(null));
+        assertEquals(-1, pool.indexOf(new byte[FRAME_SIZE]));
+
+        // Same size and same tag as a pool buffer, but another array.
+        byte[] copy = pool.getBuffer(1).clone();
+        assertEquals(-1, pool.indexOf(copy));
+
+        // A tag beyond the pool size.
+        byte[] bad = new byte[pool.getBuffer(0).length];
+        bad[FRAME_SIZE] = 0x7f;
+        assertEquals(-1, pool.indexOf(bad));
+    }
+
+    @Test
+    public void prepareReusesMatchingBuffers() {
+        PreviewBufferPool pool = new PreviewBufferPool();
+        assertTrue(pool.prepare(FRAME_SIZE, 3));
+        byte[] buffer = pool.getBuffer(0);
+        assertFalse(pool.prepare(FRAME_SIZE, 3));
+        assertSame(buffer, pool.getBuffer(0));
+
+        assertTrue(pool.prepare(FRAME_SIZE, 4));
+        assertEquals(-1, pool.indexOf(buffer));
+        assertTrue(pool.prepare(FRAME_SIZE + 2, 4));
+
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertTrue(pool.prepare(FRAME_SIZE + 2, 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void prepareRejectsTooManyBuffers() {
+        new PreviewBufferPool().prepare(FRAME_SIZE, (1 << 16) + 1);
+    }
+
+    @Test
+    public void countsStarvation() {
+        PreviewBufferPool pool = new PreviewBufferPool();
+        pool.prepare(FRAME_SIZE, 2);
+        pool.onQueued();
+        pool.onQueued();
+        pool.onReceived();
+        assertEquals(0, pool.getStarvationCount());
+        // The last queued buffer was filled, nothing is left for the next frame.
+        pool.onReceived();
+        assertEquals(1, pool.getStarvationCount());
+
+        pool.prepare(FRAME_SIZE, 2);
+        pool.onQueued();
+        pool.onReceived();
+        assertEquals(2, pool.getStarvationCount());
+    }
+}
@@ -0,0 +1,131 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PreviewTunerTest {
+    private static final int[] WIDTHS = {320, 640, 1920, 800, 1280, 1024, 3840};
+    private static final int[] HEIGHTS = {240, 480, 1080, 600, 720, 768, 2160};
+    private static final float[] FPS = {15f, 30f};
+    private static final float EPSILON = 1e-4f;
+
+    private static List<String> names(List<PreviewTuner.Candidate> candidates) {
+        List<String> names = new ArrayList<>();
+        for (PreviewTuner.Candidate candidate : candidates) {
+            names.add(candidate.toString());
+        }
+        return names;
+    }
+
+    /**
+     * Records a trial of the given number of frames, each detected in {@code detectionMicros}.
+     */
+    private static void runTrial(PreviewTuner tuner, PipelineMetrics metrics,
+                                 PreviewTuner.Candidate candidate, int detected, int decoded,
+                                 long detectionMicros) {
+        PipelineMetrics.Snapshot before = metrics.snapshot();
+        for (int i = 0; i < detected; ++i) {
+            metrics.record(PipelineMetrics.Stage.DETECTION, detectionMicros * 1000);
+            if (i < decoded) {
+                metrics.onFrameDecoded();
+            }
+        }
+        tuner.record(candidate, before, metrics.snapshot());
+    }
+
+    @Test
+    public void selectsSizesSpreadOverTheRange() {
+        List<PreviewTuner.Candidate> candidates =
+                PreviewTuner.selectCandidates(WIDTHS, HEIGHTS, 1920, 1080, FPS, 3);
+        // 3840x2160 is too large and 320x240 too small; of the rest, the largest, the middle
+        // and the smallest.
+        assertEquals(Arrays.asList("1920x1080@15.0", "1920x1080@30.0", "1024x768@15.0",
+                "1024x768@30.0", "640x480@15.0", "640x480@30.0"), names(candidates));
+    }
+
+    @Test
+    public void selectsEverySizeWhenThereAreFewEnough() {
+        List<PreviewTuner.Candidate> candidates = PreviewTuner.selectCandidates(WIDTHS, HEIGHTS,
+                1280, 720, new float[]{30f}, 10);
+        assertEquals(Arrays.asList("1280x720@30.0", "1024x768@30.0", "800x600@30.0",
+                "640x480@30.0"), names(candidates));
+    }
+
+    @Test
+    public void selectsTheLargestForASingleSize() {
+        List<PreviewTuner.Candidate> candidates = PreviewTuner.selectCandidates(WIDTHS, HEIGHTS,
+                1920, 1080, new float[]{30f}, 1);
+        assertEquals(Collections.singletonList("1920x1080@30.0"), names(candidates));
+    }
+
+    @Test
+    public void fallsBackToAllSizesWhenNoneIsInRange() {
+        List<PreviewTuner.Candidate> candidates = PreviewTuner.selectCandidates(WIDTHS, HEIGHTS,
+                320, 240, new float[]{30f}, 2);
+        assertEquals(Arrays.asList("3840x2160@30.0", "320x240@30.0"), names(candidates));
+    }
+
+    @Test
+    public void scoresTheDecodedFrameRate() {
+        // Two workers at 100ms per frame detect 20 frames per second, half of which decode.
+        assertEquals(10f, PreviewTuner.score(100, 50, 100000, 30, 2), EPSILON);
+        // Detection keeps up, so the camera frame rate is the limit.
+        assertEquals(4.5f, PreviewTuner.score(100, 30, 10000, 15, 1), EPSILON);
+        assertEquals(4.5f, PreviewTuner.score(100, 30, 0, 15, 1), EPSILON);
+        assertEquals(0f, PreviewTuner.score(100, 0, 10000, 30, 1), EPSILON);
+    }
+
+    @Test
+    public void doesNotScoreTooShortTrials() {
+        assertEquals(0f, PreviewTuner.score(9, 9, 10000, 30, 1), 0);
+        assertEquals(30f, PreviewTuner.score(10, 10, 10000, 30, 1), EPSILON);
+    }
+
+    @Test
+    public void picksTheCandidateDecodingMostFramesPerSecond() {
+        PreviewTuner.Candidate large = new PreviewTuner.Candidate(1920, 1080, 30);
+        PreviewTuner.Candidate small = new PreviewTuner.Candidate(640, 480, 30);
+        PreviewTuner tuner = new PreviewTuner(Arrays.asList(large, small), 1);
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        assertEquals(large, tuner.next());
+        // Decodes every frame, but only manages 5 per second.
+        runTrial(tuner, metrics, large, 20, 20, 200000);
+        assertEquals(small, tuner.next());
+        // Decodes half of the frames, at the full 30 per second.
+        runTrial(tuner, metrics, small, 100, 50, 10000);
+        assertNull(tuner.next());
+
+        assertEquals(5f, tuner.getScore(large), 0.1f);
+        assertEquals(15f, tuner.getScore(small), 0.1f);
+        assertEquals(small, tuner.getBest());
+    }
+
+    @Test
+    public void hasNoBestWhenNothingDecoded() {
+        PreviewTuner.Candidate large = new PreviewTuner.Candidate(1920, 1080, 30);
+        PreviewTuner.Candidate small = new PreviewTuner.Candidate(640, 480, 30);
+        PreviewTuner tuner = new PreviewTuner(Arrays.asList(large, small), 2);
+        PipelineMetrics metrics = new PipelineMetrics();
+        runTrial(tuner, metrics, large, 50, 0, 20000);
+        runTrial(tuner, metrics, small, 50, 0, 10000);
+        assertNull(tuner.getBest());
+        assertEquals(0f, tuner.getScore(new PreviewTuner.Candidate(1, 1, 1)), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownCandidates() {
+        PreviewTuner tuner = new PreviewTuner(
+                Collections.singletonList(new PreviewTuner.Candidate(640, 480, 30)), 1);
+        PipelineMetrics metrics = new PipelineMetrics();
+        tuner.record(new PreviewTuner.Candidate(640, 480, 15), metrics.snapshot(),
+                metrics.snapshot());
+    }
+}
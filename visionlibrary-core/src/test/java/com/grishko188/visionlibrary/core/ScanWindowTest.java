@@ -0,0 +1,91 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScanWindowTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    /**
+     * Checks that the crop of a region lands on that region of the upright image, for a region
+     * whose edges fall on even pixels in every orientation.
+     */
+    private static void assertUprightRegion(int rotation) {
+        float left = 0.25f;
+        float top = 0.125f;
+        float right = 0.75f;
+        float bottom = 0.5f;
+        ScanWindow window = ScanWindow.fromRegion(left, top, right, bottom, WIDTH, HEIGHT,
+                rotation);
+
+        boolean swapped = rotation % 2 == 1;
+        int uprightWidth = swapped ? HEIGHT : WIDTH;
+        int uprightHeight = swapped ? WIDTH : HEIGHT;
+        int cropUprightWidth = swapped ? window.getHeight() : window.getWidth();
+        int cropUprightHeight = swapped ? window.getWidth() : window.getHeight();
+        String message = "rotation " + rotation;
+        assertEquals(message, (int) (left * uprightWidth), window.getOffsetX());
+        assertEquals(message, (int) (top * uprightHeight), window.getOffsetY());
+        assertEquals(message, (int) ((right - left) * uprightWidth), cropUprightWidth);
+        assertEquals(message, (int) ((bottom - top) * uprightHeight), cropUprightHeight);
+    }
+
+    @Test
+    public void mapsTheRegionInEveryRotation() {
+        for (int rotation = 0; rotation < 4; ++rotation) {
+            assertUprightRegion(rotation);
+        }
+    }
+
+    @Test
+    public void rotatesTheRegionBackToTheSensor() {
+        // Upright top left corner, a quarter wide and half high.
+        ScanWindow window = ScanWindow.fromRegion(0, 0, 0.25f, 0.5f, WIDTH, HEIGHT, 1);
+        // Turned a quarter clockwise to become upright, the sensor's bottom left corner becomes
+        // the upright top left corner.
+        assertEquals(0, window.getX());
+        assertEquals(360, window.getY());
+        assertEquals(320, window.getWidth());
+        assertEquals(120, window.getHeight());
+
+        window = ScanWindow.fromRegion(0, 0, 0.25f, 0.5f, WIDTH, HEIGHT, 3);
+        assertEquals(320, window.getX());
+        assertEquals(0, window.getY());
+        assertEquals(320, window.getWidth());
+        assertEquals(120, window.getHeight());
+
+        window = ScanWindow.fromRegion(0, 0, 0.25f, 0.5f, WIDTH, HEIGHT, 2);
+        assertEquals(480, window.getX());
+        assertEquals(240, window.getY());
+    }
+
+    @Test
+    public void alignsToEvenPixelsAndCoversTheRegion() {
+        ScanWindow window = ScanWindow.fromRegion(0.1f, 0.1f, 0.3f, 0.3f, 101, 75, 0);
+        assertEquals(0, window.getX() % 2);
+        assertEquals(0, window.getY() % 2);
+        assertEquals(0, window.getWidth() % 2);
+        assertEquals(0, window.getHeight() % 2);
+        assertTrue(window.getX() <= 10.1f);
+        assertTrue(window.getX() + window.getWidth() >= 30.3f);
+        assertTrue(window.getY() <= 7.5f);
+        assertTrue(window.getY() + window.getHeight() >= 22.5f);
+    }
+
+    @Test
+    public void clampsToTheFrame() {
+        ScanWindow window = ScanWindow.fromRegion(0, 0, 1, 1, 101, 75, 0);
+        assertEquals(0, window.getX());
+        assertEquals(0, window.getY());
+        assertEquals(100, window.getWidth());
+        assertEquals(74, window.getHeight());
+
+        // A degenerate region still crops at least one chroma block.
+        window = ScanWindow.fromRegion(0.5f, 0.5f, 0.5f, 0.5f, WIDTH, HEIGHT, 0);
+        assertEquals(2, window.getWidth());
+        assertEquals(2, window.getHeight());
+    }
+}
@@ -0,0 +1,84 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharpnessGateTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    /**
+     * Returns a luma plane of vertical stripes of the given contrast, 4 pixels wide.
+     */
+    private static byte[] stripes(int contrast) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                luma[y * WIDTH + x] = (byte) (128 + ((x / 4) % 2 == 0 ? contrast : -contrast) / 2);
+            }
+        }
+        return luma;
+    }
+
+    private static boolean accept(SharpnessGate gate, byte[] luma) {
+        return gate.accept(luma, WIDTH, 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void rejectsFramesMuchSofterThanTheRecentPeak() {
+        SharpnessGate gate = new SharpnessGate(1000, 0.5f);
+        assertTrue(accept(gate, stripes(200)));
+        assertFalse(accept(gate, stripes(40)));
+        assertTrue(accept(gate, stripes(180)));
+        assertEquals(2, gate.getAcceptedCount());
+        assertEquals(1, gate.getRejectedCount());
+    }
+
+    @Test
+    public void acceptsASoftSceneOnceThePeakHasDecayed() {
+        SharpnessGate gate = new SharpnessGate(1000, 0.5f);
+        assertTrue(accept(gate, stripes(200)));
+        byte[] soft = stripes(60);
+        int rejected = 0;
+        while (!accept(gate, soft)) {
+            assertTrue("The peak never decayed", ++rejected < 100);
+        }
+        assertTrue(rejected > 0);
+        // From then on the soft scene is the peak.
+        assertTrue(accept(gate, soft));
+    }
+
+    @Test
+    public void skipsABoundedNumberOfFramesWhileFocusIsMoving() {
+        SharpnessGate gate = new SharpnessGate(1000, 0.5f);
+        byte[] sharp = stripes(200);
+        gate.setFocusMoving(true);
+        int skipped = 0;
+        while (!accept(gate, sharp)) {
+            assertTrue("Focus moving skips are unbounded", ++skipped <= 100);
+        }
+        assertEquals(10, skipped);
+
+        // The count starts over after an accepted frame.
+        assertFalse(accept(gate, sharp));
+        gate.setFocusMoving(false);
+        assertTrue(accept(gate, sharp));
+    }
+
+    @Test
+    public void scoresOnlyTheGivenRectangle() {
+        SharpnessGate gate = new SharpnessGate(1000, 0.5f);
+        byte[] luma = stripes(200);
+        // Flatten the left half.
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH / 2; ++x) {
+                luma[y * WIDTH + x] = (byte) 128;
+            }
+        }
+        assertTrue(gate.accept(luma, WIDTH, WIDTH / 2, 0, WIDTH, HEIGHT));
+        assertFalse(gate.accept(luma, WIDTH, 0, 0, WIDTH / 2, HEIGHT));
+    }
+}
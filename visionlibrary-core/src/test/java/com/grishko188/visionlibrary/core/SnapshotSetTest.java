@@ -0,0 +1,140 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotSetTest {
+
+    @Test
+    public void keepsElementsInOrderOfAddition() {
+        SnapshotSet<String> set = new SnapshotSet<>();
+        String a = "a";
+        String b = "b";
+        String c = "c";
+        assertTrue(set.add(a));
+        assertTrue(set.add(b));
+        assertTrue(set.add(c));
+        assertEquals(Arrays.asList(a, b, c), set.snapshot());
+        assertTrue(set.remove(b));
+        assertEquals(Arrays.asList(a, c), set.snapshot());
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void addingAPresentElementDoesNotPublish() {
+        SnapshotSet<String> set = new SnapshotSet<>();
+        String a = "a";
+        set.add(a);
+        List<String> before = set.snapshot();
+        assertFalse(set.add(a));
+        assertSame(before, set.snapshot());
+        assertFalse(set.remove("b"));
+        assertSame(before, set.snapshot());
+    }
+
+    @Test
+    public void comparesByIdentity() {
+        SnapshotSet<String> set = new SnapshotSet<>();
+        String a = new String("a");
+        String equal = new String("a");
+        assertTrue(set.add(a));
+        assertTrue(set.add(equal));
+        assertEquals(2, set.size());
+        assertTrue(set.remove(equal));
+        assertSame(a, set.snapshot().get(0));
+        assertEquals(-1, set.snapshot().indexOf(equal));
+    }
+
+    @Test
+    public void snapshotsAreUnaffectedByLaterChanges() {
+        SnapshotSet<String> set = new SnapshotSet<>();
+        String a = "a";
+        String b = "b";
+        set.add(a);
+        List<String> snapshot = set.snapshot();
+        set.add(b);
+        set.remove(a);
+        assertEquals(Arrays.asList(a), snapshot);
+        set.clear();
+        assertEquals(0, set.size());
+        assertEquals(Arrays.asList(a), snapshot);
+    }
+
+    @Test
+    public void snapshotsAreImmutable() {
+        SnapshotSet<String> set = new SnapshotSet<>();
+        set.add("a");
+        try {
+            set.snapshot().add("b");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            set.snapshot().remove(0);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void concurrentWritersLoseNoElement() throws InterruptedException {
+        final SnapshotSet<Object> set = new SnapshotSet<>();
+        final int threads = 4;
+        final int perThread = 500;
+        final Object[] elements = new Object[threads * perThread];
+        for (int i = 0; i < elements.length; ++i) {
+            elements[i] = new Object();
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            final int first = t * perThread;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = first; i < first + perThread; ++i) {
+                            set.add(elements[i]);
+                            // Readers iterate without locking while the writers go on.
+                            int count = 0;
+                            for (Object ignored : set.snapshot()) {
+                                count++;
+                            }
+                            if (count == 0) {
+                                throw new AssertionError("Empty snapshot after an add");
+                            }
+                        }
+                        for (int i = first; i < first + perThread; i += 2) {
+                            set.remove(elements[i]);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertNull(failure.get());
+        assertEquals(elements.length / 2, set.size());
+        for (int i = 1; i < elements.length; i += 2) {
+            assertTrue(set.snapshot().indexOf(elements[i]) >= 0);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.grishko188.visionlibrary.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares tap lookups over many barcodes spread over a 1920x1080 frame, as at a dock door,
+ * between a linear scan of all bounding boxes and {@link SpatialGrid}, and measures moving a
+ * barcode in the grid, as trackers do on every frame.
+ * <p/>
+ * Run {@link #main(String[])} from the IDE, on a JVM host.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class SpatialGridBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int QUERIES = 1024;
+
+    @State(Scope.Thread)
+    public static class Barcodes {
+        @Param({"20", "200"})
+        public int count;
+
+        float[][] boxes;
+        Object[] items;
+        SpatialGrid<Object> grid;
+        final float[] queries = new float[QUERIES * 2];
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(42);
+            boxes = new float[count][];
+            items = new Object[count];
+            grid = new SpatialGrid<>(64);
+            for (int i = 0; i < count; ++i) {
+                float x = random.nextFloat() * (WIDTH - 120);
+                float y = random.nextFloat() * (HEIGHT - 60);
+                boxes[i] = new float[]{x, y, x + 120, y + 60};
+                items[i] = new Object();
+                grid.put(items[i], x, y, x + 120, y + 60);
+            }
+            for (int i = 0; i < queries.length; i += 2) {
+                queries[i] = random.nextFloat() * WIDTH;
+                queries[i + 1] = random.nextFloat() * HEIGHT;
+            }
+        }
+
+        int nextQuery() {
+            next = (next + 2) % queries.length;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Object linearFind(Barcodes state) {
+        int q = state.nextQuery();
+        float x = state.queries[q];
+        float y = state.queries[q + 1];
+        Object hit = null;
+        Object nearest = null;
+        float hitDistance = Float.MAX_VALUE;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < state.count; ++i) {
+            float[] box = state.boxes[i];
+            float dx = x - (box[0] + box[2]) / 2;
+            float dy = y - (box[1] + box[3]) / 2;
+            float distance = dx * dx + dy * dy;
+            if (distance < nearestDistance) {
+                nearest = state.items[i];
+                nearestDistance = distance;
+            }
+            if (x >= box[0] && x <= box[2] && y >= box[1] && y <= box[3] && distance < hitDistance) {
+                hit = state.items[i];
+                hitDistance = distance;
+            }
+        }
+        return hit != null ? hit : nearest;
+    }
+
+    @Benchmark
+    public Object gridFind(Barcodes state) {
+        int q = state.nextQuery();
+        float x = state.queries[q];
+        float y = state.queries[q + 1];
+        Object hit = state.grid.findAt(x, y);
+        return hit != null ? hit : state.grid.findNearest(x, y);
+    }
+
+    @Benchmark
+    public void gridMove(Barcodes state) {
+        int q = state.nextQuery();
+        int i = q % state.count;
+        float[] box = state.boxes[i];
+        // Jitter by a few pixels, as between two frames
+        float dx = state.queries[q] % 8 - 4;
+        float dy = state.queries[q + 1] % 8 - 4;
+        state.grid.put(state.items[i], box[0] + dx, box[1] + dy, box[2] + dx, box[3] + dy);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SpatialGridBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
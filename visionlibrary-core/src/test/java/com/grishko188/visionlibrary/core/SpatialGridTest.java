@@ -0,0 +1,173 @@
+package com.grishko188.visionlibrary.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialGridTest {
+
+    private static final class Box {
+        final float mLeft;
+        final float mTop;
+        final float mRight;
+        final float mBottom;
+
+        Box(float left, float top, float right, float bottom) {
+            mLeft = left;
+            mTop = top;
+            mRight = right;
+            mBottom = bottom;
+        }
+
+        float centerDistance(float x, float y) {
+            float dx = x - (mLeft + mRight) / 2;
+            float dy = y - (mTop + mBottom) / 2;
+            return dx * dx + dy * dy;
+        }
+
+        boolean contains(float x, float y) {
+            return x >= mLeft && x <= mRight && y >= mTop && y <= mBottom;
+        }
+    }
+
+    private static List<Box> randomBoxes(Random random, int count, float extent, float size) {
+        List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            float x = random.nextFloat() * extent - extent / 4;
+            float y = random.nextFloat() * extent - extent / 4;
+            float w = random.nextFloat() * size + 1;
+            float h = random.nextFloat() * size + 1;
+            boxes.add(new Box(x, y, x + w, y + h));
+        }
+        return boxes;
+    }
+
+    private static SpatialGrid<Box> grid(List<Box> boxes, float cellSize) {
+        SpatialGrid<Box> grid = new SpatialGrid<>(cellSize);
+        for (Box box : boxes) {
+            grid.put(box, box.mLeft, box.mTop, box.mRight, box.mBottom);
+        }
+        return grid;
+    }
+
+    private static Box nearest(List<Box> boxes, float x, float y) {
+        Box best = null;
+        for (Box box : boxes) {
+            if (best == null || box.centerDistance(x, y) < best.centerDistance(x, y)) {
+                best = box;
+            }
+        }
+        return best;
+    }
+
+    private static void assertNearest(List<Box> boxes, SpatialGrid<Box> grid, float x, float y) {
+        Box expected = nearest(boxes, x, y);
+        Box found = grid.findNearest(x, y);
+        // Ties may resolve either way; the distance must match.
+        assertEquals("Nearest to " + x + "," + y, expected.centerDistance(x, y),
+                found.centerDistance(x, y), 0);
+    }
+
+    @Test
+    public void findNearestMatchesABruteForceSearch() {
+        Random random = new Random(42);
+        // Dense enough for the ring search, and sparse enough for the linear fallback.
+        for (int count : new int[]{1, 5, 50, 2000}) {
+            List<Box> boxes = randomBoxes(random, count, 1000, 60);
+            SpatialGrid<Box> grid = grid(boxes, 40);
+            for (int i = 0; i < 500; ++i) {
+                assertNearest(boxes, grid, random.nextFloat() * 1400 - 400,
+                        random.nextFloat() * 1400 - 400);
+            }
+        }
+    }
+
+    @Test(timeout = 1000)
+    public void findNearestTerminatesFarOutsideTheItems() {
+        Random random = new Random(42);
+        // Small cells, so that a far point is many rings away from any item.
+        List<Box> boxes = randomBoxes(random, 2000, 1000, 4);
+        SpatialGrid<Box> grid = grid(boxes, 5);
+        for (int i = 0; i < 100; ++i) {
+            assertNearest(boxes, grid, 1e6f, -1e6f);
+            assertNearest(boxes, grid, -1e5f, 500);
+            assertNearest(boxes, grid, 2000, 2000);
+        }
+    }
+
+    @Test
+    public void findNearestOnAnEmptyGrid() {
+        SpatialGrid<Box> grid = new SpatialGrid<>(10);
+        assertNull(grid.findNearest(0, 0));
+        Box box = new Box(0, 0, 5, 5);
+        grid.put(box, 0, 0, 5, 5);
+        grid.remove(box);
+        assertNull(grid.findNearest(0, 0));
+    }
+
+    @Test
+    public void findAtMatchesABruteForceSearch() {
+        Random random = new Random(42);
+        List<Box> boxes = randomBoxes(random, 300, 1000, 80);
+        SpatialGrid<Box> grid = grid(boxes, 40);
+        for (int i = 0; i < 2000; ++i) {
+            float x = random.nextFloat() * 1200 - 300;
+            float y = random.nextFloat() * 1200 - 300;
+            Box expected = null;
+            for (Box box : boxes) {
+                if (box.contains(x, y) && (expected == null
+                        || box.centerDistance(x, y) < expected.centerDistance(x, y))) {
+                    expected = box;
+                }
+            }
+            Box found = grid.findAt(x, y);
+            if (expected == null) {
+                assertNull(found);
+            } else {
+                assertEquals(expected.centerDistance(x, y), found.centerDistance(x, y), 0);
+            }
+        }
+    }
+
+    @Test
+    public void followsMovedAndRemovedItems() {
+        SpatialGrid<Box> grid = new SpatialGrid<>(10);
+        Box a = new Box(0, 0, 0, 0);
+        Box b = new Box(0, 0, 0, 0);
+        grid.put(a, 0, 0, 8, 8);
+        grid.put(b, 100, 100, 108, 108);
+        assertSame(a, grid.findAt(4, 4));
+        assertSame(b, grid.findNearest(90, 90));
+
+        // Moved across cells, with the box given in either corner order.
+        grid.put(a, 88, 88, 80, 80);
+        assertNull(grid.findAt(4, 4));
+        assertSame(a, grid.findAt(84, 84));
+        assertSame(a, grid.findNearest(0, 0));
+        assertEquals(2, grid.size());
+
+        assertTrue(grid.remove(a));
+        assertFalse(grid.remove(a));
+        assertNull(grid.findAt(84, 84));
+        assertSame(b, grid.findNearest(0, 0));
+
+        grid.clear();
+        assertEquals(0, grid.size());
+        assertNull(grid.findAt(104, 104));
+        grid.put(a, 0, 0, 8, 8);
+        assertSame(a, grid.findNearest(1000, 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnInvalidCellSize() {
+        new SpatialGrid<Box>(0);
+    }
+}
@@ -18,7 +18,9 @@ package com.grishko188.visionlibrary;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Point;
 import android.graphics.RectF;
+import android.util.SparseArray;
 
 import com.google.android.gms.vision.barcode.Barcode;
 import com.grishko188.visionlibrary.camera.GraphicOverlay;
@@ -26,6 +28,10 @@ import com.grishko188.visionlibrary.camera.GraphicOverlay;
 /**
  * Graphic instance for rendering barcode position, size, and ID within an associated graphic
  * overlay view.
+ * <p>
+ * Drawing allocates nothing in the steady state: paints are shared by all graphics of the same
+ * colour, the box is mapped into a reused rectangle with the overlay's precomputed matrix, and the
+ * label is only measured when the barcode value changes.
  */
 class BarcodeGraphic extends GraphicOverlay.Graphic {
 
@@ -37,13 +43,23 @@ class BarcodeGraphic extends GraphicOverlay.Graphic {
             Color.GREEN
     };
 
-    private static int mCurrentColorIndex = 0;
+    private static int sCurrentColorIndex = 0;
 
-    private Paint mRectPaint;
-    private Paint mTextPaint;
+    /**
+     * Rect and text paints by colour, shared by all graphics.
+     */
+    private static final SparseArray<Paint[]> sPaints = new SparseArray<>();
+
+    private final Paint mRectPaint;
+    private final Paint mTextPaint;
     private volatile Barcode mBarcode;
     private GraphicOverlay overlay;
 
+    // Accessed on the UI thread only
+    private final RectF mRect = new RectF();
+    private String mMeasuredValue;
+    private float mTextWidth;
+
     BarcodeGraphic(GraphicOverlay overlay) {
         super(overlay);
         this.overlay = overlay;
@@ -55,17 +71,32 @@ class BarcodeGraphic extends GraphicOverlay.Graphic {
             colors = COLOR_CHOICES;
         }
 
-        mCurrentColorIndex = (mCurrentColorIndex + 1) % colors.length;
-        final int selectedColor = colors[mCurrentColorIndex];
+        sCurrentColorIndex = (sCurrentColorIndex + 1) % colors.length;
+        final int selectedColor = colors[sCurrentColorIndex];
 
-        mRectPaint = new Paint();
-        mRectPaint.setColor(selectedColor);
-        mRectPaint.setStyle(Paint.Style.STROKE);
-        mRectPaint.setStrokeWidth(4.0f);
+        Paint[] paints = getPaints(selectedColor);
+        mRectPaint = paints[0];
+        mTextPaint = paints[1];
+    }
 
-        mTextPaint = new Paint();
-        mTextPaint.setColor(selectedColor);
-        mTextPaint.setTextSize(36.0f);
+    private static Paint[] getPaints(int color) {
+        synchronized (sPaints) {
+            Paint[] paints = sPaints.get(color);
+            if (paints == null) {
+                Paint rectPaint = new Paint();
+                rectPaint.setColor(color);
+                rectPaint.setStyle(Paint.Style.STROKE);
+                rectPaint.setStrokeWidth(4.0f);
+
+                Paint textPaint = new Paint();
+                textPaint.setColor(color);
+                textPaint.setTextSize(36.0f);
+
+                paints = new Paint[]{rectPaint, textPaint};
+                sPaints.put(color, paints);
+            }
+            return paints;
+        }
     }
 
     public int getId() {
@@ -81,8 +112,8 @@ class BarcodeGraphic extends GraphicOverlay.Graphic {
     }
 
     /**
-     * Updates the barcode instance from the detection of the most recent frame.  Invalidates the
-     * relevant portions of the overlay to trigger a redraw.
+     * Updates the barcode instance from the detection of the most recent frame.  Schedules a
+     * redraw of the area covering both the previous and the new position.
      */
     void updateItem(Barcode barcode) {
         mBarcode = barcode;
@@ -95,22 +126,85 @@ class BarcodeGraphic extends GraphicOverlay.Graphic {
     @Override
     public void draw(Canvas canvas) {
         Barcode barcode = mBarcode;
-        if (barcode == null) {
+        if (!mapBox(barcode, mRect)) {
             return;
         }
 
         // Draws the bounding box around the barcode.
-        RectF rect = new RectF(barcode.getBoundingBox());
-        rect.left = translateX(rect.left);
-        rect.top = translateY(rect.top);
-        rect.right = translateX(rect.right);
-        rect.bottom = translateY(rect.bottom);
-
         if (overlay.isDrawRect())
-            canvas.drawRect(rect, mRectPaint);
+            canvas.drawRect(mRect, mRectPaint);
+
+        // Draws a label centered below the barcode indicate the barcode value that was detected.
+        if (overlay.isDrawText() && barcode.rawValue != null) {
+            float textWidth = measure(barcode.rawValue);
+            canvas.drawText(barcode.rawValue, mRect.centerX() - textWidth / 2, mRect.bottom, mTextPaint);
+        }
+    }
+
+    /**
+     * Covers the box including its stroke, and the label including its descent.
+     */
+    @Override
+    public boolean computeBounds(RectF bounds) {
+        Barcode barcode = mBarcode;
+        if (!mapBox(barcode, bounds)) {
+            bounds.setEmpty();
+            return true;
+        }
+        float bottom = bounds.bottom;
+        float centerX = bounds.centerX();
+        float stroke = mRectPaint.getStrokeWidth();
+        bounds.inset(-stroke, -stroke);
+        if (overlay.isDrawText() && barcode.rawValue != null) {
+            float halfWidth = measure(barcode.rawValue) / 2;
+            bounds.union(centerX - halfWidth, bottom - mTextPaint.getTextSize(),
+                    centerX + halfWidth, bottom + mTextPaint.descent());
+        }
+        return true;
+    }
 
-        // Draws a label at the bottom of the barcode indicate the barcode value that was detected.
-        if (overlay.isDrawText())
-            canvas.drawText(barcode.rawValue, rect.left, rect.bottom, mTextPaint);
+    /**
+     * The bounding box of the barcode in the frame, by which the overlay finds tapped barcodes.
+     */
+    @Override
+    public boolean getFrameBounds(RectF bounds) {
+        return frameBox(mBarcode, bounds);
+    }
+
+    /**
+     * Maps the bounding box of the barcode to the view.
+     *
+     * @return false if there is nothing to draw
+     */
+    private boolean mapBox(Barcode barcode, RectF rect) {
+        if (!frameBox(barcode, rect)) {
+            return false;
+        }
+        mapRect(rect);
+        return true;
+    }
+
+    /**
+     * Computes the bounding box of the barcode in the frame from the corner points directly, as
+     * Barcode.getBoundingBox() allocates.
+     */
+    private static boolean frameBox(Barcode barcode, RectF rect) {
+        if (barcode == null || barcode.cornerPoints == null || barcode.cornerPoints.length == 0) {
+            return false;
+        }
+        Point[] points = barcode.cornerPoints;
+        rect.set(points[0].x, points[0].y, points[0].x, points[0].y);
+        for (int i = 1; i < points.length; i++) {
+            rect.union(points[i].x, points[i].y);
+        }
+        return true;
+    }
+
+    private float measure(String value) {
+        if (!value.equals(mMeasuredValue)) {
+            mMeasuredValue = value;
+            mTextWidth = mTextPaint.measureText(value);
+        }
+        return mTextWidth;
     }
 }
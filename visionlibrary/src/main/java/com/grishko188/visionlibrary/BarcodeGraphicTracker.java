@@ -22,10 +22,6 @@ import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.barcode.Barcode;
 import com.grishko188.visionlibrary.camera.GraphicOverlay;
 
-import java.util.ArrayList;
-import java.util.List;
-
-
 /**
  * Generic tracker which is used for tracking or reading a barcode (and can really be used for
  * any type of item).  This is used to receive newly detected items, add a graphical representation
@@ -36,11 +32,14 @@ class BarcodeGraphicTracker extends Tracker<Barcode> {
     private GraphicOverlay<BarcodeGraphic> mOverlay;
     private BarcodeGraphic mGraphic;
     private BarcodeGraphicTrackerListener listener;
+    private MultiScanAggregator mAggregator;
 
-    BarcodeGraphicTracker(GraphicOverlay<BarcodeGraphic> overlay, BarcodeGraphic graphic, BarcodeGraphicTrackerListener listener) {
+    BarcodeGraphicTracker(GraphicOverlay<BarcodeGraphic> overlay, BarcodeGraphic graphic, BarcodeGraphicTrackerListener listener,
+                          MultiScanAggregator aggregator) {
         mOverlay = overlay;
         mGraphic = graphic;
         this.listener = listener;
+        mAggregator = aggregator;
     }
 
     /**
@@ -56,27 +55,16 @@ class BarcodeGraphicTracker extends Tracker<Barcode> {
     }
 
     /**
-     * Update the position/characteristics of the item within the overlay.
+     * Update the position/characteristics of the item within the overlay. Frames with several barcodes are reported
+     * once per frame through the shared aggregator, whichever tracker sees the frame first.
      */
     @Override
     public void onUpdate(Detector.Detections<Barcode> detectionResults, Barcode item) {
         mOverlay.add(mGraphic);
         mGraphic.updateItem(item);
 
-        if (detectionResults != null && detectionResults.getDetectedItems().size() > 1) {
-            if (listener != null) {
-                List<Barcode> barcodes = asList(detectionResults.getDetectedItems());
-                listener.onScannedMultiple(barcodes);
-            }
-        }
-    }
-
-    public static <C> List<C> asList(SparseArray<C> sparseArray) {
-        if (sparseArray == null) return null;
-        List<C> arrayList = new ArrayList<C>(sparseArray.size());
-        for (int i = 0; i < sparseArray.size(); i++)
-            arrayList.add(sparseArray.valueAt(i));
-        return arrayList;
+        if (detectionResults != null)
+            mAggregator.onUpdate(detectionResults);
     }
 
     /**
@@ -101,7 +89,10 @@ class BarcodeGraphicTracker extends Tracker<Barcode> {
     public interface BarcodeGraphicTrackerListener {
         void onScanned(Barcode barcode);
 
-        void onScannedMultiple(List<Barcode> barcodes);
+        /**
+         * Called once per camera frame holding at least two barcodes, see {@link MultiScanAggregator}
+         */
+        void onScannedMultiple(MultiScanResult result);
 
         void onBitmapScanned(SparseArray<Barcode> sparseArray);
 
@@ -0,0 +1,30 @@
+package com.grishko188.visionlibrary;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import com.google.android.gms.vision.barcode.Barcode;
+import com.grishko188.visionlibrary.camera.CameraSource;
+
+/**
+ * Maps barcodes detected on a downscaled frame back to full resolution, by scaling their corner
+ * points. The bounding box of a barcode is derived from its corner points.
+ */
+class BarcodePyramidAdapter implements CameraSource.PyramidAdapter<Barcode> {
+
+    @Override
+    public void scale(Barcode barcode, int factor) {
+        if (barcode.cornerPoints == null)
+            return;
+        for (Point point : barcode.cornerPoints) {
+            point.x *= factor;
+            point.y *= factor;
+        }
+    }
+
+    @Override
+    public int getSize(Barcode barcode) {
+        Rect box = barcode.getBoundingBox();
+        return Math.min(box.width(), box.height());
+    }
+}
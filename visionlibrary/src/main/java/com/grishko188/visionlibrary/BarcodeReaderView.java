@@ -6,12 +6,14 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Point;
+import android.graphics.RectF;
 import android.hardware.Camera;
-import android.media.MediaPlayer;
+import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.support.annotation.ColorInt;
 import android.support.annotation.Nullable;
@@ -29,14 +31,21 @@ import android.widget.Toast;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.barcode.Barcode;
 import com.google.android.gms.vision.barcode.BarcodeDetector;
 import com.grishko188.visionlibrary.camera.CameraSource;
 import com.grishko188.visionlibrary.camera.CameraSourcePreview;
 import com.grishko188.visionlibrary.camera.GraphicOverlay;
+import com.grishko188.visionlibrary.core.DispatchQueue;
+import com.grishko188.visionlibrary.core.DuplicateFilter;
+import com.grishko188.visionlibrary.core.PipelineMetrics;
+import com.grishko188.visionlibrary.core.PreviewTuner;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -49,6 +58,15 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
 
     private static final String TAG = BarcodeReaderView.class.getSimpleName();
 
+    public static final long DEFAULT_FEEDBACK_INTERVAL_MILLIS = 300;
+    private static final String DEFAULT_BEEP_SOUND_FILE = "beep.mp3";
+
+    private static final int SHARPNESS_SAMPLE_BUDGET = 4096;
+    private static final float SHARPNESS_THRESHOLD_RATIO = 0.5f;
+    private static final float MOTION_THRESHOLD = 4f;
+    private static final float DEFAULT_PREVIEW_FPS = 15.0f;
+    private static final int BITMAP_SCAN_THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
     private String mBeepSoundFile;
 
     private boolean mAutoFocus = true;
@@ -62,8 +80,25 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
     private boolean mVibrateWhenSuccess;
 
     private int mBarcodeFormat = Barcode.ALL_FORMATS;
+    private int mDetectorThreadCount = 1;
+    private int mPyramidScale = 0;
+    private boolean mSkipBlurryFrames = false;
+    private long mUnchangedSceneReuseMillis = 0;
+    private boolean mUseJavaDecoder = false;
+    private boolean mUseCamera2 = false;
+    private boolean mAutoTunePreview = false;
+    private PreviewCalibration mCalibration;
+    private RectF mScanRegion;
 
     private CameraSource mCameraSource;
+    private BitmapScanner mBitmapScanner;
+    private volatile DuplicateFilter mDuplicateFilter;
+    private int mCallbackQueueCapacity = 0;
+    private DispatchQueue.DropPolicy mCallbackDropPolicy = DispatchQueue.DropPolicy.DROP_OLDEST;
+    private boolean mCallbackOnMainThread;
+    private volatile ScanCallbackDispatcher mCallbackDispatcher;
+    private volatile ScanFeedback mFeedback;
+    private long mFeedbackMinIntervalMillis = DEFAULT_FEEDBACK_INTERVAL_MILLIS;
     private CameraSourcePreview mPreview;
     private GraphicOverlay<BarcodeGraphic> mGraphicOverlay;
 
@@ -147,11 +182,182 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
         this.mBarcodeFormat = barcodeFormat;
     }
 
+    /**
+     * Set number of threads running barcode detection in parallel. Call this method before {@link #startCamera()}.
+     * By default detection runs on a single thread.
+     */
+    public void setDetectorThreadCountPreInitState(int threadCount) {
+        this.mDetectorThreadCount = threadCount;
+    }
+
+    /**
+     * Restrict scanning to a region of the preview, e.g. a viewfinder in the middle of the screen.
+     * Region is given as fractions (0 to 1) of the preview width and height. Pass null to scan the whole preview.
+     * Can be called at any time. Barcode coordinates delivered through the callback are relative to the region
+     */
+    public void setScanRegion(@Nullable RectF region) {
+        mScanRegion = region;
+        if (mCameraSource != null) {
+            mCameraSource.setScanRegion(region);
+            Point offset = mCameraSource.getScanRegionOffset();
+            mGraphicOverlay.setFrameOffset(offset.x, offset.y);
+        }
+    }
+
+    /**
+     * Enable pyramid detection. Call this method before {@link #startCamera()}.
+     * Every frame is first scanned downscaled by the given factor (2 or 4), and scanned at full resolution only
+     * if nothing or only small barcodes were found. Speeds up scanning of large, close-up barcodes.
+     * Pass 0 to disable, which is the default.
+     */
+    public void setPyramidDetectionPreInitState(int scale) {
+        this.mPyramidScale = scale;
+    }
+
+    /**
+     * Set if blurry frames, e.g. taken while auto focus is hunting, should be skipped without scanning.
+     * Call this method before {@link #startCamera()}. Disabled by default
+     */
+    public void setSkipBlurryFramesPreInitState(boolean skip) {
+        this.mSkipBlurryFrames = skip;
+    }
+
+    /**
+     * Set for how long the last scan result is reused while the camera looks at an unchanged scene, instead of
+     * scanning every frame again. Saves CPU and battery e.g. on a kiosk pointed at the same label.
+     * Call this method before {@link #startCamera()}. Pass 0 to disable, which is the default
+     */
+    public void setReuseUnchangedScenePreInitState(long maxReuseMillis) {
+        this.mUnchangedSceneReuseMillis = maxReuseMillis;
+    }
+
+    /**
+     * Set if barcodes are decoded by the built-in pure Java decoder instead of the Google Play Services detector.
+     * It needs neither Play Services nor a detector download, but only reads EAN-13, EAN-8 and UPC-A barcodes.
+     * Call this method before {@link #startCamera()}. Disabled by default
+     */
+    public void setUseJavaDecoderPreInitState(boolean useJavaDecoder) {
+        this.mUseJavaDecoder = useJavaDecoder;
+    }
+
+    /**
+     * Set if camera frames are read through the Camera2 API on Lollipop and later, instead of the deprecated
+     * camera API. Only the luma plane of frames is copied, which is all barcode detection needs.
+     * Call this method before {@link #startCamera()}. Disabled by default
+     */
+    public void setUseCamera2PreInitState(boolean useCamera2) {
+        this.mUseCamera2 = useCamera2;
+    }
+
+    /**
+     * Set if the preview size and frame rate are calibrated on live frames, instead of requesting a preview the size
+     * of the screen at 15 fps. The first time the camera is started on a device, a few supported sizes at 15 and 30
+     * fps are tried for a few seconds each while scanning, and the one decoding the most frames per second is
+     * remembered and used from then on. Keep a barcode in view meanwhile; if none is decoded, nothing is remembered.
+     * Call this method before {@link #startCamera()}. Disabled by default
+     */
+    public void setAutoTunePreviewPreInitState(boolean autoTune) {
+        this.mAutoTunePreview = autoTune;
+    }
+
+    /**
+     * Forget the preview configurations remembered by {@link #setAutoTunePreviewPreInitState(boolean)}, so that the
+     * preview is calibrated again the next time the camera is created
+     */
+    public void resetPreviewTuning() {
+        PreviewCalibration.clear(getContext());
+    }
+
+    /**
+     * Returns if the preview is being calibrated, see {@link #setAutoTunePreviewPreInitState(boolean)}
+     */
+    public boolean isCalibratingPreview() {
+        return mCalibration != null && !mCalibration.isDone();
+    }
+
+    /**
+     * Returns how many frames each detection thread has processed, or null if camera is not created yet
+     */
+    @Nullable
+    public long[] getProcessedFrameCounts() {
+        return mCameraSource != null ? mCameraSource.getProcessedFrameCounts() : null;
+    }
+
+    /**
+     * Returns a snapshot of frame counters and per-stage latency histograms of the scanning pipeline,
+     * or null if camera is not created yet
+     */
+    @Nullable
+    public PipelineMetrics.Snapshot getPipelineMetrics() {
+        return mCameraSource != null ? mCameraSource.getPipelineMetrics().snapshot() : null;
+    }
+
+    /**
+     * Returns the time in milliseconds from starting the camera until its first preview frame was received,
+     * or -1 if camera is not started yet. The camera is opened on a background thread, so the UI is not blocked meanwhile
+     */
+    public long getCameraColdStartMillis() {
+        return mCameraSource != null ? mCameraSource.getColdStartMillis() : -1;
+    }
+
+    /**
+     * Deliver scan results through a queue instead of calling the listener, sound and vibration on the detection
+     * thread, so that a slow listener can't hold up scanning. Results are delivered on a dedicated thread, or on the
+     * main thread, batched once per display frame. Call this method before {@link #startCamera()}.
+     * Pass 0 as capacity to disable, which is the default
+     *
+     * @param capacity            maximum number of results waiting for delivery
+     * @param dropPolicy          what to do with a new result when that many are waiting
+     * @param deliverOnMainThread deliver on the main thread rather than on a dedicated thread
+     */
+    public void setCallbackDispatcherPreInitState(int capacity, DispatchQueue.DropPolicy dropPolicy, boolean deliverOnMainThread) {
+        this.mCallbackQueueCapacity = capacity;
+        this.mCallbackDropPolicy = dropPolicy;
+        this.mCallbackOnMainThread = deliverOnMainThread;
+    }
+
+    /**
+     * Returns how many scan results were dropped because the callback queue was full,
+     * see {@link #setCallbackDispatcherPreInitState(int, DispatchQueue.DropPolicy, boolean)}
+     */
+    public long getDroppedCallbackCount() {
+        ScanCallbackDispatcher dispatcher = mCallbackDispatcher;
+        return dispatcher != null ? dispatcher.getDroppedCount() : 0;
+    }
+
+    /**
+     * Suppress repeated {@link BarcodeReaderListener#onScanned(Barcode)} calls for the same barcode, e.g. when a label
+     * is lost and found again while it stays in view. A barcode with the same format and raw value is reported at most
+     * once per given time, and at most {@code capacity} recent barcodes are remembered. Barcodes picked by a tap are
+     * always reported. Pass 0 to disable, which is the default. Can be called at any time
+     */
+    public void setDuplicateSuppression(long ttlMillis, int capacity) {
+        mDuplicateFilter = ttlMillis > 0 ? new DuplicateFilter(ttlMillis, capacity) : null;
+    }
+
+    /**
+     * Returns how many scans were suppressed as duplicates, see {@link #setDuplicateSuppression(long, int)}
+     */
+    public long getDuplicateHitCount() {
+        DuplicateFilter filter = mDuplicateFilter;
+        return filter != null ? filter.getHitCount() : 0;
+    }
+
+    /**
+     * Returns how many scans passed duplicate suppression, see {@link #setDuplicateSuppression(long, int)}
+     */
+    public long getDuplicateMissCount() {
+        DuplicateFilter filter = mDuplicateFilter;
+        return filter != null ? filter.getMissCount() : 0;
+    }
+
     /**
      * Set if need to play sound automatically, after success scanning
      */
     public void setPlaySoundWhenScanSuccess(boolean play) {
         this.mPlaySoundWhenScanSuccess = play;
+        if (play)
+            getFeedback().preload(getBeepSoundFile());
     }
 
     /**
@@ -196,6 +402,8 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
      */
     public void setBeepSoundFile(String fileName) {
         mBeepSoundFile = fileName;
+        if (mPlaySoundWhenScanSuccess)
+            getFeedback().preload(getBeepSoundFile());
     }
 
     /**
@@ -235,18 +443,112 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
      */
     public void stopCamera() {
         mIsStopped = true;
+        cancelCalibration();
         if (mPreview != null)
             mPreview.stop();
     }
 
     /**
-     * Release camera source. Call this method inside onDestroy
+     * Release camera source and cancel bitmap scanning. Call this method inside onDestroy
      */
     public void releaseCamera() {
+        cancelCalibration();
         if (mPreview != null)
             mPreview.release();
+        if (mBitmapScanner != null) {
+            mBitmapScanner.release();
+            mBitmapScanner = null;
+        }
+        if (mCallbackDispatcher != null) {
+            mCallbackDispatcher.release();
+            mCallbackDispatcher = null;
+        }
+        synchronized (this) {
+            if (mFeedback != null) {
+                mFeedback.release();
+                mFeedback = null;
+            }
+        }
+    }
+
+    /**
+     * Scan a batch of images, given as content or file uris, on background threads. The camera is not required.
+     * Result of every image is delivered as soon as the image is scanned, so not necessarily in the given order.
+     * To tell which image a result belongs to, let the listener implement {@link BitmapScanListener}; otherwise
+     * results go through {@link BarcodeReaderListener#onBitmapScanned(SparseArray)} and images which can't be read
+     * through {@link BarcodeReaderListener#onScanError(String)}
+     */
+    public void scanBitmaps(List<Uri> uris) {
+        if (prepareBitmapScanner())
+            mBitmapScanner.scan(uris, mBitmapScanCallback);
     }
 
+    /**
+     * Scan a very large image, e.g. a high resolution photo of a whole shelf, in overlapping full resolution tiles
+     * on background threads, so that small barcodes are not lost to downscaling. The image is never decoded whole.
+     * Barcodes found in several tiles are reported once, through {@link BitmapScanListener#onBitmapScanned(Uri, SparseArray)}
+     * or {@link BarcodeReaderListener#onBitmapScanned(SparseArray)}
+     */
+    public void scanLargeBitmap(Uri uri) {
+        if (prepareBitmapScanner())
+            mBitmapScanner.scanTiled(uri, mBitmapScanCallback);
+    }
+
+    /**
+     * Same as {@link #scanBitmaps(List)}, for image files
+     */
+    public void scanBitmapFiles(List<File> files) {
+        List<Uri> uris = new ArrayList<>(files.size());
+        for (File file : files)
+            uris.add(Uri.fromFile(file));
+        scanBitmaps(uris);
+    }
+
+    /**
+     * Cancel all images queued by {@link #scanBitmaps(List)} and {@link #scanLargeBitmap(Uri)}. Results of images
+     * being scanned are dropped
+     */
+    public void cancelBitmapScanning() {
+        if (mBitmapScanner != null)
+            mBitmapScanner.cancel();
+    }
+
+    private boolean prepareBitmapScanner() {
+        if (mBitmapScanner == null) {
+            Detector<Barcode> detector = createBarcodeDetector();
+            if (!detector.isOperational()) {
+                detector.release();
+                if (mListener != null)
+                    mListener.onBarcodeNotOperationalYetError();
+                return false;
+            }
+            mBitmapScanner = new BitmapScanner(getContext().getContentResolver(), detector, BITMAP_SCAN_THREAD_COUNT);
+        }
+        return true;
+    }
+
+    private final BitmapScanner.Callback mBitmapScanCallback = new BitmapScanner.Callback() {
+        @Override
+        public void onScanned(Uri uri, SparseArray<Barcode> barcodes) {
+            BarcodeReaderListener listener = mListener;
+            if (listener instanceof BitmapScanListener) {
+                ((BitmapScanListener) listener).onBitmapScanned(uri, barcodes);
+                giveScanFeedback();
+            } else {
+                onBitmapScanned(barcodes);
+            }
+        }
+
+        @Override
+        public void onError(Uri uri, String errorMessage) {
+            BarcodeReaderListener listener = mListener;
+            if (listener instanceof BitmapScanListener)
+                ((BitmapScanListener) listener).onBitmapScanError(uri, errorMessage);
+            else
+                onScanError(errorMessage);
+        }
+    };
+
     /**
      * This method creates and starts camera. Permission is required
      */
@@ -254,6 +556,13 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
     public void startCamera() {
         if (mCameraSource == null)
             createCameraSource(mAutoFocus, mUseFlash);
+        synchronized (this) {
+            if (mFeedback != null && mCameraSource != null)
+                mFeedback.setMetrics(mCameraSource.getPipelineMetrics());
+        }
+        if (mCallbackDispatcher == null && mCallbackQueueCapacity > 0)
+            mCallbackDispatcher = new ScanCallbackDispatcher(mCallbackQueueCapacity, mCallbackDropPolicy,
+                    mCallbackOnMainThread, mCallbackTarget);
         startCameraSource();
         mIsStopped = false;
     }
@@ -267,29 +576,14 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
      * This method play the give sound file.
      */
     public void playSound() {
-        playSound(mBeepSoundFile != null ? mBeepSoundFile : "beep.mp3");
+        playSound(getBeepSoundFile());
     }
 
+    /**
+     * Play the given sound file from assets folder. The sound is decoded once and played on a background thread
+     */
     public void playSound(String file) {
-        MediaPlayer m = new MediaPlayer();
-        try {
-            if (m.isPlaying()) {
-                m.stop();
-                m.release();
-                m = new MediaPlayer();
-            }
-            if (getContext() == null)
-                return;
-            AssetFileDescriptor descriptor = getContext().getAssets().openFd(file);
-            m.setDataSource(descriptor.getFileDescriptor(), descriptor.getStartOffset(), descriptor.getLength());
-            descriptor.close();
-
-            m.prepare();
-            m.setVolume(1f, 1f);
-            m.start();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        getFeedback().post(file, null);
     }
 
     public void vibrate() {
@@ -298,7 +592,46 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
 
     public void vibrate(long[] pattern) {
         if (mDeviceVibrator != null)
-            mDeviceVibrator.vibrate(pattern, -1);
+            getFeedback().post(null, pattern);
+    }
+
+    /**
+     * Set minimal time between two sound or vibration feedbacks of successful scans. Feedback of scans following
+     * sooner is skipped, so a burst of scans gives a single beep. By default {@link #DEFAULT_FEEDBACK_INTERVAL_MILLIS}
+     */
+    public void setScanFeedbackMinInterval(long minIntervalMillis) {
+        mFeedbackMinIntervalMillis = minIntervalMillis;
+        ScanFeedback feedback = mFeedback;
+        if (feedback != null)
+            feedback.setMinInterval(minIntervalMillis);
+    }
+
+    /**
+     * Returns how many scan feedbacks were skipped, see {@link #setScanFeedbackMinInterval(long)}
+     */
+    public long getSkippedFeedbackCount() {
+        ScanFeedback feedback = mFeedback;
+        return feedback != null ? feedback.getSuppressedCount() : 0;
+    }
+
+    private String getBeepSoundFile() {
+        return mBeepSoundFile != null ? mBeepSoundFile : DEFAULT_BEEP_SOUND_FILE;
+    }
+
+    private synchronized ScanFeedback getFeedback() {
+        if (mFeedback == null) {
+            mFeedback = new ScanFeedback(getContext().getAssets(), mDeviceVibrator, mFeedbackMinIntervalMillis);
+            if (mCameraSource != null)
+                mFeedback.setMetrics(mCameraSource.getPipelineMetrics());
+        }
+        return mFeedback;
+    }
+
+    private void giveScanFeedback() {
+        if (!mPlaySoundWhenScanSuccess && !mVibrateWhenSuccess)
+            return;
+        getFeedback().request(mPlaySoundWhenScanSuccess ? getBeepSoundFile() : null,
+                mVibrateWhenSuccess && mDeviceVibrator != null ? mDefaultVibratePattern : null);
     }
 
     @Override
@@ -313,33 +646,63 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
     @Override
     public void onScanned(Barcode barcode) {
         if (mListener != null && !mIsPaused) {
-            mListener.onScanned(barcode);
-            if (mPlaySoundWhenScanSuccess)
-                playSound();
-            if (mVibrateWhenSuccess)
-                vibrate();
+            DuplicateFilter filter = mDuplicateFilter;
+            if (filter != null && !filter.accept(barcode.format, barcode.rawValue, SystemClock.elapsedRealtime()))
+                return;
+            ScanCallbackDispatcher dispatcher = mCallbackDispatcher;
+            if (dispatcher != null)
+                dispatcher.postScanned(barcode);
+            else
+                mCallbackTarget.deliverScanned(barcode);
         }
     }
 
     @Override
-    public void onScannedMultiple(List<Barcode> barcodeList) {
+    public void onScannedMultiple(MultiScanResult result) {
         if (mListener != null && !mIsPaused) {
-            mListener.onScannedMultiple(barcodeList);
-            if (mPlaySoundWhenScanSuccess)
-                playSound();
-            if (mVibrateWhenSuccess)
-                vibrate();
+            ScanCallbackDispatcher dispatcher = mCallbackDispatcher;
+            if (dispatcher != null)
+                dispatcher.postScannedMultiple(result);
+            else
+                mCallbackTarget.deliverScannedMultiple(result);
+        }
+    }
+
+    private final ScanCallbackDispatcher.Target mCallbackTarget = new ScanCallbackDispatcher.Target() {
+        @Override
+        public void deliverScanned(Barcode barcode) {
+            BarcodeReaderListener listener = mListener;
+            if (listener == null || mIsPaused)
+                return;
+            long start = System.nanoTime();
+            listener.onScanned(barcode);
+            giveScanFeedback();
+            recordListenerLatency(start);
+        }
+
+        @Override
+        public void deliverScannedMultiple(MultiScanResult result) {
+            BarcodeReaderListener listener = mListener;
+            if (listener == null || mIsPaused)
+                return;
+            long start = System.nanoTime();
+            listener.onScannedMultiple(result);
+            giveScanFeedback();
+            recordListenerLatency(start);
         }
+    };
+
+    private void recordListenerLatency(long startNanos) {
+        CameraSource cameraSource = mCameraSource;
+        if (cameraSource != null)
+            cameraSource.getPipelineMetrics().record(PipelineMetrics.Stage.LISTENER, System.nanoTime() - startNanos);
     }
 
     @Override
     public void onBitmapScanned(SparseArray<Barcode> sparseArray) {
         if (mListener != null) {
             mListener.onBitmapScanned(sparseArray);
-            if (mPlaySoundWhenScanSuccess)
-                playSound();
-            if (mVibrateWhenSuccess)
-                vibrate();
+            giveScanFeedback();
         }
     }
 
@@ -361,11 +724,17 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
     @SuppressLint("InlinedApi")
     private void createCameraSource(boolean autoFocus, boolean useFlash) {
 
-        BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(getContext())
-                .setBarcodeFormats(mBarcodeFormat).build();
+        Detector<Barcode> barcodeDetector = createBarcodeDetector();
         BarcodeTrackerFactory barcodeFactory = new BarcodeTrackerFactory(mGraphicOverlay, this);
 
-        barcodeDetector.setProcessor(new MultiProcessor.Builder<>(barcodeFactory).build());
+        MultiProcessor<Barcode> processor = new MultiProcessor.Builder<>(barcodeFactory).build();
+        PreviewTuner.Candidate tuned = mAutoTunePreview ? PreviewCalibration.load(getContext(), getTuningKey()) : null;
+        // Unchanged frames can only reuse the previous result when results go through the dispatcher, and decoded
+        // frames are only counted there, which the preview calibration needs
+        boolean useDispatcher = mDetectorThreadCount > 1 || mPyramidScale > 0 || mUnchangedSceneReuseMillis > 0
+                || (mAutoTunePreview && tuned == null);
+        if (!useDispatcher)
+            barcodeDetector.setProcessor(processor);
 
         if (!barcodeDetector.isOperational()) {
 
@@ -391,8 +760,24 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
 
         CameraSource.Builder builder = new CameraSource.Builder(getContext(), barcodeDetector)
                 .setFacing(CameraSource.CAMERA_FACING_BACK)
-                .setRequestedPreviewSize(getScreenWidth(), getScreenHeight())
-                .setRequestedFps(15.0f);
+                .setRequestedPreviewSize(tuned != null ? tuned.getWidth() : getScreenWidth(),
+                        tuned != null ? tuned.getHeight() : getScreenHeight())
+                .setRequestedFps(tuned != null ? tuned.getFps() : DEFAULT_PREVIEW_FPS)
+                .setScanRegion(mScanRegion)
+                .setUseCamera2(mUseCamera2)
+                .setLumaOnly(true);
+
+        if (useDispatcher)
+            builder = builder.setDetectorThreadCount(Math.max(1, mDetectorThreadCount), processor);
+
+        if (mPyramidScale > 0)
+            builder = builder.setPyramidDetection(mPyramidScale, new BarcodePyramidAdapter());
+
+        if (mSkipBlurryFrames)
+            builder = builder.setSharpnessGate(SHARPNESS_SAMPLE_BUDGET, SHARPNESS_THRESHOLD_RATIO);
+
+        if (mUnchangedSceneReuseMillis > 0)
+            builder = builder.setMotionGate(MOTION_THRESHOLD, mUnchangedSceneReuseMillis);
 
         builder = builder.setFocusMode(
                 autoFocus ? Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE : null);
@@ -402,15 +787,24 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
                 .build();
     }
 
+    private Detector<Barcode> createBarcodeDetector() {
+        return mUseJavaDecoder
+                ? new LumaBarcodeDetector(mBarcodeFormat)
+                : new BarcodeDetector.Builder(getContext()).setBarcodeFormats(mBarcodeFormat).build();
+    }
+
     private void startCameraSource() throws SecurityException {
-        int code = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(getContext());
-        if (code != ConnectionResult.SUCCESS) {
-            if (mListener != null)
-                mListener.onPlayServicesNotAvailableError();
-            return;
+        if (!mUseJavaDecoder) {
+            int code = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(getContext());
+            if (code != ConnectionResult.SUCCESS) {
+                if (mListener != null)
+                    mListener.onPlayServicesNotAvailableError();
+                return;
+            }
         }
 
         if (mCameraSource != null) {
+            prepareCalibration();
             try {
                 mPreview.start(mCameraSource, mGraphicOverlay);
             } catch (IOException e) {
@@ -421,6 +815,50 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
         }
     }
 
+    /**
+     * Starts calibrating the preview along with the camera, if enabled and not calibrated on this device yet
+     */
+    private void prepareCalibration() {
+        cancelCalibration();
+        if (mAutoTunePreview && PreviewCalibration.load(getContext(), getTuningKey()) == null) {
+            int width = getScreenWidth();
+            int height = getScreenHeight();
+            mCalibration = new PreviewCalibration(getContext(), getTuningKey(), mCameraSource, mCalibrationHost,
+                    width, height, new PreviewTuner.Candidate(width, height, DEFAULT_PREVIEW_FPS));
+        }
+        mPreview.setStartListener(mCalibration);
+    }
+
+    private void cancelCalibration() {
+        if (mCalibration != null) {
+            mCalibration.cancel();
+            mCalibration = null;
+        }
+    }
+
+    /**
+     * The preview configuration is remembered per decoder, barcode formats and camera API, as these change how fast
+     * frames are decoded
+     */
+    private String getTuningKey() {
+        return (mUseJavaDecoder ? "java" : "play-services") + "-" + mBarcodeFormat + (mUseCamera2 ? "-camera2" : "-camera1");
+    }
+
+    private final PreviewCalibration.Host mCalibrationHost = new PreviewCalibration.Host() {
+        @SuppressLint("MissingPermission")
+        @Override
+        public void restartCamera() {
+            if (mCameraSource == null || mIsStopped)
+                return;
+            mPreview.stop();
+            try {
+                mPreview.start(mCameraSource, mGraphicOverlay);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to restart camera source.", e);
+            }
+        }
+    };
+
     /**
      * onTap returns the tapped barcode result to the calling Activity.
      *
@@ -432,30 +870,23 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
         // Find tap point in preview frame coordinates.
         int[] location = new int[2];
         mGraphicOverlay.getLocationOnScreen(location);
-        float x = (rawX - location[0]) / mGraphicOverlay.getWidthScaleFactor();
-        float y = (rawY - location[1]) / mGraphicOverlay.getHeightScaleFactor();
-
-        // Find the barcode whose center is closest to the tapped point.
-        Barcode best = null;
-        float bestDistance = Float.MAX_VALUE;
-        for (BarcodeGraphic graphic : mGraphicOverlay.getGraphics()) {
-            Barcode barcode = graphic.getBarcode();
-            if (barcode.getBoundingBox().contains((int) x, (int) y)) {
-                // Exact hit, no need to keep looking.
-                best = barcode;
-                break;
-            }
-            float dx = x - barcode.getBoundingBox().centerX();
-            float dy = y - barcode.getBoundingBox().centerY();
-            float distance = (dx * dx) + (dy * dy);  // actually squared distance
-            if (distance < bestDistance) {
-                best = barcode;
-                bestDistance = distance;
-            }
-        }
+        float x = mGraphicOverlay.toFrameX(rawX - location[0]);
+        float y = mGraphicOverlay.toFrameY(rawY - location[1]);
 
+        // Prefer the barcode under the tapped point, of overlapping ones the one closest to its
+        // center, otherwise take the barcode whose center is closest to the tapped point.
+        BarcodeGraphic graphic = mGraphicOverlay.findGraphicAt(x, y);
+        if (graphic == null)
+            graphic = mGraphicOverlay.findNearestGraphic(x, y);
+
+        Barcode best = graphic != null ? graphic.getBarcode() : null;
         if (best != null) {
-            onScanned(best);
+            // An explicit pick, so neither suppressed as a duplicate nor subject to the drop policy.
+            ScanCallbackDispatcher dispatcher = mCallbackDispatcher;
+            if (dispatcher != null)
+                dispatcher.postTapped(best);
+            else
+                mCallbackTarget.deliverScanned(best);
             return true;
         }
         return false;
@@ -526,7 +957,12 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
     public interface BarcodeReaderListener {
         void onScanned(Barcode barcode);
 
-        void onScannedMultiple(List<Barcode> barcodeList);
+        /**
+         * Called once per camera frame holding at least two barcodes. Frames with a single barcode
+         * are not reported here; that barcode arrives through {@link #onScanned(Barcode)} only.
+         * The result is reused for every frame
+         */
+        void onScannedMultiple(MultiScanResult result);
 
         void onBitmapScanned(SparseArray<Barcode> sparseArray);
 
@@ -536,4 +972,16 @@ public class BarcodeReaderView extends LinearLayout implements View.OnTouchListe
 
         void onBarcodeNotOperationalYetError();
     }
+
+    /**
+     * Optional extension of {@link BarcodeReaderListener} for {@link #scanBitmaps(List)} and
+     * {@link #scanLargeBitmap(Uri)}, whose results arrive from several threads in no particular order. When the
+     * listener implements it, every result and error carries the image it belongs to, and is delivered here instead of
+     * through {@link BarcodeReaderListener#onBitmapScanned(SparseArray)} and {@link BarcodeReaderListener#onScanError(String)}
+     */
+    public interface BitmapScanListener {
+        void onBitmapScanned(Uri uri, SparseArray<Barcode> barcodes);
+
+        void onBitmapScanError(Uri uri, String errorMessage);
+    }
 }
@@ -28,16 +28,18 @@ import com.grishko188.visionlibrary.camera.GraphicOverlay;
 class BarcodeTrackerFactory implements MultiProcessor.Factory<Barcode> {
     private GraphicOverlay<BarcodeGraphic> mGraphicOverlay;
     private BarcodeGraphicTracker.BarcodeGraphicTrackerListener listener;
+    private MultiScanAggregator mAggregator;
 
     BarcodeTrackerFactory(GraphicOverlay<BarcodeGraphic> barcodeGraphicOverlay, BarcodeGraphicTracker.BarcodeGraphicTrackerListener listener) {
         mGraphicOverlay = barcodeGraphicOverlay;
         this.listener = listener;
+        mAggregator = new MultiScanAggregator(listener);
     }
 
     @Override
     public Tracker<Barcode> create(Barcode barcode) {
         BarcodeGraphic graphic = new BarcodeGraphic(mGraphicOverlay);
-        return new BarcodeGraphicTracker(mGraphicOverlay, graphic, listener);
+        return new BarcodeGraphicTracker(mGraphicOverlay, graphic, listener, mAggregator);
     }
 
 }
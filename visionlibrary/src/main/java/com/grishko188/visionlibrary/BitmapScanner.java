@@ -0,0 +1,473 @@
+package com.grishko188.visionlibrary;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scans batches of still images for barcodes on a bounded pool of background threads, delivering
+ * the result of every image on the main thread as soon as it is ready.
+ * <p/>
+ * Every image is first decoded at the smallest resolution worth trying, its long side about
+ * {@link #MIN_LONG_SIDE} pixels, and decoded again at twice the resolution only while nothing is
+ * found, up to full resolution or {@link #MAX_PIXELS}.  Most photos decode at the first attempt,
+ * so a batch costs a fraction of the memory and time of decoding every image at full size.
+ * Barcode coordinates are reported at the full resolution of the image.
+ * <p/>
+ * Very large images, e.g. photos of whole shelves, can be scanned in tiles instead, see
+ * {@link #scanTiled(Uri, Callback)}.
+ */
+class BitmapScanner {
+    private static final int MIN_LONG_SIDE = 1024;
+    private static final int MAX_PIXELS = 4 * 1024 * 1024;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Size of the square tiles of {@link #scanTiled(Uri, Callback)}, and their overlap, which must
+     * exceed the barcodes expected to be found only in tiles.
+     */
+    private static final int TILE_SIZE = 1024;
+    private static final int TILE_OVERLAP = 256;
+
+    /**
+     * Receives scan results, on the main thread.
+     */
+    interface Callback {
+        void onScanned(Uri uri, SparseArray<Barcode> barcodes);
+
+        void onError(Uri uri, String errorMessage);
+    }
+
+    private final ContentResolver mContentResolver;
+    private final Detector<Barcode> mDetector;
+    private final BarcodePyramidAdapter mScaler = new BarcodePyramidAdapter();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Helper threads of {@link #scanTiled(Uri, Callback)}, separate from the image threads so that
+     * the tiles of a large image don't wait behind every queued image.  Null with a single thread.
+     */
+    private final ThreadPoolExecutor mTileExecutor;
+
+    /**
+     * The number of detections running, and whether the scanner is released, in which case the
+     * last detection to complete releases the detector.  Guarded by mDetectorLock.
+     */
+    private final Object mDetectorLock = new Object();
+    private int mDetecting;
+    private boolean mReleased;
+
+    /**
+     * Incremented by {@link #cancel()}, so that results of cancelled scans are dropped.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /**
+     * @param detector    the detector used by all threads; {@link Detector#detect(Frame)} must
+     *                    be safe to call concurrently
+     * @param threadCount the maximum number of images decoded at the same time
+     */
+    BitmapScanner(ContentResolver contentResolver, Detector<Barcode> detector, int threadCount) {
+        mContentResolver = contentResolver;
+        mDetector = detector;
+        mExecutor = createExecutor(threadCount, "BitmapScanner-");
+        mTileExecutor = threadCount > 1 ? createExecutor(threadCount - 1, "BitmapScanner-tile-") : null;
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threadCount, final String namePrefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + mCount.getAndIncrement());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Queues the images for scanning.  Results are delivered in order of completion, which may
+     * differ from the order of the list.
+     */
+    void scan(List<Uri> uris, final Callback callback) {
+        final int generation = mGeneration.get();
+        for (final Uri uri : uris) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (generation != mGeneration.get())
+                        return;
+                    try {
+                        deliver(generation, uri, scan(uri), null, callback);
+                    } catch (IOException | OutOfMemoryError e) {
+                        deliver(generation, uri, null, "Unable to scan " + uri + ": " + e, callback);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues a large image for scanning in overlapping full resolution tiles.  Tiles are read one
+     * at a time with a {@link BitmapRegionDecoder}, so the image is never decoded whole, and are
+     * shared out between the thread scanning the image and the helper threads, which don't wait
+     * for the queued images.  A downscaled pass over the whole image picks
+     * up barcodes larger than the tile overlap.  Barcodes found more than once, in overlapping
+     * tiles or in both passes, are merged, and the result is delivered once the last tile is done.
+     */
+    void scanTiled(final Uri uri, final Callback callback) {
+        final int generation = mGeneration.get();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration.get())
+                    return;
+                try {
+                    new TiledScan(uri, generation, callback).start();
+                } catch (IOException | OutOfMemoryError e) {
+                    deliver(generation, uri, null, "Unable to scan " + uri + ": " + e, callback);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops all queued images, and the results of images being scanned.
+     */
+    void cancel() {
+        mGeneration.incrementAndGet();
+        mExecutor.getQueue().clear();
+        if (mTileExecutor != null)
+            mTileExecutor.getQueue().clear();
+    }
+
+    /**
+     * Cancels all scans and releases the detector, once the detections still running complete.
+     * The scanner cannot be used afterwards.
+     */
+    void release() {
+        cancel();
+        mExecutor.shutdown();
+        if (mTileExecutor != null)
+            mTileExecutor.shutdown();
+        synchronized (mDetectorLock) {
+            mReleased = true;
+            if (mDetecting == 0)
+                mDetector.release();
+        }
+    }
+
+    /**
+     * Runs the detector, unless the scanner is released.
+     *
+     * @throws IOException if the scanner is released
+     */
+    private SparseArray<Barcode> detect(Bitmap bitmap) throws IOException {
+        synchronized (mDetectorLock) {
+            if (mReleased)
+                throw new IOException("Scanner released");
+            mDetecting++;
+        }
+        try {
+            return mDetector.detect(new Frame.Builder().setBitmap(bitmap).build());
+        } finally {
+            synchronized (mDetectorLock) {
+                if (--mDetecting == 0 && mReleased)
+                    mDetector.release();
+            }
+        }
+    }
+
+    private SparseArray<Barcode> scan(Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw new IOException("Not an image");
+
+        int width = options.outWidth;
+        int longSide = Math.max(width, options.outHeight);
+        long pixels = (long) width * options.outHeight;
+        int minSampleSize = 1;
+        while (pixels / ((long) minSampleSize * minSampleSize) > MAX_PIXELS)
+            minSampleSize *= 2;
+        int sampleSize = minSampleSize;
+        while (longSide / (sampleSize * 2) >= MIN_LONG_SIDE)
+            sampleSize *= 2;
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        while (true) {
+            options.inSampleSize = sampleSize;
+            Bitmap bitmap = decode(uri, options);
+            if (bitmap == null)
+                throw new IOException("Unable to decode image");
+            int decodedWidth = bitmap.getWidth();
+            SparseArray<Barcode> barcodes;
+            try {
+                barcodes = detect(bitmap);
+            } finally {
+                bitmap.recycle();
+            }
+            if (barcodes.size() > 0 || sampleSize <= minSampleSize) {
+                // Sampled sizes are rounded, so derive the factor from the decoded bitmap
+                int factor = Math.round((float) width / decodedWidth);
+                if (factor > 1) {
+                    for (int i = 0; i < barcodes.size(); i++)
+                        mScaler.scale(barcodes.valueAt(i), factor);
+                }
+                return barcodes;
+            }
+            sampleSize /= 2;
+        }
+    }
+
+    private InputStream open(Uri uri) throws IOException {
+        InputStream stream = mContentResolver.openInputStream(uri);
+        if (stream == null)
+            throw new IOException("Unable to open " + uri);
+        return stream;
+    }
+
+    private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream stream = open(uri);
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void deliver(final int generation, final Uri uri, final SparseArray<Barcode> barcodes,
+                         final String errorMessage, final Callback callback) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration.get())
+                    return;
+                if (barcodes != null)
+                    callback.onScanned(uri, barcodes);
+                else
+                    callback.onError(uri, errorMessage);
+            }
+        });
+    }
+
+    /**
+     * Merges barcodes with the same value whose bounding boxes intersect, keeping the largest,
+     * which is the one least likely to have been cut by a tile edge.
+     */
+    private static SparseArray<Barcode> merge(List<Barcode> barcodes) {
+        List<Barcode> merged = new ArrayList<>();
+        List<Rect> boxes = new ArrayList<>();
+        outer:
+        for (Barcode barcode : barcodes) {
+            Rect box = barcode.getBoundingBox();
+            for (int i = 0; i < merged.size(); i++) {
+                Rect other = boxes.get(i);
+                if (TextUtils.equals(barcode.rawValue, merged.get(i).rawValue) && Rect.intersects(box, other)) {
+                    if (box.width() * box.height() > other.width() * other.height()) {
+                        merged.set(i, barcode);
+                        boxes.set(i, box);
+                    }
+                    continue outer;
+                }
+            }
+            merged.add(barcode);
+            boxes.add(box);
+        }
+        SparseArray<Barcode> result = new SparseArray<>(merged.size());
+        for (int i = 0; i < merged.size(); i++)
+            result.put(i, merged.get(i));
+        return result;
+    }
+
+    /**
+     * State of one {@link #scanTiled(Uri, Callback)} request.  Every participating thread, the one
+     * which scans the image and its helpers, opens its own region decoder, as a decoder serializes
+     * its calls, and takes tiles off the shared list until none are left; the last thread to
+     * finish merges and delivers the result.
+     */
+    private class TiledScan {
+        private final Uri mUri;
+        private final int mGeneration;
+        private final Callback mCallback;
+        private final List<Rect> mTiles = new ArrayList<>();
+        private final AtomicInteger mNextTile = new AtomicInteger();
+        private final AtomicInteger mActiveWorkers = new AtomicInteger();
+        private final AtomicReference<String> mError = new AtomicReference<>();
+        private final List<Barcode> mBarcodes = new ArrayList<>();
+
+        TiledScan(Uri uri, int generation, Callback callback) {
+            mUri = uri;
+            mGeneration = generation;
+            mCallback = callback;
+        }
+
+        /**
+         * Lays out the tiles, hands them to the other threads, then scans the downscaled image and
+         * tiles on the calling thread.
+         */
+        void start() throws IOException {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decode(mUri, options);
+            int width = options.outWidth;
+            int height = options.outHeight;
+            if (width <= 0 || height <= 0)
+                throw new IOException("Not an image");
+            for (int y : tileOrigins(height)) {
+                for (int x : tileOrigins(width))
+                    mTiles.add(new Rect(x, y, Math.min(width, x + TILE_SIZE), Math.min(height, y + TILE_SIZE)));
+            }
+
+            // The calling thread counts as a worker until it is done, so the count can't drop to
+            // zero while helpers are still being started.
+            mActiveWorkers.set(1);
+            int helpers = mTileExecutor != null ? Math.min(mTileExecutor.getMaximumPoolSize(), mTiles.size() - 1) : 0;
+            for (int i = 0; i < helpers; i++) {
+                mActiveWorkers.incrementAndGet();
+                try {
+                    mTileExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            work();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Released meanwhile; the remaining tiles are left to the calling thread.
+                    mActiveWorkers.decrementAndGet();
+                    break;
+                }
+            }
+            try {
+                add(scan(mUri));
+            } catch (IOException | OutOfMemoryError e) {
+                mError.compareAndSet(null, e.toString());
+            }
+            work();
+        }
+
+        private void work() {
+            BitmapRegionDecoder decoder = null;
+            try {
+                if (mNextTile.get() < mTiles.size() && mGeneration == BitmapScanner.this.mGeneration.get()) {
+                    InputStream stream = open(mUri);
+                    try {
+                        decoder = BitmapRegionDecoder.newInstance(stream, false);
+                    } finally {
+                        stream.close();
+                    }
+                    scanTiles(decoder);
+                }
+            } catch (IOException | OutOfMemoryError e) {
+                mError.compareAndSet(null, e.toString());
+            } finally {
+                if (decoder != null)
+                    decoder.recycle();
+            }
+            if (mActiveWorkers.decrementAndGet() == 0)
+                finish();
+        }
+
+        private void scanTiles(BitmapRegionDecoder decoder) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            int index;
+            while ((index = mNextTile.getAndIncrement()) < mTiles.size()) {
+                if (mGeneration != BitmapScanner.this.mGeneration.get() || mError.get() != null)
+                    return;
+                Rect tile = mTiles.get(index);
+                Bitmap bitmap = decoder.decodeRegion(tile, options);
+                if (bitmap == null) {
+                    mError.compareAndSet(null, "Unable to decode tile " + tile);
+                    return;
+                }
+                SparseArray<Barcode> barcodes;
+                try {
+                    barcodes = detect(bitmap);
+                } catch (IOException e) {
+                    mError.compareAndSet(null, e.toString());
+                    return;
+                } finally {
+                    bitmap.recycle();
+                }
+                for (int i = 0; i < barcodes.size(); i++) {
+                    Barcode barcode = barcodes.valueAt(i);
+                    if (barcode.cornerPoints != null) {
+                        for (Point point : barcode.cornerPoints)
+                            point.offset(tile.left, tile.top);
+                    }
+                }
+                add(barcodes);
+            }
+        }
+
+        private void add(SparseArray<Barcode> barcodes) {
+            synchronized (mBarcodes) {
+                for (int i = 0; i < barcodes.size(); i++)
+                    mBarcodes.add(barcodes.valueAt(i));
+            }
+        }
+
+        private void finish() {
+            String error = mError.get();
+            if (error != null) {
+                deliver(mGeneration, mUri, null, "Unable to scan " + mUri + ": " + error, mCallback);
+                return;
+            }
+            SparseArray<Barcode> result;
+            synchronized (mBarcodes) {
+                result = merge(mBarcodes);
+            }
+            deliver(mGeneration, mUri, result, null, mCallback);
+        }
+    }
+
+    /**
+     * Returns the origins of evenly spread tiles covering the given length, overlapping by at
+     * least {@link #TILE_OVERLAP}.
+     */
+    private static List<Integer> tileOrigins(int length) {
+        List<Integer> origins = new ArrayList<>();
+        if (length <= TILE_SIZE) {
+            origins.add(0);
+            return origins;
+        }
+        int step = TILE_SIZE - TILE_OVERLAP;
+        int count = (length - TILE_OVERLAP + step - 1) / step;
+        for (int i = 0; i < count; i++)
+            origins.add((int) ((long) (length - TILE_SIZE) * i / (count - 1)));
+        return origins;
+    }
+}
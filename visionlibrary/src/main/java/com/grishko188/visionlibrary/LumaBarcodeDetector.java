@@ -0,0 +1,74 @@
+package com.grishko188.visionlibrary;
+
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.grishko188.visionlibrary.core.DecodedBarcode;
+import com.grishko188.visionlibrary.core.LumaBarcodeDecoder;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Barcode detector backed by the pure Java {@link LumaBarcodeDecoder}, for EAN-13, EAN-8 and
+ * UPC-A.  Unlike {@link com.google.android.gms.vision.barcode.BarcodeDetector} it is operational
+ * right away, without Google Play Services or a native library download, so it drops into the
+ * same processors and trackers.
+ * <p/>
+ * Barcodes are identified by format and value, which keeps their ids stable across frames.
+ */
+class LumaBarcodeDetector extends Detector<Barcode> {
+    private static final int SCAN_LINES = 24;
+    private static final int MIN_CONFIRMATIONS = 2;
+
+    private final LumaBarcodeDecoder mDecoder;
+
+    /**
+     * @param formats a combination of the {@link Barcode} format constants; formats other than
+     *                EAN-13, EAN-8 and UPC-A are ignored, and {@link Barcode#ALL_FORMATS} selects
+     *                all of those
+     * @throws IllegalArgumentException if none of the formats is supported
+     */
+    LumaBarcodeDetector(int formats) {
+        int supported = DecodedBarcode.EAN_13 | DecodedBarcode.EAN_8 | DecodedBarcode.UPC_A;
+        if (formats != Barcode.ALL_FORMATS && (formats & supported) == 0) {
+            throw new IllegalArgumentException("Unsupported barcode formats: " + formats);
+        }
+        mDecoder = new LumaBarcodeDecoder(formats & supported, SCAN_LINES, MIN_CONFIRMATIONS);
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        Frame.Metadata metadata = frame.getMetadata();
+        ByteBuffer data = frame.getGrayscaleImageData();
+        byte[] luma;
+        if (data.hasArray() && data.arrayOffset() == 0) {
+            luma = data.array();
+        } else {
+            luma = new byte[data.remaining()];
+            data.duplicate().get(luma);
+        }
+        List<DecodedBarcode> decoded = mDecoder.decode(luma, metadata.getWidth(),
+                metadata.getHeight(), metadata.getRotation());
+
+        SparseArray<Barcode> barcodes = new SparseArray<>(decoded.size());
+        for (DecodedBarcode item : decoded) {
+            Barcode barcode = new Barcode();
+            barcode.format = item.getFormat();
+            barcode.valueFormat = Barcode.PRODUCT;
+            barcode.rawValue = item.getRawValue();
+            barcode.displayValue = item.getRawValue();
+            barcode.cornerPoints = new Point[]{
+                    new Point(item.getLeft(), item.getTop()),
+                    new Point(item.getRight(), item.getTop()),
+                    new Point(item.getRight(), item.getBottom()),
+                    new Point(item.getLeft(), item.getBottom())
+            };
+            barcodes.put(31 * item.getFormat() + item.getRawValue().hashCode(), barcode);
+        }
+        return barcodes;
+    }
+}
@@ -0,0 +1,48 @@
+package com.grishko188.visionlibrary;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+/**
+ * Turns the per-tracker updates of a {@link com.google.android.gms.vision.MultiProcessor} into a
+ * single multi-barcode event per frame.  Every tracker receives the same detections of a frame,
+ * so the first tracker to report a frame emits the event and the others are ignored.  Reused
+ * detections of an unchanged scene carry the metadata of the frame they were detected in, so they
+ * are not reported again either.
+ * <p>
+ * Only frames with at least two barcodes are reported, as before the aggregation; a lone barcode
+ * is already delivered through {@code onScanned}, and would otherwise be reported twice.
+ */
+class MultiScanAggregator {
+    private final BarcodeGraphicTracker.BarcodeGraphicTrackerListener mListener;
+    private final MultiScanResult mResult = new MultiScanResult();
+    private int mLastFrameId = -1;
+    private long mLastTimestampMillis = -1;
+
+    MultiScanAggregator(BarcodeGraphicTracker.BarcodeGraphicTrackerListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Emits the detections unless their frame was already reported, or they hold fewer than two
+     * barcodes.
+     */
+    synchronized void onUpdate(Detector.Detections<Barcode> detections) {
+        SparseArray<Barcode> items = detections.getDetectedItems();
+        Frame.Metadata metadata = detections.getFrameMetadata();
+        if (mListener == null || items.size() < 2)
+            return;
+        if (metadata.getId() == mLastFrameId && metadata.getTimestampMillis() == mLastTimestampMillis)
+            return;
+        mLastFrameId = metadata.getId();
+        mLastTimestampMillis = metadata.getTimestampMillis();
+
+        mResult.set(mLastFrameId, mLastTimestampMillis);
+        for (int i = 0; i < items.size(); i++)
+            mResult.add(items.valueAt(i));
+        mListener.onScannedMultiple(mResult);
+    }
+}
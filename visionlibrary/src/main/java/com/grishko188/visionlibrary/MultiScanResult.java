@@ -0,0 +1,60 @@
+package com.grishko188.visionlibrary;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * All barcodes detected in one camera frame, delivered once per frame through
+ * {@link BarcodeReaderView.BarcodeReaderListener#onScannedMultiple(MultiScanResult)}.
+ * <p/>
+ * The instance and its list are reused for every frame, so they are only valid during the
+ * callback. Copy the barcodes to keep them.
+ */
+public final class MultiScanResult {
+    private final List<Barcode> mBarcodes = new ArrayList<>();
+    private final List<Barcode> mReadOnlyBarcodes = Collections.unmodifiableList(mBarcodes);
+    private int mFrameId;
+    private long mTimestampMillis;
+
+    MultiScanResult() {
+    }
+
+    void set(int frameId, long timestampMillis) {
+        mFrameId = frameId;
+        mTimestampMillis = timestampMillis;
+        mBarcodes.clear();
+    }
+
+    void add(Barcode barcode) {
+        mBarcodes.add(barcode);
+    }
+
+    void copyFrom(MultiScanResult other) {
+        set(other.mFrameId, other.mTimestampMillis);
+        mBarcodes.addAll(other.mBarcodes);
+    }
+
+    /**
+     * Returns the id of the frame the barcodes were detected in.
+     */
+    public int getFrameId() {
+        return mFrameId;
+    }
+
+    /**
+     * Returns the timestamp of the frame the barcodes were detected in, in milliseconds.
+     */
+    public long getTimestampMillis() {
+        return mTimestampMillis;
+    }
+
+    /**
+     * Returns the barcodes detected in the frame, as a read-only list.
+     */
+    public List<Barcode> getBarcodes() {
+        return mReadOnlyBarcodes;
+    }
+}
@@ -0,0 +1,204 @@
+package com.grishko188.visionlibrary;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.common.images.Size;
+import com.grishko188.visionlibrary.camera.CameraSource;
+import com.grishko188.visionlibrary.core.PipelineMetrics;
+import com.grishko188.visionlibrary.core.PreviewTuner;
+
+import java.util.List;
+
+/**
+ * Calibrates the preview size and frame rate on live frames, with a {@link PreviewTuner}: the camera is restarted
+ * with every candidate in turn, and once its first frame has arrived and a warm-up has passed, the pipeline metrics
+ * are measured for a while. The best candidate is remembered per device, keyed by the build fingerprint so that an
+ * OS update calibrates again, and applied. If no trial decoded anything, e.g. because no barcode was in view, nothing
+ * is remembered and the default configuration is restored.
+ * <p/>
+ * Driven by the start callbacks of the camera preview, on the main thread.
+ */
+class PreviewCalibration implements CameraSource.StartCallback {
+    private static final String TAG = PreviewCalibration.class.getSimpleName();
+
+    private static final String PREFS_NAME = "visionlibrary_preview_tuning";
+    private static final String KEY_FINGERPRINT = ".fingerprint";
+    private static final String KEY_WIDTH = ".width";
+    private static final String KEY_HEIGHT = ".height";
+    private static final String KEY_FPS = ".fps";
+
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long TRIAL_MILLIS = 3000;
+    private static final float[] FPS_OPTIONS = {15f, 30f};
+    private static final int MAX_SIZES = 3;
+
+    /**
+     * Restarts the camera, so that a new requested preview takes effect.
+     */
+    interface Host {
+        void restartCamera();
+    }
+
+    private final Context mContext;
+    private final String mKey;
+    private final CameraSource mCameraSource;
+    private final Host mHost;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final PreviewTuner.Candidate mDefault;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private PreviewTuner mTuner;
+    private PreviewTuner.Candidate mCurrent;
+    private PipelineMetrics.Snapshot mBefore;
+    private boolean mDone;
+
+    /**
+     * @param key            the key under which the result is remembered, identifying the scanning setup
+     * @param maxWidth       the width of the largest preview to try
+     * @param maxHeight      the height of the largest preview to try
+     * @param defaultPreview the configuration restored if the calibration is inconclusive or cancelled
+     */
+    PreviewCalibration(Context context, String key, CameraSource cameraSource, Host host, int maxWidth, int maxHeight,
+                       PreviewTuner.Candidate defaultPreview) {
+        mContext = context.getApplicationContext();
+        mKey = key;
+        mCameraSource = cameraSource;
+        mHost = host;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mDefault = defaultPreview;
+    }
+
+    /**
+     * Returns the configuration remembered under the given key on this build, or null if it was not calibrated yet
+     */
+    @Nullable
+    static PreviewTuner.Candidate load(Context context, String key) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(prefs.getString(key + KEY_FINGERPRINT, null)))
+            return null;
+        int width = prefs.getInt(key + KEY_WIDTH, 0);
+        int height = prefs.getInt(key + KEY_HEIGHT, 0);
+        float fps = prefs.getFloat(key + KEY_FPS, 0);
+        if (width <= 0 || height <= 0 || fps <= 0)
+            return null;
+        return new PreviewTuner.Candidate(width, height, fps);
+    }
+
+    /**
+     * Forgets all remembered configurations
+     */
+    static void clear(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    private void save(PreviewTuner.Candidate candidate) {
+        mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(mKey + KEY_FINGERPRINT, Build.FINGERPRINT)
+                .putInt(mKey + KEY_WIDTH, candidate.getWidth())
+                .putInt(mKey + KEY_HEIGHT, candidate.getHeight())
+                .putFloat(mKey + KEY_FPS, candidate.getFps())
+                .apply();
+    }
+
+    boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Stops calibrating and restores the default configuration for the next start. Nothing is remembered
+     */
+    void cancel() {
+        if (mDone)
+            return;
+        mDone = true;
+        mHandler.removeCallbacksAndMessages(null);
+        mCameraSource.setRequestedPreview(mDefault.getWidth(), mDefault.getHeight(), mDefault.getFps());
+    }
+
+    @Override
+    public void onStarted(CameraSource cameraSource) {
+        if (mDone || mTuner != null)
+            return;
+        // First start, at the default configuration: the supported sizes are known now
+        List<Size> sizes = cameraSource.getSupportedPreviewSizes();
+        if (sizes == null || sizes.isEmpty()) {
+            cancel();
+            return;
+        }
+        int[] widths = new int[sizes.size()];
+        int[] heights = new int[sizes.size()];
+        for (int i = 0; i < sizes.size(); i++) {
+            widths[i] = sizes.get(i).getWidth();
+            heights[i] = sizes.get(i).getHeight();
+        }
+        List<PreviewTuner.Candidate> candidates =
+                PreviewTuner.selectCandidates(widths, heights, mMaxWidth, mMaxHeight, FPS_OPTIONS, MAX_SIZES);
+        if (candidates.size() < 2) {
+            cancel();
+            return;
+        }
+        mTuner = new PreviewTuner(candidates, cameraSource.getDetectorThreadCount());
+        startNextTrial();
+    }
+
+    @Override
+    public void onStartFailed(Exception e) {
+        cancel();
+    }
+
+    @Override
+    public void onFirstFrame(long coldStartMillis) {
+        if (mDone || mCurrent == null)
+            return;
+        mHandler.postDelayed(mBeginTrial, WARMUP_MILLIS);
+    }
+
+    private final Runnable mBeginTrial = new Runnable() {
+        @Override
+        public void run() {
+            mBefore = mCameraSource.getPipelineMetrics().snapshot();
+            mHandler.postDelayed(mEndTrial, TRIAL_MILLIS);
+        }
+    };
+
+    private final Runnable mEndTrial = new Runnable() {
+        @Override
+        public void run() {
+            mTuner.record(mCurrent, mBefore, mCameraSource.getPipelineMetrics().snapshot());
+            Log.i(TAG, "Preview " + mCurrent + " scored " + mTuner.getScore(mCurrent));
+            startNextTrial();
+        }
+    };
+
+    private void startNextTrial() {
+        mCurrent = mTuner.next();
+        if (mCurrent == null) {
+            finish();
+            return;
+        }
+        mCameraSource.setRequestedPreview(mCurrent.getWidth(), mCurrent.getHeight(), mCurrent.getFps());
+        mHost.restartCamera();
+    }
+
+    private void finish() {
+        PreviewTuner.Candidate best = mTuner.getBest();
+        mDone = true;
+        if (best != null) {
+            Log.i(TAG, "Calibrated preview: " + best);
+            save(best);
+        } else {
+            Log.i(TAG, "Preview calibration is inconclusive, no barcode was decoded");
+            best = mDefault;
+        }
+        mCameraSource.setRequestedPreview(best.getWidth(), best.getHeight(), best.getFps());
+        mHost.restartCamera();
+    }
+}
@@ -0,0 +1,189 @@
+package com.grishko188.visionlibrary;
+
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.google.android.gms.vision.barcode.Barcode;
+import com.grishko188.visionlibrary.core.DispatchQueue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves scan callbacks off the detection threads.  Results are copied into a bounded
+ * {@link DispatchQueue} of preallocated events, and delivered either on a dedicated thread, or on
+ * the main thread, where all events queued since the previous frame are delivered together on the
+ * next vsync.  Detection only pays for the enqueue, however slow the listener is.
+ * <p>
+ * Barcodes picked by a tap are not subject to the capacity and drop policy, since they are posted
+ * from the main thread: they are delivered right away when delivering on the main thread, and
+ * otherwise handed to the delivery thread ahead of the queued events.
+ */
+class ScanCallbackDispatcher {
+    private static final String TAG = ScanCallbackDispatcher.class.getSimpleName();
+    private static final long TAKE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Receives the events, on the delivery thread.
+     */
+    interface Target {
+        void deliverScanned(Barcode barcode);
+
+        void deliverScannedMultiple(MultiScanResult result);
+    }
+
+    /**
+     * A queued callback; either a single barcode or a copy of a multi-barcode result.
+     */
+    private static final class Event {
+        Barcode mBarcode;
+        final MultiScanResult mResult = new MultiScanResult();
+    }
+
+    private static final DispatchQueue.SlotFactory<Event> EVENT_FACTORY = new DispatchQueue.SlotFactory<Event>() {
+        @Override
+        public Event create() {
+            return new Event();
+        }
+    };
+
+    private final DispatchQueue<Event> mQueue;
+    private final Target mTarget;
+    private final Choreographer mChoreographer;
+    private final Thread mThread;
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+    private final ConcurrentLinkedQueue<Barcode> mTapped = new ConcurrentLinkedQueue<>();
+    private Event mSpare = EVENT_FACTORY.create();
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            // Cleared before draining, so that an event queued meanwhile schedules another frame
+            mFrameScheduled.set(false);
+            Event event;
+            while ((event = mQueue.poll(mSpare)) != null) {
+                mSpare = event;
+                deliver(event);
+            }
+        }
+    };
+
+    /**
+     * @param capacity   the maximum number of queued callbacks
+     * @param policy     what to do with a callback when the queue is full
+     * @param mainThread whether to deliver on the main thread, batched per vsync, rather than on a dedicated thread.
+     *                   Must be created on the main thread then
+     */
+    ScanCallbackDispatcher(int capacity, DispatchQueue.DropPolicy policy, boolean mainThread, Target target) {
+        mQueue = new DispatchQueue<>(capacity, policy, EVENT_FACTORY);
+        mTarget = target;
+        if (mainThread) {
+            if (Looper.myLooper() != Looper.getMainLooper())
+                throw new IllegalStateException("Must be created on the main thread.");
+            mChoreographer = Choreographer.getInstance();
+            mThread = null;
+        } else {
+            mChoreographer = null;
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runDelivery();
+                }
+            }, "ScanCallbackDispatcher");
+            mThread.start();
+        }
+    }
+
+    void postScanned(Barcode barcode) {
+        Event event = acquire();
+        if (event == null)
+            return;
+        event.mBarcode = barcode;
+        commit();
+    }
+
+    /**
+     * Delivers a barcode picked by a tap, without blocking or dropping it.  Call on the main thread.
+     */
+    void postTapped(Barcode barcode) {
+        if (mChoreographer != null) {
+            mTarget.deliverScanned(barcode);
+            return;
+        }
+        if (mQueue.isClosed())
+            return;
+        mTapped.add(barcode);
+        mQueue.wakeUp();
+    }
+
+    void postScannedMultiple(MultiScanResult result) {
+        Event event = acquire();
+        if (event == null)
+            return;
+        event.mBarcode = null;
+        event.mResult.copyFrom(result);
+        commit();
+    }
+
+    /**
+     * Returns the number of callbacks dropped because the queue was full.
+     */
+    long getDroppedCount() {
+        return mQueue.getDroppedCount();
+    }
+
+    /**
+     * Drops all pending callbacks and stops the delivery thread.
+     */
+    void release() {
+        mQueue.close();
+        mTapped.clear();
+        if (mChoreographer != null)
+            mChoreographer.removeFrameCallback(mFrameCallback);
+    }
+
+    private Event acquire() {
+        try {
+            return mQueue.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void commit() {
+        mQueue.commit();
+        if (mChoreographer != null && mFrameScheduled.compareAndSet(false, true))
+            mChoreographer.postFrameCallback(mFrameCallback);
+    }
+
+    private void runDelivery() {
+        try {
+            while (true) {
+                Barcode tapped;
+                while ((tapped = mTapped.poll()) != null)
+                    mTarget.deliverScanned(tapped);
+                Event event = mQueue.take(mSpare, TAKE_TIMEOUT_NANOS);
+                if (event != null) {
+                    mSpare = event;
+                    deliver(event);
+                } else if (mQueue.isClosed()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Delivery thread interrupted.");
+        }
+    }
+
+    private void deliver(Event event) {
+        if (event.mBarcode != null) {
+            mTarget.deliverScanned(event.mBarcode);
+            event.mBarcode = null;
+        } else {
+            mTarget.deliverScannedMultiple(event.mResult);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.grishko188.visionlibrary;
+
+import android.annotation.TargetApi;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Vibrator;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.grishko188.visionlibrary.core.PipelineMetrics;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays the scan sound and vibration on a dedicated thread, so that neither delays detection or
+ * the listener.  Sounds are decoded once into a {@link SoundPool} and played from memory, instead
+ * of preparing a new media player for every scan.  Feedback requested within the minimum interval
+ * of the previous one is dropped, so that a burst of scans gives a single beep.
+ * <p/>
+ * The time from a request until sound and vibration have been started is recorded as
+ * {@link PipelineMetrics.Stage#FEEDBACK}.
+ */
+class ScanFeedback {
+    private static final String TAG = ScanFeedback.class.getSimpleName();
+    private static final int MAX_STREAMS = 2;
+    private static final int NOT_LOADED = -1;
+
+    private final AssetManager mAssets;
+    private final Vibrator mVibrator;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final AtomicLong mLastFeedbackMillis = new AtomicLong(Long.MIN_VALUE / 2);
+    private final AtomicLong mSuppressedCount = new AtomicLong();
+    private volatile long mMinIntervalMillis;
+    private volatile PipelineMetrics mMetrics;
+
+    // Accessed on the feedback thread only
+    private SoundPool mSoundPool;
+    private final Map<String, Integer> mSoundIds = new HashMap<>();
+    private final SparseArray<Long> mPendingPlays = new SparseArray<>();
+    private final SparseArray<Boolean> mLoaded = new SparseArray<>();
+
+    ScanFeedback(AssetManager assets, Vibrator vibrator, long minIntervalMillis) {
+        mAssets = assets;
+        mVibrator = vibrator;
+        mMinIntervalMillis = minIntervalMillis;
+        mThread = new HandlerThread("ScanFeedback", Process.THREAD_PRIORITY_AUDIO);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Created on the feedback thread, so that load callbacks arrive there as well
+                mSoundPool = createSoundPool();
+                mSoundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+                    @Override
+                    public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+                        onLoaded(sampleId, status);
+                    }
+                });
+            }
+        });
+    }
+
+    void setMinInterval(long minIntervalMillis) {
+        mMinIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Sets the metrics receiving feedback latencies, or null.
+     */
+    void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Returns how many feedback requests were dropped by rate limiting.
+     */
+    long getSuppressedCount() {
+        return mSuppressedCount.get();
+    }
+
+    /**
+     * Decodes a sound ahead of its first use.
+     *
+     * @param file the sound file, inside the assets folder
+     */
+    void preload(final String file) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                load(file);
+            }
+        });
+    }
+
+    /**
+     * Requests scan feedback, unless previous feedback was given within the minimum interval.
+     * Returns immediately.
+     *
+     * @param file    the sound file to play, inside the assets folder, or null for no sound
+     * @param pattern the vibration pattern, or null for no vibration
+     * @return false if the request was dropped by rate limiting
+     */
+    boolean request(String file, long[] pattern) {
+        long now = SystemClock.elapsedRealtime();
+        long last = mLastFeedbackMillis.get();
+        if (now - last < mMinIntervalMillis || !mLastFeedbackMillis.compareAndSet(last, now)) {
+            mSuppressedCount.incrementAndGet();
+            return false;
+        }
+        post(file, pattern);
+        return true;
+    }
+
+    /**
+     * Plays a sound and vibrates without rate limiting.
+     */
+    void post(final String file, final long[] pattern) {
+        final long requestNanos = System.nanoTime();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (pattern != null && mVibrator != null)
+                    mVibrator.vibrate(pattern, -1);
+                if (file != null)
+                    play(file, requestNanos);
+                else
+                    recordLatency(requestNanos);
+            }
+        });
+    }
+
+    /**
+     * Releases the sound pool and stops the feedback thread once pending feedback was given.
+     */
+    void release() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSoundPool != null)
+                    mSoundPool.release();
+                mSoundPool = null;
+                mThread.quit();
+            }
+        });
+    }
+
+    private int load(String file) {
+        Integer soundId = mSoundIds.get(file);
+        if (soundId != null)
+            return soundId;
+        int id = NOT_LOADED;
+        try {
+            AssetFileDescriptor descriptor = mAssets.openFd(file);
+            try {
+                id = mSoundPool.load(descriptor, 1);
+            } finally {
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to load sound " + file, e);
+        }
+        mSoundIds.put(file, id);
+        return id;
+    }
+
+    private void play(String file, long requestNanos) {
+        int id = load(file);
+        if (id == NOT_LOADED)
+            return;
+        if (mLoaded.get(id, false)) {
+            mSoundPool.play(id, 1f, 1f, 1, 0, 1f);
+            recordLatency(requestNanos);
+        } else if (mPendingPlays.get(id) == null) {
+            // First use before decoding finished; play once it has
+            mPendingPlays.put(id, requestNanos);
+        }
+    }
+
+    private void onLoaded(int sampleId, int status) {
+        Long requestNanos = mPendingPlays.get(sampleId);
+        mPendingPlays.remove(sampleId);
+        if (status != 0) {
+            Log.e(TAG, "Unable to decode sound " + sampleId + ", status " + status);
+            return;
+        }
+        mLoaded.put(sampleId, true);
+        if (requestNanos != null) {
+            mSoundPool.play(sampleId, 1f, 1f, 1, 0, 1f);
+            recordLatency(requestNanos);
+        }
+    }
+
+    private void recordLatency(long requestNanos) {
+        PipelineMetrics metrics = mMetrics;
+        if (metrics != null)
+            metrics.record(PipelineMetrics.Stage.FEEDBACK, System.nanoTime() - requestNanos);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static SoundPool createSoundPool() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return createSoundPoolLollipop();
+        return new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static SoundPool createSoundPoolLollipop() {
+        AudioAttributes attributes = new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_MEDIA)
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .build();
+        return new SoundPool.Builder().setMaxStreams(MAX_STREAMS).setAudioAttributes(attributes).build();
+    }
+}
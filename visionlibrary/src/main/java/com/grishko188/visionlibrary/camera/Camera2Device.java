@@ -0,0 +1,716 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.camera;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresPermission;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+
+import com.google.android.gms.common.images.Size;
+import com.grishko188.visionlibrary.core.PlanarFrameSource;
+import com.grishko188.visionlibrary.core.PlanarImage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Camera2 backend of {@link CameraSource}.  Streams {@code YUV_420_888} images from an
+ * {@link ImageReader} into a {@link PlanarFrameSource}, which copies them straight from their
+ * planes into the frame pipeline's buffers, and maps the camera1 style controls of the camera
+ * source (focus and flash modes, zoom steps, autofocus callbacks) onto capture requests.
+ * <p/>
+ * Camera callbacks and images are handled on a dedicated thread.  Opening blocks until the capture
+ * session is running, as {@link Camera#open(int)} does.  Not thread safe; {@link CameraSource}
+ * starts it before publishing it, and calls it holding its camera lock from then on.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class Camera2Device {
+    private static final String TAG = "Camera2Device";
+
+    /**
+     * Images held by the reader.  Each image is copied and closed as soon as it arrives, so only
+     * the one being copied and the one being filled are in use.
+     */
+    private static final int MAX_IMAGES = 3;
+
+    private static final long OPEN_TIMEOUT_MILLIS = 3000;
+
+    /**
+     * Number of zoom steps between no zoom and the maximum digital zoom, like the zoom indices of
+     * {@link Camera.Parameters#getMaxZoom()}.
+     */
+    static final int MAX_ZOOM = 30;
+
+    private final CameraManager mManager;
+    private final String mCameraId;
+    private final CameraCharacteristics mCharacteristics;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private CameraDevice mDevice;
+    private CameraCaptureSession mSession;
+    private ImageReader mReader;
+    private CaptureRequest.Builder mRequest;
+    private final CaptureCallback mCaptureCallback = new CaptureCallback();
+
+    private int mZoom;
+
+    // Touched on the camera thread only
+    private final ImagePlanes mPlanes = new ImagePlanes();
+    private PlanarFrameSource mFrameSource;
+
+    // Handed from the caller to the camera thread
+    private volatile CameraSource.AutoFocusCallback mAutoFocusCallback;
+    private volatile CameraSource.AutoFocusMoveCallback mAutoFocusMoveCallback;
+
+    /**
+     * Finds the camera facing the given direction.
+     *
+     * @return the camera, or null if there is no such camera or it can't be used
+     */
+    @Nullable
+    static Camera2Device find(Context context, int facing) {
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        if (manager == null) {
+            return null;
+        }
+        int lensFacing = facing == CameraSource.CAMERA_FACING_FRONT
+                ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+        try {
+            for (String id : manager.getCameraIdList()) {
+                CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+                Integer cameraFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if (cameraFacing != null && cameraFacing == lensFacing) {
+                    return new Camera2Device(manager, id, characteristics);
+                }
+            }
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not list cameras.", e);
+        }
+        return null;
+    }
+
+    private Camera2Device(CameraManager manager, String cameraId,
+                          CameraCharacteristics characteristics) {
+        mManager = manager;
+        mCameraId = cameraId;
+        mCharacteristics = characteristics;
+    }
+
+    /**
+     * Returns the clockwise angle by which the sensor image must be rotated to be upright in the
+     * natural orientation of the device.
+     */
+    int getSensorOrientation() {
+        Integer orientation = mCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        return orientation != null ? orientation : 0;
+    }
+
+    /**
+     * Returns the YUV output sizes of the camera.
+     */
+    List<Size> getPreviewSizes() {
+        List<Size> sizes = new ArrayList<>();
+        StreamConfigurationMap map =
+                mCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+                sizes.add(new Size(size.getWidth(), size.getHeight()));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Selects the most suitable YUV output size, the same way as for the camera1 preview sizes.
+     */
+    @Nullable
+    Size selectPreviewSize(int desiredWidth, int desiredHeight) {
+        StreamConfigurationMap map =
+                mCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            return null;
+        }
+        android.util.Size selected = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            int diff = Math.abs(size.getWidth() - desiredWidth)
+                    + Math.abs(size.getHeight() - desiredHeight);
+            if (diff < minDiff) {
+                selected = size;
+                minDiff = diff;
+            }
+        }
+        return selected != null ? new Size(selected.getWidth(), selected.getHeight()) : null;
+    }
+
+    /**
+     * Selects the most suitable frame rate range, the same way as for the camera1 preview fps
+     * ranges.
+     */
+    @Nullable
+    Range<Integer> selectFpsRange(float desiredFps) {
+        Range<Integer>[] ranges =
+                mCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return null;
+        }
+        // Some devices report ranges scaled by 1000, as camera1 does.
+        Range<Integer> selected = null;
+        float minDiff = Float.MAX_VALUE;
+        for (Range<Integer> range : ranges) {
+            float scale = range.getUpper() >= 1000 ? 1000 : 1;
+            float diff = Math.abs(desiredFps - range.getLower() / scale)
+                    + Math.abs(desiredFps - range.getUpper() / scale);
+            if (diff < minDiff) {
+                selected = range;
+                minDiff = diff;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Opens the camera and starts streaming, blocking until the capture session is running.
+     *
+     * @param previewSurface the surface displaying the preview, or null
+     * @param size           the size of the images, see {@link #selectPreviewSize(int, int)}
+     * @param fpsRange       the frame rate range, see {@link #selectFpsRange(float)}
+     * @param frameSource    receives the images
+     * @throws IOException if the camera could not be opened or configured
+     */
+    @SuppressLint("MissingPermission")
+    @RequiresPermission(Manifest.permission.CAMERA)
+    void start(@Nullable Surface previewSurface, Size size, Range<Integer> fpsRange,
+               PlanarFrameSource frameSource) throws IOException {
+        mThread = new HandlerThread("Camera2Device");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mFrameSource = frameSource;
+        try {
+            mReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                    ImageFormat.YUV_420_888, MAX_IMAGES);
+            mReader.setOnImageAvailableListener(new ImageListener(), mHandler);
+
+            OpenCallback openCallback = new OpenCallback(mThread);
+            mManager.openCamera(mCameraId, openCallback, mHandler);
+            try {
+                await(openCallback.mOpened, "Timed out opening the camera.");
+            } catch (IOException e) {
+                if (openCallback.abandon()) {
+                    // The thread is quit by the callback, once the camera has been closed.
+                    mThread = null;
+                    mHandler = null;
+                } else {
+                    // Opened just in time; closed by stop() below.
+                    mDevice = openCallback.getDevice();
+                }
+                throw e;
+            }
+            mDevice = openCallback.getDevice();
+            if (mDevice == null) {
+                throw new IOException("Could not open the camera.");
+            }
+
+            List<Surface> surfaces = new ArrayList<>(2);
+            surfaces.add(mReader.getSurface());
+            if (previewSurface != null) {
+                surfaces.add(previewSurface);
+            }
+            mRequest = mDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            for (Surface surface : surfaces) {
+                mRequest.addTarget(surface);
+            }
+            if (fpsRange != null) {
+                mRequest.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+
+            final CountDownLatch configured = new CountDownLatch(1);
+            final CameraCaptureSession[] session = new CameraCaptureSession[1];
+            mDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession captureSession) {
+                    session[0] = captureSession;
+                    configured.countDown();
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession captureSession) {
+                    configured.countDown();
+                }
+            }, mHandler);
+            await(configured, "Timed out configuring the camera.");
+            mSession = session[0];
+            if (mSession == null) {
+                throw new IOException("Could not configure the camera.");
+            }
+            updateRepeatingRequest();
+        } catch (CameraAccessException | IllegalStateException | SecurityException e) {
+            stop();
+            throw new IOException("Could not start the camera.", e);
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops streaming and closes the camera.  Safe to call when not started.
+     */
+    void stop() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        if (mDevice != null) {
+            mDevice.close();
+            mDevice = null;
+        }
+        if (mThread != null) {
+            // Lets pending images through to the frame source before the reader goes away.
+            mThread.quitSafely();
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mThread = null;
+            mHandler = null;
+        }
+        if (mReader != null) {
+            mReader.close();
+            mReader = null;
+        }
+        mRequest = null;
+        mFrameSource = null;
+        mAutoFocusCallback = null;
+    }
+
+    //==============================================================================================
+    // Controls
+    //==============================================================================================
+
+    /**
+     * Applies a camera1 focus mode.
+     *
+     * @return false if the camera does not support the mode
+     */
+    boolean setFocusMode(String mode) {
+        int afMode = toAfMode(mode);
+        if (afMode < 0 || !contains(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES, afMode)) {
+            return false;
+        }
+        if (mRequest != null) {
+            mRequest.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+            if (Camera.Parameters.FOCUS_MODE_INFINITY.equals(mode)) {
+                mRequest.set(CaptureRequest.LENS_FOCUS_DISTANCE, 0f);
+            }
+            updateRepeatingRequest();
+        }
+        return true;
+    }
+
+    /**
+     * Applies a camera1 flash mode.  The torch lights the preview; the other modes only take effect
+     * through auto-exposure.
+     *
+     * @return false if the camera does not support the mode
+     */
+    boolean setFlashMode(String mode) {
+        Boolean hasFlash = mCharacteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        boolean flash = hasFlash != null && hasFlash;
+        int aeMode = CaptureRequest.CONTROL_AE_MODE_ON;
+        int flashMode = CaptureRequest.FLASH_MODE_OFF;
+        switch (mode) {
+            case Camera.Parameters.FLASH_MODE_OFF:
+                break;
+            case Camera.Parameters.FLASH_MODE_TORCH:
+                flashMode = CaptureRequest.FLASH_MODE_TORCH;
+                break;
+            case Camera.Parameters.FLASH_MODE_ON:
+                aeMode = CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH;
+                break;
+            case Camera.Parameters.FLASH_MODE_AUTO:
+                aeMode = CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH;
+                break;
+            case Camera.Parameters.FLASH_MODE_RED_EYE:
+                aeMode = CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH_REDEYE;
+                break;
+            default:
+                return false;
+        }
+        if (!Camera.Parameters.FLASH_MODE_OFF.equals(mode)
+                && (!flash || !contains(CameraCharacteristics.CONTROL_AE_AVAILABLE_MODES, aeMode))) {
+            return false;
+        }
+        if (mRequest != null) {
+            mRequest.set(CaptureRequest.CONTROL_AE_MODE, aeMode);
+            mRequest.set(CaptureRequest.FLASH_MODE, flashMode);
+            updateRepeatingRequest();
+        }
+        return true;
+    }
+
+    /**
+     * Sets the zoom step, from 0 to {@link #MAX_ZOOM}, spread linearly up to the maximum digital
+     * zoom, by cropping the centre of the sensor.
+     */
+    void setZoom(int zoom) {
+        Float maxZoom = mCharacteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        Rect sensor = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        if (maxZoom == null || maxZoom <= 1 || sensor == null) {
+            return;
+        }
+        mZoom = Math.max(0, Math.min(MAX_ZOOM, zoom));
+        float ratio = 1 + (maxZoom - 1) * mZoom / MAX_ZOOM;
+        int cropWidth = (int) (sensor.width() / ratio);
+        int cropHeight = (int) (sensor.height() / ratio);
+        int left = (sensor.width() - cropWidth) / 2;
+        int top = (sensor.height() - cropHeight) / 2;
+        if (mRequest != null) {
+            mRequest.set(CaptureRequest.SCALER_CROP_REGION,
+                    new Rect(left, top, left + cropWidth, top + cropHeight));
+            updateRepeatingRequest();
+        }
+    }
+
+    int getZoom() {
+        return mZoom;
+    }
+
+    boolean isZoomSupported() {
+        Float maxZoom = mCharacteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        return maxZoom != null && maxZoom > 1;
+    }
+
+    /**
+     * Triggers an autofocus scan, reporting its outcome to the callback once the lens is locked.
+     * Without autofocus, reports success right away, as camera1 does.
+     */
+    void autoFocus(@Nullable CameraSource.AutoFocusCallback cb) {
+        Integer afMode = mRequest != null ? mRequest.get(CaptureRequest.CONTROL_AF_MODE) : null;
+        if (afMode == null || afMode == CaptureRequest.CONTROL_AF_MODE_OFF
+                || afMode == CaptureRequest.CONTROL_AF_MODE_EDOF) {
+            if (cb != null) {
+                cb.onAutoFocus(true);
+            }
+            return;
+        }
+        mAutoFocusCallback = cb;
+        triggerAutoFocus(CaptureRequest.CONTROL_AF_TRIGGER_START);
+    }
+
+    void cancelAutoFocus() {
+        mAutoFocusCallback = null;
+        triggerAutoFocus(CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+    }
+
+    /**
+     * Reports lens movement in the continuous focus modes, from the autofocus state of every
+     * capture result.
+     */
+    void setAutoFocusMoveCallback(@Nullable CameraSource.AutoFocusMoveCallback cb) {
+        mAutoFocusMoveCallback = cb;
+    }
+
+    private void triggerAutoFocus(int trigger) {
+        if (mSession == null || mRequest == null) {
+            return;
+        }
+        try {
+            mRequest.set(CaptureRequest.CONTROL_AF_TRIGGER, trigger);
+            mSession.capture(mRequest.build(), mCaptureCallback, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Could not trigger autofocus.", e);
+        } finally {
+            mRequest.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+        }
+    }
+
+    private void updateRepeatingRequest() {
+        if (mSession == null) {
+            return;
+        }
+        try {
+            mSession.setRepeatingRequest(mRequest.build(), mCaptureCallback, mHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Could not update the capture request.", e);
+        }
+    }
+
+    private boolean contains(CameraCharacteristics.Key<int[]> key, int value) {
+        int[] values = mCharacteristics.get(key);
+        if (values != null) {
+            for (int v : values) {
+                if (v == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int toAfMode(String mode) {
+        switch (mode) {
+            case Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE:
+                return CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+            case Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO:
+                return CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO;
+            case Camera.Parameters.FOCUS_MODE_AUTO:
+                return CaptureRequest.CONTROL_AF_MODE_AUTO;
+            case Camera.Parameters.FOCUS_MODE_MACRO:
+                return CaptureRequest.CONTROL_AF_MODE_MACRO;
+            case Camera.Parameters.FOCUS_MODE_EDOF:
+                return CaptureRequest.CONTROL_AF_MODE_EDOF;
+            case Camera.Parameters.FOCUS_MODE_FIXED:
+            case Camera.Parameters.FOCUS_MODE_INFINITY:
+                return CaptureRequest.CONTROL_AF_MODE_OFF;
+            default:
+                return -1;
+        }
+    }
+
+    private static void await(CountDownLatch latch, String timeoutMessage) throws IOException {
+        try {
+            if (!latch.await(OPEN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new IOException(timeoutMessage);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while starting the camera.", e);
+        }
+    }
+
+    /**
+     * Receives the camera being opened.  A camera which opens after its start was abandoned, e.g.
+     * on timeout, is closed right away, and then the camera thread is quit.
+     */
+    private static class OpenCallback extends CameraDevice.StateCallback {
+        final CountDownLatch mOpened = new CountDownLatch(1);
+        private final HandlerThread mThread;
+
+        // Guarded by this
+        private CameraDevice mDevice;
+        private boolean mDone;
+        private boolean mAbandoned;
+
+        OpenCallback(HandlerThread thread) {
+            mThread = thread;
+        }
+
+        @Override
+        public synchronized void onOpened(CameraDevice camera) {
+            if (mAbandoned) {
+                Log.w(TAG, "Closing the camera which opened after its start was abandoned");
+                close(camera);
+                return;
+            }
+            mDevice = camera;
+            mDone = true;
+            mOpened.countDown();
+        }
+
+        @Override
+        public synchronized void onDisconnected(CameraDevice camera) {
+            close(camera);
+        }
+
+        @Override
+        public synchronized void onError(CameraDevice camera, int error) {
+            Log.e(TAG, "Camera error: " + error);
+            close(camera);
+        }
+
+        /**
+         * Returns the opened camera, or null if it could not be opened.
+         */
+        synchronized CameraDevice getDevice() {
+            return mDevice;
+        }
+
+        /**
+         * Gives up waiting for the camera.
+         *
+         * @return true if the camera is still being opened, in which case the callback closes it
+         * and quits the camera thread once it opens
+         */
+        synchronized boolean abandon() {
+            if (mDone) {
+                return false;
+            }
+            mAbandoned = true;
+            return true;
+        }
+
+        private void close(CameraDevice camera) {
+            camera.close();
+            if (mAbandoned) {
+                mThread.quitSafely();
+            } else if (!mDone) {
+                mDone = true;
+                mOpened.countDown();
+            }
+        }
+    }
+
+    //==============================================================================================
+    // Frame processing
+    //==============================================================================================
+
+    /**
+     * Hands the latest image to the frame source, dropping any older one still queued, so that the
+     * pipeline always sees the most recent frame.
+     */
+    private class ImageListener implements ImageReader.OnImageAvailableListener {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Too many images in use.", e);
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+            PlanarFrameSource source = mFrameSource;
+            if (source == null) {
+                image.close();
+                return;
+            }
+            mPlanes.set(image);
+            source.onImage(mPlanes, System.nanoTime());
+        }
+    }
+
+    /**
+     * Tracks the autofocus state: completes a triggered scan, and reports lens movement.
+     */
+    private class CaptureCallback extends CameraCaptureSession.CaptureCallback {
+        private boolean mMoving;
+
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            Integer state = result.get(CaptureResult.CONTROL_AF_STATE);
+            if (state == null) {
+                return;
+            }
+            switch (state) {
+                case CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED:
+                case CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED:
+                    CameraSource.AutoFocusCallback cb = mAutoFocusCallback;
+                    if (cb != null) {
+                        mAutoFocusCallback = null;
+                        cb.onAutoFocus(state == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED);
+                    }
+                    onMoving(false);
+                    break;
+                case CaptureResult.CONTROL_AF_STATE_PASSIVE_SCAN:
+                case CaptureResult.CONTROL_AF_STATE_ACTIVE_SCAN:
+                    onMoving(true);
+                    break;
+                default:
+                    onMoving(false);
+            }
+        }
+
+        private void onMoving(boolean moving) {
+            if (moving == mMoving) {
+                return;
+            }
+            mMoving = moving;
+            CameraSource.AutoFocusMoveCallback cb = mAutoFocusMoveCallback;
+            if (cb != null) {
+                cb.onAutoFocusMoving(moving);
+            }
+        }
+    }
+
+    /**
+     * Exposes the planes of the image currently being delivered.  One instance is reused for every
+     * image.
+     */
+    private static class ImagePlanes implements PlanarImage {
+        private Image mImage;
+        private Image.Plane[] mPlanes;
+
+        void set(Image image) {
+            mImage = image;
+            mPlanes = image.getPlanes();
+        }
+
+        @Override
+        public int getWidth() {
+            return mImage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mImage.getHeight();
+        }
+
+        @Override
+        public ByteBuffer getBuffer(int plane) {
+            return mPlanes[plane].getBuffer();
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return mPlanes[plane].getRowStride();
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return mPlanes[plane].getPixelStride();
+        }
+
+        @Override
+        public void close() {
+            mImage.close();
+            mImage = null;
+            mPlanes = null;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.camera;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.common.images.Size;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a camera1 camera supports: preview and picture sizes, preview fps ranges, focus and flash
+ * modes and zoom.
+ * <p/>
+ * Reading these from {@link Camera#getParameters()} means parsing the large flattened parameter
+ * string of the camera, so they are cached per camera id, in memory and in a small file in the
+ * cache directory.  Later starts, in this process or the next ones, select their configuration
+ * from the cache.  The file is keyed by the build fingerprint, so that an OS update, which may
+ * change what the cameras support, invalidates it.
+ */
+@SuppressWarnings("deprecation")
+final class CameraCapabilities {
+    private static final String TAG = "CameraCapabilities";
+
+    private static final String FILE_NAME = "camera_capabilities";
+
+    /**
+     * Version of the file format, to be incremented whenever it changes.
+     */
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Upper bound of any list length read from the file, so that a corrupt file can't make it
+     * allocate huge lists.
+     */
+    private static final int MAX_FILE_LIST_SIZE = 1024;
+
+    private static final Object sLock = new Object();
+
+    // Guarded by sLock; null until loaded from the file.
+    private static SparseArray<CameraCapabilities> sCache;
+
+    private final int mCameraId;
+    private final List<Size> mPreviewSizes;
+    private final List<Size> mPictureSizes;
+    private final List<int[]> mPreviewFpsRanges;
+    private final List<String> mFocusModes;
+    private final List<String> mFlashModes;
+    private final boolean mZoomSupported;
+    private final int mMaxZoom;
+
+    private CameraCapabilities(int cameraId, List<Size> previewSizes, List<Size> pictureSizes,
+                               List<int[]> previewFpsRanges, List<String> focusModes,
+                               @Nullable List<String> flashModes, boolean zoomSupported,
+                               int maxZoom) {
+        mCameraId = cameraId;
+        mPreviewSizes = Collections.unmodifiableList(previewSizes);
+        mPictureSizes = Collections.unmodifiableList(pictureSizes);
+        mPreviewFpsRanges = Collections.unmodifiableList(previewFpsRanges);
+        mFocusModes = Collections.unmodifiableList(focusModes);
+        mFlashModes = flashModes != null ? Collections.unmodifiableList(flashModes) : null;
+        mZoomSupported = zoomSupported;
+        mMaxZoom = maxZoom;
+    }
+
+    /**
+     * Returns the capabilities of the camera with the given id, from the cache if possible.
+     * Otherwise they are read from the camera, which must be the open camera with that id, and
+     * cached.
+     */
+    static CameraCapabilities get(Context context, int cameraId, Camera camera) {
+        synchronized (sLock) {
+            File file = new File(context.getCacheDir(), FILE_NAME);
+            if (sCache == null) {
+                sCache = load(file);
+            }
+            CameraCapabilities capabilities = sCache.get(cameraId);
+            if (capabilities == null) {
+                capabilities = query(cameraId, camera.getParameters());
+                sCache.put(cameraId, capabilities);
+                save(file, sCache);
+            }
+            return capabilities;
+        }
+    }
+
+    private static CameraCapabilities query(int cameraId, Camera.Parameters parameters) {
+        List<int[]> fpsRanges = parameters.getSupportedPreviewFpsRange();
+        List<String> focusModes = parameters.getSupportedFocusModes();
+        List<String> flashModes = parameters.getSupportedFlashModes();
+        boolean zoomSupported = parameters.isZoomSupported();
+        return new CameraCapabilities(cameraId,
+                toSizes(parameters.getSupportedPreviewSizes()),
+                toSizes(parameters.getSupportedPictureSizes()),
+                fpsRanges != null ? new ArrayList<>(fpsRanges) : new ArrayList<int[]>(),
+                focusModes != null ? new ArrayList<>(focusModes) : new ArrayList<String>(),
+                flashModes != null ? new ArrayList<>(flashModes) : null,
+                zoomSupported,
+                zoomSupported ? parameters.getMaxZoom() : 0);
+    }
+
+    private static List<Size> toSizes(@Nullable List<Camera.Size> cameraSizes) {
+        List<Size> sizes = new ArrayList<>();
+        if (cameraSizes != null) {
+            for (Camera.Size size : cameraSizes) {
+                sizes.add(new Size(size.width, size.height));
+            }
+        }
+        return sizes;
+    }
+
+    List<Size> getPreviewSizes() {
+        return mPreviewSizes;
+    }
+
+    List<Size> getPictureSizes() {
+        return mPictureSizes;
+    }
+
+    /**
+     * Returns the supported preview fps ranges, scaled by 1000 and indexed by
+     * {@link Camera.Parameters#PREVIEW_FPS_MIN_INDEX} and
+     * {@link Camera.Parameters#PREVIEW_FPS_MAX_INDEX}.
+     */
+    List<int[]> getPreviewFpsRanges() {
+        return mPreviewFpsRanges;
+    }
+
+    boolean isFocusModeSupported(String mode) {
+        return mFocusModes.contains(mode);
+    }
+
+    /**
+     * Returns false for any mode if the camera has no flash.
+     */
+    boolean isFlashModeSupported(String mode) {
+        return mFlashModes != null && mFlashModes.contains(mode);
+    }
+
+    boolean isZoomSupported() {
+        return mZoomSupported;
+    }
+
+    int getMaxZoom() {
+        return mMaxZoom;
+    }
+
+    //==============================================================================================
+    // Persistence
+    //==============================================================================================
+
+    /**
+     * Reads the cached capabilities from the file, or returns an empty cache if there is no file,
+     * or it was written by another build or file format.
+     */
+    private static SparseArray<CameraCapabilities> load(File file) {
+        SparseArray<CameraCapabilities> cache = new SparseArray<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION || !Build.FINGERPRINT.equals(in.readUTF())) {
+                return cache;
+            }
+            int count = readCount(in);
+            for (int i = 0; i < count; ++i) {
+                CameraCapabilities capabilities = read(in);
+                cache.put(capabilities.mCameraId, capabilities);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the camera capabilities cache", e);
+            cache.clear();
+        } finally {
+            closeQuietly(in);
+        }
+        return cache;
+    }
+
+    /**
+     * Writes the cached capabilities to a temporary file, which then replaces the file.
+     */
+    private static void save(File file, SparseArray<CameraCapabilities> cache) {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(Build.FINGERPRINT);
+            out.writeInt(cache.size());
+            for (int i = 0; i < cache.size(); ++i) {
+                cache.valueAt(i).write(out);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the camera capabilities cache", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(mCameraId);
+        writeSizes(out, mPreviewSizes);
+        writeSizes(out, mPictureSizes);
+        out.writeInt(mPreviewFpsRanges.size());
+        for (int[] range : mPreviewFpsRanges) {
+            out.writeInt(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]);
+            out.writeInt(range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        }
+        writeStrings(out, mFocusModes);
+        writeStrings(out, mFlashModes);
+        out.writeBoolean(mZoomSupported);
+        out.writeInt(mMaxZoom);
+    }
+
+    private static CameraCapabilities read(DataInputStream in) throws IOException {
+        int cameraId = in.readInt();
+        List<Size> previewSizes = readSizes(in);
+        List<Size> pictureSizes = readSizes(in);
+        int rangeCount = readCount(in);
+        List<int[]> fpsRanges = new ArrayList<>(rangeCount);
+        for (int i = 0; i < rangeCount; ++i) {
+            int[] range = new int[2];
+            range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] = in.readInt();
+            range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] = in.readInt();
+            fpsRanges.add(range);
+        }
+        List<String> focusModes = readStrings(in);
+        List<String> flashModes = readStrings(in);
+        boolean zoomSupported = in.readBoolean();
+        int maxZoom = in.readInt();
+        return new CameraCapabilities(cameraId, previewSizes, pictureSizes, fpsRanges,
+                focusModes != null ? focusModes : new ArrayList<String>(), flashModes,
+                zoomSupported, maxZoom);
+    }
+
+    private static void writeSizes(DataOutputStream out, List<Size> sizes) throws IOException {
+        out.writeInt(sizes.size());
+        for (Size size : sizes) {
+            out.writeInt(size.getWidth());
+            out.writeInt(size.getHeight());
+        }
+    }
+
+    private static List<Size> readSizes(DataInputStream in) throws IOException {
+        int count = readCount(in);
+        List<Size> sizes = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            sizes.add(new Size(in.readInt(), in.readInt()));
+        }
+        return sizes;
+    }
+
+    /**
+     * Writes a list of strings, where a null list is written as a count of -1.
+     */
+    private static void writeStrings(DataOutputStream out, @Nullable List<String> strings)
+            throws IOException {
+        if (strings == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    @Nullable
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        if (count > MAX_FILE_LIST_SIZE) {
+            throw new IOException("Bad list size: " + count);
+        }
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_FILE_LIST_SIZE) {
+            throw new IOException("Bad list size: " + count);
+        }
+        return count;
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+}
@@ -20,15 +20,21 @@ import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.os.Build;
-import android.os.SystemClock;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
 import android.support.annotation.StringDef;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.Range;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -37,25 +43,38 @@ import android.view.WindowManager;
 import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
+import com.grishko188.visionlibrary.core.FrameDetector;
+import com.grishko188.visionlibrary.core.FramePipeline;
+import com.grishko188.visionlibrary.core.FrameSource;
+import com.grishko188.visionlibrary.core.MotionGate;
+import com.grishko188.visionlibrary.core.Nv21Image;
+import com.grishko188.visionlibrary.core.PipelineMetrics;
+import com.grishko188.visionlibrary.core.PlanarFrameSource;
+import com.grishko188.visionlibrary.core.ResultScaler;
+import com.grishko188.visionlibrary.core.ResultSink;
+import com.grishko188.visionlibrary.core.ScanWindow;
+import com.grishko188.visionlibrary.core.SharpnessGate;
 
 import java.io.IOException;
-import java.lang.Thread.State;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // Note: This requires Google Play Services 8.1 or higher, due to using indirect byte buffers for
 // storing images.
 
 /**
  * Manages the camera in conjunction with an underlying
- * {@link Detector}.  This receives preview frames from the camera at
- * a specified rate, sending those frames to the detector as fast as it is able to process those
- * frames.
+ * {@link Detector}, or any other detection backend implementing {@link FrameDetector}.  This
+ * receives preview frames from the camera at a specified rate, sending those frames to the
+ * detector as fast as it is able to process those frames.
+ * <p/>
+ * Frame scheduling itself is done by a {@link FramePipeline}, which has no dependency on Android;
+ * this class adapts the camera to a {@link FrameSource}, and the detector to the pipeline.
  * <p/>
  * This camera source makes a best effort to manage processing on preview frames as fast as
  * possible, while at the same time minimizing lag.  As such, frames may be dropped if the detector
@@ -65,6 +84,14 @@ import java.util.Map;
  * utilization is higher than you'd like, then you may want to consider reducing FPS.  If the camera
  * preview or detector results are too "jerky", then you may want to consider increasing FPS.
  * <p/>
+ * Frames come from the deprecated camera1 API by default.  On Lollipop and later, the Camera2 API
+ * can be used instead, see {@link Builder#setUseCamera2(boolean)}.
+ * <p/>
+ * Opening and configuring the camera can take several hundred milliseconds, so
+ * {@link #startAsync(SurfaceHolder, StartCallback)} does it on a dedicated thread instead of the
+ * calling one.  The time it took until the first preview frame is reported, see
+ * {@link #getColdStartMillis()}.
+ * <p/>
  * The following Android permission is required to use the camera:
  * <ul>
  * <li>android.permissions.CAMERA</li>
@@ -91,6 +118,17 @@ public class CameraSource {
      */
     private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+    /**
+     * Number of luma samples compared per frame by the motion gate.
+     */
+    private static final int MOTION_SAMPLE_BUDGET = 1024;
+
+    /**
+     * How long the thread opening the camera waits for the UI thread to resize the preview
+     * surface, after which the camera is started regardless.
+     */
+    private static final long SURFACE_TIMEOUT_MILLIS = 1000;
+
     @StringDef({
             Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
             Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO,
@@ -119,8 +157,67 @@ public class CameraSource {
 
     private final Object mCameraLock = new Object();
 
-    // Guarded by mCameraLock
+    // Guarded by mCameraLock.  Only set once the camera is open and its preview is running.
     private Camera mCamera;
+    private Camera2Device mCamera2;
+
+    /**
+     * Whether a start is opening the camera.  Focus and flash modes set meanwhile are applied once
+     * the camera is published.  Guarded by mCameraLock.
+     */
+    private boolean mOpening;
+
+    /**
+     * Serializes the starts, so that only one camera is opened at a time.  Unlike mCameraLock, it
+     * is held while the camera is opened and configured, and is never taken by {@link #stop()} or
+     * by the settings.
+     */
+    private final Object mStartLock = new Object();
+
+    /**
+     * What the open camera1 camera supports, so that its settings can be checked without parsing
+     * its parameters.
+     */
+    private CameraCapabilities mCapabilities;
+
+    /**
+     * Cached parameters of the open camera1 camera, whose changes are written on the camera thread
+     * at most once per preview frame.
+     */
+    private ParameterShadow mParameters;
+
+    /**
+     * Thread on which {@link #startAsync(SurfaceHolder, StartCallback)} opens the camera.  The
+     * camera1 preview callbacks are delivered on its looper too, rather than on the UI thread, and
+     * the camera1 parameter changes are written there.
+     * Guarded by mOpenLock, since the open thread is looked up while the camera is opened.
+     */
+    private final Object mOpenLock = new Object();
+    private HandlerThread mOpenThread;
+    private Handler mOpenHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Incremented by {@link #stop()}, so that the starts requested before it are abandoned, and a
+     * camera they are still opening is released rather than published.
+     */
+    private final AtomicInteger mStartGeneration = new AtomicInteger();
+    private volatile StartCallback mStartCallback;
+
+    /**
+     * {@link System#nanoTime()} of the start request currently being served, and the time it took
+     * to open the camera and to receive the first preview frame, or -1 when not known yet.
+     */
+    private volatile long mStartRequestNanos;
+    private volatile long mCameraOpenMillis = -1;
+    private volatile long mColdStartMillis = -1;
+
+    /**
+     * Whether frames are streamed through the Camera2 API, on devices which have it, and whether
+     * the detector only needs their luma plane.
+     */
+    private boolean mUseCamera2;
+    private boolean mLumaOnly;
 
     private int mFacing = CAMERA_FACING_BACK;
 
@@ -142,6 +239,29 @@ public class CameraSource {
     private String mFocusMode = null;
     private String mFlashMode = null;
 
+    /**
+     * Region of the preview to run detection on, in normalized upright coordinates.  A null region
+     * scans the full frame.
+     */
+    private RectF mScanRegion;
+
+    /**
+     * Factor by which frames are downscaled for the coarse detection pass, or 0 when every frame
+     * is only detected at full resolution.
+     */
+    private int mPyramidScale = 0;
+
+    /**
+     * Blur check which skips frames unlikely to decode, or null when every frame is detected.
+     */
+    private SharpnessGate mSharpnessGate;
+
+    /**
+     * Change check which avoids detecting a static scene over and over, or null when every frame
+     * is detected.
+     */
+    private MotionGate mMotionGate;
+
     // These instances need to be held onto to avoid GC of their underlying resources.  Even though
     // these aren't used outside of the method that creates them, they still must have hard
     // references maintained to them.
@@ -149,18 +269,14 @@ public class CameraSource {
     private SurfaceTexture mDummySurfaceTexture;
 
     /**
-     * Dedicated thread and associated runnable for calling into the detector with frames, as the
-     * frames become available from the camera.
-     */
-    private Thread mProcessingThread;
-    private FrameProcessingRunnable mFrameProcessor;
-
-    /**
-     * Map to convert between a byte array, received from the camera, and its associated byte
-     * buffer.  We use byte buffers internally because this is a more efficient way to call into
-     * native code later (avoids a potential copy).
+     * Pipeline calling into the detector with frames, as the frames become available from the
+     * camera, on one dedicated thread per detection worker.  It also owns the preview buffers
+     * shared with the camera, which are kept across stop/start cycles while the preview size stays
+     * the same.
      */
-    private Map<byte[], ByteBuffer> mBytesToByteBuffer = new HashMap<>();
+    private int mDetectorThreadCount = 1;
+    private int mPreviewBufferCount = 0;
+    private FramePipeline<?> mPipeline;
 
     //==============================================================================================
     // Builder
@@ -171,6 +287,11 @@ public class CameraSource {
      */
     public static class Builder {
         private final Detector<?> mDetector;
+        private Detector.Processor<?> mProcessor;
+        private PyramidAdapter<?> mPyramidAdapter;
+        private final FrameDetector<?> mFrameDetector;
+        private final ResultSink<?> mResultSink;
+        private ResultScaler<?> mResultScaler;
         private CameraSource mCameraSource = new CameraSource();
 
         /**
@@ -186,6 +307,31 @@ public class CameraSource {
             }
 
             mDetector = detector;
+            mFrameDetector = null;
+            mResultSink = null;
+            mCameraSource.mContext = context;
+        }
+
+        /**
+         * Creates a camera source builder with the supplied context and detection backend.  Camera
+         * preview images will be handed to the backend upon starting the camera source, and its
+         * results to the sink, in frame order.  Such a backend does not depend on Google Play
+         * Services.
+         */
+        public <R> Builder(Context context, FrameDetector<R> detector, ResultSink<R> sink) {
+            if (context == null) {
+                throw new IllegalArgumentException("No context supplied.");
+            }
+            if (detector == null) {
+                throw new IllegalArgumentException("No detector supplied.");
+            }
+            if (sink == null) {
+                throw new IllegalArgumentException("No result sink supplied.");
+            }
+
+            mDetector = null;
+            mFrameDetector = detector;
+            mResultSink = sink;
             mCameraSource.mContext = context;
         }
 
@@ -230,6 +376,15 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Restricts detection to a region of the preview, see {@link CameraSource#setScanRegion(RectF)}.
+         * Default: the full frame.
+         */
+        public Builder setScanRegion(RectF region) {
+            mCameraSource.setScanRegion(region);
+            return this;
+        }
+
         /**
          * Sets the camera to use (either {@link #CAMERA_FACING_BACK} or
          * {@link #CAMERA_FACING_FRONT}). Default: back facing.
@@ -242,11 +397,220 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Sets the number of preview buffers shared with the camera.  At least one buffer per
+         * detection worker plus two are needed to avoid dropping frames.  Default: the number of
+         * detection workers plus three.
+         */
+        public Builder setPreviewBufferCount(int count) {
+            if (count < 2) {
+                throw new IllegalArgumentException("Invalid preview buffer count: " + count);
+            }
+            mCameraSource.mPreviewBufferCount = count;
+            return this;
+        }
+
+        /**
+         * Streams frames through the Camera2 API instead of camera1, on Lollipop and later.  Frames
+         * are read from an {@code ImageReader} and copied straight from the image planes into the
+         * preview buffers, and focus, flash, zoom and autofocus callbacks are mapped onto capture
+         * requests.  {@link CameraSource#takePicture} is not supported with Camera2.  Ignored
+         * before Lollipop.  Default: false.
+         */
+        public Builder setUseCamera2(boolean useCamera2) {
+            mCameraSource.mUseCamera2 = useCamera2;
+            return this;
+        }
+
+        /**
+         * Declares that the detector only reads the luma plane of frames, as barcode detectors do.
+         * The Camera2 backend then skips copying the chroma planes, and hands neutral grey chroma
+         * to the detector.  Has no effect with camera1, which fills whole frames itself.
+         * Default: false.
+         */
+        public Builder setLumaOnly(boolean lumaOnly) {
+            mCameraSource.mLumaOnly = lumaOnly;
+            return this;
+        }
+
+        /**
+         * Sets the number of worker threads which run detection on preview frames at the same
+         * time.  Default: 1.
+         * <p/>
+         * With a worker pool, {@link Detector#detect(Frame)} is called concurrently from all of the
+         * workers, and the results are handed to the supplied processor in frame id order.  The
+         * processor therefore must not also be set on the detector itself.
+         *
+         * @param threadCount the number of detection workers, at least 1
+         * @param processor   the processor receiving the ordered detection results
+         */
+        public Builder setDetectorThreadCount(int threadCount, Detector.Processor<?> processor) {
+            if (threadCount < 1) {
+                throw new IllegalArgumentException("Invalid detector thread count: " + threadCount);
+            }
+            if (processor == null) {
+                throw new IllegalArgumentException("No processor supplied.");
+            }
+            if (mDetector == null) {
+                throw new IllegalStateException("A processor requires a Detector.");
+            }
+            mCameraSource.mDetectorThreadCount = threadCount;
+            mProcessor = processor;
+            return this;
+        }
+
+        /**
+         * Sets the number of worker threads which run the detection backend on preview frames at
+         * the same time, for a builder created with a {@link FrameDetector}.  Its
+         * {@link FrameDetector#detect} is then called concurrently.  Default: 1.
+         *
+         * @param threadCount the number of detection workers, at least 1
+         */
+        public Builder setDetectorThreadCount(int threadCount) {
+            if (threadCount < 1) {
+                throw new IllegalArgumentException("Invalid detector thread count: " + threadCount);
+            }
+            if (mFrameDetector == null) {
+                throw new IllegalStateException("Only a builder created with a FrameDetector and a "
+                        + "ResultSink takes a thread count without a processor.");
+            }
+            mCameraSource.mDetectorThreadCount = threadCount;
+            return this;
+        }
+
+        /**
+         * Enables pyramid detection: every frame is first detected at a reduced resolution, and
+         * only when that finds nothing, or finds items too small to be sure none were missed, is
+         * the full resolution frame detected as well.  Large items then decode at a fraction of
+         * the cost.  Requires a processor set through {@link #setDetectorThreadCount(int,
+         * Detector.Processor)}.  Default: disabled.
+         *
+         * @param scale   the downscale factor of the coarse pass, 2 or 4
+         * @param adapter maps items detected on the coarse frame back to full resolution
+         */
+        public Builder setPyramidDetection(int scale, PyramidAdapter<?> adapter) {
+            if (scale != 2 && scale != 4) {
+                throw new IllegalArgumentException("Invalid pyramid scale: " + scale);
+            }
+            if (adapter == null) {
+                throw new IllegalArgumentException("No pyramid adapter supplied.");
+            }
+            mCameraSource.mPyramidScale = scale;
+            mPyramidAdapter = adapter;
+            return this;
+        }
+
+        /**
+         * Enables pyramid detection, see {@link #setPyramidDetection(int, PyramidAdapter)}, for a
+         * builder created with a {@link FrameDetector}.
+         *
+         * @param scale  the downscale factor of the coarse pass, 2 or 4
+         * @param scaler judges coarse results and maps them back to full resolution
+         */
+        public Builder setPyramidDetection(int scale, ResultScaler<?> scaler) {
+            if (scale != 2 && scale != 4) {
+                throw new IllegalArgumentException("Invalid pyramid scale: " + scale);
+            }
+            if (scaler == null) {
+                throw new IllegalArgumentException("No result scaler supplied.");
+            }
+            mCameraSource.mPyramidScale = scale;
+            mResultScaler = scaler;
+            return this;
+        }
+
+        /**
+         * Enables skipping of blurry frames before detection, e.g. while continuous autofocus is
+         * hunting.  A sparse gradient estimate of each frame's sharpness is compared against the
+         * recent peak, and frames are skipped while the lens is reported to be moving.
+         * Default: disabled.
+         *
+         * @param sampleBudget   the maximum number of pixels sampled per frame, e.g. 4096
+         * @param thresholdRatio frames scoring below this fraction (0 to 1) of the recent peak
+         *                       sharpness are skipped, e.g. 0.5
+         */
+        public Builder setSharpnessGate(int sampleBudget, float thresholdRatio) {
+            if (sampleBudget <= 0) {
+                throw new IllegalArgumentException("Invalid sample budget: " + sampleBudget);
+            }
+            if (thresholdRatio < 0 || thresholdRatio > 1) {
+                throw new IllegalArgumentException("Invalid threshold ratio: " + thresholdRatio);
+            }
+            mCameraSource.mSharpnessGate = new SharpnessGate(sampleBudget, thresholdRatio);
+            return this;
+        }
+
+        /**
+         * Enables skipping detection of frames which have not changed since the last detected
+         * frame, judged by a sparse comparison of luma samples.  With a processor set through
+         * {@link #setDetectorThreadCount(int, Detector.Processor)}, an unchanged frame is given the
+         * previous result, so that trackers are updated exactly as if it had been detected.
+         * Otherwise, detection is skipped for that frame.  Default: disabled.
+         *
+         * @param threshold      the mean absolute luma difference (0 to 255) below which a frame is
+         *                       considered unchanged, e.g. 4
+         * @param maxReuseMillis the longest time detection is skipped for while the scene stays
+         *                       unchanged
+         */
+        public Builder setMotionGate(float threshold, long maxReuseMillis) {
+            if (threshold <= 0 || threshold > 255) {
+                throw new IllegalArgumentException("Invalid motion threshold: " + threshold);
+            }
+            if (maxReuseMillis <= 0) {
+                throw new IllegalArgumentException("Invalid reuse interval: " + maxReuseMillis);
+            }
+            mCameraSource.mMotionGate = new MotionGate(threshold, maxReuseMillis,
+                    MOTION_SAMPLE_BUDGET);
+            return this;
+        }
+
         /**
          * Creates an instance of the camera source.
          */
+        @SuppressWarnings("unchecked")
         public CameraSource build() {
-            mCameraSource.mFrameProcessor = mCameraSource.new FrameProcessingRunnable(mDetector);
+            FramePipeline pipeline;
+            if (mFrameDetector != null) {
+                if (mPyramidAdapter != null) {
+                    throw new IllegalStateException("Pyramid detection requires a result scaler.");
+                }
+                pipeline = new FramePipeline(mFrameDetector, mResultSink,
+                        mCameraSource.mDetectorThreadCount);
+                if (mResultScaler != null) {
+                    pipeline.setPyramidDetection(mCameraSource.mPyramidScale, mResultScaler);
+                }
+            } else {
+                if (mProcessor == null && mPyramidAdapter != null) {
+                    throw new IllegalStateException("Pyramid detection requires a processor.");
+                }
+                if (mResultScaler != null) {
+                    throw new IllegalStateException(
+                            "Pyramid detection requires a pyramid adapter.");
+                }
+                DetectorAdapter adapter = new DetectorAdapter(mDetector, mProcessor);
+                pipeline = new FramePipeline(adapter,
+                        mProcessor != null ? new DetectorAdapter.ProcessorSink(mProcessor) : null,
+                        mCameraSource.mDetectorThreadCount);
+                if (mPyramidAdapter != null) {
+                    adapter.setPyramidAdapter(mPyramidAdapter);
+                    pipeline.setPyramidDetection(mCameraSource.mPyramidScale, adapter);
+                }
+            }
+            pipeline.setSharpnessGate(mCameraSource.mSharpnessGate);
+            pipeline.setMotionGate(mCameraSource.mMotionGate);
+            pipeline.setErrorListener(new FramePipeline.ErrorListener() {
+                @Override
+                public void onError(String message, Throwable t) {
+                    Log.e(TAG, message, t);
+                }
+            });
+            pipeline.setFirstFrameListener(new FramePipeline.FirstFrameListener() {
+                @Override
+                public void onFirstFrame(long receivedNanos) {
+                    mCameraSource.onFirstFrame(receivedNanos);
+                }
+            });
+            mCameraSource.mPipeline = pipeline;
             return mCameraSource;
         }
     }
@@ -314,6 +678,51 @@ public class CameraSource {
         void onAutoFocusMoving(boolean start);
     }
 
+    /**
+     * Maps items detected on a downscaled frame back to the full resolution frame, for pyramid
+     * detection.
+     *
+     * @see Builder#setPyramidDetection(int, PyramidAdapter)
+     */
+    public interface PyramidAdapter<T> {
+        /**
+         * Scales the coordinates of the item up, in place, by the given factor.
+         */
+        void scale(T item, int factor);
+
+        /**
+         * Returns the size of the item in pixels of the frame it was detected on, e.g. the
+         * shorter side of its bounding box.
+         */
+        int getSize(T item);
+    }
+
+    /**
+     * Callback interface used to notify on the completion of an asynchronous start.  All methods
+     * are called on the UI thread, and none of them once the camera source has been stopped.
+     *
+     * @see #startAsync(SurfaceHolder, StartCallback)
+     */
+    public interface StartCallback {
+        /**
+         * Called once the camera has been opened and configured, and its preview started.  The
+         * preview size is known from here on.
+         */
+        void onStarted(CameraSource cameraSource);
+
+        /**
+         * Called when the camera could not be started.
+         */
+        void onStartFailed(Exception e);
+
+        /**
+         * Called when the first preview frame has been received.
+         *
+         * @param coldStartMillis the time from requesting the start until the first frame
+         */
+        void onFirstFrame(long coldStartMillis);
+    }
+
     //==============================================================================================
     // Public
     //==============================================================================================
@@ -322,10 +731,26 @@ public class CameraSource {
      * Stops the camera and releases the resources of the camera and underlying detector.
      */
     public void release() {
-        synchronized (mCameraLock) {
-            stop();
-            mFrameProcessor.release();
+        stop();
+        final HandlerThread openThread;
+        synchronized (mOpenLock) {
+            openThread = mOpenThread;
+            mOpenThread = null;
+            mOpenHandler = null;
+        }
+        if (openThread == null) {
+            releasePipeline();
+            return;
         }
+        // A start may still be opening the camera into the pipeline's buffers, so the pipeline is
+        // released after it, on the open thread, rather than waiting for it here.
+        new Handler(openThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                releasePipeline();
+                openThread.quit();
+            }
+        });
     }
 
     /**
@@ -337,21 +762,7 @@ public class CameraSource {
     @SuppressLint("MissingPermission")
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start() throws IOException {
-        synchronized (mCameraLock) {
-            if (mCamera != null) {
-                return this;
-            }
-
-            mCamera = createCamera();
-
-            mDummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
-            mCamera.setPreviewTexture(mDummySurfaceTexture);
-            mCamera.startPreview();
-
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
-        }
+        startCamera(null, System.nanoTime(), mStartGeneration.get());
         return this;
     }
 
@@ -365,22 +776,50 @@ public class CameraSource {
     @SuppressLint("MissingPermission")
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
-        synchronized (mCameraLock) {
-            if (mCamera != null) {
-                return this;
-            }
-
-            mCamera = createCamera();
-            mCamera.setPreviewDisplay(surfaceHolder);
-            mCamera.startPreview();
-
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
-        }
+        startCamera(surfaceHolder, System.nanoTime(), mStartGeneration.get());
         return this;
     }
 
+    /**
+     * Opens the camera and starts sending preview frames to the underlying detector, like
+     * {@link #start(SurfaceHolder)}, but on a dedicated thread so that the calling thread is not
+     * blocked while the camera is opened and configured.  Camera1 preview frames are delivered on
+     * that thread as well.
+     * <p/>
+     * The callback is notified on the UI thread once the preview is running, or the start failed,
+     * and again when the first preview frame arrives.  A call to {@link #stop()} in the meantime
+     * cancels the start, and the callback is not notified at all.
+     *
+     * @param surfaceHolder the surface holder to use for the preview frames, or null to not
+     *                      display them
+     * @param callback      the callback to notify, or null
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public void startAsync(@Nullable final SurfaceHolder surfaceHolder,
+                           @Nullable final StartCallback callback) {
+        final long requestNanos = System.nanoTime();
+        final int generation = mStartGeneration.get();
+        mStartCallback = callback;
+        getOpenHandler().post(new Runnable() {
+            @SuppressLint("MissingPermission")
+            @Override
+            public void run() {
+                if (generation != mStartGeneration.get()) {
+                    return;
+                }
+                Exception error = null;
+                try {
+                    startCamera(surfaceHolder, requestNanos, generation);
+                } catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+                if (callback != null) {
+                    postStartResult(callback, generation, error);
+                }
+            }
+        });
+    }
+
     /**
      * Closes the camera and stops sending frames to the underlying frame detector.
      * <p/>
@@ -389,89 +828,292 @@ public class CameraSource {
      * <p/>
      * Call {@link #release()} instead to completely shut down this camera source and release the
      * resources of the underlying detector.
+     * <p/>
+     * Does not wait for a camera which is still being opened; that start is abandoned, and the
+     * camera is released as soon as it is open.
      */
     public void stop() {
+        // Abandons the starts which have not published their camera yet.
+        mStartGeneration.incrementAndGet();
+        mStartCallback = null;
         synchronized (mCameraLock) {
-            mFrameProcessor.setActive(false);
-            if (mProcessingThread != null) {
-                try {
-                    // Wait for the thread to complete to ensure that we can't have multiple threads
-                    // executing at the same time (i.e., which would happen if we called start too
-                    // quickly after stop).
-                    mProcessingThread.join();
-                } catch (InterruptedException e) {
-                    Log.d(TAG, "Frame processing thread interrupted on release.");
+            // Waits for the workers to complete to ensure that we can't have multiple generations
+            // of them executing at the same time (i.e., which would happen if we called start too
+            // quickly after stop).
+            mPipeline.stop();
+
+            if (mCamera != null) {
+                mParameters.close();
+                mParameters = null;
+                releaseCamera(mCamera);
+                mCamera = null;
+                mCapabilities = null;
+            }
+            if (mCamera2 != null) {
+                mCamera2.stop();
+                mCamera2 = null;
+            }
+
+            mPipeline.reset();
+        }
+    }
+
+    /**
+     * Returns the preview size that is currently in use by the underlying camera.
+     */
+    public Size getPreviewSize() {
+        return mPreviewSize;
+    }
+
+    /**
+     * Changes the requested preview size and frame rate, see
+     * {@link Builder#setRequestedPreviewSize(int, int)} and {@link Builder#setRequestedFps(float)}.
+     * Takes effect the next time the camera is started.
+     */
+    public void setRequestedPreview(int width, int height, float fps) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid preview size: " + width + "x" + height);
+        }
+        if (fps <= 0) {
+            throw new IllegalArgumentException("Invalid fps: " + fps);
+        }
+        synchronized (mCameraLock) {
+            mRequestedPreviewWidth = width;
+            mRequestedPreviewHeight = height;
+            mRequestedFps = fps;
+        }
+    }
+
+    /**
+     * Returns the preview sizes the camera can be started with, or null if the camera is not
+     * started.  With camera1, these are the sizes which have a picture size of the same aspect
+     * ratio.
+     */
+    @Nullable
+    public List<Size> getSupportedPreviewSizes() {
+        synchronized (mCameraLock) {
+            if (mCamera2 != null) {
+                return mCamera2.getPreviewSizes();
+            }
+            if (mCamera == null) {
+                return null;
+            }
+            List<Size> sizes = new ArrayList<>();
+            for (SizePair pair : generateValidPreviewSizeList(mCapabilities)) {
+                sizes.add(pair.previewSize());
+            }
+            return sizes;
+        }
+    }
+
+    /**
+     * Returns the time it took from requesting the camera to start until its preview was running,
+     * or -1 if it has not started yet.
+     */
+    public long getCameraOpenMillis() {
+        return mCameraOpenMillis;
+    }
+
+    /**
+     * Returns the time it took from requesting the camera to start until the first preview frame
+     * was received, or -1 if none has been received yet.
+     */
+    public long getColdStartMillis() {
+        return mColdStartMillis;
+    }
+
+    /**
+     * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or
+     * {@link #CAMERA_FACING_FRONT}.
+     */
+    public int getCameraFacing() {
+        return mFacing;
+    }
+
+    /**
+     * Restricts detection to a region of the preview.  Only this part of every frame is cropped out
+     * and handed to the detector, which makes detection cheaper roughly in proportion to the area
+     * left out.  Can be changed while the camera is running.
+     * <p/>
+     * The region is expressed as fractions (0 to 1) of the upright preview, i.e. as it appears on
+     * screen.  Detected item coordinates are relative to the region; add
+     * {@link #getScanRegionOffset()} to map them back to the preview.
+     *
+     * @param region the region to scan, or null to scan the full frame
+     */
+    public void setScanRegion(@Nullable RectF region) {
+        synchronized (mCameraLock) {
+            if (region != null) {
+                if (region.left < 0 || region.top < 0 || region.right > 1 || region.bottom > 1
+                        || region.left >= region.right || region.top >= region.bottom) {
+                    throw new IllegalArgumentException("Invalid scan region: " + region);
                 }
-                mProcessingThread = null;
+                region = new RectF(region);
             }
+            mScanRegion = region;
+            updateScanWindow();
+        }
+    }
+
+    /**
+     * Returns the scan region set through {@link #setScanRegion(RectF)}, or null when the full
+     * frame is scanned.
+     */
+    @Nullable
+    public RectF getScanRegion() {
+        synchronized (mCameraLock) {
+            return mScanRegion != null ? new RectF(mScanRegion) : null;
+        }
+    }
 
-            // clear the buffer to prevent oom exceptions
-            mBytesToByteBuffer.clear();
+    /**
+     * Returns the position of the scan region's top left corner in the upright preview, in preview
+     * pixels.  This is the offset to add to the coordinates of detected items.  Zero when the full
+     * frame is scanned or the camera has not been started yet.
+     */
+    public Point getScanRegionOffset() {
+        ScanWindow window = mPipeline != null ? mPipeline.getScanWindow() : null;
+        return window != null ? new Point(window.getOffsetX(), window.getOffsetY()) : new Point();
+    }
 
-            if (mCamera != null) {
-                mCamera.stopPreview();
-                mCamera.setPreviewCallbackWithBuffer(null);
-                try {
+    /**
+     * Returns how many frames were decoded by the coarse pass of pyramid detection alone.
+     */
+    public long getCoarseDetectionHitCount() {
+        return mPipeline.getCoarseHitCount();
+    }
+
+    /**
+     * Returns how many frames needed, and found items in, a full resolution detection pass.
+     * Without pyramid detection, this counts every frame with detected items.
+     */
+    public long getFullDetectionHitCount() {
+        return mPipeline.getFullHitCount();
+    }
+
+    /**
+     * Returns how many frames were detected without finding any item.
+     */
+    public long getDetectionMissCount() {
+        return mPipeline.getMissCount();
+    }
+
+    /**
+     * Returns how many frames passed the sharpness gate, or 0 if it is not enabled.
+     *
+     * @see Builder#setSharpnessGate(int, float)
+     */
+    public long getSharpFrameCount() {
+        return mSharpnessGate != null ? mSharpnessGate.getAcceptedCount() : 0;
+    }
+
+    /**
+     * Returns how many frames were skipped by the sharpness gate as blurry or taken while the lens
+     * was moving, or 0 if it is not enabled.
+     *
+     * @see Builder#setSharpnessGate(int, float)
+     */
+    public long getBlurryFrameCount() {
+        return mSharpnessGate != null ? mSharpnessGate.getRejectedCount() : 0;
+    }
+
+    /**
+     * Returns how many frames were not detected because the scene had not changed, or 0 if the
+     * motion gate is not enabled.
+     *
+     * @see Builder#setMotionGate(float, long)
+     */
+    public long getUnchangedFrameCount() {
+        return mMotionGate != null ? mMotionGate.getUnchangedCount() : 0;
+    }
+
+    /**
+     * Returns how many frames were detected because the scene had changed or the reuse interval
+     * had elapsed, or 0 if the motion gate is not enabled.
+     *
+     * @see Builder#setMotionGate(float, long)
+     */
+    public long getChangedFrameCount() {
+        return mMotionGate != null ? mMotionGate.getChangedCount() : 0;
+    }
 
-                    mCamera.setPreviewTexture(null);
+    /**
+     * Returns the pipeline metrics: frame counters and per-stage latency histograms, from the
+     * camera delivering a preview frame through to its result being processed.  Call
+     * {@link PipelineMetrics#snapshot()} to read them.
+     */
+    public PipelineMetrics getPipelineMetrics() {
+        return mPipeline.getMetrics();
+    }
 
-                } catch (Exception e) {
-                    Log.e(TAG, "Failed to clear camera preview: " + e);
-                }
-                mCamera.release();
-                mCamera = null;
-            }
-        }
+    /**
+     * Returns the number of worker threads running detection.
+     */
+    public int getDetectorThreadCount() {
+        return mDetectorThreadCount;
     }
 
     /**
-     * Returns the preview size that is currently in use by the underlying camera.
+     * Returns how many times the camera was left without a free preview buffer, in which case it
+     * drops the next frame.  A growing value means that more preview buffers are needed, see
+     * {@link Builder#setPreviewBufferCount(int)}.
      */
-    public Size getPreviewSize() {
-        return mPreviewSize;
+    public long getPreviewBufferStarvationCount() {
+        return mPipeline.getBufferStarvationCount();
     }
 
     /**
-     * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or
-     * {@link #CAMERA_FACING_FRONT}.
+     * Returns how many frames each detection worker has processed since this camera source was
+     * created, indexed by worker.
      */
-    public int getCameraFacing() {
-        return mFacing;
+    public long[] getProcessedFrameCounts() {
+        return mPipeline.getProcessedFrameCounts();
     }
 
     public int doZoom(float scale) {
         synchronized (mCameraLock) {
+            if (mCamera2 != null) {
+                if (!mCamera2.isZoomSupported()) {
+                    Log.w(TAG, "Zoom is not supported on this device");
+                    return 0;
+                }
+                int zoom = nextZoom(mCamera2.getZoom(), Camera2Device.MAX_ZOOM, scale);
+                mCamera2.setZoom(zoom);
+                return zoom;
+            }
             if (mCamera == null) {
                 return 0;
             }
-            int currentZoom = 0;
-            int maxZoom;
-            Camera.Parameters parameters = mCamera.getParameters();
-            if (!parameters.isZoomSupported()) {
+            if (!mCapabilities.isZoomSupported()) {
                 Log.w(TAG, "Zoom is not supported on this device");
-                return currentZoom;
-            }
-            maxZoom = parameters.getMaxZoom();
-
-            currentZoom = parameters.getZoom() + 1;
-            float newZoom;
-            if (scale > 1) {
-                newZoom = currentZoom + scale * (maxZoom / 10);
-            } else {
-                newZoom = currentZoom * scale;
-            }
-            currentZoom = Math.round(newZoom) - 1;
-            if (currentZoom < 0) {
-                currentZoom = 0;
-            } else if (currentZoom > maxZoom) {
-                currentZoom = maxZoom;
+                return 0;
             }
-            parameters.setZoom(currentZoom);
-            mCamera.setParameters(parameters);
+            int currentZoom = nextZoom(mParameters.getZoom(), mCapabilities.getMaxZoom(), scale);
+            mParameters.setZoom(currentZoom);
             return currentZoom;
         }
     }
 
+    /**
+     * Computes the zoom step following a pinch of the given scale factor.
+     */
+    private static int nextZoom(int zoom, int maxZoom, float scale) {
+        int currentZoom = zoom + 1;
+        float newZoom;
+        if (scale > 1) {
+            newZoom = currentZoom + scale * (maxZoom / 10);
+        } else {
+            newZoom = currentZoom * scale;
+        }
+        currentZoom = Math.round(newZoom) - 1;
+        if (currentZoom < 0) {
+            currentZoom = 0;
+        } else if (currentZoom > maxZoom) {
+            currentZoom = maxZoom;
+        }
+        return currentZoom;
+    }
+
     /**
      * Initiates taking a picture, which happens asynchronously.  The camera source should have been
      * activated previously with {@link #start()} or {@link #start(SurfaceHolder)}.  The camera
@@ -483,11 +1125,15 @@ public class CameraSource {
      */
     public void takePicture(ShutterCallback shutter, PictureCallback jpeg) {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
+            if (mCamera2 != null) {
+                Log.w(TAG, "Taking pictures is not supported with the Camera2 backend");
+            } else if (mCamera != null) {
                 PictureStartCallback startCallback = new PictureStartCallback();
                 startCallback.mDelegate = shutter;
                 PictureDoneCallback doneCallback = new PictureDoneCallback();
                 doneCallback.mDelegate = jpeg;
+                // The picture is taken with the settings changed so far, e.g. the flash mode.
+                mParameters.flush();
                 mCamera.takePicture(startCallback, null, null, doneCallback);
             }
         }
@@ -522,14 +1168,21 @@ public class CameraSource {
      */
     public boolean setFocusMode(@FocusMode String mode) {
         synchronized (mCameraLock) {
-            if (mCamera != null && mode != null) {
-                Camera.Parameters parameters = mCamera.getParameters();
-                if (parameters.getSupportedFocusModes().contains(mode)) {
-                    parameters.setFocusMode(mode);
-                    mCamera.setParameters(parameters);
+            if (mCamera2 != null && mode != null) {
+                if (mCamera2.setFocusMode(mode)) {
+                    mFocusMode = mode;
+                    return true;
+                }
+            } else if (mCamera != null && mode != null) {
+                if (mCapabilities.isFocusModeSupported(mode)) {
+                    mParameters.setFocusMode(mode);
                     mFocusMode = mode;
                     return true;
                 }
+            } else if (mOpening && mode != null) {
+                // Applied once the camera being opened is published.
+                mFocusMode = mode;
+                return true;
             }
 
             return false;
@@ -562,14 +1215,21 @@ public class CameraSource {
      */
     public boolean setFlashMode(@FlashMode String mode) {
         synchronized (mCameraLock) {
-            if (mCamera != null && mode != null) {
-                Camera.Parameters parameters = mCamera.getParameters();
-                if (parameters.getSupportedFlashModes().contains(mode)) {
-                    parameters.setFlashMode(mode);
-                    mCamera.setParameters(parameters);
+            if (mCamera2 != null && mode != null) {
+                if (mCamera2.setFlashMode(mode)) {
+                    mFlashMode = mode;
+                    return true;
+                }
+            } else if (mCamera != null && mode != null) {
+                if (mCapabilities.isFlashModeSupported(mode)) {
+                    mParameters.setFlashMode(mode);
                     mFlashMode = mode;
                     return true;
                 }
+            } else if (mOpening && mode != null) {
+                // Applied once the camera being opened is published.
+                mFlashMode = mode;
+                return true;
             }
 
             return false;
@@ -596,7 +1256,9 @@ public class CameraSource {
      */
     public void autoFocus(@Nullable AutoFocusCallback cb) {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
+            if (mCamera2 != null) {
+                mCamera2.autoFocus(cb);
+            } else if (mCamera != null) {
                 CameraAutoFocusCallback autoFocusCallback = null;
                 if (cb != null) {
                     autoFocusCallback = new CameraAutoFocusCallback();
@@ -617,7 +1279,9 @@ public class CameraSource {
      */
     public void cancelAutoFocus() {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
+            if (mCamera2 != null) {
+                mCamera2.cancelAutoFocus();
+            } else if (mCamera != null) {
                 mCamera.cancelAutoFocus();
             }
         }
@@ -632,13 +1296,18 @@ public class CameraSource {
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     public boolean setAutoFocusMoveCallback(@Nullable AutoFocusMoveCallback cb) {
         synchronized (mCameraLock) {
-            if (mCamera != null) {
+            if (mCamera != null || mCamera2 != null) {
                 CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
-                if (cb != null) {
+                if (cb != null || mSharpnessGate != null) {
+                    // The sharpness gate keeps listening to lens movement without a delegate.
                     autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
                     autoFocusMoveCallback.mDelegate = cb;
                 }
-                mCamera.setAutoFocusMoveCallback(autoFocusMoveCallback);
+                if (mCamera2 != null) {
+                    mCamera2.setAutoFocusMoveCallback(autoFocusMoveCallback);
+                } else {
+                    mCamera.setAutoFocusMoveCallback(autoFocusMoveCallback);
+                }
             }
         }
 
@@ -655,6 +1324,256 @@ public class CameraSource {
     private CameraSource() {
     }
 
+    /**
+     * Starts one processing thread per detection worker.
+     */
+    private void startProcessingThreads() {
+        mPipeline.start("CameraSource-");
+    }
+
+    /**
+     * Opens the camera, starts its preview on the surface holder, or on a dummy texture if null,
+     * and starts the processing threads.  Does nothing if the camera is open already.
+     * <p/>
+     * The camera is opened and configured without holding mCameraLock, so that {@link #stop()}
+     * and the settings don't block meanwhile, and is only published under it once its preview is
+     * running.  If {@link #stop()} was called in the meantime, the camera is released instead.
+     *
+     * @param requestNanos the {@link System#nanoTime()} at which the start was requested
+     * @param generation   the value of mStartGeneration when the start was requested
+     */
+    @SuppressLint("MissingPermission")
+    private void startCamera(@Nullable SurfaceHolder surfaceHolder, long requestNanos,
+                             int generation) throws IOException {
+        synchronized (mStartLock) {
+            OpenedCamera opened = new OpenedCamera();
+            synchronized (mCameraLock) {
+                if (mCamera != null || mCamera2 != null
+                        || generation != mStartGeneration.get()) {
+                    return;
+                }
+                mStartRequestNanos = requestNanos;
+                mCameraOpenMillis = -1;
+                mColdStartMillis = -1;
+                mOpening = true;
+                opened.mPreviewWidth = mRequestedPreviewWidth;
+                opened.mPreviewHeight = mRequestedPreviewHeight;
+                opened.mFps = mRequestedFps;
+                opened.mFocusMode = mFocusMode;
+                opened.mFlashMode = mFlashMode;
+            }
+            String requestedFocusMode = opened.mFocusMode;
+            String requestedFlashMode = opened.mFlashMode;
+
+            try {
+                if (useCamera2()) {
+                    createCamera2(opened, surfaceHolder);
+                } else {
+                    createCamera(opened);
+                    startPreview(opened.mCamera, surfaceHolder);
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (mCameraLock) {
+                    mOpening = false;
+                }
+                throw e;
+            }
+
+            synchronized (mCameraLock) {
+                mOpening = false;
+                if (generation != mStartGeneration.get()) {
+                    Log.i(TAG, "Camera start cancelled");
+                    if (opened.mCamera != null) {
+                        releaseCamera(opened.mCamera);
+                    } else {
+                        opened.mCamera2.stop();
+                    }
+                    return;
+                }
+                publishCamera(opened, requestedFocusMode, requestedFlashMode);
+
+                startProcessingThreads();
+                mCameraOpenMillis =
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestNanos);
+                Log.i(TAG, "Camera started in " + mCameraOpenMillis + " ms");
+            }
+        }
+    }
+
+    /**
+     * Starts the preview of a camera1 camera on the surface holder, or on a dummy texture if null.
+     * Releases the camera if that fails.
+     */
+    private void startPreview(Camera camera, @Nullable SurfaceHolder surfaceHolder)
+            throws IOException {
+        try {
+            if (surfaceHolder != null) {
+                camera.setPreviewDisplay(surfaceHolder);
+            } else {
+                mDummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+                camera.setPreviewTexture(mDummySurfaceTexture);
+            }
+            camera.startPreview();
+        } catch (IOException | RuntimeException e) {
+            releaseCamera(camera);
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a camera opened by a start the current camera, and prepares the pipeline for its
+     * frames.  Focus and flash modes set while it was opened are applied to it now.  Must be
+     * called with mCameraLock held.
+     *
+     * @param requestedFocusMode the focus mode the camera was opened with
+     * @param requestedFlashMode the flash mode the camera was opened with
+     */
+    private void publishCamera(OpenedCamera opened, @Nullable String requestedFocusMode,
+                               @Nullable String requestedFlashMode) {
+        mPreviewSize = opened.mPreviewSize;
+        mRotation = opened.mRotation;
+        if (opened.mCamera != null) {
+            mCamera = opened.mCamera;
+            mCapabilities = opened.mCapabilities;
+            mParameters = new ParameterShadow(mCamera, opened.mParameters, getOpenHandler(),
+                    1000 / Math.max(1, opened.mMaxFps));
+        } else {
+            mCamera2 = opened.mCamera2;
+        }
+
+        String focusMode = mFocusMode;
+        String flashMode = mFlashMode;
+        mFocusMode = opened.mFocusMode;
+        mFlashMode = opened.mFlashMode;
+        if (focusMode != null && !TextUtils.equals(focusMode, requestedFocusMode)
+                && !setFocusMode(focusMode)) {
+            Log.i(TAG, "Camera focus mode: " + focusMode + " is not supported on this device.");
+        }
+        if (flashMode != null && !TextUtils.equals(flashMode, requestedFlashMode)
+                && !setFlashMode(flashMode)) {
+            Log.i(TAG, "Camera flash mode: " + flashMode + " is not supported on this device.");
+        }
+
+        // The scan region may have changed while the camera was opened.
+        updateScanWindow();
+        mPipeline.prepare(opened.mFrameSource, mPreviewSize.getWidth(), mPreviewSize.getHeight(),
+                mRotation, opened.mFrameSize, opened.mBufferCount);
+    }
+
+    /**
+     * Stops the preview of a camera1 camera and releases it.
+     */
+    private static void releaseCamera(Camera camera) {
+        camera.stopPreview();
+        camera.setPreviewCallbackWithBuffer(null);
+        try {
+
+            camera.setPreviewTexture(null);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to clear camera preview: " + e);
+        }
+        camera.release();
+    }
+
+    /**
+     * Releases the detector and the frame buffers of the pipeline.
+     */
+    private void releasePipeline() {
+        synchronized (mCameraLock) {
+            mPipeline.release();
+        }
+    }
+
+    /**
+     * Returns the handler of the thread opening the camera, starting the thread if needed.
+     */
+    private Handler getOpenHandler() {
+        synchronized (mOpenLock) {
+            if (mOpenHandler == null) {
+                mOpenThread = new HandlerThread("CameraSource-open");
+                mOpenThread.start();
+                mOpenHandler = new Handler(mOpenThread.getLooper());
+            }
+            return mOpenHandler;
+        }
+    }
+
+    /**
+     * Notifies the callback of an asynchronous start on the UI thread, unless the camera source
+     * has been stopped since the start was requested.
+     */
+    private void postStartResult(final StartCallback callback, final int generation,
+                                 @Nullable final Exception error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mStartGeneration.get()) {
+                    return;
+                }
+                if (error != null) {
+                    callback.onStartFailed(error);
+                } else {
+                    callback.onStarted(CameraSource.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the cold start time, on the thread delivering the first frame after a start.
+     */
+    private void onFirstFrame(long receivedNanos) {
+        final long coldStartMillis =
+                TimeUnit.NANOSECONDS.toMillis(receivedNanos - mStartRequestNanos);
+        mColdStartMillis = coldStartMillis;
+        Log.i(TAG, "First preview frame received " + coldStartMillis + " ms after start");
+
+        final StartCallback callback = mStartCallback;
+        if (callback == null) {
+            return;
+        }
+        final int generation = mStartGeneration.get();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mStartGeneration.get()) {
+                    callback.onFirstFrame(coldStartMillis);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the task on the UI thread and waits for it to complete, for a limited time.  Runs it
+     * directly when called on the UI thread.
+     *
+     * @return false if the task did not complete in time
+     */
+    private boolean runOnMainThread(final Runnable task, long timeoutMillis) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+            return true;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        try {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Wraps the camera1 shutter callback so that the deprecated API isn't exposed.
      */
@@ -704,14 +1623,24 @@ public class CameraSource {
     }
 
     /**
-     * Wraps the camera1 auto focus move callback so that the deprecated API isn't exposed.
+     * Wraps the camera1 auto focus move callback so that the deprecated API isn't exposed.  Also
+     * receives lens movement from the Camera2 backend.
      */
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    private class CameraAutoFocusMoveCallback implements Camera.AutoFocusMoveCallback {
+    private class CameraAutoFocusMoveCallback implements Camera.AutoFocusMoveCallback,
+            AutoFocusMoveCallback {
         private AutoFocusMoveCallback mDelegate;
 
         @Override
         public void onAutoFocusMoving(boolean start, Camera camera) {
+            onAutoFocusMoving(start);
+        }
+
+        @Override
+        public void onAutoFocusMoving(boolean start) {
+            if (mSharpnessGate != null) {
+                mSharpnessGate.setFocusMoving(start);
+            }
             if (mDelegate != null) {
                 mDelegate.onAutoFocusMoving(start);
             }
@@ -719,26 +1648,44 @@ public class CameraSource {
     }
 
     /**
-     * Opens the camera and applies the user settings.
+     * Opens the camera and applies the requested settings, without touching the fields of the
+     * camera source, so that this can run without holding mCameraLock.  The camera is released
+     * if the settings can't be applied.
      *
+     * @param opened holds the requested settings, and receives the camera and its configuration
      * @throws RuntimeException if the method fails
      */
     @SuppressLint("InlinedApi")
-    private Camera createCamera() {
+    private void createCamera(OpenedCamera opened) {
         int requestedCameraId = getIdForRequestedCamera(mFacing);
         if (requestedCameraId == -1) {
             throw new RuntimeException("Could not find requested camera.");
         }
         Camera camera = Camera.open(requestedCameraId);
+        try {
+            configureCamera(opened, camera, requestedCameraId);
+        } catch (RuntimeException e) {
+            camera.release();
+            throw e;
+        }
+        opened.mCamera = camera;
+    }
 
-        SizePair sizePair = selectSizePair(camera, mRequestedPreviewWidth, mRequestedPreviewHeight);
+    /**
+     * Selects the preview size and frame rate of an open camera1 camera and writes its parameters.
+     */
+    private void configureCamera(OpenedCamera opened, Camera camera, int cameraId) {
+        CameraCapabilities capabilities = CameraCapabilities.get(mContext, cameraId, camera);
+
+        SizePair sizePair = selectSizePair(capabilities, opened.mPreviewWidth,
+                opened.mPreviewHeight);
         if (sizePair == null) {
             throw new RuntimeException("Could not find suitable preview size.");
         }
         Size pictureSize = sizePair.pictureSize();
-        mPreviewSize = sizePair.previewSize();
+        Size previewSize = sizePair.previewSize();
 
-        int[] previewFpsRange = selectPreviewFpsRange(camera, mRequestedFps);
+        int[] previewFpsRange = selectPreviewFpsRange(capabilities, opened.mFps);
         if (previewFpsRange == null) {
             throw new RuntimeException("Could not find suitable preview frames per second range.");
         }
@@ -749,54 +1696,166 @@ public class CameraSource {
             parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
         }
 
-        parameters.setPreviewSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+        parameters.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
         parameters.setPreviewFpsRange(
                 previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
                 previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
         parameters.setPreviewFormat(ImageFormat.NV21);
 
-        setRotation(camera, parameters, requestedCameraId);
+        int rotation = setRotation(camera, parameters, cameraId);
 
-        if (mFocusMode != null) {
-            if (parameters.getSupportedFocusModes().contains(
-                    mFocusMode)) {
-                parameters.setFocusMode(mFocusMode);
+        String focusMode = opened.mFocusMode;
+        if (focusMode != null) {
+            if (capabilities.isFocusModeSupported(focusMode)) {
+                parameters.setFocusMode(focusMode);
             } else {
-                Log.i(TAG, "Camera focus mode: " + mFocusMode + " is not supported on this device.");
+                Log.i(TAG, "Camera focus mode: " + focusMode + " is not supported on this device.");
             }
         }
 
-        // setting mFocusMode to the one set in the params
-        mFocusMode = parameters.getFocusMode();
+        if (mSharpnessGate != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mSharpnessGate.setFocusMoving(false);
+            camera.setAutoFocusMoveCallback(new CameraAutoFocusMoveCallback());
+        }
 
-        if (mFlashMode != null) {
-            if (parameters.getSupportedFlashModes() != null) {
-                if (parameters.getSupportedFlashModes().contains(
-                        mFlashMode)) {
-                    parameters.setFlashMode(mFlashMode);
-                } else {
-                    Log.i(TAG, "Camera flash mode: " + mFlashMode + " is not supported on this device.");
-                }
+        String flashMode = opened.mFlashMode;
+        if (flashMode != null) {
+            if (capabilities.isFlashModeSupported(flashMode)) {
+                parameters.setFlashMode(flashMode);
+            } else {
+                Log.i(TAG, "Camera flash mode: " + flashMode + " is not supported on this device.");
             }
         }
 
-        // setting mFlashMode to the one set in the params
-        mFlashMode = parameters.getFlashMode();
-
         camera.setParameters(parameters);
+        camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
 
-        // Four frame buffers are needed for working with the camera:
+        // The modes actually set in the parameters
+        opened.mFocusMode = parameters.getFocusMode();
+        opened.mFlashMode = parameters.getFlashMode();
+        opened.mCapabilities = capabilities;
+        opened.mParameters = parameters;
+        opened.mMaxFps = previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000;
+        opened.mPreviewSize = previewSize;
+        opened.mRotation = rotation;
+        opened.mFrameSource = new CameraFrameSource(camera);
+        opened.mFrameSize = getPreviewFrameSize(previewSize);
+        // By default, three frame buffers plus one per detection worker are needed for working
+        // with the camera:
         //
-        //   one for the frame that is currently being executed upon in doing detection
+        //   one for each frame that is currently being executed upon in doing detection
         //   one for the next pending frame to process immediately upon completing detection
         //   two for the frames that the camera uses to populate future preview images
-        camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+        opened.mBufferCount =
+                mPreviewBufferCount > 0 ? mPreviewBufferCount : mDetectorThreadCount + 3;
+    }
+
+    /**
+     * Opens the camera through the Camera2 API, applies the requested settings and starts
+     * streaming frames, without touching the fields of the camera source, like
+     * {@link #createCamera(OpenedCamera)}.  Frames only reach the pipeline once it is prepared
+     * with the frame source, when the camera is published.
+     *
+     * @param opened        holds the requested settings, and receives the camera and its
+     *                      configuration
+     * @param surfaceHolder the surface holder displaying the preview, or null
+     * @throws IOException      if the camera could not be started
+     * @throws RuntimeException if there is no suitable camera
+     */
+    @SuppressLint("MissingPermission")
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void createCamera2(OpenedCamera opened, @Nullable SurfaceHolder surfaceHolder)
+            throws IOException {
+        Camera2Device camera = Camera2Device.find(mContext, mFacing);
+        if (camera == null) {
+            throw new RuntimeException("Could not find requested camera.");
+        }
+        Size previewSize = camera.selectPreviewSize(opened.mPreviewWidth, opened.mPreviewHeight);
+        if (previewSize == null) {
+            throw new RuntimeException("Could not find suitable preview size.");
+        }
+        Range<Integer> fpsRange = camera.selectFpsRange(opened.mFps);
+        if (fpsRange == null) {
+            throw new RuntimeException("Could not find suitable preview frames per second range.");
+        }
+        int rotation = getImageRotation(camera.getSensorOrientation(),
+                mFacing == CAMERA_FACING_FRONT) / 90;
+
+        // Images are copied into the preview buffers as soon as they arrive, so the same number of
+        // buffers is needed as with camera1.
+        final int width = previewSize.getWidth();
+        final int height = previewSize.getHeight();
+        int bufferCount = mPreviewBufferCount > 0 ? mPreviewBufferCount : mDetectorThreadCount + 3;
+        PlanarFrameSource frameSource =
+                new PlanarFrameSource(mPipeline, width, height, bufferCount, !mLumaOnly);
+
+        Surface previewSurface = null;
+        if (surfaceHolder != null) {
+            // The camera renders at the size of the surface, which must be one of its output
+            // sizes.  Resizing it lays out the surface view, which has to happen on the UI thread;
+            // it is not waited for indefinitely, since the UI thread may itself be busy or blocked
+            // on a synchronous start.
+            final SurfaceHolder holder = surfaceHolder;
+            if (!runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    holder.setFixedSize(width, height);
+                }
+            }, SURFACE_TIMEOUT_MILLIS)) {
+                Log.w(TAG, "Timed out resizing the preview surface");
+            }
+            previewSurface = surfaceHolder.getSurface();
+        }
+        camera.start(previewSurface, previewSize, fpsRange, frameSource);
+
+        try {
+            String focusMode = opened.mFocusMode;
+            if (focusMode != null && !camera.setFocusMode(focusMode)) {
+                Log.i(TAG, "Camera focus mode: " + focusMode + " is not supported on this device.");
+                opened.mFocusMode = null;
+            }
+            if (mSharpnessGate != null) {
+                mSharpnessGate.setFocusMoving(false);
+                camera.setAutoFocusMoveCallback(new CameraAutoFocusMoveCallback());
+            }
+            String flashMode = opened.mFlashMode;
+            if (flashMode != null && !camera.setFlashMode(flashMode)) {
+                Log.i(TAG, "Camera flash mode: " + flashMode + " is not supported on this device.");
+                opened.mFlashMode = null;
+            }
+        } catch (RuntimeException e) {
+            camera.stop();
+            throw e;
+        }
+
+        opened.mCamera2 = camera;
+        opened.mPreviewSize = previewSize;
+        opened.mRotation = rotation;
+        opened.mFrameSource = frameSource;
+        opened.mFrameSize = Nv21Image.frameSize(width, height);
+        opened.mBufferCount = bufferCount;
+    }
 
-        return camera;
+    private boolean useCamera2() {
+        return mUseCamera2 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Recomputes the crop window from the scan region, for the current preview size and rotation.
+     */
+    private void updateScanWindow() {
+        if (mPipeline == null) {
+            // Still building; the window is computed once the camera is created.
+            return;
+        }
+        RectF region = mScanRegion;
+        Size previewSize = mPreviewSize;
+        if (region == null || previewSize == null) {
+            mPipeline.setScanWindow(null);
+            return;
+        }
+        mPipeline.setScanWindow(ScanWindow.fromRegion(region.left, region.top, region.right,
+                region.bottom, previewSize.getWidth(), previewSize.getHeight(), mRotation));
     }
 
     /**
@@ -824,13 +1883,14 @@ public class CameraSource {
      * ratio.  On some hardware, if you would only set the preview size, you will get a distorted
      * image.
      *
-     * @param camera        the camera to select a preview size from
+     * @param capabilities  the capabilities of the camera to select a preview size for
      * @param desiredWidth  the desired width of the camera preview frames
      * @param desiredHeight the desired height of the camera preview frames
      * @return the selected preview and picture size pair
      */
-    private static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
-        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
+    private static SizePair selectSizePair(CameraCapabilities capabilities, int desiredWidth,
+                                           int desiredHeight) {
+        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(capabilities);
 
         // The method for selecting the best size is to minimize the sum of the differences between
         // the desired values and the actual values for width and height.  This is certainly not the
@@ -861,12 +1921,10 @@ public class CameraSource {
         private Size mPreview;
         private Size mPicture;
 
-        public SizePair(Camera.Size previewSize,
-                        Camera.Size pictureSize) {
-            mPreview = new Size(previewSize.width, previewSize.height);
-            if (pictureSize != null) {
-                mPicture = new Size(pictureSize.width, pictureSize.height);
-            }
+        public SizePair(Size previewSize,
+                        Size pictureSize) {
+            mPreview = previewSize;
+            mPicture = pictureSize;
         }
 
         public Size previewSize() {
@@ -888,21 +1946,20 @@ public class CameraSource {
      * set to a size that is the same aspect ratio as the preview size we choose.  Otherwise, the
      * preview images may be distorted on some devices.
      */
-    private static List<SizePair> generateValidPreviewSizeList(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
-        List<Camera.Size> supportedPreviewSizes =
-                parameters.getSupportedPreviewSizes();
-        List<Camera.Size> supportedPictureSizes =
-                parameters.getSupportedPictureSizes();
+    private static List<SizePair> generateValidPreviewSizeList(CameraCapabilities capabilities) {
+        List<Size> supportedPreviewSizes = capabilities.getPreviewSizes();
+        List<Size> supportedPictureSizes = capabilities.getPictureSizes();
         List<SizePair> validPreviewSizes = new ArrayList<>();
-        for (Camera.Size previewSize : supportedPreviewSizes) {
-            float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
+        for (Size previewSize : supportedPreviewSizes) {
+            float previewAspectRatio =
+                    (float) previewSize.getWidth() / (float) previewSize.getHeight();
 
             // By looping through the picture sizes in order, we favor the higher resolutions.
             // We choose the highest resolution in order to support taking the full resolution
             // picture later.
-            for (Camera.Size pictureSize : supportedPictureSizes) {
-                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
+            for (Size pictureSize : supportedPictureSizes) {
+                float pictureAspectRatio =
+                        (float) pictureSize.getWidth() / (float) pictureSize.getHeight();
                 if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
                     validPreviewSizes.add(new SizePair(previewSize, pictureSize));
                     break;
@@ -915,7 +1972,7 @@ public class CameraSource {
         // still account for it.
         if (validPreviewSizes.size() == 0) {
             Log.w(TAG, "No preview sizes have a corresponding same-aspect-ratio picture size");
-            for (Camera.Size previewSize : supportedPreviewSizes) {
+            for (Size previewSize : supportedPreviewSizes) {
                 // The null picture size will let us know that we shouldn't set a picture size.
                 validPreviewSizes.add(new SizePair(previewSize, null));
             }
@@ -928,11 +1985,12 @@ public class CameraSource {
      * Selects the most suitable preview frames per second range, given the desired frames per
      * second.
      *
-     * @param camera            the camera to select a frames per second range from
+     * @param capabilities      the capabilities of the camera to select a frames per second range
+     *                          for
      * @param desiredPreviewFps the desired frames per second for the camera preview frames
      * @return the selected preview frames per second range
      */
-    private int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
+    private int[] selectPreviewFpsRange(CameraCapabilities capabilities, float desiredPreviewFps) {
         // The camera API uses integers scaled by a factor of 1000 instead of floating-point frame
         // rates.
         int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
@@ -944,7 +2002,7 @@ public class CameraSource {
         // range (15, 30).
         int[] selectedFpsRange = null;
         int minDiff = Integer.MAX_VALUE;
-        List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
+        List<int[]> previewFpsRangeList = capabilities.getPreviewFpsRanges();
         for (int[] range : previewFpsRangeList) {
             int deltaMin = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
             int deltaMax = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
@@ -959,12 +2017,40 @@ public class CameraSource {
 
     /**
      * Calculates the correct rotation for the given camera id and sets the rotation in the
-     * parameters.  It also sets the camera's display orientation and rotation.
+     * parameters.  It also sets the camera's display orientation.
      *
      * @param parameters the camera parameters for which to set the rotation
      * @param cameraId   the camera id to set rotation based on
+     * @return the rotation of the frames, see {@link Frame.Metadata#getRotation()}
+     */
+    private int setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
+        CameraInfo cameraInfo = new CameraInfo();
+        Camera.getCameraInfo(cameraId, cameraInfo);
+
+        int angle = getImageRotation(cameraInfo.orientation,
+                cameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT);
+        int displayAngle;
+        if (cameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT) {
+            displayAngle = (360 - angle) % 360; // compensate for it being mirrored
+        } else {  // back-facing
+            displayAngle = angle;
+        }
+
+        camera.setDisplayOrientation(displayAngle);
+        parameters.setRotation(angle);
+
+        // This corresponds to the rotation constants in {@link Frame}.
+        return angle / 90;
+    }
+
+    /**
+     * Calculates the clockwise angle by which images of a camera must be rotated to be upright on
+     * the display, in its current rotation.
+     *
+     * @param sensorOrientation the orientation of the camera sensor, in degrees
+     * @param front             whether the camera is front-facing
      */
-    private void setRotation(Camera camera, Camera.Parameters parameters, int cameraId) {
+    private int getImageRotation(int sensorOrientation, boolean front) {
         WindowManager windowManager =
                 (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
         int degrees = 0;
@@ -988,53 +2074,54 @@ public class CameraSource {
             }
         }
 
-        CameraInfo cameraInfo = new CameraInfo();
-        Camera.getCameraInfo(cameraId, cameraInfo);
-
-        int angle;
-        int displayAngle;
-        if (cameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT) {
-            angle = (cameraInfo.orientation + degrees) % 360;
-            displayAngle = (360 - angle) % 360; // compensate for it being mirrored
-        } else {  // back-facing
-            angle = (cameraInfo.orientation - degrees + 360) % 360;
-            displayAngle = angle;
+        if (front) {
+            return (sensorOrientation + degrees) % 360;
         }
-
-        // This corresponds to the rotation constants in {@link Frame}.
-        mRotation = angle / 90;
-
-        camera.setDisplayOrientation(displayAngle);
-        parameters.setRotation(angle);
+        return (sensorOrientation - degrees + 360) % 360;
     }
 
     /**
-     * Creates one buffer for the camera preview callback.  The size of the buffer is based off of
-     * the camera preview size and the format of the camera image.
+     * Computes the size of one preview frame in bytes.  The size is based off of the camera preview
+     * size and the format of the camera image.
      *
-     * @return a new preview buffer of the appropriate size for the current camera settings
+     * @return the number of bytes needed to hold a frame for the current camera settings
      */
-    private byte[] createPreviewBuffer(Size previewSize) {
+    private static int getPreviewFrameSize(Size previewSize) {
         int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
         long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
 
         //
         // NOTICE: This code only works when using play services v. 8.1 or higher.
         //
 
-        // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            // I don't think that this will ever happen.  But if it does, then we wouldn't be
-            // passing the preview content to the underlying detector later.
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
-        }
+        return (int) Math.ceil(sizeInBits / 8.0d) + 1;
+    }
 
-        mBytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+    /**
+     * A camera being opened by a start, with the settings requested for it and the configuration
+     * it was opened with, which are only published to the camera source under mCameraLock.
+     */
+    private static final class OpenedCamera {
+        // Requested
+        int mPreviewWidth;
+        int mPreviewHeight;
+        float mFps;
+
+        // Requested, then as applied
+        String mFocusMode;
+        String mFlashMode;
+
+        // Opened
+        Camera mCamera;
+        Camera2Device mCamera2;
+        CameraCapabilities mCapabilities;
+        Camera.Parameters mParameters;
+        int mMaxFps;
+        Size mPreviewSize;
+        int mRotation;
+        FrameSource mFrameSource;
+        int mFrameSize;
+        int mBufferCount;
     }
 
     //==============================================================================================
@@ -1047,155 +2134,24 @@ public class CameraSource {
     private class CameraPreviewCallback implements Camera.PreviewCallback {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            mFrameProcessor.setNextFrame(data, camera);
+            mPipeline.onFrame(data, System.nanoTime());
         }
     }
 
     /**
-     * This runnable controls access to the underlying receiver, calling it to process frames when
-     * available from the camera.  This is designed to run detection on frames as fast as possible
-     * (i.e., without unnecessary context switching or waiting on the next frame).
-     * <p/>
-     * While detection is running on a frame, new frames may be received from the camera.  As these
-     * frames come in, the most recent frame is held onto as pending.  As soon as detection and its
-     * associated processing are done for the previous frame, detection on the mostly recently
-     * received frame will immediately start on the same thread.
+     * Hands the preview buffers of the frame pipeline to the camera, to be filled with future
+     * frames.
      */
-    private class FrameProcessingRunnable implements Runnable {
-        private Detector<?> mDetector;
-        private long mStartTimeMillis = SystemClock.elapsedRealtime();
-
-        // This lock guards all of the member variables below.
-        private final Object mLock = new Object();
-        private boolean mActive = true;
-
-        // These pending variables hold the state associated with the new frame awaiting processing.
-        private long mPendingTimeMillis;
-        private int mPendingFrameId = 0;
-        private ByteBuffer mPendingFrameData;
-
-        FrameProcessingRunnable(Detector<?> detector) {
-            mDetector = detector;
-        }
-
-        /**
-         * Releases the underlying receiver.  This is only safe to do after the associated thread
-         * has completed, which is managed in camera source's release method above.
-         */
-        @SuppressLint("Assert")
-        void release() {
-            assert (mProcessingThread.getState() == State.TERMINATED);
-            mDetector.release();
-            mDetector = null;
-        }
-
-        /**
-         * Marks the runnable as active/not active.  Signals any blocked threads to continue.
-         */
-        void setActive(boolean active) {
-            synchronized (mLock) {
-                mActive = active;
-                mLock.notifyAll();
-            }
-        }
-
-        /**
-         * Sets the frame data received from the camera.  This adds the previous unused frame buffer
-         * (if present) back to the camera, and keeps a pending reference to the frame data for
-         * future use.
-         */
-        void setNextFrame(byte[] data, Camera camera) {
-            synchronized (mLock) {
-                if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
-                    mPendingFrameData = null;
-                }
-
-                if (!mBytesToByteBuffer.containsKey(data)) {
-                    Log.d(TAG,
-                            "Skipping frame.  Could not find ByteBuffer associated with the image " +
-                                    "data from the camera.");
-                    return;
-                }
-
-                // Timestamp and frame ID are maintained here, which will give downstream code some
-                // idea of the timing of frames received and when frames were dropped along the way.
-                mPendingTimeMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
-                mPendingFrameId++;
-                mPendingFrameData = mBytesToByteBuffer.get(data);
+    private static class CameraFrameSource implements FrameSource {
+        private final Camera mCamera;
 
-                // Notify the processor thread if it is waiting on the next frame (see below).
-                mLock.notifyAll();
-            }
+        CameraFrameSource(Camera camera) {
+            mCamera = camera;
         }
 
-        /**
-         * As long as the processing thread is active, this executes detection on frames
-         * continuously.  The next pending frame is either immediately available or hasn't been
-         * received yet.  Once it is available, we transfer the frame info to local variables and
-         * run detection on that frame.  It immediately loops back for the next frame without
-         * pausing.
-         * <p/>
-         * If detection takes longer than the time in between new frames from the camera, this will
-         * mean that this loop will run without ever waiting on a frame, avoiding any context
-         * switching or frame acquisition time latency.
-         * <p/>
-         * If you find that this is using more CPU than you'd like, you should probably decrease the
-         * FPS setting above to allow for some idle time in between frames.
-         */
         @Override
-        public void run() {
-            Frame outputFrame;
-            ByteBuffer data;
-
-            while (true) {
-                synchronized (mLock) {
-                    while (mActive && (mPendingFrameData == null)) {
-                        try {
-                            // Wait for the next frame to be received from the camera, since we
-                            // don't have it yet.
-                            mLock.wait();
-                        } catch (InterruptedException e) {
-                            Log.d(TAG, "Frame processing loop terminated.", e);
-                            return;
-                        }
-                    }
-
-                    if (!mActive) {
-                        // Exit the loop once this camera source is stopped or released.  We check
-                        // this here, immediately after the wait() above, to handle the case where
-                        // setActive(false) had been called, triggering the termination of this
-                        // loop.
-                        return;
-                    }
-
-                    outputFrame = new Frame.Builder()
-                            .setImageData(mPendingFrameData, mPreviewSize.getWidth(),
-                                    mPreviewSize.getHeight(), ImageFormat.NV21)
-                            .setId(mPendingFrameId)
-                            .setTimestampMillis(mPendingTimeMillis)
-                            .setRotation(mRotation)
-                            .build();
-
-                    // Hold onto the frame data locally, so that we can use this for detection
-                    // below.  We need to clear mPendingFrameData to ensure that this buffer isn't
-                    // recycled back to the camera before we are done using that data.
-                    data = mPendingFrameData;
-                    mPendingFrameData = null;
-                }
-
-                // The code below needs to run outside of synchronization, because this will allow
-                // the camera to add pending frame(s) while we are running detection on the current
-                // frame.
-
-                try {
-                    mDetector.receiveFrame(outputFrame);
-                } catch (Throwable t) {
-                    Log.e(TAG, "Exception thrown from receiver.", t);
-                } finally {
-                    mCamera.addCallbackBuffer(data.array());
-                }
-            }
+        public void recycle(byte[] buffer) {
+            mCamera.addCallbackBuffer(buffer);
         }
     }
 }
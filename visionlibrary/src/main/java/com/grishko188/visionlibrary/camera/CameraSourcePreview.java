@@ -19,6 +19,7 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.Point;
 import android.support.annotation.RequiresPermission;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -40,6 +41,7 @@ public class CameraSourcePreview extends ViewGroup {
     private CameraSource mCameraSource;
 
     private GraphicOverlay mOverlay;
+    private CameraSource.StartCallback mStartListener;
 
     public CameraSourcePreview(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -72,6 +74,14 @@ public class CameraSourcePreview extends ViewGroup {
         start(cameraSource);
     }
 
+    /**
+     * Sets a callback notified after the preview has handled the start of the camera source, or
+     * null.
+     */
+    public void setStartListener(CameraSource.StartCallback listener) {
+        mStartListener = listener;
+    }
+
     public void stop() {
         if (mCameraSource != null) {
             mCameraSource.stop();
@@ -85,24 +95,63 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
+    /**
+     * Starts the camera source once the surface exists.  The camera is opened and configured on a
+     * background thread, so the overlay is only set up once its preview size is known.
+     */
     @RequiresPermission(Manifest.permission.CAMERA)
-    private void startIfReady() throws IOException, SecurityException {
+    private void startIfReady() throws SecurityException {
         if (mStartRequested && mSurfaceAvailable) {
-            mCameraSource.start(mSurfaceView.getHolder());
+            mCameraSource.startAsync(mSurfaceView.getHolder(), new StartCallback());
+            mStartRequested = false;
+        }
+    }
+
+    private class StartCallback implements CameraSource.StartCallback {
+        @Override
+        public void onStarted(CameraSource cameraSource) {
+            if (cameraSource != mCameraSource) {
+                return;
+            }
+            // The surface was laid out before the preview size was known.
+            requestLayout();
             if (mOverlay != null) {
-                Size size = mCameraSource.getPreviewSize();
+                Size size = cameraSource.getPreviewSize();
                 int min = Math.min(size.getWidth(), size.getHeight());
                 int max = Math.max(size.getWidth(), size.getHeight());
                 if (isPortraitMode()) {
                     // Swap width and height sizes when in portrait, since it will be rotated by
                     // 90 degrees
-                    mOverlay.setCameraInfo(min, max, mCameraSource.getCameraFacing());
+                    mOverlay.setCameraInfo(min, max, cameraSource.getCameraFacing());
                 } else {
-                    mOverlay.setCameraInfo(max, min, mCameraSource.getCameraFacing());
+                    mOverlay.setCameraInfo(max, min, cameraSource.getCameraFacing());
                 }
+                Point offset = cameraSource.getScanRegionOffset();
+                mOverlay.setFrameOffset(offset.x, offset.y);
                 mOverlay.clear();
             }
-            mStartRequested = false;
+            if (mStartListener != null) {
+                mStartListener.onStarted(cameraSource);
+            }
+        }
+
+        @Override
+        public void onStartFailed(Exception e) {
+            if (e instanceof SecurityException) {
+                Log.e(TAG, "Do not have permission to start the camera", e);
+            } else {
+                Log.e(TAG, "Could not start camera source.", e);
+            }
+            if (mStartListener != null) {
+                mStartListener.onStartFailed(e);
+            }
+        }
+
+        @Override
+        public void onFirstFrame(long coldStartMillis) {
+            if (mStartListener != null) {
+                mStartListener.onFirstFrame(coldStartMillis);
+            }
         }
     }
 
@@ -114,8 +163,6 @@ public class CameraSourcePreview extends ViewGroup {
                 startIfReady();
             } catch (SecurityException se) {
                 Log.e(TAG, "Do not have permission to start the camera", se);
-            } catch (IOException e) {
-                Log.e(TAG, "Could not start camera source.", e);
             }
         }
 
@@ -181,11 +228,7 @@ public class CameraSourcePreview extends ViewGroup {
                     childWidth - childXOffset, childHeight - childYOffset);
         }
 
-        try {
-            startIfReady();
-        } catch (IOException e) {
-            Log.e(TAG, "Could not start camera source.", e);
-        }
+        startIfReady();
     }
 
     private boolean isPortraitMode() {
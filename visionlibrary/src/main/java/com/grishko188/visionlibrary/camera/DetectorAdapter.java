@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.camera;
+
+import android.graphics.ImageFormat;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.grishko188.visionlibrary.core.FrameData;
+import com.grishko188.visionlibrary.core.FrameDetector;
+import com.grishko188.visionlibrary.core.ResultScaler;
+import com.grishko188.visionlibrary.core.ResultSink;
+
+/**
+ * Adapts a Play Services {@link Detector} and its {@link Detector.Processor} to the
+ * {@link com.grishko188.visionlibrary.core.FramePipeline}.
+ * <p/>
+ * With a processor, {@link Detector#detect(Frame)} runs on the pipeline's workers and the ordered
+ * results are handed to the processor, which therefore must not also be set on the detector.
+ * Without one, frames are passed to {@link Detector#receiveFrame(Frame)}, which detects and
+ * delivers them to the processor set on the detector itself, and no result is returned to the
+ * pipeline.  The processor is wrapped by a {@link ProcessorSink}.
+ */
+class DetectorAdapter<T> implements FrameDetector<Detector.Detections<T>>,
+        ResultScaler<Detector.Detections<T>> {
+
+    /**
+     * Items smaller than this in the coarse frame, in pixels, make the coarse pass inconclusive.
+     */
+    private static final int MIN_COARSE_ITEM_SIZE = 24;
+
+    private final Detector<T> mDetector;
+    private final Detector.Processor<T> mProcessor;
+    private CameraSource.PyramidAdapter<T> mPyramidAdapter;
+
+    DetectorAdapter(Detector<T> detector, Detector.Processor<T> processor) {
+        mDetector = detector;
+        mProcessor = processor;
+    }
+
+    /**
+     * Sets the adapter used to judge coarse items and map them back to full resolution.
+     */
+    void setPyramidAdapter(CameraSource.PyramidAdapter<T> adapter) {
+        mPyramidAdapter = adapter;
+    }
+
+    @Override
+    public Detector.Detections<T> detect(FrameData data) {
+        Frame frame = new Frame.Builder()
+                .setImageData(data.getData(), data.getWidth(), data.getHeight(), ImageFormat.NV21)
+                .setId(data.getId())
+                .setTimestampMillis(data.getTimestampMillis())
+                .setRotation(data.getRotation())
+                .build();
+        if (mProcessor == null) {
+            mDetector.receiveFrame(frame);
+            return null;
+        }
+        SparseArray<T> items = mDetector.detect(frame);
+        return new Detector.Detections<>(items, frame.getMetadata(), mDetector.isOperational());
+    }
+
+    @Override
+    public int getItemCount(Detector.Detections<T> result) {
+        return result.getDetectedItems().size();
+    }
+
+    /**
+     * A coarse pass is trusted when it found items, all of which are comfortably above the size
+     * at which decoding becomes unreliable.
+     */
+    @Override
+    public boolean isConclusive(Detector.Detections<T> result) {
+        SparseArray<T> items = result.getDetectedItems();
+        if (items.size() == 0) {
+            return false;
+        }
+        for (int i = 0; i < items.size(); ++i) {
+            if (mPyramidAdapter.getSize(items.valueAt(i)) < MIN_COARSE_ITEM_SIZE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void scale(Detector.Detections<T> result, int factor) {
+        SparseArray<T> items = result.getDetectedItems();
+        for (int i = 0; i < items.size(); ++i) {
+            mPyramidAdapter.scale(items.valueAt(i), factor);
+        }
+    }
+
+    @Override
+    public void release() {
+        mDetector.release();
+    }
+
+    /**
+     * Hands the ordered detection results of the pipeline to a processor.
+     */
+    static class ProcessorSink<T> implements ResultSink<Detector.Detections<T>> {
+        private final Detector.Processor<T> mProcessor;
+
+        ProcessorSink(Detector.Processor<T> processor) {
+            mProcessor = processor;
+        }
+
+        @Override
+        public void onResult(Detector.Detections<T> result) {
+            mProcessor.receiveDetections(result);
+        }
+
+        @Override
+        public void release() {
+            mProcessor.release();
+        }
+    }
+}
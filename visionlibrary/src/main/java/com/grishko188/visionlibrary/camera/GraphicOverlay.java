@@ -17,13 +17,20 @@ package com.grishko188.visionlibrary.camera;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 
-import java.util.HashSet;
+import com.grishko188.visionlibrary.core.OverlayTransform;
+import com.grishko188.visionlibrary.core.SnapshotSet;
+import com.grishko188.visionlibrary.core.SpatialGrid;
+
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A view which renders a series of custom graphics to be overlayed on top of an associated preview
@@ -41,17 +48,66 @@ import java.util.Vector;
  * supplied value from the preview scale to the view scale.</li>
  * <li>{@link Graphic#translateX(float)} and {@link Graphic#translateY(float)} adjust the coordinate
  * from the preview's coordinate system to the view coordinate system.</li>
+ * <li>{@link Graphic#mapRect(RectF)} maps a whole rectangle at once, with a matrix precomputed
+ * whenever the camera info, frame offset or view size change.</li>
  * </ol>
+ * <p>
+ * Graphics are kept in a copy-on-write {@link SnapshotSet}, so drawing never waits for the
+ * detection threads adding and removing graphics, and reading the graphics never copies them.
+ * <p>
+ * Redraws are scheduled with the {@link Choreographer}: any number of changes between two frames
+ * cause a single redraw on the next vsync, optionally capped to a lower frame rate with
+ * {@link #setMaxFrameRate(float)}.  Graphics which report their bounds through
+ * {@link Graphic#computeBounds(RectF)} only invalidate the union of where they were last drawn
+ * and where they will be drawn next.
+ * <p>
+ * Graphics which report their position through {@link Graphic#getFrameBounds(RectF)} are kept in
+ * a {@link SpatialGrid}, updated as they are added, removed and changed, so that
+ * {@link #findGraphicAt(float, float)} and {@link #findNearestGraphic(float, float)} only look at
+ * the graphics around the queried point.
  */
 public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
 
     private final Object mLock = new Object();
-    private int mPreviewWidth;
-    private float mWidthScaleFactor = 1.0f;
-    private int mPreviewHeight;
-    private float mHeightScaleFactor = 1.0f;
-    private int mFacing = CameraSource.CAMERA_FACING_BACK;
-    private Set<T> mGraphics = new HashSet<>();
+    private final OverlayTransform mTransform = new OverlayTransform();
+    private final Matrix mMatrix = new Matrix();
+    private boolean mMatrixValid;
+    private int mViewWidth;
+    private int mViewHeight;
+
+    /**
+     * Tolerance for vsync jitter when capping the frame rate.
+     */
+    private static final long FRAME_TIME_TOLERANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private final Choreographer mChoreographer;
+    private final Object mDirtyLock = new Object();
+    private List<Graphic> mDirtyGraphics = new ArrayList<>();
+    private List<Graphic> mDrainedGraphics = new ArrayList<>();
+    private boolean mFullRedraw;
+    private boolean mFrameScheduled;
+    private volatile long mMinFrameIntervalNanos;
+    private long mLastRedrawNanos;
+    private final RectF mDirtyRegion = new RectF();
+    private final RectF mBounds = new RectF();
+    private final Rect mInvalidRect = new Rect();
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onFrame(frameTimeNanos);
+        }
+    };
+    private final SnapshotSet<T> mGraphics = new SnapshotSet<>();
+
+    /**
+     * Cell size of the index, in frame pixels.  Around the size of a barcode in a wide shot.
+     */
+    private static final float INDEX_CELL_SIZE = 64;
+
+    // Changes of the graphics which affect the index are made holding its lock
+    private final SpatialGrid<Graphic> mIndex = new SpatialGrid<>(INDEX_CELL_SIZE);
+    private final RectF mIndexBounds = new RectF();
     private boolean mDrawText, mDrawRect;
     private Integer[] mColors;
 
@@ -64,6 +120,16 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
 
         private GraphicOverlay mOverlay;
 
+        // Guarded by the overlay's dirty lock
+        private boolean mDirty;
+
+        // Whether the graphic is in the overlay; written holding the overlay's index lock
+        private volatile boolean mAdded;
+
+        // Accessed on the UI thread only
+        private final RectF mDrawnBounds = new RectF();
+        private boolean mHasDrawnBounds;
+
         public Graphic(GraphicOverlay overlay) {
             mOverlay = overlay;
         }
@@ -87,43 +153,94 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
          * scale.
          */
         public float scaleX(float horizontal) {
-            return horizontal * mOverlay.mWidthScaleFactor;
+            return mOverlay.mTransform.scaleX(horizontal);
         }
 
         /**
          * Adjusts a vertical value of the supplied value from the preview scale to the view scale.
          */
         public float scaleY(float vertical) {
-            return vertical * mOverlay.mHeightScaleFactor;
+            return mOverlay.mTransform.scaleY(vertical);
         }
 
         /**
-         * Adjusts the x coordinate from the preview's coordinate system to the view coordinate
-         * system.
+         * Adjusts the x coordinate from the detected frame's coordinate system to the view
+         * coordinate system.  Accounts for the frame offset when only a region of the preview is
+         * scanned.
          */
         public float translateX(float x) {
-            if (mOverlay.mFacing == CameraSource.CAMERA_FACING_FRONT) {
-                return mOverlay.getWidth() - scaleX(x);
-            } else {
-                return scaleX(x);
-            }
+            return mOverlay.mTransform.translateX(x);
         }
 
         /**
-         * Adjusts the y coordinate from the preview's coordinate system to the view coordinate
-         * system.
+         * Adjusts the y coordinate from the detected frame's coordinate system to the view
+         * coordinate system.  Accounts for the frame offset when only a region of the preview is
+         * scanned.
          */
         public float translateY(float y) {
-            return scaleY(y);
+            return mOverlay.mTransform.translateY(y);
+        }
+
+        /**
+         * Maps a rectangle in place from the detected frame's coordinate system to the view
+         * coordinate system, the same as {@link #translateX(float)} and
+         * {@link #translateY(float)} of its corners.  The result is sorted, also when mirrored.
+         * Call from {@link #draw(Canvas)} only.
+         */
+        public void mapRect(RectF rect) {
+            mOverlay.mMatrix.mapRect(rect);
+        }
+
+        /**
+         * Computes the area of the view which {@link #draw(Canvas)} would paint now, in view
+         * coordinates.  Called on the UI thread.  The default implementation returns false, which
+         * makes every change of the graphic redraw the whole overlay.
+         *
+         * @param bounds receives the bounds
+         * @return false if the bounds are unknown
+         */
+        public boolean computeBounds(RectF bounds) {
+            return false;
+        }
+
+        /**
+         * Computes the bounding box of the graphic in the detected frame's coordinate system, by
+         * which the overlay finds it for {@link GraphicOverlay#findGraphicAt(float, float)}.
+         * Called on the thread adding or changing the graphic.  The default implementation returns
+         * false, which leaves the graphic out of these lookups.
+         *
+         * @param bounds receives the bounds
+         * @return false if the graphic has no position
+         */
+        public boolean getFrameBounds(RectF bounds) {
+            return false;
         }
 
+        /**
+         * Schedules a redraw of the graphic on the next frame, and updates its position in the
+         * overlay's index.  Can be called from any thread.
+         */
         public void postInvalidate() {
-            mOverlay.postInvalidate();
+            mOverlay.onGraphicChanged(this);
         }
     }
 
     public GraphicOverlay(Context context, AttributeSet attrs) {
         super(context, attrs);
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Caps the rate at which the overlay is redrawn, independently of the camera frame rate.
+     *
+     * @param fps the maximum number of redraws per second, or 0 to redraw on every vsync with
+     *            changes, which is the default
+     */
+    public void setMaxFrameRate(float fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("Invalid frame rate: " + fps);
+        }
+        mMinFrameIntervalNanos = fps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / fps) : 0;
     }
 
     public boolean isDrawText() {
@@ -154,55 +271,108 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
      * Removes all graphics from the overlay.
      */
     public void clear() {
-        synchronized (mLock) {
+        synchronized (mIndex) {
+            List<T> graphics = mGraphics.snapshot();
+            for (int i = 0; i < graphics.size(); i++) {
+                graphics.get(i).mAdded = false;
+            }
             mGraphics.clear();
+            mIndex.clear();
         }
-        postInvalidate();
+        scheduleRedraw(null);
     }
 
     /**
      * Adds a graphic to the overlay.
      */
     public void add(T graphic) {
-        synchronized (mLock) {
-            mGraphics.add(graphic);
+        synchronized (mIndex) {
+            if (!mGraphics.add(graphic))
+                return;
+            graphic.mAdded = true;
+            updateIndex(graphic);
         }
-        postInvalidate();
+        scheduleRedraw(graphic);
     }
 
     /**
      * Removes a graphic from the overlay.
      */
     public void remove(T graphic) {
-        synchronized (mLock) {
-            mGraphics.remove(graphic);
+        synchronized (mIndex) {
+            if (!mGraphics.remove(graphic))
+                return;
+            graphic.mAdded = false;
+            mIndex.remove(graphic);
         }
-        postInvalidate();
+        scheduleRedraw(graphic);
     }
 
     /**
-     * Returns a copy (as a list) of the set of all active graphics.
+     * Returns a snapshot of all active graphics.  The list is read-only, and not affected by later
+     * changes of the overlay.
      *
      * @return list of all active graphics.
      */
     public List<T> getGraphics() {
-        synchronized (mLock) {
-            return new Vector(mGraphics);
-        }
+        return mGraphics.snapshot();
+    }
+
+    /**
+     * Finds the graphic whose frame bounds contain a point, or of several the one whose centre is
+     * closest to it.
+     *
+     * @param x the x coordinate in the detected frame's coordinate system, see
+     *          {@link #toFrameX(float)}
+     * @param y the y coordinate in the detected frame's coordinate system
+     * @return the graphic, or null if none contains the point
+     */
+    @SuppressWarnings("unchecked")
+    public T findGraphicAt(float x, float y) {
+        return (T) mIndex.findAt(x, y);
+    }
+
+    /**
+     * Finds the graphic whose frame bounds have their centre closest to a point.
+     *
+     * @param x the x coordinate in the detected frame's coordinate system, see
+     *          {@link #toFrameX(float)}
+     * @param y the y coordinate in the detected frame's coordinate system
+     * @return the graphic, or null if no graphic has a position
+     */
+    @SuppressWarnings("unchecked")
+    public T findNearestGraphic(float x, float y) {
+        return (T) mIndex.findNearest(x, y);
     }
 
     /**
      * Returns the horizontal scale factor.
      */
     public float getWidthScaleFactor() {
-        return mWidthScaleFactor;
+        return mTransform.getWidthScaleFactor();
     }
 
     /**
      * Returns the vertical scale factor.
      */
     public float getHeightScaleFactor() {
-        return mHeightScaleFactor;
+        return mTransform.getHeightScaleFactor();
+    }
+
+    /**
+     * Maps an x coordinate of this view back to the detected frame's coordinate system, the
+     * inverse of {@link Graphic#translateX(float)}.
+     */
+    public float toFrameX(float x) {
+        return mTransform.toFrameX(x);
+    }
+
+    /**
+     * Maps a y coordinate of this view back to the detected frame's coordinate system, the
+     * inverse of {@link Graphic#translateY(float)}.
+     */
+    public float toFrameY(float y) {
+        return mTransform.toFrameY(y);
     }
 
     /**
@@ -211,11 +381,38 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
      */
     public void setCameraInfo(int previewWidth, int previewHeight, int facing) {
         synchronized (mLock) {
-            mPreviewWidth = previewWidth;
-            mPreviewHeight = previewHeight;
-            mFacing = facing;
+            mTransform.setPreview(previewWidth, previewHeight,
+                    facing == CameraSource.CAMERA_FACING_FRONT);
+            mMatrixValid = false;
         }
-        postInvalidate();
+        scheduleRedraw(null);
+    }
+
+    /**
+     * Sets the position of the detected frame within the preview, in preview pixels.  This is
+     * non-zero when detection only runs on a region of the preview, see
+     * {@link CameraSource#setScanRegion(android.graphics.RectF)}.
+     */
+    public void setFrameOffset(int offsetX, int offsetY) {
+        synchronized (mLock) {
+            mTransform.setFrameOffset(offsetX, offsetY);
+            mMatrixValid = false;
+        }
+        scheduleRedraw(null);
+    }
+
+    /**
+     * Returns the horizontal position of the detected frame within the preview.
+     */
+    public int getFrameOffsetX() {
+        return mTransform.getFrameOffsetX();
+    }
+
+    /**
+     * Returns the vertical position of the detected frame within the preview.
+     */
+    public int getFrameOffsetY() {
+        return mTransform.getFrameOffsetY();
     }
 
     /**
@@ -225,15 +422,127 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
+        List<T> graphics = mGraphics.snapshot();
         synchronized (mLock) {
-            if ((mPreviewWidth != 0) && (mPreviewHeight != 0)) {
-                mWidthScaleFactor = (float) canvas.getWidth() / (float) mPreviewWidth;
-                mHeightScaleFactor = (float) canvas.getHeight() / (float) mPreviewHeight;
+            if (!mMatrixValid || canvas.getWidth() != mViewWidth || canvas.getHeight() != mViewHeight) {
+                mViewWidth = canvas.getWidth();
+                mViewHeight = canvas.getHeight();
+                mTransform.setViewSize(mViewWidth, mViewHeight);
+                updateMatrix();
             }
 
-            for (Graphic graphic : mGraphics) {
+            for (int i = 0; i < graphics.size(); i++) {
+                Graphic graphic = graphics.get(i);
                 graphic.draw(canvas);
+                graphic.mHasDrawnBounds = graphic.computeBounds(graphic.mDrawnBounds);
             }
         }
     }
+
+    /**
+     * Recomputes the matrix of {@link Graphic#mapRect(RectF)} from the transform.
+     */
+    private void updateMatrix() {
+        mMatrix.setTranslate(mTransform.getFrameOffsetX(), mTransform.getFrameOffsetY());
+        mMatrix.postScale(mTransform.getWidthScaleFactor(), mTransform.getHeightScaleFactor());
+        if (mTransform.isMirrored()) {
+            mMatrix.postScale(-1, 1);
+            mMatrix.postTranslate(mTransform.getViewWidth(), 0);
+        }
+        mMatrixValid = true;
+    }
+
+    /**
+     * Re-indexes a graphic which changed, unless it has been removed, and schedules its redraw.
+     */
+    private void onGraphicChanged(Graphic graphic) {
+        synchronized (mIndex) {
+            if (graphic.mAdded)
+                updateIndex(graphic);
+        }
+        scheduleRedraw(graphic);
+    }
+
+    /**
+     * Updates the position of a graphic in the index.  Call holding the index lock.
+     */
+    private void updateIndex(Graphic graphic) {
+        RectF bounds = mIndexBounds;
+        if (graphic.getFrameBounds(bounds)) {
+            mIndex.put(graphic, bounds.left, bounds.top, bounds.right, bounds.bottom);
+        } else {
+            mIndex.remove(graphic);
+        }
+    }
+
+    /**
+     * Marks a graphic, or with null the whole overlay, as changed, and schedules a redraw on the
+     * next frame unless one is scheduled already.
+     */
+    private void scheduleRedraw(Graphic graphic) {
+        synchronized (mDirtyLock) {
+            if (graphic == null) {
+                mFullRedraw = true;
+            } else if (!graphic.mDirty) {
+                graphic.mDirty = true;
+                mDirtyGraphics.add(graphic);
+            }
+            if (!mFrameScheduled) {
+                mFrameScheduled = true;
+                mChoreographer.postFrameCallback(mFrameCallback);
+            }
+        }
+    }
+
+    /**
+     * Invalidates whatever changed since the previous frame, or waits for a later frame when the
+     * frame rate is capped.  Runs on the UI thread.
+     */
+    private void onFrame(long frameTimeNanos) {
+        long interval = mMinFrameIntervalNanos;
+        if (interval > 0 && frameTimeNanos - mLastRedrawNanos < interval - FRAME_TIME_TOLERANCE_NANOS) {
+            mChoreographer.postFrameCallback(mFrameCallback);
+            return;
+        }
+        mLastRedrawNanos = frameTimeNanos;
+
+        List<Graphic> dirty;
+        boolean full;
+        synchronized (mDirtyLock) {
+            dirty = mDirtyGraphics;
+            mDirtyGraphics = mDrainedGraphics;
+            mDrainedGraphics = dirty;
+            full = mFullRedraw;
+            mFullRedraw = false;
+            mFrameScheduled = false;
+            for (int i = 0; i < dirty.size(); i++) {
+                dirty.get(i).mDirty = false;
+            }
+        }
+
+        synchronized (mLock) {
+            // Bounds can't be mapped before the first draw sets up the matrix
+            full |= !mMatrixValid;
+        }
+        mDirtyRegion.setEmpty();
+        for (int i = 0; i < dirty.size() && !full; i++) {
+            Graphic graphic = dirty.get(i);
+            if (graphic.mHasDrawnBounds)
+                mDirtyRegion.union(graphic.mDrawnBounds);
+            if (graphic.mAdded) {
+                synchronized (mLock) {
+                    full = !graphic.computeBounds(mBounds);
+                }
+                mDirtyRegion.union(mBounds);
+            }
+        }
+        dirty.clear();
+
+        if (full) {
+            invalidate();
+        } else if (!mDirtyRegion.isEmpty()) {
+            mDirtyRegion.roundOut(mInvalidRect);
+            invalidate(mInvalidRect);
+        }
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.grishko188.visionlibrary.camera;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Shadow of the parameters of an open camera1 camera, so that changing a setting neither reads the
+ * parameters back from the camera nor writes them to it right away.
+ * <p/>
+ * {@link Camera#getParameters()} and {@link Camera#setParameters(Camera.Parameters)} round-trip
+ * the whole flattened parameter string through the driver.  Instead, settings are changed on the
+ * cached parameters, and the changes are written by a task on the camera thread, at most once per
+ * preview frame interval.  A burst of changes, such as the zoom steps of a pinch or toggling the
+ * torch, is thus coalesced into a single write.
+ */
+@SuppressWarnings("deprecation")
+final class ParameterShadow {
+    private static final String TAG = "ParameterShadow";
+
+    private final Camera mCamera;
+    private final Handler mHandler;
+    private final long mMinWriteIntervalMillis;
+
+    // Guarded by this
+    private Camera.Parameters mParameters;
+    private boolean mDirty;
+    private boolean mWriteScheduled;
+    private boolean mClosed;
+    private long mLastWriteMillis;
+
+    /**
+     * @param camera                 the open camera
+     * @param parameters             the parameters last written to the camera
+     * @param handler                handler of the camera thread, on which the changes are written
+     * @param minWriteIntervalMillis the minimum time between two writes, e.g. the frame interval
+     */
+    ParameterShadow(Camera camera, Camera.Parameters parameters, Handler handler,
+                    long minWriteIntervalMillis) {
+        mCamera = camera;
+        mParameters = parameters;
+        mHandler = handler;
+        mMinWriteIntervalMillis = minWriteIntervalMillis;
+    }
+
+    synchronized int getZoom() {
+        return mParameters.getZoom();
+    }
+
+    synchronized void setZoom(int zoom) {
+        if (zoom != mParameters.getZoom()) {
+            mParameters.setZoom(zoom);
+            onChanged();
+        }
+    }
+
+    synchronized void setFocusMode(String mode) {
+        if (!mode.equals(mParameters.getFocusMode())) {
+            mParameters.setFocusMode(mode);
+            onChanged();
+        }
+    }
+
+    synchronized void setFlashMode(String mode) {
+        if (!mode.equals(mParameters.getFlashMode())) {
+            mParameters.setFlashMode(mode);
+            onChanged();
+        }
+    }
+
+    /**
+     * Writes the pending changes right away on the calling thread, e.g. before taking a picture
+     * which depends on them.
+     */
+    synchronized void flush() {
+        if (!mDirty || mClosed) {
+            return;
+        }
+        mDirty = false;
+        mLastWriteMillis = SystemClock.uptimeMillis();
+        try {
+            mCamera.setParameters(mParameters);
+        } catch (RuntimeException e) {
+            // Drops the rejected changes, so that they are not written over and over again.
+            Log.e(TAG, "Failed to set camera parameters", e);
+            mParameters = mCamera.getParameters();
+        }
+    }
+
+    /**
+     * Drops the pending changes.  Must be called before the camera is released.
+     */
+    synchronized void close() {
+        mClosed = true;
+        mHandler.removeCallbacks(mWrite);
+    }
+
+    private void onChanged() {
+        mDirty = true;
+        if (mWriteScheduled || mClosed) {
+            return;
+        }
+        mWriteScheduled = true;
+        long delayMillis = mLastWriteMillis + mMinWriteIntervalMillis - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mWrite, Math.max(0, delayMillis));
+    }
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ParameterShadow.this) {
+                mWriteScheduled = false;
+                flush();
+            }
+        }
+    };
+}